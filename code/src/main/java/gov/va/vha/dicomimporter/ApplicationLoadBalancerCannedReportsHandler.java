@@ -4,41 +4,95 @@ import com.amazonaws.services.lambda.runtime.Context;
 import com.amazonaws.services.lambda.runtime.RequestHandler;
 import com.amazonaws.services.lambda.runtime.events.ApplicationLoadBalancerRequestEvent;
 import com.amazonaws.services.lambda.runtime.events.ApplicationLoadBalancerResponseEvent;
-import com.amazonaws.util.StringInputStream;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.ObjectWriter;
 import gov.va.vha.dicomimporter.exceptions.AbstractClientException;
 import gov.va.vha.dicomimporter.exceptions.AbstractServiceException;
-import gov.va.vha.dicomimporter.exceptions.BodyEncodingException;
+import gov.va.vha.dicomimporter.exceptions.InstanceValidationException;
 import gov.va.vha.dicomimporter.exceptions.WrappedServiceException;
 import gov.va.vha.dicomimporter.model.CanonicalDocument;
 import gov.va.vha.dicomimporter.model.CanonicalRequest;
 import gov.va.vha.dicomimporter.model.CanonicalResponse;
 import org.apache.http.HttpHeaders;
+import org.crac.Core;
+import org.crac.Resource;
 import org.apache.http.HttpStatus;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
 import java.text.ParseException;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Date;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
 
 public class ApplicationLoadBalancerCannedReportsHandler
-    implements RequestHandler<ApplicationLoadBalancerRequestEvent, ApplicationLoadBalancerResponseEvent>
+    implements RequestHandler<ApplicationLoadBalancerRequestEvent, ApplicationLoadBalancerResponseEvent>, Resource
 {
+    public static final String PROPERTY_RESPONSE_COMPRESSION_ENABLED = "response_compression_enabled";
+    public static final String PROPERTY_RESPONSE_COMPRESSION_MINIMUM_BYTES = "response_compression_minimum_bytes";
+    public static final String DEFAULT_RESPONSE_COMPRESSION_MINIMUM_BYTES = "1024";
+    public static final String CONTENT_ENCODING_GZIP = CannedReportsManager.CONTENT_ENCODING_GZIP;
+    public static final String CONTENT_ENCODING_DEFLATE = "deflate";
+
+    public static final String PROPERTY_PRIMING_ITERATIONS = "priming_iterations";
+    public static final String DEFAULT_PRIMING_ITERATIONS = "100";
+
     private final static String DEFAULT_BUCKET_NAME = "canned-reports";
-    private final CannedReportsManager cannedReportsManager;
+    /** the writer is created when a response is first formatted as JSON, a single document GET never needs it */
+    private static final class ObjectWriterHolder {
+        private static final ObjectWriter objectWriter = new ObjectMapper().writer().withDefaultPrettyPrinter();
+    }
+
+    private final Supplier<CannedReportsManager> cannedReportsManagerFactory;
+    // replaced after a restore from a snapshot
+    private volatile CannedReportsManager cannedReportsManager;
+    private final boolean responseCompressionEnabled;
+    private final int responseCompressionMinimumBytes;
+    private final int primingIterations;
     private final Logger logger = LoggerFactory.getLogger(ApplicationLoadBalancerCannedReportsHandler.class);
 
     /**
-     * The required (by Lambda framework) no-args constructor.
+     * The required (by Lambda framework) no-args constructor. The handler is registered for the checkpoint
+     * and restore notifications of snapshot-based startup (e.g. Lambda SnapStart).
      */
     public ApplicationLoadBalancerCannedReportsHandler() {
-        final String s3BucketName = ApplicationProperties.getSingleton().getProperty("S3_BUCKET_NAME", DEFAULT_BUCKET_NAME);
-        this.cannedReportsManager = new CannedReportsManager(s3BucketName);
+        this(() -> CannedReportsManager.fromApplicationProperties(
+                ApplicationProperties.getSingleton().getProperty("S3_BUCKET_NAME", DEFAULT_BUCKET_NAME)));
+        Core.getGlobalContext().register(this);
+    }
+
+    /**
+     * @param cannedReportsManagerFactory creates the manager, now and again after a restore from a snapshot
+     */
+    ApplicationLoadBalancerCannedReportsHandler(final Supplier<CannedReportsManager> cannedReportsManagerFactory) {
+        this.cannedReportsManagerFactory = cannedReportsManagerFactory;
+        this.cannedReportsManager = cannedReportsManagerFactory.get();
+        this.primingIterations = Integer.parseInt(ApplicationProperties.getSingleton()
+                .getProperty(PROPERTY_PRIMING_ITERATIONS, DEFAULT_PRIMING_ITERATIONS));
+        this.responseCompressionEnabled = Boolean.valueOf(
+                ApplicationProperties.getSingleton().getProperty(PROPERTY_RESPONSE_COMPRESSION_ENABLED, "true"));
+        this.responseCompressionMinimumBytes = Integer.parseInt(ApplicationProperties.getSingleton()
+                .getProperty(PROPERTY_RESPONSE_COMPRESSION_MINIMUM_BYTES, DEFAULT_RESPONSE_COMPRESSION_MINIMUM_BYTES));
     }
 
     /**
@@ -51,9 +105,17 @@ public class ApplicationLoadBalancerCannedReportsHandler
      *                                  NOTE: when the identifier is omitted the response is a JSON formatted body including
      *                                  the metadata for all items in the S3 bucket. The metadata includes the same data returned
      *                                  from a HEAD request (though in the body as a JSON document)
+     *                                  The catalog is paged, the "limit" query parameter sets the page size and the
+     *                                  "cursor" query parameter requests the page following the one that returned it
+     *                                  as "nextCursor" (also in the "report-next-cursor" header)
+     * GET /?ids={identifier}[/{revision}],... - a batch read, responds with a JSON formatted body including the listed
+     *                                  documents (with their bodies, Base64 encoded when not textual) in the order
+     *                                  requested, a document that could not be included has an "error" instead
      * PUT /{identifier} - replaces an existing S3 item with body of the request. The underlying S3 bucket has versioning enabled,
      *                   the new content will be saved as the latest revision. Specific headers will replace metadata values, otherwise
      *                   existing metadata will be copied to the new revision.
+     * PUT /{identifier}[/{revision}] without a body - copies the revision (the current one if omitted) to a new revision
+     *                   with the metadata headers given, i.e. updates the metadata or restores an earlier revision.
      * DELETE /{identifier}[/{revision}] - remove and existing S3 item identified by the identifier and revision, omission of the
      *                                     revision remove the most recent revision
      * HEAD [/identifier[/{revision}]] - returns the HTTP context including the following application defined headers:
@@ -64,17 +126,45 @@ public class ApplicationLoadBalancerCannedReportsHandler
      * The following HTTP headers are retained as S3 metadata:
      * "report-name" is stored as "x-amz-meta-report-name"
      * "report-description" is stored as "x-amz-meta-report-description"
-     * "revision-count" is not stored as metadata but is calculated as needed
+     * "revision-count" is stored as "x-amz-meta-revision-count" when a revision is written
      * Note that HTTP headers are treated as case-insensitive, internally they are converted to lower-case.
      *
+     * Conditional Requests:
+     * GET and HEAD of a single document return "ETag" and "Last-Modified" headers. When the request includes
+     * "If-None-Match" or "If-Modified-Since" and the client copy is current the response is 304 (Not Modified)
+     * with no body.
+     *
+     * Response Compression:
+     * The body of a GET (a textual document, the catalog or a batch) is compressed when the request "Accept-Encoding"
+     * allows gzip or deflate and the body is at least "response_compression_minimum_bytes" long. A compressed body
+     * is returned Base64 encoded (isBase64Encoded) with a "Content-Encoding" header.
+     * The "ETag" of a report whose GET may be compressed (stored compressed, or textual and long enough) is weak,
+     * whatever the request Accept-Encoding, so HEAD, GET and 304 responses carry the same validator.
+     * A report that is stored compressed is sent as stored to a client that accepts gzip, and inflated otherwise.
+     *
+     * Binary Content:
+     * A Base64 encoded request body (isBase64Encoded) is decoded and stored as raw bytes with the true content type.
+     * The body of a GET that is not textual is returned Base64 encoded (isBase64Encoded), which the ALB decodes.
+     *
+     * Large Documents:
+     * A GET of a single document larger than "presigned_redirect_threshold_bytes", or with the query parameter
+     * "redirect=true", is answered 303 (See Other) with a "Location" header holding a presigned S3 URL of the
+     * revision, valid for "presigned_url_expiration_seconds". This avoids the ALB 1MB response body limit.
+     * A POST or PUT with the query parameter "upload=presigned" and no body is answered 202 (Accepted) with a
+     * "Location" header holding a presigned S3 PUT URL, the client uploads the body there (with the same
+     * "Content-Type") and then sends a PUT with "upload=complete" and no body to register the revision.
+     * Where presigned URLs cannot be used, "upload=session" opens an upload session (its identifier is returned in the
+     * "report-upload-session" header), each chunk is a PUT with "upload=part", "session" and "part" (the chunk
+     * number) and the body, and "upload=commit" with "session" stores the chunks as a new revision.
+     *
      * Revision Specification Format:
-     * The revision must be in the following format:
-     * "[-][1-9][0-9]*"
+     * The revision must be in one of the following formats:
+     * "[-][0-9]+" or "r[1-9][0-9]*"
      * examples:
-     * "0" means retrieve the oldest available revision
-     * "2" means retrieve the third-oldest revision
+     * "0" (or "-0") means retrieve the current revision
+     * "6554321" means retrieve the version with that version number
      * "-1" means retrieve the most recent revision before the current revision
-     * "-0" means retrieve the most recent revision
+     * "r1" means retrieve the oldest available revision, "r3" the third-oldest
      *
      * @param event
      * @param context
@@ -102,6 +192,91 @@ public class ApplicationLoadBalancerCannedReportsHandler
         }
     }
 
+    /**
+     * Before a snapshot is taken, prime the request path so that the classes are loaded and the hot methods are
+     * compiled in the snapshot rather than in the first requests after each restore.
+     */
+    @Override
+    public void beforeCheckpoint(final org.crac.Context<? extends Resource> context) {
+        logger.info("beforeCheckpoint(), primed with {} requests", prime());
+    }
+
+    /**
+     * After a restore from a snapshot, replace the manager. The S3 client (its pooled connections and credentials)
+     * and the random source of new report identifiers must not be those of every other container restored from
+     * the same snapshot. The S3 client of the replaced manager is shut down.
+     */
+    @Override
+    public void afterRestore(final org.crac.Context<? extends Resource> context) {
+        final CannedReportsManager restoredManager = this.cannedReportsManager;
+        this.cannedReportsManager = cannedReportsManagerFactory.get();
+        logger.info("afterRestore(), created a new CannedReportsManager");
+        try {
+            restoredManager.shutdown();
+        } catch (RuntimeException rX) {
+            logger.warn("afterRestore(), unable to shut down the replaced CannedReportsManager", rX);
+        }
+    }
+
+    /**
+     * Run requests of each kind (POST, PUT with and without a body, HEAD, GET of a report and of the catalog)
+     * through parse, the manager and createResponse, "priming_iterations" times. The manager is backed by an
+     * InMemoryReportStore, nothing is read from or written to S3. A failed request is logged, priming never fails.
+     *
+     * @return the number of requests that succeeded
+     */
+    int prime() {
+        final ApplicationLoadBalancerCannedReportsHandler primingHandler = new ApplicationLoadBalancerCannedReportsHandler(
+                () -> new CannedReportsManager(new InMemoryReportStore()));
+        int succeeded = 0;
+        for (int iteration = 0; iteration < primingIterations; ++iteration) {
+            final ApplicationLoadBalancerResponseEvent posted = primingHandler.prime(
+                    "POST", "/", "PRIMING", "text/plain", "FINDINGS: none " + iteration);
+            final String identifier = posted == null || posted.getHeaders() == null
+                    ? null : posted.getHeaders().get(CannedReportsManager.HTTP_HEADER_REPORT_IDENTIFIER);
+            if (identifier == null)
+                continue;
+            ++succeeded;
+            final String path = "/" + identifier;
+            succeeded += primingHandler.prime("PUT", path, "PRIMING", "text/plain", "FINDINGS: nodule " + iteration) == null ? 0 : 1;
+            succeeded += primingHandler.prime("PUT", path, "PRIMING RENAMED", null, null) == null ? 0 : 1;
+            succeeded += primingHandler.prime("HEAD", path, null, null, null) == null ? 0 : 1;
+            succeeded += primingHandler.prime("GET", path, null, null, null) == null ? 0 : 1;
+            succeeded += primingHandler.prime("GET", "/", null, null, null) == null ? 0 : 1;
+        }
+        return succeeded;
+    }
+
+    /**
+     * @return the response, or null if the request failed
+     */
+    private ApplicationLoadBalancerResponseEvent prime(
+            final String method, final String path, final String name, final String contentType, final String body) {
+        ApplicationLoadBalancerRequestEvent event = new ApplicationLoadBalancerRequestEvent();
+        event.setHttpMethod(method);
+        event.setPath(path);
+        final Map<String, String> headers = new HashMap<>();
+        if (name != null)
+            headers.put(CannedReportsManager.HTTP_HEADER_REPORT_NAME, name);
+        if (contentType != null)
+            headers.put(HttpHeaders.CONTENT_TYPE, contentType);
+        headers.put(HttpHeaders.ACCEPT_ENCODING, CONTENT_ENCODING_GZIP);
+        event.setHeaders(headers);
+        event.setBody(body);
+        event.setIsBase64Encoded(false);
+        try {
+            ApplicationLoadBalancerResponseEvent response = handleRequest(event, null);
+            if (response.getStatusCode() < HttpStatus.SC_OK || response.getStatusCode() >= HttpStatus.SC_MULTIPLE_CHOICES) {
+                logger.warn("prime({}, {}), status {}", method, path, response.getStatusCode());
+                return null;
+            }
+            return response;
+        } catch (RuntimeException rX) {
+            logger.warn("prime({}, {}), failed", method, path, rX);
+            return null;
+        }
+    }
+
     CanonicalRequest parse(ApplicationLoadBalancerRequestEvent event)
             throws AbstractClientException {
         // the full path may include:
@@ -128,25 +303,245 @@ public class ApplicationLoadBalancerCannedReportsHandler
         if (pathElements.length > 1)
             builder.withRevisionSpecification(pathElements[1]);
 
-        // grab all the headers we may be interested in
-        final Map<String, String> headers = event.getHeaders();
+        // grab all the headers we may be interested in, header names are case-insensitive
+        final Map<String, String> headers = event.getHeaders() == null ? null : new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
         if (headers != null) {
+            headers.putAll(event.getHeaders());
             builder.withName(headers.get(CannedReportsManager.HTTP_HEADER_REPORT_NAME));
             builder.withDescription(headers.get(CannedReportsManager.HTTP_HEADER_REPORT_DESCRIPTION));
             builder.withContentType(headers.get(HttpHeaders.CONTENT_TYPE));
             builder.withContentLength(headers.get(HttpHeaders.CONTENT_LENGTH) != null ? Integer.valueOf(headers.get(HttpHeaders.CONTENT_LENGTH)) : null);
             builder.withAuthorization(headers.get(HttpHeaders.AUTHORIZATION));
+            builder.withIfNoneMatch(headers.get(HttpHeaders.IF_NONE_MATCH));
+            builder.withIfModifiedSince(parseHttpDate(headers.get(HttpHeaders.IF_MODIFIED_SINCE)));
+            builder.withAcceptEncoding(headers.get(HttpHeaders.ACCEPT_ENCODING));
         }
-        try {
-            builder.withBody(event.getBody() == null ? null : new StringInputStream(event.getBody()));
-        } catch (UnsupportedEncodingException e) {
-            throw new BodyEncodingException();
+        // the catalog paging parameters
+        final Map<String, String> queryStringParameters = event.getQueryStringParameters();
+        if (queryStringParameters != null) {
+            builder.withLimit(parseInteger(CannedReportsManager.QUERY_PARAMETER_LIMIT, queryStringParameters.get(CannedReportsManager.QUERY_PARAMETER_LIMIT)));
+            builder.withCursor(queryStringParameters.get(CannedReportsManager.QUERY_PARAMETER_CURSOR));
+            builder.withIdentifiers(parseIdentifiers(queryStringParameters.get(CannedReportsManager.QUERY_PARAMETER_IDS)));
+            builder.withRedirect(Boolean.parseBoolean(queryStringParameters.get(CannedReportsManager.QUERY_PARAMETER_REDIRECT)));
+            builder.withUpload(queryStringParameters.get(CannedReportsManager.QUERY_PARAMETER_UPLOAD));
+            builder.withUploadSession(parseUploadSession(queryStringParameters.get(CannedReportsManager.QUERY_PARAMETER_SESSION)));
+            builder.withUploadPart(parseInteger(CannedReportsManager.QUERY_PARAMETER_PART, queryStringParameters.get(CannedReportsManager.QUERY_PARAMETER_PART)));
+        }
+        // the body is encoded once, the stored content and its length are exactly these bytes,
+        // a Base64 encoded (binary) body is decoded as it is written and the Content-Length is that of the decoded content
+        // the ALB sends an empty body when the request has none (e.g. a PUT that only changes the metadata)
+        if (event.getBody() != null && !event.getBody().isEmpty()) {
+            final byte[] content = event.getBody().getBytes(StandardCharsets.UTF_8);
+            builder.withBody(new ByteArrayInputStream(content));
+            if (!event.getIsBase64Encoded())
+                builder.withContentLength(content.length);
         }
         builder.withBodyIsBase64Encoded(event.getIsBase64Encoded());
 
         return builder.build();
     }
 
+    private static Integer parseInteger(final String name, final String value) throws InstanceValidationException {
+        if (value == null || value.isEmpty())
+            return null;
+        try {
+            return Integer.valueOf(value);
+        } catch (NumberFormatException nfX) {
+            throw InstanceValidationException.builder()
+                    .withContext("ApplicationLoadBalancerRequestEvent")
+                    .withValidationFailure(name, "Must be an integer")
+                    .build();
+        }
+    }
+
+    /**
+     * The ALB passes query parameters without decoding them, a comma or a slash in the list may be percent encoded.
+     * @return the comma separated items of a batch request, null if the value is missing
+     */
+    static List<String> parseIdentifiers(final String value) throws InstanceValidationException {
+        if (value == null || value.isEmpty())
+            return null;
+        final String decoded;
+        try {
+            decoded = URLDecoder.decode(value, StandardCharsets.UTF_8.name());
+        } catch (UnsupportedEncodingException | IllegalArgumentException x) {
+            throw InstanceValidationException.builder()
+                    .withContext("ApplicationLoadBalancerRequestEvent")
+                    .withValidationFailure(CannedReportsManager.QUERY_PARAMETER_IDS, "Must be a comma separated list of identifiers")
+                    .build();
+        }
+        return Arrays.stream(decoded.split(","))
+                .map(String::trim)
+                .filter(item -> !item.isEmpty())
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * The ALB passes query parameters without decoding them, S3 upload identifiers may include reserved characters.
+     * @return the upload session identifier, null if the value is missing
+     */
+    static String parseUploadSession(final String value) throws InstanceValidationException {
+        if (value == null || value.isEmpty())
+            return null;
+        try {
+            return URLDecoder.decode(value, StandardCharsets.UTF_8.name());
+        } catch (UnsupportedEncodingException | IllegalArgumentException x) {
+            throw InstanceValidationException.builder()
+                    .withContext("ApplicationLoadBalancerRequestEvent")
+                    .withValidationFailure(CannedReportsManager.QUERY_PARAMETER_SESSION, "Must be a URL encoded upload session")
+                    .build();
+        }
+    }
+
+    /**
+     * @return the date or null if the value is missing or is not a valid HTTP date, an invalid
+     * If-Modified-Since is ignored (RFC 7232)
+     */
+    static Date parseHttpDate(final String value) {
+        if (value == null || value.isEmpty())
+            return null;
+        try {
+            return Date.from(ZonedDateTime.parse(value.trim(), DateTimeFormatter.RFC_1123_DATE_TIME).toInstant());
+        } catch (DateTimeParseException dtpX) {
+            return null;
+        }
+    }
+
+    static String formatHttpDate(final Date date) {
+        return DateTimeFormatter.RFC_1123_DATE_TIME.format(ZonedDateTime.ofInstant(date.toInstant(), ZoneOffset.UTC));
+    }
+
+    /**
+     * Add the validators of a document (ETag and Last-Modified) to the response headers, the ETag is weak
+     * whenever the representation depends on Accept-Encoding so that HEAD, GET and 304 agree.
+     */
+    private void addValidatorHeaders(final Map<String, String> headers, final CanonicalDocument document) {
+        addValidatorHeaders(headers, document, isEncodingDependent(document));
+    }
+
+    /**
+     * @return true when the body of a GET of the document may differ with the request Accept-Encoding, that is
+     * it is stored compressed or it is textual and long enough to be compressed
+     */
+    private boolean isEncodingDependent(final CanonicalDocument document) {
+        if (CONTENT_ENCODING_GZIP.equals(document.getContentEncoding()))
+            return true;
+        return responseCompressionEnabled
+                && CannedReportsManager.isTextualContentType(document.getContentType())
+                && document.getContentLength() != null
+                && document.getContentLength() >= responseCompressionMinimumBytes;
+    }
+
+    /**
+     * @param weak true when the body may not be byte for byte the stored content (i.e. it may be compressed)
+     */
+    private static void addValidatorHeaders(final Map<String, String> headers, final CanonicalDocument document, final boolean weak) {
+        if (document.getETag() != null)
+            headers.put(HttpHeaders.ETAG, (weak ? "W/" : "") + "\"" + document.getETag() + "\"");
+        if (document.getLastModified() != null)
+            headers.put(HttpHeaders.LAST_MODIFIED, formatHttpDate(document.getLastModified()));
+    }
+
+    /**
+     * Choose the content encoding of a response from the Accept-Encoding request header (RFC 7231), gzip
+     * is preferred over deflate when both are equally acceptable.
+     * @return "gzip", "deflate" or null if the response should not be compressed
+     */
+    static String negotiateContentEncoding(final String acceptEncoding) {
+        final double gzip = contentEncodingQuality(acceptEncoding, CONTENT_ENCODING_GZIP);
+        final double deflate = contentEncodingQuality(acceptEncoding, CONTENT_ENCODING_DEFLATE);
+        if (gzip > 0.0 && gzip >= deflate)
+            return CONTENT_ENCODING_GZIP;
+        if (deflate > 0.0)
+            return CONTENT_ENCODING_DEFLATE;
+        return null;
+    }
+
+    /**
+     * @param contentEncoding a content coding, e.g. "gzip"
+     * @return the quality value the Accept-Encoding request header gives the content coding, zero if it is not acceptable
+     */
+    static double contentEncodingQuality(final String acceptEncoding, final String contentEncoding) {
+        if (acceptEncoding == null || acceptEncoding.trim().isEmpty())
+            return 0.0;
+
+        Double quality = null;
+        Double wildcardQuality = null;
+        for (String element : acceptEncoding.split(",")) {
+            final String[] parameters = element.split(";");
+            String coding = parameters[0].trim().toLowerCase();
+            if ("x-gzip".equals(coding))
+                coding = CONTENT_ENCODING_GZIP;
+            double elementQuality = 1.0;
+            for (int index = 1; index < parameters.length; ++index) {
+                final String parameter = parameters[index].trim();
+                if (parameter.startsWith("q=")) {
+                    try {
+                        elementQuality = Double.parseDouble(parameter.substring(2).trim());
+                    } catch (NumberFormatException nfX) {
+                        elementQuality = 0.0;
+                    }
+                }
+            }
+            if (contentEncoding.equals(coding))
+                quality = elementQuality;
+            else if ("*".equals(coding))
+                wildcardQuality = elementQuality;
+        }
+        return quality != null ? quality : (wildcardQuality != null ? wildcardQuality : 0.0);
+    }
+
+    /**
+     * @param contentEncoding "gzip" or "deflate" (the zlib format, as HTTP defines it)
+     */
+    static byte[] compress(final byte[] content, final String contentEncoding) throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(content.length / 4 + 64);
+        try (OutputStream compressor = CONTENT_ENCODING_GZIP.equals(contentEncoding)
+                ? new GZIPOutputStream(compressed)
+                : new DeflaterOutputStream(compressed)) {
+            compressor.write(content);
+        }
+        return compressed.toByteArray();
+    }
+
+    /**
+     * Set the body of a response, compressed with the negotiated content encoding when that is worthwhile.
+     * A compressed body is binary and so is Base64 encoded in the ALB response.
+     *
+     * An uncompressed body is (UTF-8) text, which the ALB response requires.
+     *
+     * @param content the body, null for no body
+     * @param contentEncoding the negotiated content encoding, null to not compress
+     * @return true if the body was compressed
+     */
+    private boolean setResponseBody(
+            final ApplicationLoadBalancerResponseEvent response, final Map<String, String> headers,
+            final byte[] content, final String contentEncoding) throws IOException {
+        if (content != null && contentEncoding != null) {
+            if (content.length >= responseCompressionMinimumBytes) {
+                final byte[] compressed = compress(content, contentEncoding);
+                if (compressed.length < content.length) {
+                    setEncodedResponseBody(response, headers, compressed, contentEncoding);
+                    return true;
+                }
+            }
+        }
+        response.setBody(content == null ? null : new String(content, StandardCharsets.UTF_8));
+        return false;
+    }
+
+    /**
+     * Set the body of a response to content that is already encoded, e.g. a report stored compressed.
+     */
+    private static void setEncodedResponseBody(
+            final ApplicationLoadBalancerResponseEvent response, final Map<String, String> headers,
+            final byte[] encoded, final String contentEncoding) {
+        headers.put(HttpHeaders.CONTENT_ENCODING, contentEncoding);
+        headers.put(HttpHeaders.CONTENT_LENGTH, Integer.toString(encoded.length));
+        response.setIsBase64Encoded(true);
+        response.setBody(Base64.getEncoder().encodeToString(encoded));
+    }
+
     private ApplicationLoadBalancerResponseEvent createResponse(
             final CanonicalRequest canonicalRequest,
             final CanonicalResponse canonicalResponse) throws IOException {
@@ -160,6 +555,32 @@ public class ApplicationLoadBalancerCannedReportsHandler
         logger.info("createResponse(...), (partial) response is [{}]", response);
 
         Map<String, String> headers = new HashMap<>();
+        final String contentEncoding = responseCompressionEnabled
+                ? negotiateContentEncoding(canonicalRequest.getAcceptEncoding())
+                : null;
+        if (canonicalResponse.getResult() == CanonicalResponse.Result.NOT_MODIFIED) {
+            // a 304 has no body, only the validators of the current document
+            CanonicalDocument document = canonicalResponse.getReports().get(0);
+            headers.put(CannedReportsManager.HTTP_HEADER_REPORT_IDENTIFIER, document.getIdentifier());
+            addValidatorHeaders(headers, document);
+            response.setHeaders(headers);
+            logger.info("createResponse(...), returning response [{}]", response);
+            return response;
+        }
+        if (canonicalResponse.getResult() == CanonicalResponse.Result.SEE_OTHER) {
+            // a redirect to a presigned URL has no body, the URL expires so the response must not be cached
+            CanonicalDocument document = canonicalResponse.getReports().get(0);
+            headers.put(HttpHeaders.LOCATION, canonicalResponse.getLocation());
+            headers.put(HttpHeaders.CACHE_CONTROL, "no-store");
+            headers.put(CannedReportsManager.HTTP_HEADER_REPORT_IDENTIFIER, document.getIdentifier());
+            if (document.getRevision() != null)
+                headers.put(CannedReportsManager.HTTP_HEADER_REPORT_REVISION, document.getRevision().toString());
+            addValidatorHeaders(headers, document);
+            response.setHeaders(headers);
+            logger.info("createResponse(...), returning response [{}]", response);
+            return response;
+        }
+
         // the request method informs the format of the response
         switch (canonicalRequest.getMethod().toUpperCase()) {
             case "POST":
@@ -167,6 +588,13 @@ public class ApplicationLoadBalancerCannedReportsHandler
             case "DELETE":
             case "HEAD":
                 // POST, PUT, DELETE and HEAD can work on only one document and have no body
+                if (canonicalResponse.getReports().size() == 0) {
+                    // an error (e.g. 404 or 409) has no document, the status is that of the result
+                    if (canonicalRequest.getIdentifier() != null)
+                        headers.put(CannedReportsManager.HTTP_HEADER_REPORT_IDENTIFIER, canonicalRequest.getIdentifier());
+                    response.setHeaders(headers);
+                    break;
+                }
                 CanonicalDocument document = canonicalResponse.getReports().get(0);
                 logger.debug("Body-less response using document {}", document);
                 headers.put(CannedReportsManager.HTTP_HEADER_REPORT_NAME, document.getName());
@@ -174,6 +602,18 @@ public class ApplicationLoadBalancerCannedReportsHandler
                 headers.put(CannedReportsManager.HTTP_HEADER_REPORT_IDENTIFIER, document.getIdentifier());
                 if (document.getRevision() != null)
                     headers.put(CannedReportsManager.HTTP_HEADER_REPORT_REVISION, document.getRevision().toString());
+                addValidatorHeaders(headers, document);
+                // a HEAD describes the GET of the same document
+                if ("HEAD".equalsIgnoreCase(canonicalRequest.getMethod())
+                        && (responseCompressionEnabled || CONTENT_ENCODING_GZIP.equals(document.getContentEncoding())))
+                    headers.put(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+                // the presigned URL of a direct upload, it expires so the response must not be cached
+                if (canonicalResponse.getLocation() != null) {
+                    headers.put(HttpHeaders.LOCATION, canonicalResponse.getLocation());
+                    headers.put(HttpHeaders.CACHE_CONTROL, "no-store");
+                }
+                if (canonicalResponse.getUploadSession() != null)
+                    headers.put(CannedReportsManager.HTTP_HEADER_UPLOAD_SESSION, canonicalResponse.getUploadSession());
                 response.setHeaders(headers);
                 break;
             case "GET":
@@ -193,21 +633,40 @@ public class ApplicationLoadBalancerCannedReportsHandler
                             headers.put(CannedReportsManager.HTTP_HEADER_REPORT_REVISION, getDocument.getRevision().toString());
                         headers.put(HttpHeaders.CONTENT_TYPE, getDocument.getContentType());
                         headers.put(HttpHeaders.CONTENT_LENGTH, getDocument.getContentLength().toString());
+                        final boolean storedCompressed = CONTENT_ENCODING_GZIP.equals(getDocument.getContentEncoding());
+                        if (responseCompressionEnabled || storedCompressed)
+                            headers.put(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+                        if (storedCompressed && contentEncodingQuality(canonicalRequest.getAcceptEncoding(), CONTENT_ENCODING_GZIP) > 0.0) {
+                            // stored compressed, send it as it is
+                            setEncodedResponseBody(response, headers, getDocument.getEncodedBodyBytes(), CONTENT_ENCODING_GZIP);
+                        } else if (!CannedReportsManager.isTextualContentType(getDocument.getContentType())) {
+                            // binary content is stored as is, the ALB decodes a Base64 encoded response body
+                            final byte[] content = getDocument.getBodyBytes();
+                            response.setIsBase64Encoded(content != null);
+                            response.setBody(content == null ? null : Base64.getEncoder().encodeToString(content));
+                        } else {
+                            // inflated (if stored compressed) as it is read
+                            setResponseBody(response, headers, getDocument.getBodyBytes(), contentEncoding);
+                        }
+                        // the same validator as a HEAD, weak when the representation depends on Accept-Encoding
+                        addValidatorHeaders(headers, getDocument);
                         response.setHeaders(headers);
-                        response.setBody(getDocument.getBody());
                     }
                 } else {
                     // if there is more than one document then the response is formatted as a JSON document
-                    // for MVP, this implies that there is no document body in the documents within the CanonicalResponse
-                    // because the GET request to populate the dropdown (i.e. just need the identifier, name, and description)
-                    // Note that this will require encoding of the document body if those are to be included in the future
+                    // the catalog documents have no body (the dropdown just needs the identifier, name, and description),
+                    // the documents of a batch GET include the body as a String (Base64 encoded when not textual)
                     headers.put(HttpHeaders.CONTENT_TYPE, "application/json");
+                    if (canonicalResponse.getNextCursor() != null)
+                        headers.put(CannedReportsManager.HTTP_HEADER_NEXT_CURSOR, canonicalResponse.getNextCursor());
                     response.setHeaders(headers);
-                    ObjectWriter ow = new ObjectMapper().writer().withDefaultPrettyPrinter();
+                    ObjectWriter ow = ObjectWriterHolder.objectWriter;
                     try {
-                        final String json = ow.writeValueAsString(canonicalResponse);
-                        headers.put(HttpHeaders.CONTENT_LENGTH, Integer.toString(json.length()));
-                        response.setBody(json);
+                        final byte[] json = ow.writeValueAsBytes(canonicalResponse);
+                        headers.put(HttpHeaders.CONTENT_LENGTH, Integer.toString(json.length));
+                        if (responseCompressionEnabled)
+                            headers.put(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+                        setResponseBody(response, headers, json, contentEncoding);
                     } catch (JsonProcessingException jpX) {
                         response = createServerErrorResponse(new WrappedServiceException("Unable to serialize document descriptions", jpX));
                     }
@@ -0,0 +1,165 @@
+package gov.va.vha.dicomimporter;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.security.InvalidParameterException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Applies a (typically remote) fetch function to a list of items with a fixed number of fetches in flight.
+ * Results are returned in the order of the items. A failed fetch does not fail the whole batch, it is
+ * reported as an Outcome with an error, as is any fetch not complete when the deadline expires.
+ *
+ * The worker threads are created once and reused across invocations of a warm Lambda container, the
+ * CannedReportsManager instances of a container (e.g. one re-created after a restore) share one instance.
+ */
+public class BoundedParallelFetcher {
+    public static final String PROPERTY_CATALOG_FETCH_CONCURRENCY = "catalog_fetch_concurrency";
+    public static final String PROPERTY_CATALOG_FETCH_DEADLINE_MILLIS = "catalog_fetch_deadline_millis";
+    public static final String DEFAULT_CATALOG_FETCH_CONCURRENCY = "16";
+    public static final String DEFAULT_CATALOG_FETCH_DEADLINE_MILLIS = "20000";
+
+    private static final AtomicInteger threadCounter = new AtomicInteger();
+
+    private final int concurrency;
+    private final long deadlineMillis;
+    private final ExecutorService executorService;
+
+    private final Logger logger = LoggerFactory.getLogger(BoundedParallelFetcher.class);
+
+    /**
+     * @param concurrency the maximum number of fetches in flight
+     * @param deadlineMillis the maximum time for a batch of fetches
+     */
+    public BoundedParallelFetcher(final int concurrency, final long deadlineMillis) {
+        if (concurrency < 1)
+            throw new InvalidParameterException("'concurrency' must be greater than zero");
+        if (deadlineMillis < 1)
+            throw new InvalidParameterException("'deadlineMillis' must be greater than zero");
+        this.concurrency = concurrency;
+        this.deadlineMillis = deadlineMillis;
+        this.executorService = Executors.newFixedThreadPool(concurrency, runnable -> {
+            Thread thread = new Thread(runnable, "bounded-fetch-" + threadCounter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Create an instance configured from the application properties.
+     */
+    public static BoundedParallelFetcher fromApplicationProperties() {
+        return new BoundedParallelFetcher(
+                Integer.parseInt(ApplicationProperties.getSingleton()
+                        .getProperty(PROPERTY_CATALOG_FETCH_CONCURRENCY, DEFAULT_CATALOG_FETCH_CONCURRENCY)),
+                Long.parseLong(ApplicationProperties.getSingleton()
+                        .getProperty(PROPERTY_CATALOG_FETCH_DEADLINE_MILLIS, DEFAULT_CATALOG_FETCH_DEADLINE_MILLIS))
+        );
+    }
+
+    /**
+     * @return the instance configured from the application properties, shared by the whole container
+     * (its threads are never shut down, so an instance per manager would leak them)
+     */
+    public static BoundedParallelFetcher getShared() {
+        return SharedHolder.SHARED;
+    }
+
+    private static final class SharedHolder {
+        private static final BoundedParallelFetcher SHARED = fromApplicationProperties();
+    }
+
+    public int getConcurrency() {
+        return concurrency;
+    }
+
+    public long getDeadlineMillis() {
+        return deadlineMillis;
+    }
+
+    /**
+     * Fetch all the items, with at most 'concurrency' fetches in flight.
+     *
+     * @param items the items to fetch
+     * @param fetch the fetch function, an exception thrown from this is reported in the items Outcome
+     * @return the outcomes, in the same order as the items
+     */
+    public <T, R> List<Outcome<R>> fetchAll(final List<T> items, final Function<T, R> fetch) {
+        logger.debug("fetchAll({} items), concurrency {}, deadline {}ms", items.size(), concurrency, deadlineMillis);
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(deadlineMillis);
+
+        // the executor queues the submissions, so no more than 'concurrency' are running at any time
+        List<Future<R>> futures = new ArrayList<>(items.size());
+        for (T item : items)
+            futures.add(executorService.submit(() -> fetch.apply(item)));
+
+        List<Outcome<R>> outcomes = new ArrayList<>(items.size());
+        for (Future<R> future : futures) {
+            try {
+                long remaining = Math.max(0L, deadline - System.nanoTime());
+                outcomes.add(Outcome.success(future.get(remaining, TimeUnit.NANOSECONDS)));
+            } catch (TimeoutException | CancellationException tX) {
+                future.cancel(true);
+                outcomes.add(Outcome.failure("deadline exceeded"));
+            } catch (ExecutionException eX) {
+                Throwable cause = eX.getCause() == null ? eX : eX.getCause();
+                logger.warn("fetchAll(...), fetch failed", cause);
+                outcomes.add(Outcome.failure(cause.getClass().getSimpleName() + ": " + cause.getMessage()));
+            } catch (InterruptedException iX) {
+                Thread.currentThread().interrupt();
+                future.cancel(true);
+                outcomes.add(Outcome.failure("interrupted"));
+            }
+        }
+        return outcomes;
+    }
+
+    /**
+     * The result of one fetch, either a value (which may be null) or an error description.
+     */
+    public static final class Outcome<R> {
+        private final R value;
+        private final String error;
+
+        private Outcome(R value, String error) {
+            this.value = value;
+            this.error = error;
+        }
+
+        static <R> Outcome<R> success(R value) {
+            return new Outcome<>(value, null);
+        }
+
+        static <R> Outcome<R> failure(String error) {
+            return new Outcome<>(null, error);
+        }
+
+        public boolean isSuccess() {
+            return error == null;
+        }
+
+        public R getValue() {
+            return value;
+        }
+
+        public String getError() {
+            return error;
+        }
+
+        @Override
+        public String toString() {
+            return isSuccess() ? "Outcome{value=" + value + "}" : "Outcome{error='" + error + "'}";
+        }
+    }
+}
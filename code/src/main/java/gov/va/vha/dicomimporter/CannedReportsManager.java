@@ -1,23 +1,39 @@
 package gov.va.vha.dicomimporter;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.DigestInputStream;
 import java.security.InvalidParameterException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
 import java.text.ParseException;
 import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.zip.GZIPOutputStream;
 
 import com.amazonaws.AmazonServiceException;
+import com.amazonaws.HttpMethod;
 import com.amazonaws.SdkClientException;
 import com.amazonaws.regions.Regions;
 import com.amazonaws.services.s3.AmazonS3;
 import com.amazonaws.services.s3.AmazonS3ClientBuilder;
 import com.amazonaws.services.s3.model.*;
-import com.amazonaws.util.StringUtils;
+import com.amazonaws.util.BinaryUtils;
+import com.amazonaws.util.IOUtils;
 import com.nimbusds.jwt.JWTClaimsSet;
 import com.nimbusds.jwt.SignedJWT;
 import gov.va.vha.dicomimporter.exceptions.*;
 import gov.va.vha.dicomimporter.model.CanonicalDocument;
 import gov.va.vha.dicomimporter.model.CanonicalRequest;
 import gov.va.vha.dicomimporter.model.CanonicalResponse;
+import gov.va.vha.dicomimporter.model.CatalogManifest;
+import org.apache.http.HttpStatus;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -33,28 +49,104 @@ public class CannedReportsManager {
     public static final String PROPERTY_AUTHORIZATION_MANAGER_ROLE = "authorization_manager_role";
     public static final String DEFAULT_REPORT_USER = "canned_report_user";
     public static final String DEFAULT_REPORT_MANAGER = "canned_report_manager";
+    public static final String PROPERTY_CATALOG_MANIFEST_ENABLED = "catalog_manifest_enabled";
+    public static final String PROPERTY_CATALOG_PAGE_SIZE_DEFAULT = "catalog_page_size_default";
+    public static final String PROPERTY_CATALOG_PAGE_SIZE_MAXIMUM = "catalog_page_size_maximum";
+    public static final String DEFAULT_CATALOG_PAGE_SIZE = "1000";
+    public static final String PROPERTY_BATCH_MAXIMUM_DOCUMENTS = "batch_maximum_documents";
+    public static final String PROPERTY_BATCH_MAXIMUM_RESPONSE_BYTES = "batch_maximum_response_bytes";
+    public static final String DEFAULT_BATCH_MAXIMUM_DOCUMENTS = "50";
+    // the ALB limits a Lambda response to 1MB, this leaves room for the headers and the JSON structure
+    public static final String DEFAULT_BATCH_MAXIMUM_RESPONSE_BYTES = "900000";
 
     public static final String HTTP_HEADER_REPORT_NAME = "report-name";
     public static final String HTTP_HEADER_REPORT_DESCRIPTION = "report-description";
     public static final String HTTP_HEADER_REPORT_IDENTIFIER = "report-identifier";
     public static final String HTTP_HEADER_REPORT_REVISION = "report-revision";
+    public static final String HTTP_HEADER_NEXT_CURSOR = "report-next-cursor";
+    public static final String S3_METADATA_REVISION_COUNT = "revision-count";
+    public static final String S3_METADATA_IDENTITY_LENGTH = "identity-length";
+    public static final String S3_METADATA_CONTENT_SHA256 = "content-sha256";
+    public static final String PROPERTY_SKIP_UNCHANGED_WRITES_ENABLED = "skip_unchanged_writes_enabled";
+    public static final String PROPERTY_STORED_COMPRESSION_ENABLED = "stored_compression_enabled";
+    public static final String PROPERTY_STORED_COMPRESSION_MINIMUM_BYTES = "stored_compression_minimum_bytes";
+    public static final String DEFAULT_STORED_COMPRESSION_MINIMUM_BYTES = "1024";
+    public static final String CONTENT_ENCODING_GZIP = "gzip";
+    public static final String PROPERTY_BASE64_MIGRATION_ENABLED = "base64_migration_enabled";
+    public static final String PROPERTY_PRESIGNED_REDIRECT_THRESHOLD_BYTES = "presigned_redirect_threshold_bytes";
+    public static final String PROPERTY_PRESIGNED_URL_EXPIRATION_SECONDS = "presigned_url_expiration_seconds";
+    // a binary body grows by a third when Base64 encoded for the 1MB ALB response
+    public static final String DEFAULT_PRESIGNED_REDIRECT_THRESHOLD_BYTES = "700000";
+    public static final String DEFAULT_PRESIGNED_URL_EXPIRATION_SECONDS = "300";
+    static final String LEGACY_BASE64_CONTENT_TYPE_SUFFIX = "+base64";
+
+    public static final String QUERY_PARAMETER_LIMIT = "limit";
+    public static final String QUERY_PARAMETER_CURSOR = "cursor";
+    public static final String QUERY_PARAMETER_IDS = "ids";
+    public static final String QUERY_PARAMETER_REDIRECT = "redirect";
+    public static final String QUERY_PARAMETER_UPLOAD = "upload";
+    public static final String UPLOAD_PRESIGNED = "presigned";
+    public static final String UPLOAD_COMPLETE = "complete";
+    public static final String UPLOAD_SESSION = "session";
+    public static final String UPLOAD_PART = "part";
+    public static final String UPLOAD_COMMIT = "commit";
+    public static final String QUERY_PARAMETER_SESSION = "session";
+    public static final String QUERY_PARAMETER_PART = "part";
+    public static final String HTTP_HEADER_UPLOAD_SESSION = "report-upload-session";
+    public static final String PROPERTY_BUCKET_CHECK_ENABLED = "bucket_check_enabled";
+    public static final String PROPERTY_S3_CONNECTION_PRIMING_ENABLED = "s3_connection_priming_enabled";
+    public static final String PROPERTY_REPORT_STORE = "report_store";
+    public static final String REPORT_STORE_S3 = "s3";
+    public static final String REPORT_STORE_FILESYSTEM = "filesystem";
+    private static final String CATALOG_CURSOR_PREFIX = "after:";
+    /** a PUT that loses a race with another write of the same report counts the revisions again and is retried */
+    private static final int MAXIMUM_WRITE_ATTEMPTS = 3;
+    /** an approximation of the JSON (property names and metadata) of a document in a batch response */
+    private static final long BATCH_DOCUMENT_OVERHEAD_BYTES = 512L;
 
     public static final String S3_METADATA_PREFIX = "x-amz-meta-";
 
+    private final ReportStore reportStore;
+    // the bucket is only known to a manager of an S3 report store, upload sessions are S3 multipart uploads
     private final AmazonS3 amazonS3;
     private final String s3BucketName;
     private final boolean authorizationCheckingEnabled;
     private final String userRoleName;
     private final String managerRoleName;
+    private final boolean catalogManifestEnabled;
+    private final CatalogManifestRepository catalogManifestRepository;
+    private final BoundedParallelFetcher catalogMetadataFetcher;
+    private final CatalogCache catalogCache;
+    private final ReportBodyCache reportBodyCache;
+    private final RevisionIndex revisionIndex;
+    private final UploadSessionRepository uploadSessionRepository;
+    private final int catalogPageSizeDefault;
+    private final int catalogPageSizeMaximum;
+    private final int batchMaximumDocuments;
+    private final long batchMaximumResponseBytes;
+    private final boolean storedCompressionEnabled;
+    private final int storedCompressionMinimumBytes;
+    private final boolean base64MigrationEnabled;
+    private final boolean skipUnchangedWritesEnabled;
+    private final long presignedRedirectThresholdBytes;
+    private final long presignedUrlExpirationMillis;
+    private final boolean bucketCheckEnabled;
+    private volatile boolean bucketReady;
+    // not UUID.randomUUID(), whose source is shared by every container restored from a snapshot,
+    // a manager created after a restore has its own source, seeded when it is first used
+    private final SecureRandom identifierRandom = new SecureRandom();
 
     private final Logger logger = LoggerFactory.getLogger(CannedReportsManager.class);
 
     /**
-     * Constructor for typical production usage
+     * Constructor for typical production usage, the connection to S3 is primed (unless
+     * "s3_connection_priming_enabled" is false) so that the first request does not pay for it.
      * @param s3BucketName
      */
     protected CannedReportsManager(final String s3BucketName) {
         this(AmazonS3ClientBuilder.standard().withRegion(Regions.DEFAULT_REGION).build(), s3BucketName);
+        if (Boolean.valueOf(ApplicationProperties.getSingleton().getProperty(PROPERTY_S3_CONNECTION_PRIMING_ENABLED, "true")))
+            primeS3Connection();
     }
 
     /**
@@ -63,24 +155,31 @@ public class CannedReportsManager {
      * @param s3BucketName
      */
     protected CannedReportsManager(final AmazonS3 amazonS3, final String s3BucketName) {
-        logger.info("CannedReportsManager({}, {})", amazonS3, s3BucketName);
+        this(new S3ReportStore(amazonS3, s3BucketName), amazonS3, s3BucketName);
+    }
+
+    /**
+     * A constructor for a report store other than S3 (e.g. in memory), upload sessions are not supported
+     * and there is no bucket to check.
+     * @param reportStore
+     */
+    protected CannedReportsManager(final ReportStore reportStore) {
+        this(reportStore, null, null);
+    }
 
-        if (StringUtils.isNullOrEmpty(s3BucketName))
-            throw new InvalidParameterException("'s3BucketName' must not be null or empty");
-        if (amazonS3 == null)
-            throw new InvalidParameterException("amazonS3 must not be null");
+    private CannedReportsManager(final ReportStore reportStore, final AmazonS3 amazonS3, final String s3BucketName) {
+        logger.info("CannedReportsManager({}, {}, {})", reportStore, amazonS3, s3BucketName);
+
+        if (reportStore == null)
+            throw new InvalidParameterException("reportStore must not be null");
+        this.reportStore = reportStore;
         this.amazonS3 = amazonS3;
         this.s3BucketName = s3BucketName;
 
-        // assure that the bucket exists (find it or create it)
-        Bucket amazonS3Bucket = amazonS3.listBuckets().stream()
-                .filter(bucket -> s3BucketName.equals(bucket.getName()))
-                .findFirst()
-                .orElse(null);
-        if (amazonS3Bucket == null) {
-            amazonS3Bucket = amazonS3.createBucket(s3BucketName);
-            logger.info("created Bucket({})", amazonS3Bucket);
-        }
+        // the bucket is created by the stack, a container that must create it checks once on its first request
+        bucketCheckEnabled = amazonS3 != null && Boolean.valueOf(
+                ApplicationProperties.getSingleton().getProperty(PROPERTY_BUCKET_CHECK_ENABLED, "false")
+        );
         authorizationCheckingEnabled = Boolean.valueOf(
                 ApplicationProperties.getSingleton().getProperty(PROPERTY_ENABLE_AUTHORIZATION, "false")
         );
@@ -88,9 +187,98 @@ public class CannedReportsManager {
                 .getProperty(PROPERTY_AUTHORIZATION_USER_ROLE, DEFAULT_REPORT_USER);
         managerRoleName = ApplicationProperties.getSingleton()
                 .getProperty(PROPERTY_AUTHORIZATION_MANAGER_ROLE, DEFAULT_REPORT_MANAGER);
+        catalogManifestEnabled = Boolean.valueOf(
+                ApplicationProperties.getSingleton().getProperty(PROPERTY_CATALOG_MANIFEST_ENABLED, "true")
+        );
+        catalogManifestRepository = new CatalogManifestRepository(reportStore);
+        catalogMetadataFetcher = BoundedParallelFetcher.getShared();
+        // the generation of cached pages is that of the manifest, without one nothing could be cached
+        catalogCache = catalogManifestEnabled ? CatalogCache.fromApplicationProperties(catalogManifestRepository) : null;
+        reportBodyCache = ReportBodyCache.fromApplicationProperties();
+        revisionIndex = RevisionIndex.fromApplicationProperties(reportStore);
+        uploadSessionRepository = amazonS3 == null ? null : UploadSessionRepository.fromApplicationProperties(amazonS3, s3BucketName);
+        catalogPageSizeDefault = Integer.parseInt(ApplicationProperties.getSingleton()
+                .getProperty(PROPERTY_CATALOG_PAGE_SIZE_DEFAULT, DEFAULT_CATALOG_PAGE_SIZE));
+        catalogPageSizeMaximum = Integer.parseInt(ApplicationProperties.getSingleton()
+                .getProperty(PROPERTY_CATALOG_PAGE_SIZE_MAXIMUM, DEFAULT_CATALOG_PAGE_SIZE));
+        batchMaximumDocuments = Integer.parseInt(ApplicationProperties.getSingleton()
+                .getProperty(PROPERTY_BATCH_MAXIMUM_DOCUMENTS, DEFAULT_BATCH_MAXIMUM_DOCUMENTS));
+        batchMaximumResponseBytes = Long.parseLong(ApplicationProperties.getSingleton()
+                .getProperty(PROPERTY_BATCH_MAXIMUM_RESPONSE_BYTES, DEFAULT_BATCH_MAXIMUM_RESPONSE_BYTES));
+        storedCompressionEnabled = Boolean.valueOf(
+                ApplicationProperties.getSingleton().getProperty(PROPERTY_STORED_COMPRESSION_ENABLED, "true")
+        );
+        storedCompressionMinimumBytes = Integer.parseInt(ApplicationProperties.getSingleton()
+                .getProperty(PROPERTY_STORED_COMPRESSION_MINIMUM_BYTES, DEFAULT_STORED_COMPRESSION_MINIMUM_BYTES));
+        base64MigrationEnabled = Boolean.valueOf(
+                ApplicationProperties.getSingleton().getProperty(PROPERTY_BASE64_MIGRATION_ENABLED, "true")
+        );
+        skipUnchangedWritesEnabled = Boolean.valueOf(
+                ApplicationProperties.getSingleton().getProperty(PROPERTY_SKIP_UNCHANGED_WRITES_ENABLED, "true")
+        );
+        presignedRedirectThresholdBytes = Long.parseLong(ApplicationProperties.getSingleton()
+                .getProperty(PROPERTY_PRESIGNED_REDIRECT_THRESHOLD_BYTES, DEFAULT_PRESIGNED_REDIRECT_THRESHOLD_BYTES));
+        presignedUrlExpirationMillis = TimeUnit.SECONDS.toMillis(Long.parseLong(ApplicationProperties.getSingleton()
+                .getProperty(PROPERTY_PRESIGNED_URL_EXPIRATION_SECONDS, DEFAULT_PRESIGNED_URL_EXPIRATION_SECONDS)));
+
+        logger.info("authorizationCheckingEnabled = [{}], userRoleName = [{}], managerRoleName = [{}], catalogManifestEnabled = [{}], catalogCache = [{}], reportBodyCache = [{}]",
+                authorizationCheckingEnabled, userRoleName, managerRoleName, catalogManifestEnabled, catalogCache != null, reportBodyCache);
+    }
 
-        logger.info("authorizationCheckingEnabled = [{}], userRoleName = [{}], managerRoleName = [{}]",
-                authorizationCheckingEnabled, userRoleName, managerRoleName);
+    /**
+     * Create the manager of the report store selected by "report_store", the S3 bucket (the default)
+     * or a directory tree ("filesystem", see FileSystemReportStore).
+     * @param s3BucketName the bucket of an S3 report store
+     */
+    static CannedReportsManager fromApplicationProperties(final String s3BucketName) {
+        final String reportStore = ApplicationProperties.getSingleton().getProperty(PROPERTY_REPORT_STORE, REPORT_STORE_S3);
+        if (REPORT_STORE_S3.equals(reportStore))
+            return new CannedReportsManager(s3BucketName);
+        if (REPORT_STORE_FILESYSTEM.equals(reportStore))
+            return new CannedReportsManager(FileSystemReportStore.fromApplicationProperties());
+        throw new InvalidParameterException("'" + PROPERTY_REPORT_STORE + "' must be one of "
+                + REPORT_STORE_S3 + " or " + REPORT_STORE_FILESYSTEM + ", not [" + reportStore + "]");
+    }
+
+    /**
+     * Open the TLS connection to S3 (which the client keeps pooled) while the function initializes rather than in
+     * the first request. The request is a HEAD of the bucket, so it also serves as the bucket check. A failure is
+     * not fatal, the first request opens the connection.
+     */
+    void primeS3Connection() {
+        try {
+            amazonS3.headBucket(new HeadBucketRequest(s3BucketName));
+            bucketReady = true;
+        } catch (SdkClientException sdkcX) {
+            logger.warn("primeS3Connection(), unable to reach bucket [{}]", s3BucketName, sdkcX);
+        }
+    }
+
+    /**
+     * Release the S3 client (its pooled connections and threads), e.g. when the manager is replaced after a
+     * restore from a snapshot. The manager must not be used afterwards.
+     */
+    void shutdown() {
+        if (amazonS3 != null)
+            amazonS3.shutdown();
+    }
+
+    /**
+     * Assure that the bucket exists, creating it if it does not. This is for environments where the bucket is not
+     * created by the stack, it is done once per container (a HEAD of the bucket) and the result is kept.
+     */
+    private synchronized void assureBucketExists() {
+        if (bucketReady)
+            return;
+        try {
+            amazonS3.headBucket(new HeadBucketRequest(s3BucketName));
+        } catch (AmazonS3Exception s3X) {
+            if (s3X.getStatusCode() != HttpStatus.SC_NOT_FOUND)
+                throw s3X;
+            Bucket amazonS3Bucket = amazonS3.createBucket(s3BucketName);
+            logger.info("created Bucket({})", amazonS3Bucket);
+        }
+        bucketReady = true;
     }
 
     /**
@@ -103,9 +291,17 @@ public class CannedReportsManager {
      * NOTE: when the identifier is omitted the response is a JSON formatted body including
      * the metadata for all items in the S3 bucket. The metadata includes the same data returned
      * from a HEAD request (though in the body as a JSON document)
+     * The catalog is paged, the "limit" query parameter sets the page size and the "cursor" query parameter
+     * requests the page following the one that returned it as "nextCursor" (also in the "report-next-cursor" header)
+     * GET /?ids={identifier}[/{revision}],... - a batch read, the listed documents (with their bodies) are read
+     * concurrently and returned as one JSON response in the same order. A document that cannot be read, or that
+     * would take the response over the ALB size limit, is returned with an "error" and no body.
      * PUT /{identifier} - replaces an existing S3 item with body of the request. The underlying S3 bucket has versioning enabled,
      * the new content will be saved as the latest revision. Specific headers will replace metadata values, otherwise
      * existing metadata will be copied to the new revision.
+     * PUT /{identifier}[/{revision}] without a body - copies the revision (the current one if omitted) within S3 to a new
+     * current revision, with the metadata headers given replacing those of the copied revision. With the current revision
+     * this updates the metadata (e.g. renames the report), with an earlier revision it restores that revision.
      * DELETE /{identifier}[/{revision}] - remove and existing S3 item identified by the identifier and revision, omission of the
      * revision remove the most recent revision
      * HEAD [/identifier[/{revision}]] - returns the HTTP context including the following application defined headers:
@@ -116,28 +312,97 @@ public class CannedReportsManager {
      * The following HTTP headers are retained as S3 metadata:
      * "report-name" is stored as "x-amz-meta-report-name"
      * "report-description" is stored as "x-amz-meta-report-description"
-     * "revision-count" is not stored as metadata but is calculated as needed
+     * "revision-count" is stored as "x-amz-meta-revision-count" when a revision is written, it is only calculated
+     * (from a listing of the versions) for objects written before it was stored. The stored count never decreases,
+     * the catalog function reconciles it against the versions when it is lower (e.g. after concurrent writes)
      * Note that HTTP headers are treated as case-insensitive, internally they are converted to lower-case.
      * <p>
+     * Stored Compression:
+     * Textual content of at least "stored_compression_minimum_bytes" is stored gzip compressed, with a "Content-Encoding"
+     * of "gzip" and the uncompressed length as "x-amz-meta-identity-length". Documents carry the content encoding and
+     * the uncompressed length, getBodyStream() inflates as it is read and getEncodedBodyStream() is the stored content.
+     * <p>
+     * Binary Content:
+     * A Base64 encoded body is decoded as it is written and stored as raw bytes with the content type as given.
+     * Reports written before that (Base64 text with "+base64" appended to the content type) are decoded as they are
+     * read, and the current revision is migrated in place unless "base64_migration_enabled" is false.
+     * <p>
+     * Unchanged Writes:
+     * The SHA-256 digest of the content (as decoded, before compression) is computed as the body is read and stored as
+     * "x-amz-meta-content-sha256". A PUT whose content digest, name, description and content type are those of the
+     * current revision writes nothing (no new S3 version), the current revision is returned.
+     * Disabled by setting "skip_unchanged_writes_enabled" to false.
+     * <p>
+     * Conditional Writes:
+     * A POST is written "If-None-Match: *" and a PUT "If-Match" the ETag of the revision it counted from, the response
+     * is built from the request and the put result. A PUT that loses a race with another write of the same report
+     * counts again and is retried, when the retries are exhausted the response is 409 (Conflict).
+     * <p>
+     * Conditional Requests:
+     * GET and HEAD of a single document return "ETag" and "Last-Modified" headers and honor the "If-None-Match" and
+     * "If-Modified-Since" request headers, responding 304 (Not Modified) with no body when the client copy is current.
+     * <p>
+     * Large Documents:
+     * A GET of a document larger than "presigned_redirect_threshold_bytes", or of any document with the "redirect=true"
+     * query parameter, is answered with a 303 (See Other) to a presigned S3 URL that expires after
+     * "presigned_url_expiration_seconds", the client downloads the body directly from S3.
+     * <p>
+     * Direct Uploads:
+     * POST /?upload=presigned and PUT /{identifier}?upload=presigned take the metadata headers and no body, and respond
+     * 202 (Accepted) with a presigned S3 PUT URL (as "location") for the revision. The name, description and revision
+     * count are bound to the URL, the upload must send the same "Content-Type". The body is stored as it is uploaded
+     * (it is neither decoded nor compressed). PUT /{identifier}?upload=complete, with no body, then registers the
+     * uploaded revision in this container (the catalog is also updated by the S3 event handler).
+     * <p>
+     * Upload Sessions:
+     * For clients that cannot use a presigned URL, POST /?upload=session and PUT /{identifier}?upload=session take the
+     * metadata headers and no body, and respond 202 (Accepted) with the session identifier in "report-upload-session".
+     * PUT /{identifier}?upload=part&session={session}&part={n} sends chunk n (from one) as the body, resending a chunk
+     * replaces it. PUT /{identifier}?upload=commit&session={session}[&part={count}] stores the chunks as a new revision,
+     * a commit with missing chunks is rejected (400) naming them. DELETE /{identifier}?session={session} aborts.
+     * Sessions are S3 multipart uploads, those not committed within "upload_session_maximum_age_hours" are aborted
+     * by the UploadSessionSweepHandler.
+     * <p>
      * Revision Specification Format:
-     * The revision must be in the following format:
-     * "[-][1-9][0-9]*"
+     * The revision must be in one of the following formats:
+     * "[-][0-9]+" or "r[1-9][0-9]*"
      * examples:
-     * "0" means retrieve the current version
-     * "6554321" means retrieve the version with that (internal S3) version number
-     * "-1" means retrieve the most recent revision before the current version
+     * "0" (or "-0", or no revision) means retrieve the current revision
+     * "6554321" means retrieve the version with that version number
+     * "-1" means retrieve the most recent revision before the current revision
+     * "r1" means retrieve the oldest available revision, "r3" the third-oldest (the "revision" of a response)
+     * Revisions other than the current one are resolved to an S3 version through the RevisionIndex, which is
+     * cached in the container so that the hot path does not list the versions. An unknown revision is a 404.
      */
     protected CanonicalResponse handleRequest(final CanonicalRequest canonicalRequest) throws ParseException {
         logger.info("handleRequest({})", canonicalRequest);
         CanonicalResponse response = null;
 
-        final List<String> roles = extractRolesFromAuthorization(canonicalRequest.getAuthorization());
+        // the JWT classes are only loaded when the roles are checked
+        final List<String> roles = authorizationCheckingEnabled
+                ? extractRolesFromAuthorization(canonicalRequest.getAuthorization())
+                : Collections.emptyList();
+
+        try {
+            if (bucketCheckEnabled && !bucketReady)
+                assureBucketExists();
+        } catch (SdkClientException sdkcX) {
+            return CanonicalResponse.builder().serviceException(sdkcX).build();
+        }
 
         try {
             switch (canonicalRequest.getMethod().toUpperCase()) {
                 case "POST":
                     if (authorizationCheckingEnabled && !roles.contains(this.managerRoleName)) {
                         response = CanonicalResponse.builder().forbiddenAccessException().build();
+                    } else if (UPLOAD_PRESIGNED.equals(canonicalRequest.getUpload())) {
+                        response = handlePresignedUpload(null,
+                                canonicalRequest.getName(), canonicalRequest.getDescription(),
+                                canonicalRequest.getContentType());
+                    } else if (UPLOAD_SESSION.equals(canonicalRequest.getUpload())) {
+                        response = handleOpenUploadSession(null,
+                                canonicalRequest.getName(), canonicalRequest.getDescription(),
+                                canonicalRequest.getContentType());
                     } else {
                         response = handlePost(
                                 canonicalRequest.getName(), canonicalRequest.getDescription(),
@@ -151,6 +416,28 @@ public class CannedReportsManager {
                 case "PUT":
                     if (authorizationCheckingEnabled && !roles.contains(this.managerRoleName)) {
                         response = CanonicalResponse.builder().forbiddenAccessException().build();
+                    } else if (UPLOAD_PRESIGNED.equals(canonicalRequest.getUpload())) {
+                        response = handlePresignedUpload(canonicalRequest.getIdentifier(),
+                                canonicalRequest.getName(), canonicalRequest.getDescription(),
+                                canonicalRequest.getContentType());
+                    } else if (UPLOAD_COMPLETE.equals(canonicalRequest.getUpload())) {
+                        response = handleUploadComplete(canonicalRequest.getIdentifier());
+                    } else if (UPLOAD_SESSION.equals(canonicalRequest.getUpload())) {
+                        response = handleOpenUploadSession(canonicalRequest.getIdentifier(),
+                                canonicalRequest.getName(), canonicalRequest.getDescription(),
+                                canonicalRequest.getContentType());
+                    } else if (UPLOAD_PART.equals(canonicalRequest.getUpload())) {
+                        response = handleUploadSessionChunk(canonicalRequest.getIdentifier(),
+                                canonicalRequest.getUploadSession(), canonicalRequest.getUploadPart(),
+                                canonicalRequest.getContentLength(),
+                                canonicalRequest.getBody(), canonicalRequest.isBodyIsBase64Encoded());
+                    } else if (UPLOAD_COMMIT.equals(canonicalRequest.getUpload())) {
+                        response = handleCommitUploadSession(canonicalRequest.getIdentifier(),
+                                canonicalRequest.getUploadSession(), canonicalRequest.getUploadPart());
+                    } else if (canonicalRequest.getBody() == null) {
+                        response = handleCopyRevision(canonicalRequest.getIdentifier(), canonicalRequest.getRevisionSpecification(),
+                                canonicalRequest.getName(), canonicalRequest.getDescription(),
+                                canonicalRequest.getContentType());
                     } else {
                         response = handlePut(canonicalRequest.getIdentifier(),
                                 canonicalRequest.getName(), canonicalRequest.getDescription(),
@@ -164,8 +451,13 @@ public class CannedReportsManager {
                 case "GET":
                     if (authorizationCheckingEnabled && !(roles.contains(this.managerRoleName) || roles.contains(this.userRoleName))) {
                         response = CanonicalResponse.builder().forbiddenAccessException().build();
+                    } else if (!canonicalRequest.getIdentifiers().isEmpty()) {
+                        response = handleGetDocuments(canonicalRequest.getIdentifiers());
                     } else {
-                        response = handleGet(canonicalRequest.getIdentifier(), canonicalRequest.getRevisionSpecification());
+                        response = handleGet(canonicalRequest.getIdentifier(), canonicalRequest.getRevisionSpecification(),
+                                canonicalRequest.getLimit(), canonicalRequest.getCursor(),
+                                canonicalRequest.getIfNoneMatch(), canonicalRequest.getIfModifiedSince(),
+                                canonicalRequest.isRedirect());
                     }
                     logger.info("handleRequest({}) GET returning [{}]", canonicalRequest, response);
                     break;
@@ -173,6 +465,8 @@ public class CannedReportsManager {
                 case "DELETE":
                     if (authorizationCheckingEnabled && !roles.contains(this.managerRoleName)) {
                         response = CanonicalResponse.builder().forbiddenAccessException().build();
+                    } else if (canonicalRequest.getUploadSession() != null) {
+                        response = handleAbortUploadSession(canonicalRequest.getIdentifier(), canonicalRequest.getUploadSession());
                     } else {
                         response = handleDelete(canonicalRequest.getIdentifier(), canonicalRequest.getRevisionSpecification());
                     }
@@ -183,7 +477,8 @@ public class CannedReportsManager {
                     if (authorizationCheckingEnabled && !(roles.contains(this.managerRoleName) || roles.contains(this.userRoleName))) {
                         response = CanonicalResponse.builder().forbiddenAccessException().build();
                     } else {
-                        response = handleHead(canonicalRequest.getIdentifier(), canonicalRequest.getRevisionSpecification());
+                        response = handleHead(canonicalRequest.getIdentifier(), canonicalRequest.getRevisionSpecification(),
+                                canonicalRequest.getIfNoneMatch(), canonicalRequest.getIfModifiedSince());
                     }
                     logger.info("handleRequest({}) HEAD returning [{}]", canonicalRequest, response);
                     break;
@@ -215,15 +510,28 @@ public class CannedReportsManager {
             InputStream body, boolean bodyIsBase64Encoded)
         throws AbstractClientException, AbstractServiceException
     {
-        final String identifier = UUID.randomUUID().toString();
+        final String identifier = createIdentifier();
+
+        return internalHandlePostAndPut(identifier, 1, null, false, name, description, contentType, contentLength, body, bodyIsBase64Encoded);
+    }
 
-        return internalHandlePostAndPut(identifier, name, description, contentType, contentLength, body, bodyIsBase64Encoded);
+    /**
+     * @return a new report identifier, a random (version 4) UUID
+     */
+    String createIdentifier() {
+        final byte[] randomBytes = new byte[16];
+        identifierRandom.nextBytes(randomBytes);
+        randomBytes[6] = (byte) ((randomBytes[6] & 0x0f) | 0x40);
+        randomBytes[8] = (byte) ((randomBytes[8] & 0x3f) | 0x80);
+        final ByteBuffer buffer = ByteBuffer.wrap(randomBytes);
+        return new UUID(buffer.getLong(), buffer.getLong()).toString();
     }
 
     /**
      * Handle a PUT request. This checks for the existence of a document and if found then it
-     * does a putObject with the same identifier (i.e. creates a new version). If not found
-     * then it returns a 404 (not found).
+     * does a putObject with the same identifier (i.e. creates a new version), conditional on the
+     * current version being the one that was found. If not found then it returns a 404 (not found).
+     * The name, description and content type of the current version are carried forward when not given.
      * Having handlePut and handlePost implements HTTP method semantics rather than S3.
      *
      * @param identifier
@@ -243,18 +551,407 @@ public class CannedReportsManager {
             String contentType, Integer contentLength,
             InputStream body, boolean bodyIsBase64Encoded)
             throws AbstractClientException, AbstractServiceException {
-        ObjectMetadata documentMetadata = amazonS3.getObjectMetadata(this.s3BucketName, identifier);
+        ObjectMetadata documentMetadata = reportStore.head(identifier, null);
 
         if (documentMetadata != null) {
-            return internalHandlePostAndPut(identifier, name, description, contentType, contentLength, body, bodyIsBase64Encoded);
+            return internalHandlePostAndPut(identifier, getNextRevisionCount(identifier, documentMetadata), documentMetadata, true,
+                    name != null ? name : documentMetadata.getUserMetaDataOf(HTTP_HEADER_REPORT_NAME),
+                    description != null ? description : documentMetadata.getUserMetaDataOf(HTTP_HEADER_REPORT_DESCRIPTION),
+                    contentType != null ? contentType : withoutBase64Suffix(documentMetadata.getContentType()),
+                    contentLength, body, bodyIsBase64Encoded);
         } else {
             return CanonicalResponse.builder().reportNotFoundException(null).build();
         }
     }
 
     /**
+     * Handle a PUT request without a body, a revision of the report is copied (server side, no body passes through
+     * this function) to a new current revision with its metadata replaced. With the current revision this is a
+     * metadata update (e.g. a rename), with an earlier revision it restores that revision.
+     * The name, description and content type are those given, the others (and the content digest, encoding and
+     * identity length) are carried forward from the copied revision. A metadata update that changes nothing writes
+     * nothing. The copy of the current revision is conditional on its ETag, when another write comes first the
+     * revisions are counted again and the copy is retried.
      *
      * @param identifier
+     * @param revisionSpecification the revision to copy, the current revision if null
+     * @param name the new name or null to carry it forward
+     * @param description the new description or null to carry it forward
+     * @param contentType the new content type or null to carry it forward
+     * @return the new current revision
+     * @throws AbstractClientException
+     * @throws AbstractServiceException
+     */
+    protected CanonicalResponse handleCopyRevision(
+            String identifier, RevisionSpecification revisionSpecification,
+            String name, String description, String contentType)
+            throws AbstractClientException, AbstractServiceException
+    {
+        logger.info("handleCopyRevision({}, {}, {}, {}, {})", identifier, revisionSpecification, name, description, contentType);
+        try {
+            final RevisionIndex.Revision revision = resolveRevision(identifier, revisionSpecification);
+            ObjectMetadata currentMetadata = getObjectMetadataIfExists(identifier);
+            if (currentMetadata == null)
+                return CanonicalResponse.builder().reportNotFoundException(null).build();
+            final ObjectMetadata sourceMetadata = revision == null ? currentMetadata : getObjectMetadata(identifier, revision);
+            if (sourceMetadata == null)
+                throw new UnknownRevisionException(identifier, revisionSpecification);
+
+            for (int attempt = 1; ; ++attempt) {
+                final ObjectMetadata copiedMetadata = revision == null ? currentMetadata : sourceMetadata;
+                final ObjectMetadata objectMetadata = new ObjectMetadata();
+                objectMetadata.setUserMetadata(new TreeMap<>(copiedMetadata.getUserMetadata()));
+                if (name != null)
+                    objectMetadata.addUserMetadata(HTTP_HEADER_REPORT_NAME, name);
+                if (description != null)
+                    objectMetadata.addUserMetadata(HTTP_HEADER_REPORT_DESCRIPTION, description);
+                // a legacy Base64 revision keeps its suffix, its content is still Base64 text
+                final String copiedContentType = copiedMetadata.getContentType();
+                objectMetadata.setContentType(contentType == null ? copiedContentType
+                        : copiedContentType != null && copiedContentType.endsWith(LEGACY_BASE64_CONTENT_TYPE_SUFFIX)
+                        ? withoutBase64Suffix(contentType) + LEGACY_BASE64_CONTENT_TYPE_SUFFIX
+                        : contentType);
+                if (copiedMetadata.getContentEncoding() != null)
+                    objectMetadata.setContentEncoding(copiedMetadata.getContentEncoding());
+
+                if (revision == null && skipUnchangedWritesEnabled && isMetadataUnchanged(currentMetadata, objectMetadata)) {
+                    logger.info("handleCopyRevision({}, ...), metadata is unchanged, not written", identifier);
+                    return CanonicalResponse.builder()
+                            .success()
+                            .addDocument(CanonicalDocument.builder()
+                                    .withIdentifier(identifier)
+                                    .withObjectMetadata(currentMetadata)
+                                    .withRevision(getRevisionCount(identifier, currentMetadata))
+                                    .build())
+                            .build();
+                }
+                final int revisionCount = getNextRevisionCount(identifier, currentMetadata);
+                objectMetadata.addUserMetadata(S3_METADATA_REVISION_COUNT, Integer.toString(revisionCount));
+
+                final CopyObjectResult result;
+                try {
+                    result = revision == null
+                            ? reportStore.copy(identifier, null, objectMetadata, currentMetadata.getETag())
+                            : reportStore.copy(identifier, revision.getVersionId(), objectMetadata, null);
+                } catch (AmazonS3Exception s3X) {
+                    if (revision != null || s3X.getStatusCode() != HttpStatus.SC_PRECONDITION_FAILED)
+                        throw s3X;
+                    if (attempt >= MAXIMUM_WRITE_ATTEMPTS)
+                        throw new ConcurrentWriteException(identifier);
+                    logger.info("handleCopyRevision({}, ...), written concurrently, attempt {}", identifier, attempt);
+                    currentMetadata = getObjectMetadataIfExists(identifier);
+                    if (currentMetadata == null)
+                        throw new IdentifiedDocumentNotFound(identifier);
+                    continue;
+                }
+                if (result == null)
+                    return CanonicalResponse.builder()
+                            .serviceException(new WrappedServiceException("copyObject response was null", null))
+                            .build();
+
+                if (reportBodyCache != null)
+                    reportBodyCache.remove(identifier);
+                revisionIndex.recordWrite(identifier, result.getVersionId());
+
+                return CanonicalResponse.builder()
+                        .success()
+                        .addDocument(CanonicalDocument.builder()
+                                .withIdentifier(identifier)
+                                .withRevision(revisionCount)
+                                .withName(objectMetadata.getUserMetaDataOf(HTTP_HEADER_REPORT_NAME))
+                                .withDescription(objectMetadata.getUserMetaDataOf(HTTP_HEADER_REPORT_DESCRIPTION))
+                                .withContentType(objectMetadata.getContentType())
+                                .withContentLength((int) getIdentityContentLength(copiedMetadata))
+                                .withETag(result.getETag())
+                                .withLastModified(result.getLastModifiedDate())
+                                .build())
+                        .build();
+            }
+        } catch (AmazonServiceException asX) {
+            throw new UnrecoverableDependentInvocationException("ReportStore.copy", asX);
+        }
+    }
+
+    /**
+     * The first phase of a direct upload, the body is PUT to S3 by the client rather than passing through the request.
+     * The metadata that internalHandlePostAndPut would store is bound to a presigned PUT URL (as x-amz-meta- query
+     * parameters), so the upload stores the same metadata as a POST or PUT with the body would.
+     *
+     * @param identifier the identifier of an existing report (a PUT) or null for a new report (a POST)
+     * @param name
+     * @param description
+     * @param contentType the content type that the upload must send
+     * @return 202 (Accepted) with the presigned URL as the location and the document (without a body) to be uploaded
+     * @throws AbstractClientException
+     * @throws AbstractServiceException
+     */
+    protected CanonicalResponse handlePresignedUpload(
+            String identifier,
+            String name, String description,
+            String contentType)
+            throws AbstractClientException, AbstractServiceException
+    {
+        logger.info("handlePresignedUpload({}, {}, {}, {})", identifier, name, description, contentType);
+        try {
+            final int revisionCount;
+            if (identifier == null) {
+                identifier = createIdentifier();
+                revisionCount = 1;
+            } else {
+                revisionCount = getNextRevisionCount(identifier);
+            }
+
+            final Map<String, String> userMetadata = new LinkedHashMap<>();
+            if (name != null)
+                userMetadata.put(HTTP_HEADER_REPORT_NAME, name);
+            if (description != null)
+                userMetadata.put(HTTP_HEADER_REPORT_DESCRIPTION, description);
+            userMetadata.put(S3_METADATA_REVISION_COUNT, Integer.toString(revisionCount));
+            final String location = reportStore.presign(HttpMethod.PUT, identifier, null, contentType, userMetadata,
+                    new Date(System.currentTimeMillis() + presignedUrlExpirationMillis)).toString();
+
+            return CanonicalResponse.builder()
+                    .accepted(CanonicalDocument.builder()
+                            .withIdentifier(identifier)
+                            .withRevision(revisionCount)
+                            .withName(name)
+                            .withDescription(description)
+                            .withContentType(contentType)
+                            .build(), location)
+                    .build();
+        } catch (AmazonS3Exception s3X) {
+            if (s3X.getStatusCode() == HttpStatus.SC_NOT_FOUND)
+                throw new IdentifiedDocumentNotFound(identifier);
+            throw new WrappedServiceException("Presigning upload", s3X);
+        } catch (AmazonServiceException asX) {
+            throw new WrappedServiceException("Presigning upload", asX);
+        }
+    }
+
+    /**
+     * Open an upload session, the metadata that internalHandlePostAndPut would store is given to the session
+     * and stored with the report when the session is committed.
+     *
+     * @param identifier the identifier of an existing report (a PUT) or null for a new report (a POST)
+     * @param name
+     * @param description
+     * @param contentType
+     * @return 202 (Accepted) with the session identifier and the document (without a body) to be uploaded
+     * @throws AbstractClientException
+     * @throws AbstractServiceException
+     */
+    protected CanonicalResponse handleOpenUploadSession(
+            String identifier,
+            String name, String description,
+            String contentType)
+            throws AbstractClientException, AbstractServiceException
+    {
+        logger.info("handleOpenUploadSession({}, {}, {}, {})", identifier, name, description, contentType);
+        try {
+            final int revisionCount;
+            if (identifier == null) {
+                identifier = createIdentifier();
+                revisionCount = 1;
+            } else {
+                revisionCount = getNextRevisionCount(identifier);
+            }
+
+            ObjectMetadata objectMetadata = new ObjectMetadata();
+            objectMetadata.addUserMetadata(HTTP_HEADER_REPORT_NAME, name);
+            objectMetadata.addUserMetadata(HTTP_HEADER_REPORT_DESCRIPTION, description);
+            objectMetadata.addUserMetadata(S3_METADATA_REVISION_COUNT, Integer.toString(revisionCount));
+            if (contentType != null)
+                objectMetadata.setContentType(contentType);
+            final String uploadSession = getUploadSessionRepository().open(identifier, objectMetadata);
+
+            return CanonicalResponse.builder()
+                    .accepted(CanonicalDocument.builder()
+                            .withIdentifier(identifier)
+                            .withRevision(revisionCount)
+                            .withName(name)
+                            .withDescription(description)
+                            .withContentType(contentType)
+                            .build(), null)
+                    .withUploadSession(uploadSession)
+                    .build();
+        } catch (AmazonS3Exception s3X) {
+            if (s3X.getStatusCode() == HttpStatus.SC_NOT_FOUND)
+                throw new IdentifiedDocumentNotFound(identifier);
+            throw new WrappedServiceException("Opening upload session", s3X);
+        } catch (AmazonServiceException asX) {
+            throw new WrappedServiceException("Opening upload session", asX);
+        }
+    }
+
+    /**
+     * Stage a chunk of an upload session, a Base64 encoded chunk is decoded.
+     *
+     * @param chunkNumber the position of the chunk in the content, from one
+     * @return 202 (Accepted) with the document (the identifier only)
+     * @throws AbstractClientException
+     * @throws AbstractServiceException
+     */
+    protected CanonicalResponse handleUploadSessionChunk(
+            String identifier, String uploadSession, int chunkNumber,
+            Integer contentLength,
+            InputStream body, boolean bodyIsBase64Encoded)
+            throws AbstractClientException, AbstractServiceException
+    {
+        logger.info("handleUploadSessionChunk({}, {}, {}, {}, {})", identifier, uploadSession, chunkNumber, contentLength, bodyIsBase64Encoded);
+        try {
+            final byte[] content = bodyIsBase64Encoded
+                    ? decodeBase64(body, contentLength)
+                    : readContent(body, contentLength == null ? -1L : contentLength);
+            getUploadSessionRepository().stageChunk(uploadSession, chunkNumber, content);
+
+            return CanonicalResponse.builder()
+                    .accepted(CanonicalDocument.builder()
+                            .withIdentifier(identifier)
+                            .withContentLength(content.length)
+                            .build(), null)
+                    .withUploadSession(uploadSession)
+                    .build();
+        } catch (AmazonServiceException asX) {
+            throw new UnrecoverableDependentInvocationException("AmazonS3.putObject", asX);
+        } catch (IOException ioX) {
+            throw new WrappedServiceException("Reading chunk content", ioX);
+        }
+    }
+
+    /**
+     * Commit an upload session, the chunks become the content of a new revision which is then registered
+     * as a completed direct upload is.
+     *
+     * @param chunkCount the number of chunks sent, null to commit the chunks that have been received
+     * @return the uploaded document (without a body)
+     * @throws AbstractClientException
+     * @throws AbstractServiceException
+     */
+    protected CanonicalResponse handleCommitUploadSession(String identifier, String uploadSession, Integer chunkCount)
+            throws AbstractClientException, AbstractServiceException
+    {
+        logger.info("handleCommitUploadSession({}, {}, {})", identifier, uploadSession, chunkCount);
+        try {
+            getUploadSessionRepository().commit(identifier, uploadSession, chunkCount);
+        } catch (AmazonServiceException asX) {
+            throw new WrappedServiceException("Committing upload session", asX);
+        } catch (IOException ioX) {
+            throw new WrappedServiceException("Reading staged chunks", ioX);
+        }
+        return handleUploadComplete(identifier);
+    }
+
+    /**
+     * Abort an upload session, the report is unchanged.
+     *
+     * @return the document (the identifier only)
+     * @throws AbstractClientException
+     * @throws AbstractServiceException
+     */
+    protected CanonicalResponse handleAbortUploadSession(String identifier, String uploadSession)
+            throws AbstractClientException, AbstractServiceException
+    {
+        logger.info("handleAbortUploadSession({}, {})", identifier, uploadSession);
+        try {
+            getUploadSessionRepository().abort(identifier, uploadSession);
+        } catch (AmazonServiceException asX) {
+            throw new WrappedServiceException("Aborting upload session", asX);
+        }
+        return CanonicalResponse.builder()
+                .success()
+                .addDocument(CanonicalDocument.builder().withIdentifier(identifier).build())
+                .withUploadSession(uploadSession)
+                .build();
+    }
+
+    /**
+     * @return the revision count of the next revision of an existing report, computed as handlePut does
+     * @throws IdentifiedDocumentNotFound if the report does not exist
+     */
+    private int getNextRevisionCount(final String identifier) throws IdentifiedDocumentNotFound {
+        ObjectMetadata documentMetadata = reportStore.head(identifier, null);
+        if (documentMetadata == null)
+            throw new IdentifiedDocumentNotFound(identifier);
+        return getNextRevisionCount(identifier, documentMetadata);
+    }
+
+    /**
+     * @param documentMetadata the metadata of the current revision of the report
+     * @return the revision count of the next revision of the report
+     */
+    private int getNextRevisionCount(final String identifier, final ObjectMetadata documentMetadata) {
+        // the count never decreases, an index of the versions that knows of more revisions than the stored
+        // count (i.e. concurrent writes through other containers) takes precedence
+        return Math.max(
+                getRevisionCount(identifier, documentMetadata),
+                revisionIndex.getCachedRevisionCount(identifier)) + 1;
+    }
+
+    /**
+     * @return the repository of upload sessions, which are S3 multipart uploads
+     * @throws InstanceValidationException if the report store is not S3
+     */
+    private UploadSessionRepository getUploadSessionRepository() throws InstanceValidationException {
+        if (uploadSessionRepository == null)
+            throw InstanceValidationException.builder()
+                    .withContext("Upload sessions are not supported by " + reportStore)
+                    .build();
+        return uploadSessionRepository;
+    }
+
+    /**
+     * The second phase of a direct upload, registers the revision uploaded to S3. The caches of this container that
+     * know of the report are discarded. Completing an upload more than once
+     * is harmless.
+     *
+     * @param identifier
+     * @return the uploaded document (without a body), 404 if nothing has been uploaded
+     * @throws AbstractClientException
+     * @throws AbstractServiceException
+     */
+    protected CanonicalResponse handleUploadComplete(final String identifier)
+            throws AbstractClientException, AbstractServiceException
+    {
+        logger.info("handleUploadComplete({})", identifier);
+        try {
+            ObjectMetadata documentMetadata = reportStore.head(identifier, null);
+            if (documentMetadata == null)
+                throw new IdentifiedDocumentNotFound(identifier);
+
+            if (reportBodyCache != null)
+                reportBodyCache.remove(identifier);
+            revisionIndex.invalidate(identifier);
+
+            return CanonicalResponse.builder()
+                    .success()
+                    .addDocument(CanonicalDocument.builder()
+                            .withIdentifier(identifier)
+                            .withObjectMetadata(documentMetadata)
+                            .withRevision(getRevisionCount(identifier, documentMetadata))
+                            .build())
+                    .build();
+        } catch (AmazonS3Exception s3X) {
+            if (s3X.getStatusCode() == HttpStatus.SC_NOT_FOUND)
+                throw new IdentifiedDocumentNotFound(identifier);
+            throw new WrappedServiceException("Completing upload", s3X);
+        } catch (AmazonServiceException asX) {
+            throw new WrappedServiceException("Completing upload", asX);
+        }
+    }
+
+    /**
+     * Write a revision with a single conditional S3 request, "If-None-Match: *" when there is no current revision
+     * and "If-Match" with the ETag of the current revision otherwise. The response is built from the request and
+     * the put result, the metadata is not read back.
+     * When another write to the identifier comes between reading the current revision and this write then, if
+     * retryAfterConcurrentWrite, the current revision is read again, the revision count is taken from it and the
+     * write is tried again, else (or when the attempts are exhausted) a ConcurrentWriteException is thrown.
+     *
+     * @param identifier
+     * @param revisionCount the number of revisions including the one being written, stored with it as metadata
+     * @param currentMetadata the metadata of the current revision, null if there is none,
+     *                        when the content and metadata are unchanged from it nothing is written
+     * @param retryAfterConcurrentWrite true to count the revisions again and retry when the current revision changes
      * @param name
      * @param description
      * @param contentType
@@ -266,7 +963,7 @@ public class CannedReportsManager {
      * @throws AbstractServiceException
      */
     private CanonicalResponse internalHandlePostAndPut(
-            String identifier,
+            String identifier, int revisionCount, ObjectMetadata currentMetadata, boolean retryAfterConcurrentWrite,
             String name, String description,
             String contentType, Integer contentLength,
             InputStream body, boolean bodyIsBase64Encoded)
@@ -277,50 +974,99 @@ public class CannedReportsManager {
             // S3 will prefix user metadata with "x-amz-meta-"
             objectMetadata.addUserMetadata(HTTP_HEADER_REPORT_NAME, name);
             objectMetadata.addUserMetadata(HTTP_HEADER_REPORT_DESCRIPTION, description);
-            // A sorta' hacky way to save the content type when it is transmitted as base64,
-            // which, BTW, simply should not be done.
-            if (contentType != null)
-                if (bodyIsBase64Encoded && !contentType.endsWith("+base64"))
-                    objectMetadata.setContentType(contentType + "+base64");
-                else
-                    objectMetadata.setContentType(contentType);
-            if (contentLength != null)
-                objectMetadata.setContentLength(contentLength);
-
-            PutObjectResult result = amazonS3.putObject(s3BucketName, identifier, body, objectMetadata);
-
-            CanonicalResponse.Builder canonicalResponseBuilder = CanonicalResponse.builder();
-            if (result != null) {
-                // read the metadata back to get the type and length according to S3
-                ObjectMetadata s3Metadata = amazonS3.getObjectMetadata(s3BucketName, identifier);
-                CanonicalDocument.Builder canonicalDocumentBuilder = CanonicalDocument.builder()
-                        .withIdentifier(identifier)
-                        .withRevision(0);
-                if (s3Metadata != null) {
-                    logger.debug("metadata from S3 contentType is {}", s3Metadata.getContentType());
-                    canonicalDocumentBuilder.withContentType(s3Metadata.getContentType());
-
-                    logger.debug("metadata from S3 contentLength is {}", s3Metadata.getContentLength());
-                    canonicalDocumentBuilder.withContentLength((int)s3Metadata.getContentLength());
+            // a Base64 encoded body is decoded and stored as the raw bytes with the true content type,
+            // it is only encoded again in a response that needs it
+            final String storedContentType = bodyIsBase64Encoded ? withoutBase64Suffix(contentType) : contentType;
+            if (storedContentType != null)
+                objectMetadata.setContentType(storedContentType);
+            byte[] content = null;
+            String contentSha256 = null;
+            Integer identityLength = contentLength;
+            final boolean compressible = storedCompressionEnabled && isTextualContentType(storedContentType);
+            if (body != null) {
+                // the digest is of the content as decoded, computed as it is read
+                final MessageDigest contentDigest = createContentDigest();
+                final byte[] identity = bodyIsBase64Encoded
+                        ? decodeBase64(body, contentLength, contentDigest)
+                        : readContent(new DigestInputStream(body, contentDigest), contentLength == null ? -1L : contentLength);
+                contentSha256 = BinaryUtils.toHex(contentDigest.digest());
+                identityLength = identity.length;
+                objectMetadata.addUserMetadata(S3_METADATA_CONTENT_SHA256, contentSha256);
 
-                    logger.debug("metadata from S3 S3_METADATA_REPORT_NAME is {}", s3Metadata.getUserMetaDataOf(HTTP_HEADER_REPORT_NAME));
-                    canonicalDocumentBuilder.withName(s3Metadata.getUserMetaDataOf(HTTP_HEADER_REPORT_NAME));
+                final byte[] compressed = compressible && identity.length >= storedCompressionMinimumBytes ? gzip(identity) : null;
+                if (compressed != null && compressed.length < identity.length) {
+                    objectMetadata.setContentEncoding(CONTENT_ENCODING_GZIP);
+                    objectMetadata.addUserMetadata(S3_METADATA_IDENTITY_LENGTH, Integer.toString(identity.length));
+                    content = compressed;
+                } else {
+                    content = identity;
+                }
+                objectMetadata.setContentLength(content.length);
+            } else if (contentLength != null) {
+                objectMetadata.setContentLength(contentLength);
+            }
 
-                    logger.debug("metadata from S3 HTTP_HEADER_REPORT_DESCRIPTION is {}", s3Metadata.getUserMetaDataOf(HTTP_HEADER_REPORT_DESCRIPTION));
-                    canonicalDocumentBuilder.withDescription(s3Metadata.getUserMetaDataOf(HTTP_HEADER_REPORT_DESCRIPTION));
+            PutObjectResult result = null;
+            for (int attempt = 1; result == null; ++attempt) {
+                if (contentSha256 != null && skipUnchangedWritesEnabled
+                        && isUnchanged(currentMetadata, contentSha256, name, description, storedContentType)) {
+                    logger.info("internalHandlePostAndPut({}, ...), content and metadata are unchanged, not written", identifier);
+                    return CanonicalResponse.builder()
+                            .success()
+                            .addDocument(CanonicalDocument.builder()
+                                    .withIdentifier(identifier)
+                                    .withObjectMetadata(currentMetadata)
+                                    .withRevision(getRevisionCount(identifier, currentMetadata))
+                                    .build())
+                            .build();
                 }
+                objectMetadata.addUserMetadata(S3_METADATA_REVISION_COUNT, Integer.toString(revisionCount));
 
-                return canonicalResponseBuilder
-                        .success()
-                        .addDocument(canonicalDocumentBuilder.build())
-                        .build();
-            } else {
-                return canonicalResponseBuilder
-                        .serviceException(new WrappedServiceException("putObject response was null", null))
-                        .build();
+                try {
+                    // conditional on the current revision being the one that was read, or on there being none
+                    result = currentMetadata == null
+                            ? reportStore.put(identifier, content, objectMetadata, null, ReportStore.ANY)
+                            : reportStore.put(identifier, content, objectMetadata, currentMetadata.getETag(), null);
+                    if (result == null)
+                        return CanonicalResponse.builder()
+                                .serviceException(new WrappedServiceException("putObject response was null", null))
+                                .build();
+                } catch (AmazonS3Exception s3X) {
+                    if (s3X.getStatusCode() == HttpStatus.SC_NOT_FOUND && currentMetadata != null)
+                        throw new IdentifiedDocumentNotFound(identifier);
+                    if (s3X.getStatusCode() != HttpStatus.SC_PRECONDITION_FAILED && s3X.getStatusCode() != HttpStatus.SC_CONFLICT)
+                        throw s3X;
+                    if (!retryAfterConcurrentWrite || currentMetadata == null || attempt >= MAXIMUM_WRITE_ATTEMPTS)
+                        throw new ConcurrentWriteException(identifier);
+                    logger.info("internalHandlePostAndPut({}, ...), written concurrently, attempt {}", identifier, attempt);
+                    currentMetadata = getObjectMetadataIfExists(identifier);
+                    if (currentMetadata == null)
+                        throw new IdentifiedDocumentNotFound(identifier);
+                    revisionCount = getNextRevisionCount(identifier, currentMetadata);
+                }
             }
+
+            if (reportBodyCache != null)
+                reportBodyCache.remove(identifier);
+            revisionIndex.recordWrite(identifier, result.getVersionId());
+
+            // everything S3 would report is known from the request and the put result
+            return CanonicalResponse.builder()
+                    .success()
+                    .addDocument(CanonicalDocument.builder()
+                            .withIdentifier(identifier)
+                            .withRevision(revisionCount)
+                            .withName(name)
+                            .withDescription(description)
+                            .withContentType(storedContentType)
+                            .withContentLength(identityLength)
+                            .withETag(result.getETag())
+                            .build())
+                    .build();
         } catch (AmazonServiceException asX) {
-            throw new UnrecoverableDependentInvocationException("AmazonS3.putObject", asX);
+            throw new UnrecoverableDependentInvocationException("ReportStore.put", asX);
+        } catch (IOException ioX) {
+            throw new WrappedServiceException("Reading report content", ioX);
         }
     }
 
@@ -330,25 +1076,35 @@ public class CannedReportsManager {
      *
      * @param identifier
      * @param revisionSpecification
+     * @param limit the catalog page size, ignored when the identifier is provided
+     * @param cursor the catalog continuation cursor, ignored when the identifier is provided
+     * @param ifNoneMatch the If-None-Match request header, ignored when the identifier is not provided
+     * @param ifModifiedSince the If-Modified-Since request header, ignored when the identifier is not provided
+     * @param redirect true to redirect to the document in S3, ignored when the identifier is not provided
      * @return
      * @throws AbstractClientException
      * @throws AbstractServiceException
      */
-    protected CanonicalResponse handleGet(String identifier, RevisionSpecification revisionSpecification)
+    protected CanonicalResponse handleGet(String identifier, RevisionSpecification revisionSpecification,
+                                          Integer limit, String cursor,
+                                          String ifNoneMatch, Date ifModifiedSince,
+                                          boolean redirect)
         throws AbstractClientException, AbstractServiceException
     {
-        logger.info("handleGet({}, {})", identifier, revisionSpecification);
+        logger.info("handleGet({}, {}, {}, {}, {}, {}, {})", identifier, revisionSpecification, limit, cursor, ifNoneMatch, ifModifiedSince, redirect);
 
         if (identifier != null && identifier.length() > 0) {
             // get a single document requested by specifying the key
-            return handleGetDocument(identifier, revisionSpecification);
+            return handleGetDocument(identifier, revisionSpecification, ifNoneMatch, ifModifiedSince, redirect);
         } else {
             // get the metadata of all of the documents
-            return handleGetAllDocumentsMetadata();
+            return handleGetAllDocumentsMetadata(limit, cursor);
         }
     }
 
     /**
+     * Without a revision (or with the current revision) the document is deleted, which in a versioned bucket
+     * leaves the earlier revisions in place. With a revision that one version is permanently deleted.
      *
      * @param identifier
      * @param revisionSpecification
@@ -360,17 +1116,27 @@ public class CannedReportsManager {
             throws AbstractClientException, AbstractServiceException
     {
         try {
-            ObjectMetadata documentMetadata = amazonS3.getObjectMetadata(this.s3BucketName, identifier);
+            final RevisionIndex.Revision revision = resolveRevision(identifier, revisionSpecification);
+            ObjectMetadata documentMetadata = getObjectMetadata(identifier, revision);
 
             if (documentMetadata != null) {
                 // this must be done before the deleteObject because revision count calls S3
                 CanonicalDocument canonicalDocument = CanonicalDocument.builder()
                         .withIdentifier(identifier)
                         .withObjectMetadata(documentMetadata)
-                        .withRevision(getVersionCount(identifier))
+                        .withRevision(getRevisionNumber(identifier, revision, documentMetadata))
                         .build();
 
-                amazonS3.deleteObject(this.s3BucketName, identifier);
+                if (revision == null) {
+                    reportStore.delete(identifier);
+                    revisionIndex.invalidate(identifier);
+                } else {
+                    reportStore.deleteVersion(identifier, revision.getVersionId());
+                    revisionIndex.recordVersionDelete(identifier, revision.getVersionId());
+                }
+                // deleting the newest version makes the previous one current
+                if (reportBodyCache != null)
+                    reportBodyCache.remove(identifier);
 
                 return CanonicalResponse.builder().successWithJSONBody(canonicalDocument).build();
             } else {
@@ -385,23 +1151,31 @@ public class CannedReportsManager {
      *
      * @param identifier
      * @param revisionSpecification
+     * @param ifNoneMatch the If-None-Match request header, may be null
+     * @param ifModifiedSince the If-Modified-Since request header, may be null
      * @return
      * @throws AbstractClientException
      * @throws AbstractServiceException
      */
-    protected CanonicalResponse handleHead(String identifier, RevisionSpecification revisionSpecification)
+    protected CanonicalResponse handleHead(String identifier, RevisionSpecification revisionSpecification,
+                                           String ifNoneMatch, Date ifModifiedSince)
             throws AbstractClientException, AbstractServiceException
     {
         try {
-            ObjectMetadata documentMetadata = amazonS3.getObjectMetadata(this.s3BucketName, identifier);
+            final RevisionIndex.Revision revision = resolveRevision(identifier, revisionSpecification);
+            ObjectMetadata documentMetadata = getObjectMetadata(identifier, revision);
 
             if (documentMetadata != null) {
                 CanonicalDocument canonicalDocument = CanonicalDocument.builder()
                         .withIdentifier(identifier)
                         .withObjectMetadata(documentMetadata)
-                        .withRevision(getVersionCount(identifier))
+                        .withRevision(getRevisionNumber(identifier, revision, documentMetadata))
                         .build();
 
+                if (isNotModified(documentMetadata.getETag(), documentMetadata.getLastModified(), ifNoneMatch, ifModifiedSince))
+                    return CanonicalResponse.builder()
+                            .notModified(canonicalDocument)
+                            .build();
                 return CanonicalResponse.builder()
                         .success()
                         .addDocument(canonicalDocument)
@@ -419,89 +1193,771 @@ public class CannedReportsManager {
     }
 
     /**
+     * Get a single document. This is one S3 request, the metadata is returned with the object and
+     * the revision count is stored in the metadata.
+     * When the body is in the report body cache the request is conditional on the cached ETag, so an
+     * unchanged report costs a 304 (no body is transferred) and is served from memory.
+     * Otherwise the client validators (If-None-Match or If-Modified-Since) are passed on to S3, so a
+     * client with a current copy is answered 304 without the body being read from S3.
+     * A revision other than the current one is read by its S3 version, those bodies are not cached.
      *
      * @param identifier
      * @param revisionSpecification
+     * @param ifNoneMatch the If-None-Match request header, may be null
+     * @param ifModifiedSince the If-Modified-Since request header, may be null
      * @return
      * @throws AbstractClientException
      * @throws AbstractServiceException
      */
-    protected CanonicalResponse handleGetDocument(String identifier, RevisionSpecification revisionSpecification)
+    protected CanonicalResponse handleGetDocument(String identifier, RevisionSpecification revisionSpecification,
+                                                  String ifNoneMatch, Date ifModifiedSince)
             throws AbstractClientException, AbstractServiceException
     {
-        logger.info("handleGetDocument({}, {})", identifier, revisionSpecification);
+        return handleGetDocument(identifier, revisionSpecification, ifNoneMatch, ifModifiedSince, false);
+    }
 
-        try {
-            logger.debug("handleGetDocument({}, {}) getting document metadata", identifier, revisionSpecification);
-            ObjectMetadata documentMetadata = amazonS3.getObjectMetadata(this.s3BucketName, identifier);
-            if (documentMetadata != null) {
-                logger.debug("handleGetDocument({}, {}) document metadata retrieved, getting object", identifier, revisionSpecification);
+    /**
+     * Get a single document, or a redirect to it. A document larger than "presigned_redirect_threshold_bytes",
+     * or any document when the client asks for a redirect, is answered with a redirect (303) to a short-lived
+     * presigned S3 URL, so that the body does not pass through the Lambda (or the 1MB ALB response limit).
+     * Answering a requested redirect is a HEAD rather than a GET, a large document is detected from the GET
+     * response metadata and the body is not read.
+     *
+     * @param redirect true if the client asked to be redirected to the document
+     */
+    protected CanonicalResponse handleGetDocument(String identifier, RevisionSpecification revisionSpecification,
+                                                  String ifNoneMatch, Date ifModifiedSince, boolean redirect)
+            throws AbstractClientException, AbstractServiceException
+    {
+        return handleGetDocument(identifier, revisionSpecification, ifNoneMatch, ifModifiedSince, redirect, true);
+    }
 
-                S3Object s3Object = amazonS3.getObject(this.s3BucketName, identifier);
-                if (s3Object != null) {
-                    logger.debug("handleGetDocument({}, {}) object retrieved, building response", identifier, revisionSpecification);
-                    CanonicalDocument canonicalDocument = CanonicalDocument.builder()
-                            .withIdentifier(identifier)
-                            .withObjectMetadata(documentMetadata)
-                            .withRevision(getVersionCount(identifier))
-                            .withBodyStream(s3Object.getObjectContent())
-                            .build();
+    /**
+     * @param allowRedirect false for a document of a batch, whatever its size the document is never redirected and
+     *                      its body is not read (nor cached), the caller reads it once it knows the body fits
+     */
+    private CanonicalResponse handleGetDocument(String identifier, RevisionSpecification revisionSpecification,
+                                                String ifNoneMatch, Date ifModifiedSince, boolean redirect,
+                                                boolean allowRedirect)
+            throws AbstractClientException, AbstractServiceException
+    {
+        logger.info("handleGetDocument({}, {}, {}, {}, {}, {})", identifier, revisionSpecification, ifNoneMatch, ifModifiedSince, redirect, allowRedirect);
 
-                    return new CanonicalResponse(
-                            CanonicalResponse.Result.SUCCESS,
-                            Collections.singletonList(canonicalDocument),
-                            null
-                    );
-                } else {
+        try {
+            final RevisionIndex.Revision revision = resolveRevision(identifier, revisionSpecification);
+            if (redirect && allowRedirect) {
+                final ObjectMetadata metadata = getObjectMetadata(identifier, revision);
+                if (metadata == null)
                     throw new IdentifiedDocumentNotFound(identifier);
-                }
+                if (isNotModified(metadata.getETag(), metadata.getLastModified(), ifNoneMatch, ifModifiedSince))
+                    return CanonicalResponse.builder()
+                            .notModified(CanonicalDocument.builder()
+                                    .withIdentifier(identifier)
+                                    .withObjectMetadata(metadata)
+                                    .withRevision(getRevisionNumber(identifier, revision, metadata))
+                                    .build())
+                            .build();
+                // a report stored as Base64 text is not redirected, it is decoded (and migrated) by the GET
+                if (!isLegacyBase64(metadata))
+                    return redirectToObject(identifier, revision, metadata);
+            }
+            final ReportBodyCache.Entry cachedEntry = reportBodyCache == null || revision != null ? null : reportBodyCache.get(identifier);
+            final String clientEntityTag = singleEntityTag(ifNoneMatch);
+            // S3 answers a failed constraint with a bare 304, so only one validator is sent to keep its meaning unambiguous
+            final String nonmatchingETag = cachedEntry != null ? cachedEntry.getETag() : clientEntityTag;
+            final Date modifiedSince = nonmatchingETag == null && ifNoneMatch == null ? ifModifiedSince : null;
+
+            logger.debug("handleGetDocument({}, {}) getting object", identifier, revisionSpecification);
+            S3Object s3Object = reportStore.get(identifier, revision == null ? null : revision.getVersionId(), nonmatchingETag, modifiedSince);
+
+            final ObjectMetadata documentMetadata;
+            if (s3Object == null && cachedEntry != null) {
+                // the constraint was not met, i.e. the cached body is current
+                logger.debug("handleGetDocument({}, {}) not modified, using cached body", identifier, revisionSpecification);
+                reportBodyCache.recordHit();
+                documentMetadata = cachedEntry.getMetadata();
+            } else if (s3Object == null && (clientEntityTag != null || ifModifiedSince != null)) {
+                // the constraint was not met, i.e. the client copy is current
+                logger.debug("handleGetDocument({}, {}) not modified, client copy is current", identifier, revisionSpecification);
+                return CanonicalResponse.builder()
+                        .notModified(CanonicalDocument.builder()
+                                .withIdentifier(identifier)
+                                .withETag(clientEntityTag)
+                                .build())
+                        .build();
+            } else if (s3Object != null) {
+                logger.debug("handleGetDocument({}, {}) object retrieved, building response", identifier, revisionSpecification);
+                documentMetadata = s3Object.getObjectMetadata();
             } else {
-                throw new IdentifiedDocumentMetadataNotFound(identifier);
+                throw new IdentifiedDocumentNotFound(identifier);
+            }
+
+            if (isNotModified(documentMetadata.getETag(), documentMetadata.getLastModified(), ifNoneMatch, ifModifiedSince)) {
+                if (s3Object != null)
+                    s3Object.getObjectContent().abort();
+                return CanonicalResponse.builder()
+                        .notModified(CanonicalDocument.builder()
+                                .withIdentifier(identifier)
+                                .withObjectMetadata(documentMetadata)
+                                .withRevision(getRevisionNumber(identifier, revision, documentMetadata))
+                                .build())
+                        .build();
+            }
+
+            if (allowRedirect && getIdentityContentLength(documentMetadata) > presignedRedirectThresholdBytes
+                    && !isLegacyBase64(documentMetadata)) {
+                if (s3Object != null)
+                    s3Object.getObjectContent().abort();
+                return redirectToObject(identifier, revision, documentMetadata);
             }
+
+            // a body in memory (cached, or read into the cache) is handed on without a copy
+            final byte[] bodyBytes = s3Object == null
+                    ? cachedEntry.getBody()
+                    : revision == null && allowRedirect ? cacheBody(identifier, s3Object) : null;
+
+            if (isLegacyBase64(documentMetadata))
+                return getLegacyBase64Document(identifier, revisionSpecification, revision, documentMetadata,
+                        bodyBytes != null ? bodyBytes : readObjectContent(s3Object), ifNoneMatch, ifModifiedSince);
+
+            CanonicalDocument canonicalDocument = CanonicalDocument.builder()
+                    .withIdentifier(identifier)
+                    .withObjectMetadata(documentMetadata)
+                    .withRevision(getRevisionNumber(identifier, revision, documentMetadata))
+                    .withBodyBytes(bodyBytes)
+                    .withBodyStream(bodyBytes == null ? s3Object.getObjectContent() : null)
+                    .build();
+
+            return new CanonicalResponse(
+                    CanonicalResponse.Result.SUCCESS,
+                    Collections.singletonList(canonicalDocument),
+                    null
+            );
+        } catch(AmazonS3Exception s3X) {
+            if (s3X.getStatusCode() == HttpStatus.SC_NOT_FOUND)
+                throw new IdentifiedDocumentNotFound(identifier);
+            throw new WrappedServiceException("Getting Object", s3X);
         } catch(AmazonServiceException asX) {
-            throw new WrappedServiceException("Getting Object or metadata", asX);
+            throw new WrappedServiceException("Getting Object", asX);
+        }
+    }
+
+    /**
+     * @return a redirect (303) to a presigned GET URL of the object, the document carries the metadata
+     */
+    private CanonicalResponse redirectToObject(
+            final String identifier, final RevisionIndex.Revision revision, final ObjectMetadata metadata) {
+        final String location = reportStore.presign(HttpMethod.GET, identifier, revision == null ? null : revision.getVersionId(),
+                null, null, new Date(System.currentTimeMillis() + presignedUrlExpirationMillis)).toString();
+        logger.debug("redirectToObject({}, {}), redirecting", identifier, revision);
+
+        return CanonicalResponse.builder()
+                .seeOther(CanonicalDocument.builder()
+                        .withIdentifier(identifier)
+                        .withObjectMetadata(metadata)
+                        .withRevision(getRevisionNumber(identifier, revision, metadata))
+                        .build(), location)
+                .build();
+    }
+
+    /**
+     * @return true if the object was written before bodies were decoded, i.e. it is Base64 text with a "+base64" content type
+     */
+    private static boolean isLegacyBase64(final ObjectMetadata metadata) {
+        return metadata.getContentType() != null && metadata.getContentType().endsWith(LEGACY_BASE64_CONTENT_TYPE_SUFFIX);
+    }
+
+    /**
+     * Serve a document that was stored as Base64 text. The current revision is migrated (lazily, as it is read): it is
+     * replaced by a version holding the decoded bytes and the true content type, with the same metadata and revision
+     * count, and the Base64 version is deleted so that the revision numbers do not move. Older revisions are decoded
+     * as they are read.
+     *
+     * @param base64 the stored content
+     */
+    private CanonicalResponse getLegacyBase64Document(
+            final String identifier, final RevisionSpecification revisionSpecification, final RevisionIndex.Revision revision,
+            final ObjectMetadata metadata, final byte[] base64,
+            final String ifNoneMatch, final Date ifModifiedSince)
+            throws AbstractClientException, AbstractServiceException
+    {
+        if (revision == null && base64MigrationEnabled) {
+            try {
+                if (migrateLegacyBase64(identifier, metadata, base64))
+                    return handleGetDocument(identifier, revisionSpecification, ifNoneMatch, ifModifiedSince);
+            } catch (AbstractApplicationDefinedException | AmazonServiceException x) {
+                logger.warn("getLegacyBase64Document({}), migration failed, decoding in memory", identifier, x);
+            }
+        }
+
+        final byte[] content;
+        try {
+            content = Base64.getDecoder().decode(base64);
+        } catch (IllegalArgumentException iaX) {
+            throw new WrappedServiceException("Decoding stored Base64 content", iaX);
+        }
+        CanonicalDocument canonicalDocument = CanonicalDocument.builder()
+                .withIdentifier(identifier)
+                .withObjectMetadata(metadata)
+                .withContentType(withoutBase64Suffix(metadata.getContentType()))
+                .withContentLength(content.length)
+                .withRevision(getRevisionNumber(identifier, revision, metadata))
+                .withBodyBytes(content)
+                .build();
+        return new CanonicalResponse(
+                CanonicalResponse.Result.SUCCESS,
+                Collections.singletonList(canonicalDocument),
+                null
+        );
+    }
+
+    /**
+     * Replace the current (Base64) version of a report with its decoded equivalent.
+     * @return false if the report has been written since it was read, it is then left as it is
+     */
+    private boolean migrateLegacyBase64(final String identifier, final ObjectMetadata metadata, final byte[] base64)
+            throws AbstractClientException, AbstractServiceException
+    {
+        logger.info("migrateLegacyBase64({})", identifier);
+        if (metadata.getETag() == null)
+            return false;
+
+        // the write is conditional on the version that was read still being the current one
+        final CanonicalResponse written;
+        try {
+            written = internalHandlePostAndPut(
+                    identifier, getRevisionCount(identifier, metadata), metadata, false,
+                    metadata.getUserMetaDataOf(HTTP_HEADER_REPORT_NAME), metadata.getUserMetaDataOf(HTTP_HEADER_REPORT_DESCRIPTION),
+                    withoutBase64Suffix(metadata.getContentType()), null,
+                    new ByteArrayInputStream(base64), true);
+        } catch (ConcurrentWriteException | IdentifiedDocumentNotFound cwX) {
+            return false;
+        }
+        if (written.getResult() != CanonicalResponse.Result.SUCCESS)
+            return false;
+
+        if (metadata.getVersionId() != null) {
+            reportStore.deleteVersion(identifier, metadata.getVersionId());
+            revisionIndex.recordVersionDelete(identifier, metadata.getVersionId());
+        }
+        return true;
+    }
+
+    private static byte[] readObjectContent(final S3Object s3Object) throws WrappedServiceException {
+        try (InputStream content = s3Object.getObjectContent()) {
+            return readContent(content, s3Object.getObjectMetadata().getContentLength());
+        } catch (IOException ioX) {
+            throw new WrappedServiceException("Reading Object content", ioX);
+        }
+    }
+
+    /**
+     * Get a batch of documents with their bodies. The documents are requested concurrently (each as a
+     * single document GET, so the report body cache applies) and are returned in the order requested.
+     * The size of each body is known from its metadata before it is read, a body that cannot fit in what is
+     * left of the response is not read. The bodies that fit are then read concurrently.
+     * Failures are reported per document, as are documents that do not fit in the response.
+     *
+     * @param identifiers each an identifier, optionally followed by "/" and a revision specification
+     * @return
+     * @throws AbstractClientException
+     */
+    protected CanonicalResponse handleGetDocuments(final List<String> identifiers)
+            throws AbstractClientException
+    {
+        logger.info("handleGetDocuments({})", identifiers);
+        if (identifiers.size() > batchMaximumDocuments)
+            throw InstanceValidationException.builder()
+                    .withContext("CanonicalRequest")
+                    .withValidationFailure(QUERY_PARAMETER_IDS, "At most " + batchMaximumDocuments + " documents may be requested")
+                    .build();
+
+        final List<BoundedParallelFetcher.Outcome<CanonicalDocument>> outcomes =
+                catalogMetadataFetcher.fetchAll(identifiers, this::getBatchDocument);
+
+        // the smallest a body can be in the response is known before it is read, those that cannot fit are not read
+        final List<CanonicalDocument> unread = new ArrayList<>(identifiers.size());
+        long reservedBytes = 0L;
+        for (int index = 0; index < identifiers.size(); ++index) {
+            final BoundedParallelFetcher.Outcome<CanonicalDocument> outcome = outcomes.get(index);
+            CanonicalDocument document = outcome.isSuccess()
+                    ? outcome.getValue()
+                    : CanonicalDocument.builder().withIdentifier(identifiers.get(index)).withError(outcome.getError()).build();
+            if (document.getError() == null) {
+                reservedBytes += BATCH_DOCUMENT_OVERHEAD_BYTES + minimumBatchBodyBytes(document);
+                if (reservedBytes > batchMaximumResponseBytes) {
+                    reservedBytes -= minimumBatchBodyBytes(document);
+                    discardBody(document);
+                    document = withoutBody(document, "The document is too large for the response, GET the document individually");
+                }
+            }
+            unread.add(document);
+        }
+        final List<BoundedParallelFetcher.Outcome<CanonicalDocument>> read =
+                catalogMetadataFetcher.fetchAll(unread, this::readBatchDocument);
+
+        CanonicalResponse.Builder responseBuilder = CanonicalResponse.builder().success();
+        long responseBytes = 0L;
+        for (int index = 0; index < identifiers.size(); ++index) {
+            final BoundedParallelFetcher.Outcome<CanonicalDocument> outcome = read.get(index);
+            CanonicalDocument document = outcome.isSuccess()
+                    ? outcome.getValue()
+                    : CanonicalDocument.builder().withIdentifier(identifiers.get(index)).withError(outcome.getError()).build();
+
+            // the body of a batch document is always a String, so getBody() does not read a stream
+            final String body = document.getError() == null ? getBatchDocumentBody(document) : null;
+            final long bodyBytes = body == null ? 0L : jsonStringBytes(body);
+            responseBytes += BATCH_DOCUMENT_OVERHEAD_BYTES;
+            if (body != null && responseBytes + bodyBytes > batchMaximumResponseBytes)
+                document = withoutBody(document, "The response size limit was reached, GET the document individually");
+            else
+                responseBytes += bodyBytes;
+            responseBuilder.addDocument(document);
+        }
+        return responseBuilder.build();
+    }
+
+    /**
+     * Get one document of a batch, the body is not read (unless it is in the report body cache).
+     * @param item an identifier, optionally followed by "/" and a revision specification
+     * @return the document, or a document with an error if it could not be read
+     */
+    private CanonicalDocument getBatchDocument(final String item) {
+        final int separator = item.indexOf('/');
+        final String identifier = separator < 0 ? item : item.substring(0, separator);
+        try {
+            final RevisionSpecification revisionSpecification = RevisionSpecification.builder()
+                    .withStringRepresentation(separator < 0 ? null : item.substring(separator + 1))
+                    .build();
+            final CanonicalResponse response = handleGetDocument(identifier, revisionSpecification, null, null, false, false);
+            // the body of a redirected document is not in the response, it is too large for the batch
+            if (response.getResult() == CanonicalResponse.Result.SEE_OTHER)
+                return CanonicalDocument.builder()
+                        .withIdentifier(identifier)
+                        .withError("The document is too large, GET the document individually")
+                        .build();
+            return response.getReports().get(0);
+        } catch (AbstractApplicationDefinedException aadfX) {
+            return CanonicalDocument.builder().withIdentifier(identifier).withError(aadfX.getMessage()).build();
+        } catch (InvalidParameterException x) {
+            return CanonicalDocument.builder().withIdentifier(identifier).withError(x.getMessage()).build();
+        }
+    }
+
+    /**
+     * Read the body of one document of a batch, the body is included as text, or Base64 encoded if it is not textual.
+     * @return the document with its body, the document as it is if it has an error
+     */
+    private CanonicalDocument readBatchDocument(final CanonicalDocument document) {
+        if (document.getError() != null)
+            return document;
+        try {
+            final byte[] bodyBytes = document.getBodyBytes();
+            final byte[] content = bodyBytes == null ? new byte[0] : bodyBytes;
+            final String contentType = document.getContentType();
+            final boolean textual = isTextualContentType(contentType);
+            return CanonicalDocument.builder()
+                    .withIdentifier(document.getIdentifier())
+                    .withRevision(document.getRevision())
+                    .withName(document.getName())
+                    .withDescription(document.getDescription())
+                    .withContentType(contentType)
+                    .withContentLength(document.getContentLength())
+                    .withETag(document.getETag())
+                    .withLastModified(document.getLastModified())
+                    .withBody(textual ? new String(content, StandardCharsets.UTF_8) : Base64.getEncoder().encodeToString(content))
+                    .withBodyIsBase64Encoded(!textual)
+                    .build();
+        } catch (IOException ioX) {
+            return CanonicalDocument.builder().withIdentifier(document.getIdentifier()).withError(ioX.getMessage()).build();
+        }
+    }
+
+    /**
+     * @return the fewest bytes the body of a batch document can take in the response, from the (identity) content
+     * length in its metadata: text is at least its UTF-8 length, other content is exactly its Base64 length
+     */
+    static long minimumBatchBodyBytes(final CanonicalDocument document) {
+        final long contentLength = document.getContentLength() == null ? 0L : document.getContentLength();
+        return isTextualContentType(document.getContentType()) ? contentLength : 4L * ((contentLength + 2L) / 3L);
+    }
+
+    /**
+     * Abandon the unread body of a document, an S3 stream is aborted rather than read to its end
+     */
+    private void discardBody(final CanonicalDocument document) {
+        final InputStream content = document.getEncodedBodyStream();
+        if (content instanceof S3ObjectInputStream) {
+            ((S3ObjectInputStream) content).abort();
+        } else if (content != null) {
+            try {
+                content.close();
+            } catch (IOException ioX) {
+                logger.debug("discardBody({}), closing the body", document.getIdentifier(), ioX);
+            }
+        }
+    }
+
+    /**
+     * @return the size of the value as a string of the (UTF-8) JSON response, i.e. with its escaping
+     */
+    static long jsonStringBytes(final String value) {
+        long bytes = 0L;
+        for (int index = 0; index < value.length(); ++index) {
+            final char c = value.charAt(index);
+            if (c == '"' || c == '\\' || c == '\b' || c == '\f' || c == '\n' || c == '\r' || c == '\t')
+                bytes += 2;
+            else if (c < 0x20)
+                bytes += 6;
+            else if (c < 0x80)
+                bytes += 1;
+            else if (c < 0x800)
+                bytes += 2;
+            else if (Character.isHighSurrogate(c) && index + 1 < value.length() && Character.isLowSurrogate(value.charAt(index + 1))) {
+                // a supplementary character, the two chars are four bytes
+                bytes += 4;
+                ++index;
+            } else
+                bytes += 3;
+        }
+        return bytes;
+    }
+
+    private static String getBatchDocumentBody(final CanonicalDocument document) {
+        try {
+            return document.getBody();
+        } catch (IOException ioX) {
+            return null;
+        }
+    }
+
+    /**
+     * @return true if the content type is text (i.e. it can be returned as a String and is worth compressing)
+     */
+    static boolean isTextualContentType(final String contentType) {
+        if (contentType == null)
+            return false;
+        final String lowerCaseContentType = contentType.toLowerCase();
+        return lowerCaseContentType.startsWith("text/")
+                || lowerCaseContentType.contains("json")
+                || lowerCaseContentType.contains("xml");
+    }
+
+    private static CanonicalDocument withoutBody(final CanonicalDocument document, final String error) {
+        return CanonicalDocument.builder()
+                .withIdentifier(document.getIdentifier())
+                .withRevision(document.getRevision())
+                .withName(document.getName())
+                .withDescription(document.getDescription())
+                .withContentType(document.getContentType())
+                .withContentLength(document.getContentLength())
+                .withETag(document.getETag())
+                .withLastModified(document.getLastModified())
+                .withError(error)
+                .build();
+    }
+
+    /**
+     * Evaluate the conditional request headers (RFC 7232) against the current validators of a document.
+     * If-None-Match takes precedence, If-Modified-Since is only evaluated when If-None-Match is absent.
+     *
+     * @return true if the client copy is current and the response should be 304 (Not Modified)
+     */
+    static boolean isNotModified(final String eTag, final Date lastModified, final String ifNoneMatch, final Date ifModifiedSince) {
+        if (ifNoneMatch != null) {
+            for (String entityTag : ifNoneMatch.split(",")) {
+                final String trimmed = entityTag.trim();
+                if ("*".equals(trimmed) || (eTag != null && unquoteEntityTag(eTag).equals(unquoteEntityTag(trimmed))))
+                    return true;
+            }
+            return false;
+        }
+        if (ifModifiedSince != null && lastModified != null) {
+            // HTTP dates have a resolution of one second
+            return lastModified.getTime() / 1000L <= ifModifiedSince.getTime() / 1000L;
+        }
+        return false;
+    }
+
+    /**
+     * @return the entity tag if the If-None-Match header contains exactly one, unquoted as S3 reports it, else null
+     */
+    static String singleEntityTag(final String ifNoneMatch) {
+        if (ifNoneMatch == null || ifNoneMatch.contains(",") || "*".equals(ifNoneMatch.trim()))
+            return null;
+        final String entityTag = unquoteEntityTag(ifNoneMatch.trim());
+        return entityTag.isEmpty() ? null : entityTag;
+    }
+
+    /**
+     * Weak comparison, the weak indicator and the quotes are removed.
+     */
+    private static String unquoteEntityTag(final String entityTag) {
+        String unquoted = entityTag.startsWith("W/") ? entityTag.substring(2) : entityTag;
+        if (unquoted.length() >= 2 && unquoted.startsWith("\"") && unquoted.endsWith("\""))
+            unquoted = unquoted.substring(1, unquoted.length() - 1);
+        return unquoted;
+    }
+
+    /**
+     * Decode a Base64 encoded body as it is read.
+     * @param decodedLength the expected length of the decoded content, null if not known
+     * @throws BodyEncodingException if the body is not valid Base64
+     */
+    private static byte[] decodeBase64(final InputStream body, final Integer decodedLength) throws BodyEncodingException {
+        return decodeBase64(body, decodedLength, null);
+    }
+
+    /**
+     * Decode a Base64 encoded body as it is read.
+     * @param decodedLength the expected length of the decoded content, null if not known
+     * @param contentDigest updated with the decoded content, null if no digest is needed
+     * @throws BodyEncodingException if the body is not valid Base64
+     */
+    private static byte[] decodeBase64(final InputStream body, final Integer decodedLength, final MessageDigest contentDigest)
+            throws BodyEncodingException {
+        try (InputStream decoder = Base64.getDecoder().wrap(body)) {
+            return readContent(contentDigest == null ? decoder : new DigestInputStream(decoder, contentDigest),
+                    decodedLength == null ? -1L : decodedLength);
+        } catch (IOException | IllegalArgumentException x) {
+            throw new BodyEncodingException("The body is marked as Base64 encoded but is not valid Base64.");
+        }
+    }
+
+    private static MessageDigest createContentDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException nsaX) {
+            // every Java platform is required to support SHA-256
+            throw new IllegalStateException(nsaX);
         }
     }
 
     /**
-     * Get the metadata for all the objects in the S3 bucket
+     * @return true if the current revision has the same content (by digest) and metadata as the revision to be written
+     */
+    private static boolean isUnchanged(final ObjectMetadata currentMetadata, final String contentSha256,
+                                       final String name, final String description, final String contentType) {
+        return currentMetadata != null
+                && contentSha256.equals(currentMetadata.getUserMetaDataOf(S3_METADATA_CONTENT_SHA256))
+                && Objects.equals(name, currentMetadata.getUserMetaDataOf(HTTP_HEADER_REPORT_NAME))
+                && Objects.equals(description, currentMetadata.getUserMetaDataOf(HTTP_HEADER_REPORT_DESCRIPTION))
+                && Objects.equals(contentType, currentMetadata.getContentType());
+    }
+
+    /**
+     * @return true if the name, description and content type of the new metadata are those of the current revision
+     */
+    private static boolean isMetadataUnchanged(final ObjectMetadata currentMetadata, final ObjectMetadata objectMetadata) {
+        return Objects.equals(objectMetadata.getUserMetaDataOf(HTTP_HEADER_REPORT_NAME), currentMetadata.getUserMetaDataOf(HTTP_HEADER_REPORT_NAME))
+                && Objects.equals(objectMetadata.getUserMetaDataOf(HTTP_HEADER_REPORT_DESCRIPTION), currentMetadata.getUserMetaDataOf(HTTP_HEADER_REPORT_DESCRIPTION))
+                && Objects.equals(objectMetadata.getContentType(), currentMetadata.getContentType());
+    }
+
+    /**
+     * Content written before bodies were decoded was stored as Base64 text with "+base64" appended to the content type.
+     * @return the content type without the "+base64" suffix
+     */
+    static String withoutBase64Suffix(final String contentType) {
+        return contentType != null && contentType.endsWith(LEGACY_BASE64_CONTENT_TYPE_SUFFIX)
+                ? contentType.substring(0, contentType.length() - LEGACY_BASE64_CONTENT_TYPE_SUFFIX.length())
+                : contentType;
+    }
+
+    /**
+     * @return the length of the content when it is stored with a content encoding (i.e. compressed), the stored
+     * length otherwise
+     */
+    public static long getIdentityContentLength(final ObjectMetadata objectMetadata) {
+        final String identityLength = objectMetadata.getUserMetaDataOf(S3_METADATA_IDENTITY_LENGTH);
+        if (objectMetadata.getContentEncoding() != null && identityLength != null) {
+            try {
+                return Long.parseLong(identityLength);
+            } catch (NumberFormatException nfX) {
+                // fall through to the stored length
+            }
+        }
+        return objectMetadata.getContentLength();
+    }
+
+    private static byte[] gzip(final byte[] content) throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(content.length / 4 + 64);
+        try (GZIPOutputStream compressor = new GZIPOutputStream(compressed)) {
+            compressor.write(content);
+        }
+        return compressed.toByteArray();
+    }
+
+    /**
+     * Read the body of an object into the report body cache, if it is small enough to be cached.
+     * @return the body if it was read into memory, null if it was not (and the object content is still to be read)
+     */
+    private byte[] cacheBody(final String identifier, final S3Object s3Object) throws WrappedServiceException {
+        if (reportBodyCache == null)
+            return null;
+        reportBodyCache.recordMiss();
+
+        final ObjectMetadata metadata = s3Object.getObjectMetadata();
+        if (metadata == null || metadata.getETag() == null || metadata.getContentLength() > reportBodyCache.getMaximumEntryBytes())
+            return null;
+
+        try (InputStream content = s3Object.getObjectContent()) {
+            final byte[] body = readContent(content, metadata.getContentLength());
+            reportBodyCache.put(identifier, metadata.getETag(), metadata, body);
+            logger.debug("cacheBody({}, ...), {}", identifier, reportBodyCache);
+            return body;
+        } catch (IOException ioX) {
+            throw new WrappedServiceException("Reading Object content", ioX);
+        }
+    }
+
+    /**
+     * Read a stream to its end. The array is allocated from the expected length (e.g. the Content-Length) so
+     * that content of the expected length is read with no intermediate buffers or copies.
+     *
+     * @param expectedLength the expected number of bytes, negative if not known
+     */
+    public static byte[] readContent(final InputStream content, final long expectedLength) throws IOException {
+        if (expectedLength < 0 || expectedLength > Integer.MAX_VALUE - 8)
+            return IOUtils.toByteArray(content);
+
+        final byte[] buffer = new byte[(int) expectedLength];
+        int offset = 0;
+        for (int read = 0; offset < buffer.length && read >= 0; ) {
+            read = content.read(buffer, offset, buffer.length - offset);
+            if (read > 0)
+                offset += read;
+        }
+        if (offset < buffer.length)
+            return Arrays.copyOf(buffer, offset);
+
+        // the content may be longer than expected
+        final int next = content.read();
+        if (next < 0)
+            return buffer;
+        ByteArrayOutputStream longer = new ByteArrayOutputStream(buffer.length + 8192);
+        longer.write(buffer, 0, buffer.length);
+        longer.write(next);
+        IOUtils.copy(content, longer);
+        return longer.toByteArray();
+    }
+
+    /**
+     * Get the metadata for one page of the objects in the S3 bucket.
+     * Pages are served from the catalog cache when the catalog manifest has not changed since the page
+     * was cached, checking the manifest is a single S3 HEAD.
+     *
+     * @param limit the maximum number of documents in the page, null for the configured default
+     * @param cursor the cursor returned with the previous page, null for the first page
      * @return
      * @throws AbstractClientException
      * @throws AbstractServiceException
      */
-    protected CanonicalResponse handleGetAllDocumentsMetadata()
+    protected CanonicalResponse handleGetAllDocumentsMetadata(final Integer limit, final String cursor)
             throws AbstractClientException, AbstractServiceException
     {
-        logger.info("handleGetAllDocumentsMetadata()");
+        logger.info("handleGetAllDocumentsMetadata({}, {})", limit, cursor);
+
+        final int pageSize = Math.min(limit == null ? catalogPageSizeDefault : limit, catalogPageSizeMaximum);
+        final String startAfter = decodeCatalogCursor(cursor);
+        final String pageKey = (startAfter == null ? "" : startAfter) + "|" + pageSize;
+
+        final String generation = catalogCache == null ? null : catalogCache.revalidate();
+        if (generation != null) {
+            CanonicalResponse cachedPage = catalogCache.get(pageKey);
+            if (cachedPage != null) {
+                logger.debug("handleGetAllDocumentsMetadata(...), page [{}] served from catalog cache", pageKey);
+                return cachedPage;
+            }
+        }
 
+        CanonicalResponse page = readCatalogPage(pageSize, startAfter);
+        // a page with a document that could not be described is not cached, the next request retries it
+        if (generation != null && page.getReports().stream().noneMatch(document -> document.getError() != null))
+            catalogCache.put(generation, pageKey, page);
+        return page;
+    }
+
+    /**
+     * Read one page of the catalog from S3.
+     * The catalog manifest is used when it exists, that is a single S3 read. Otherwise the bucket is
+     * listed and the metadata of each object is read individually.
+     * The manifest is maintained from S3 events, asynchronously, so a report that was just written (or deleted)
+     * appears in (or disappears from) the catalog only once its event has been processed.
+     * Pages are ordered by identifier, the cursor identifies the last identifier of the previous page
+     * so the same cursor is valid whether the page is read from the manifest or the listing.
+     */
+    private CanonicalResponse readCatalogPage(final int pageSize, final String startAfter)
+            throws AbstractServiceException
+    {
         // assume Success
         CanonicalResponse.Builder resultBuilder = CanonicalResponse.builder().success();
         try {
-            ListObjectsV2Request listObjectsV2Request = new ListObjectsV2Request();
-            listObjectsV2Request.setBucketName(this.s3BucketName);
-
-            logger.debug("handleGetAllDocumentsMetadata(), calling listObjectsV2({})", listObjectsV2Request);
-            ListObjectsV2Result objects = amazonS3.listObjectsV2(listObjectsV2Request);
-
-            if (objects.getObjectSummaries() != null) {
-                objects.getObjectSummaries().stream()
-                        .map(s3ObjectSummary -> {
-                                    ObjectMetadata metadata = amazonS3.getObjectMetadata(this.s3BucketName, s3ObjectSummary.getKey());
-                                    return new KeyAndMetadata(s3ObjectSummary.getKey(), metadata);
-                                }
-                        )
-                        .map(keyAndMetadata -> CanonicalDocument.builder()
-                                .withIdentifier(keyAndMetadata.getKey())
-                                .withName(keyAndMetadata.getMetadata().getUserMetaDataOf(HTTP_HEADER_REPORT_NAME))
-                                .withDescription(keyAndMetadata.getMetadata().getUserMetaDataOf(HTTP_HEADER_REPORT_DESCRIPTION))
-                                .withContentLength((int) keyAndMetadata.getMetadata().getContentLength())
-                                .withContentType(keyAndMetadata.getMetadata().getContentType())
-                                .build()
-                        )
-                        .forEach(canonicalDocument -> {
-                            logger.debug("handleGetAllDocumentsMetadata(), adding ({}) to result", canonicalDocument);
-                            resultBuilder.addDocument(canonicalDocument);
-                        });
+            CatalogManifest manifest = readCatalogManifest();
+            if (manifest != null) {
+                logger.debug("handleGetAllDocumentsMetadata(...), using catalog manifest {}", manifest);
+                final List<CatalogManifest.Entry> remaining = manifest.getEntries().stream()
+                        .filter(entry -> startAfter == null || entry.getIdentifier().compareTo(startAfter) > 0)
+                        .collect(Collectors.toList());
+                final List<CatalogManifest.Entry> page = remaining.subList(0, Math.min(pageSize, remaining.size()));
+                page.stream()
+                        .map(CatalogManifest.Entry::toCanonicalDocument)
+                        .forEach(resultBuilder::addDocument);
+                if (remaining.size() > page.size())
+                    resultBuilder.withNextCursor(encodeCatalogCursor(page.get(page.size() - 1).getIdentifier()));
+                return resultBuilder.build();
+            }
+
+            // list (following continuation tokens) until a page worth of report keys has been found,
+            // the reserved keys are not reports and may take up some of each listing
+            final List<String> keys = new ArrayList<>();
+            boolean moreKeys;
+            String continuationToken = null;
+            do {
+                logger.debug("handleGetAllDocumentsMetadata(...), listing keys after [{}], continuation [{}]", startAfter, continuationToken);
+                ReportStore.KeyListing listing = reportStore.listKeys(startAfter, continuationToken, pageSize);
+                listing.getKeys().stream()
+                        .filter(key -> !CatalogManifestRepository.isReservedKey(key))
+                        .forEach(keys::add);
+                moreKeys = listing.isTruncated();
+                continuationToken = listing.getNextContinuationToken();
+            } while (moreKeys && keys.size() < pageSize);
+
+            if (keys.size() > pageSize) {
+                keys.subList(pageSize, keys.size()).clear();
+                moreKeys = true;
+            }
+            if (moreKeys && !keys.isEmpty())
+                resultBuilder.withNextCursor(encodeCatalogCursor(keys.get(keys.size() - 1)));
+
+            // the HEAD requests are made concurrently, a failure is reported against the one document
+            final List<BoundedParallelFetcher.Outcome<KeyAndMetadata>> outcomes = catalogMetadataFetcher.fetchAll(
+                    keys,
+                    key -> new KeyAndMetadata(key, getObjectMetadataIfExists(key))
+            );
+            for (int index = 0; index < keys.size(); ++index) {
+                final BoundedParallelFetcher.Outcome<KeyAndMetadata> outcome = outcomes.get(index);
+                final CanonicalDocument canonicalDocument;
+                if (!outcome.isSuccess()) {
+                    canonicalDocument = CanonicalDocument.builder()
+                            .withIdentifier(keys.get(index))
+                            .withError(outcome.getError())
+                            .build();
+                } else if (outcome.getValue().getMetadata() != null) {
+                    final KeyAndMetadata keyAndMetadata = outcome.getValue();
+                    canonicalDocument = CanonicalDocument.builder()
+                            .withIdentifier(keyAndMetadata.getKey())
+                            .withName(keyAndMetadata.getMetadata().getUserMetaDataOf(HTTP_HEADER_REPORT_NAME))
+                            .withDescription(keyAndMetadata.getMetadata().getUserMetaDataOf(HTTP_HEADER_REPORT_DESCRIPTION))
+                            .withContentLength((int) getIdentityContentLength(keyAndMetadata.getMetadata()))
+                            .withContentType(keyAndMetadata.getMetadata().getContentType())
+                            .build();
+                } else {
+                    // deleted between the listing and the HEAD
+                    continue;
+                }
+                logger.debug("handleGetAllDocumentsMetadata(...), adding ({}) to result", canonicalDocument);
+                resultBuilder.addDocument(canonicalDocument);
             }
             return resultBuilder.build();
 
@@ -510,6 +1966,60 @@ public class CannedReportsManager {
         }
     }
 
+    /**
+     * The catalog cursor is opaque to clients, it encodes the last identifier of the previous page.
+     */
+    static String encodeCatalogCursor(final String lastIdentifier) {
+        return Base64.getUrlEncoder().withoutPadding()
+                .encodeToString((CATALOG_CURSOR_PREFIX + lastIdentifier).getBytes(StandardCharsets.UTF_8));
+    }
+
+    static String decodeCatalogCursor(final String cursor) throws InstanceValidationException {
+        if (cursor == null || cursor.isEmpty())
+            return null;
+        try {
+            final String decoded = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            if (decoded.startsWith(CATALOG_CURSOR_PREFIX) && decoded.length() > CATALOG_CURSOR_PREFIX.length())
+                return decoded.substring(CATALOG_CURSOR_PREFIX.length());
+        } catch (IllegalArgumentException iaX) {
+            // fall through to the validation failure
+        }
+        throw InstanceValidationException.builder()
+                .withContext("CanonicalRequest")
+                .withValidationFailure("cursor", "Must be a cursor returned from a previous response")
+                .build();
+    }
+
+    /**
+     * @param key an S3 key
+     * @return the object metadata or null if the key does not exist
+     */
+    private ObjectMetadata getObjectMetadataIfExists(final String key) {
+        try {
+            return reportStore.head(key, null);
+        } catch (AmazonS3Exception s3X) {
+            if (s3X.getStatusCode() == HttpStatus.SC_NOT_FOUND)
+                return null;
+            throw s3X;
+        }
+    }
+
+    /**
+     * Read the catalog manifest, a missing or unreadable manifest is not an error because the catalog
+     * can always be built from the bucket listing.
+     * @return the manifest, or null if it is disabled, does not exist or cannot be read
+     */
+    private CatalogManifest readCatalogManifest() {
+        if (!catalogManifestEnabled)
+            return null;
+        try {
+            return catalogManifestRepository.read();
+        } catch (IOException ioX) {
+            logger.warn("readCatalogManifest(), unable to parse catalog manifest, falling back to listing", ioX);
+            return null;
+        }
+    }
+
     /**
      * The authorization header should follow the format "Authorization: Bearer <token>".
      * This code will accept either "Bearer <token>" or simply "<token>"
@@ -539,39 +2049,79 @@ public class CannedReportsManager {
     }
 
     /**
+     * The revision count of a document, from its stored metadata when present. Objects written before the
+     * count was stored fall back to counting the versions, which is a listing the first time and then
+     * comes from the revision index.
      *
      * @param identifier
+     * @param objectMetadata the metadata of the current revision
      * @return
      */
-    protected int getVersionCount(final String identifier) {
-        ListVersionsRequest listVersionsRequest = new ListVersionsRequest();
-        listVersionsRequest.setBucketName(this.s3BucketName);
-        listVersionsRequest.setPrefix(identifier);
-        listVersionsRequest.setMaxResults(Integer.valueOf(1000));
+    protected int getRevisionCount(final String identifier, final ObjectMetadata objectMetadata) {
+        final Integer storedRevisionCount = getStoredRevisionCount(objectMetadata);
+        return storedRevisionCount != null ? storedRevisionCount : getVersionCount(identifier);
+    }
 
-        VersionListing versions = amazonS3.listVersions(listVersionsRequest);
-        return versions == null || versions.getVersionSummaries() == null ? 0 : versions.getVersionSummaries().size();
+    /**
+     * @param objectMetadata the metadata of a revision, may be null
+     * @return the revision count stored with the revision, null if absent or invalid
+     */
+    static Integer getStoredRevisionCount(final ObjectMetadata objectMetadata) {
+        final String storedRevisionCount = objectMetadata == null ? null : objectMetadata.getUserMetaDataOf(S3_METADATA_REVISION_COUNT);
+        if (storedRevisionCount == null)
+            return null;
+        try {
+            final int revisionCount = Integer.parseInt(storedRevisionCount.trim());
+            return revisionCount > 0 ? revisionCount : null;
+        } catch (NumberFormatException nfX) {
+            return null;
+        }
     }
 
     /**
+     * The exact number of versions of the identifier (delete markers and keys that merely start with the
+     * identifier are not counted).
      *
      * @param identifier
-     * @param revisionSpecification
      * @return
+     */
+    protected int getVersionCount(final String identifier) {
+        return revisionIndex.countRevisions(identifier);
+    }
+
+    /**
+     *
+     * @param identifier
+     * @param revisionSpecification
+     * @return the S3 version identifier of the specified revision
      * @throws UnknownRevisionException
      */
     protected String getVersionIdentifier(final String identifier, final RevisionSpecification revisionSpecification) throws UnknownRevisionException {
-        ListVersionsRequest listVersionsRequest = new ListVersionsRequest();
-        listVersionsRequest.setBucketName(this.s3BucketName);
-        listVersionsRequest.setPrefix(identifier);
-        listVersionsRequest.setMaxResults(Integer.valueOf(1000));
+        return revisionIndex.resolve(identifier, revisionSpecification).getVersionId();
+    }
 
-        VersionListing versions = amazonS3.listVersions(listVersionsRequest);
-        int versionIndex = (versions.getVersionSummaries().size() - 1) + revisionSpecification.getValue();
-        if (versionIndex >= 0 && versionIndex < versions.getVersionSummaries().size()) {
-            return versions.getVersionSummaries().get(versionIndex).getVersionId();
-        }
-        throw new UnknownRevisionException(identifier, revisionSpecification);
+    /**
+     * @return null when the specification addresses the current revision, which is read without a version identifier
+     * @throws UnknownRevisionException
+     */
+    private RevisionIndex.Revision resolveRevision(final String identifier, final RevisionSpecification revisionSpecification)
+            throws UnknownRevisionException {
+        return RevisionIndex.isCurrent(revisionSpecification) ? null : revisionIndex.resolve(identifier, revisionSpecification);
+    }
+
+    /**
+     * @param revision the resolved revision, null for the current revision
+     */
+    private ObjectMetadata getObjectMetadata(final String identifier, final RevisionIndex.Revision revision) {
+        return reportStore.head(identifier, revision == null ? null : revision.getVersionId());
+    }
+
+    /**
+     * @param revision the resolved revision, null for the current revision
+     * @return the (one based) number of the revision
+     */
+    private int getRevisionNumber(final String identifier, final RevisionIndex.Revision revision, final ObjectMetadata objectMetadata) {
+        return revision == null ? getRevisionCount(identifier, objectMetadata) : revision.getRevisionNumber();
     }
 
     /**
@@ -589,6 +2139,18 @@ public class CannedReportsManager {
             response = CanonicalResponse.builder()
                     .reportNotFoundException(aadfX)
                     .build();
+        } else if (aadfX instanceof UnknownRevisionException){
+            response = CanonicalResponse.builder()
+                    .reportNotFoundException(aadfX)
+                    .build();
+        } else if (aadfX instanceof UnknownUploadSessionException){
+            response = CanonicalResponse.builder()
+                    .reportNotFoundException(aadfX)
+                    .build();
+        } else if (aadfX instanceof ConcurrentWriteException){
+            response = CanonicalResponse.builder()
+                    .conflictException(aadfX)
+                    .build();
         } else if (aadfX instanceof AbstractClientException){
             response = CanonicalResponse.builder()
                     .genericBadRequestException(aadfX)
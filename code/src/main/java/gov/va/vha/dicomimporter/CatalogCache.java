@@ -0,0 +1,132 @@
+package gov.va.vha.dicomimporter;
+
+import com.amazonaws.SdkClientException;
+import gov.va.vha.dicomimporter.model.CanonicalResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.security.InvalidParameterException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * An in-memory cache of catalog pages that lives as long as the (warm) Lambda container.
+ * Every cached page belongs to a catalog generation, the ETag of the catalog manifest maintained by the
+ * CatalogManifestRepository. Before the cache is used it is revalidated with a single HEAD of the manifest,
+ * if the generation has changed all the cached pages are discarded. Without a manifest the catalog is listed
+ * from the bucket, nothing identifies its generation, so nothing is cached.
+ *
+ * The cache is bounded by a number of pages, the least recently used page is evicted first.
+ */
+public class CatalogCache {
+    public static final String PROPERTY_CATALOG_CACHE_ENABLED = "catalog_cache_enabled";
+    public static final String PROPERTY_CATALOG_CACHE_MAXIMUM_PAGES = "catalog_cache_maximum_pages";
+    public static final String DEFAULT_CATALOG_CACHE_MAXIMUM_PAGES = "64";
+
+    private final CatalogManifestRepository catalogManifestRepository;
+    private final Map<String, CanonicalResponse> pages;
+    private String generation;
+    private long hits;
+    private long misses;
+
+    private final Logger logger = LoggerFactory.getLogger(CatalogCache.class);
+
+    /**
+     * @param catalogManifestRepository the source of the catalog generation
+     * @param maximumPages the maximum number of pages retained
+     */
+    public CatalogCache(final CatalogManifestRepository catalogManifestRepository, final int maximumPages) {
+        if (catalogManifestRepository == null)
+            throw new InvalidParameterException("'catalogManifestRepository' must not be null");
+        if (maximumPages < 1)
+            throw new InvalidParameterException("'maximumPages' must be greater than zero");
+        this.catalogManifestRepository = catalogManifestRepository;
+        this.pages = new LinkedHashMap<String, CanonicalResponse>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CanonicalResponse> eldest) {
+                return size() > maximumPages;
+            }
+        };
+    }
+
+    /**
+     * Create an instance configured from the application properties.
+     * @return the cache or null if catalog caching is disabled
+     */
+    public static CatalogCache fromApplicationProperties(final CatalogManifestRepository catalogManifestRepository) {
+        if (!Boolean.valueOf(ApplicationProperties.getSingleton().getProperty(PROPERTY_CATALOG_CACHE_ENABLED, "true")))
+            return null;
+        return new CatalogCache(
+                catalogManifestRepository,
+                Integer.parseInt(ApplicationProperties.getSingleton()
+                        .getProperty(PROPERTY_CATALOG_CACHE_MAXIMUM_PAGES, DEFAULT_CATALOG_CACHE_MAXIMUM_PAGES))
+        );
+    }
+
+    /**
+     * Bring the cache up to date with the current catalog generation, this is one S3 HEAD.
+     * @return the current generation, or null if it could not be determined or there is no manifest
+     * (in which case the cache is empty)
+     */
+    public synchronized String revalidate() {
+        try {
+            final String current = catalogManifestRepository.readGeneration();
+            if (CatalogManifestRepository.ABSENT_GENERATION.equals(current)) {
+                invalidate();
+                return null;
+            }
+            if (!current.equals(generation)) {
+                logger.debug("revalidate(), generation changed from [{}] to [{}], discarding {} page(s)", generation, current, pages.size());
+                pages.clear();
+                generation = current;
+            }
+            return generation;
+        } catch (SdkClientException sdkcX) {
+            logger.warn("revalidate(), unable to read the catalog generation, discarding cache", sdkcX);
+            invalidate();
+            return null;
+        }
+    }
+
+    /**
+     * @param pageKey identifies the page (start and size)
+     * @return the cached page or null if not cached, this does not revalidate
+     */
+    public synchronized CanonicalResponse get(final String pageKey) {
+        CanonicalResponse page = pages.get(pageKey);
+        if (page == null)
+            ++misses;
+        else
+            ++hits;
+        return page;
+    }
+
+    /**
+     * Cache a page built while the catalog was at the given generation. If the generation has changed
+     * since then the page is stale and is not cached.
+     */
+    public synchronized void put(final String pageGeneration, final String pageKey, final CanonicalResponse page) {
+        if (pageGeneration != null && pageGeneration.equals(generation))
+            pages.put(pageKey, page);
+    }
+
+    /**
+     * Discard all cached pages and the known generation, the next revalidate re-reads the generation.
+     */
+    public synchronized void invalidate() {
+        pages.clear();
+        generation = null;
+    }
+
+    public synchronized int size() {
+        return pages.size();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+}
@@ -0,0 +1,248 @@
+package gov.va.vha.dicomimporter;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.AmazonS3Exception;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.S3Object;
+import com.amazonaws.services.s3.model.S3ObjectInputStream;
+import gov.va.vha.dicomimporter.exceptions.UnrecoverableDependentInvocationException;
+import gov.va.vha.dicomimporter.model.CatalogManifest;
+import org.apache.http.HttpStatus;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.security.InvalidParameterException;
+import java.util.Collection;
+
+/**
+ * Reads and maintains the catalog manifest, a single object of the ReportStore that indexes every report in it.
+ * Updates are optimistic, the manifest is read, modified and written back conditionally on the ETag that
+ * was read, a conflicting concurrent update causes the read-modify-write to be retried.
+ *
+ * The ETag of the manifest identifies the generation of the catalog, the manifest is rewritten whenever the catalog
+ * changes, so cached copies can be revalidated with a single HEAD of the manifest.
+ *
+ * Keys beginning with RESERVED_KEY_PREFIX (or with the staging prefix of upload sessions) belong to the application
+ * rather than to reports, they are never included in the manifest. Report identifiers are a single path element so they cannot collide with these keys.
+ */
+public class CatalogManifestRepository {
+    public static final String RESERVED_KEY_PREFIX = ".catalog/";
+    public static final String PROPERTY_CATALOG_MANIFEST_KEY = "catalog_manifest_key";
+    public static final String DEFAULT_CATALOG_MANIFEST_KEY = RESERVED_KEY_PREFIX + "manifest.json";
+    /** the generation reported when no manifest exists */
+    public static final String ABSENT_GENERATION = "";
+
+    private static final int MAXIMUM_WRITE_ATTEMPTS = 5;
+    private static final String MANIFEST_CONTENT_TYPE = "application/json";
+
+    private final ReportStore reportStore;
+    private final String manifestKey;
+
+    private final Logger logger = LoggerFactory.getLogger(CatalogManifestRepository.class);
+
+    public CatalogManifestRepository(final AmazonS3 amazonS3, final String s3BucketName) {
+        this(new S3ReportStore(amazonS3, s3BucketName));
+    }
+
+    public CatalogManifestRepository(final ReportStore reportStore) {
+        if (reportStore == null)
+            throw new InvalidParameterException("reportStore must not be null");
+        this.reportStore = reportStore;
+        this.manifestKey = ApplicationProperties.getSingleton()
+                .getProperty(PROPERTY_CATALOG_MANIFEST_KEY, DEFAULT_CATALOG_MANIFEST_KEY);
+    }
+
+    /**
+     * @param key an S3 key
+     * @return true if the key is used by the application (i.e. is not a report)
+     */
+    public static boolean isReservedKey(final String key) {
+        return key != null && (key.startsWith(RESERVED_KEY_PREFIX) || UploadSessionRepository.isStagingKey(key));
+    }
+
+    public String getManifestKey() {
+        return manifestKey;
+    }
+
+    /**
+     * Read the current catalog generation, the ETag of the manifest, with a HEAD (the manifest is not read).
+     *
+     * @return the current generation, ABSENT_GENERATION if there is no manifest
+     */
+    public String readGeneration() {
+        final ObjectMetadata metadata;
+        try {
+            metadata = reportStore.head(manifestKey, null);
+        } catch (AmazonS3Exception s3X) {
+            if (s3X.getStatusCode() == HttpStatus.SC_NOT_FOUND)
+                return ABSENT_GENERATION;
+            throw s3X;
+        }
+        return metadata == null || metadata.getETag() == null ? ABSENT_GENERATION : metadata.getETag();
+    }
+
+    /**
+     * Read the manifest with a single GET.
+     * @return the manifest or null if no manifest exists
+     * @throws IOException if the manifest exists but cannot be parsed
+     */
+    public CatalogManifest read() throws IOException {
+        logger.debug("read() manifest [{}]", manifestKey);
+        final S3Object s3Object;
+        try {
+            s3Object = reportStore.get(manifestKey, null, null, null);
+        } catch (AmazonS3Exception s3X) {
+            if (s3X.getStatusCode() == HttpStatus.SC_NOT_FOUND)
+                return null;
+            throw s3X;
+        }
+        if (s3Object == null || s3Object.getObjectContent() == null)
+            return null;
+
+        try (S3ObjectInputStream content = s3Object.getObjectContent()) {
+            return CatalogManifest.fromJson(content, s3Object.getObjectMetadata().getETag());
+        }
+    }
+
+    /**
+     * Bring the manifest entries for the given keys up to date with the bucket. Each key is described
+     * from its current S3 metadata, a key that no longer exists is removed from the manifest.
+     * The manifest is created if it does not exist.
+     *
+     * @param changedKeys the keys reported as created or removed
+     * @return the manifest as written
+     */
+    public CatalogManifest applyChanges(final Collection<String> changedKeys)
+            throws IOException, UnrecoverableDependentInvocationException {
+        logger.info("applyChanges({})", changedKeys);
+
+        for (int attempt = 1; attempt <= MAXIMUM_WRITE_ATTEMPTS; ++attempt) {
+            CatalogManifest current = read();
+            CatalogManifest.Builder builder = CatalogManifest.builder(current);
+            if (current == null)
+                builder.withCompactedAt(0L);
+            for (String key : changedKeys) {
+                if (isReservedKey(key))
+                    continue;
+                CatalogManifest.Entry entry = describe(key, true);
+                if (entry == null)
+                    builder.removeEntry(key);
+                else
+                    builder.putEntry(entry);
+            }
+
+            CatalogManifest updated = builder.build();
+            if (write(updated, current == null ? null : current.getETag()))
+                return updated;
+            logger.info("applyChanges(...), manifest changed concurrently, attempt {} of {}", attempt, MAXIMUM_WRITE_ATTEMPTS);
+        }
+        throw new UnrecoverableDependentInvocationException("CatalogManifestRepository.applyChanges", null);
+    }
+
+    /**
+     * Rebuild the manifest from a full listing of the bucket. This corrects any drift caused by lost or
+     * re-ordered S3 events.
+     *
+     * @return the manifest as written
+     */
+    public CatalogManifest compact() throws IOException, UnrecoverableDependentInvocationException {
+        logger.info("compact()");
+
+        for (int attempt = 1; attempt <= MAXIMUM_WRITE_ATTEMPTS; ++attempt) {
+            CatalogManifest current = read();
+            CatalogManifest.Builder builder = CatalogManifest.builder()
+                    .withCompactedAt(System.currentTimeMillis());
+
+            ReportStore.KeyListing keys = null;
+            do {
+                keys = reportStore.listKeys(null, keys == null ? null : keys.getNextContinuationToken(), null);
+                for (String key : keys.getKeys()) {
+                    if (isReservedKey(key))
+                        continue;
+                    CatalogManifest.Entry entry = describe(key, false);
+                    if (entry != null)
+                        builder.putEntry(entry);
+                }
+            } while (keys.isTruncated());
+
+            CatalogManifest compacted = builder.build();
+            if (write(compacted, current == null ? null : current.getETag()))
+                return compacted;
+            logger.info("compact(), manifest changed concurrently, attempt {} of {}", attempt, MAXIMUM_WRITE_ATTEMPTS);
+        }
+        throw new UnrecoverableDependentInvocationException("CatalogManifestRepository.compact", null);
+    }
+
+    /**
+     * Describe a single report from its current S3 metadata.
+     * The revision count is the one stored with the current revision. When reconciling, or when no count
+     * is stored, the versions are also counted; a stored count that is lower than the number of versions
+     * (i.e. a revision written concurrently from two containers) is corrected in the manifest. A stored
+     * count that is higher is expected after revisions have been deleted, the count never decreases.
+     *
+     * @param reconcile true to verify the stored revision count against the versions
+     * @return the manifest entry or null if the key does not exist
+     */
+    CatalogManifest.Entry describe(final String key, final boolean reconcile) {
+        final ObjectMetadata metadata;
+        try {
+            metadata = reportStore.head(key, null);
+        } catch (AmazonS3Exception s3X) {
+            if (s3X.getStatusCode() == HttpStatus.SC_NOT_FOUND)
+                return null;
+            throw s3X;
+        }
+        if (metadata == null)
+            return null;
+
+        Integer revisionCount = CannedReportsManager.getStoredRevisionCount(metadata);
+        if (revisionCount == null || reconcile) {
+            final int versionCount = countRevisions(key);
+            if (revisionCount != null && versionCount > revisionCount)
+                logger.warn("describe({}), stored revision count {} is lower than the {} versions, reconciled", key, revisionCount, versionCount);
+            revisionCount = revisionCount == null ? versionCount : Math.max(revisionCount, versionCount);
+        }
+
+        return new CatalogManifest.Entry(
+                key,
+                metadata.getUserMetaDataOf(CannedReportsManager.HTTP_HEADER_REPORT_NAME),
+                metadata.getUserMetaDataOf(CannedReportsManager.HTTP_HEADER_REPORT_DESCRIPTION),
+                metadata.getContentType(),
+                CannedReportsManager.getIdentityContentLength(metadata),
+                metadata.getETag(),
+                revisionCount
+        );
+    }
+
+    /**
+     * Count the versions of exactly the given key, excluding delete markers.
+     * This is a listing and so is only done off the request path (on the request path the RevisionIndex is used).
+     */
+    int countRevisions(final String key) {
+        return reportStore.listVersionIds(key).size();
+    }
+
+    /**
+     * Write the manifest, conditional on the manifest in S3 being the one that was read.
+     * @param manifest the manifest to write
+     * @param expectedETag the ETag of the manifest as read, null if there was no manifest
+     * @return true if written, false if the manifest was changed by someone else
+     */
+    private boolean write(final CatalogManifest manifest, final String expectedETag) throws IOException {
+        final byte[] json = manifest.toJson();
+        ObjectMetadata objectMetadata = new ObjectMetadata();
+        objectMetadata.setContentType(MANIFEST_CONTENT_TYPE);
+        objectMetadata.setContentLength(json.length);
+
+        try {
+            reportStore.put(this.manifestKey, json, objectMetadata, expectedETag, expectedETag == null ? ReportStore.ANY : null);
+            logger.info("write(...), wrote manifest with {} entries", manifest.getEntries().size());
+            return true;
+        } catch (AmazonS3Exception s3X) {
+            if (s3X.getStatusCode() == HttpStatus.SC_PRECONDITION_FAILED || s3X.getStatusCode() == HttpStatus.SC_CONFLICT)
+                return false;
+            throw s3X;
+        }
+    }
+}
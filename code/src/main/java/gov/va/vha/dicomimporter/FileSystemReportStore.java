@@ -0,0 +1,553 @@
+package gov.va.vha.dicomimporter;
+
+import com.amazonaws.HttpMethod;
+import com.amazonaws.services.s3.Headers;
+import com.amazonaws.services.s3.model.AmazonS3Exception;
+import com.amazonaws.services.s3.model.CopyObjectResult;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PutObjectResult;
+import com.amazonaws.services.s3.model.S3Object;
+import com.amazonaws.util.BinaryUtils;
+import com.amazonaws.util.Md5Utils;
+import com.amazonaws.util.StringUtils;
+import org.apache.http.HttpStatus;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.UnsupportedEncodingException;
+import java.net.URL;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.InvalidParameterException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A ReportStore in a directory tree, for sites and developer machines without S3. The semantics are those of a
+ * versioned S3 bucket (as InMemoryReportStore). Each key is a directory (the URL encoded key) holding its versions:
+ * - {version}.body, the content, written once and never changed
+ * - {version}.meta, the sidecar metadata (a properties file), a version exists once this is in place
+ * A delete marker is a version with a sidecar and no body. The version identifiers are increasing numbers (a
+ * timestamp in microseconds, at least one more than the newest version), so a listing of the directory orders them.
+ *
+ * Every file is written to a temporary file in the same directory and then renamed into place, a reader never sees a
+ * partial file. The directory is owned by one process, writes of a key are serialized within the process (which is
+ * what makes the conditional writes atomic), reads take no lock.
+ * Sidecars are immutable and so are kept once parsed. A body of at least MAPPED_READ_MINIMUM_BYTES is read through a
+ * memory mapping (the content is never copied into the heap by the store), a smaller body with a single read, which
+ * is cheaper than setting up a mapping.
+ * A presigned URL cannot be created, that fails with 501 (Not Implemented).
+ */
+public class FileSystemReportStore implements ReportStore {
+    public static final String PROPERTY_FILESYSTEM_STORE_DIRECTORY = "filesystem_store_directory";
+    public static final String DEFAULT_FILESYSTEM_STORE_DIRECTORY = "canned-reports";
+    static final long MAPPED_READ_MINIMUM_BYTES = 64 * 1024L;
+    private static final int MAXIMUM_CACHED_SIDECARS = 16384;
+    private static final String BODY_SUFFIX = ".body";
+    private static final String META_SUFFIX = ".meta";
+    private static final String TEMPORARY_PREFIX = ".";
+    private static final String TEMPORARY_SUFFIX = ".tmp";
+    private static final String SIDECAR_DELETE_MARKER = "delete-marker";
+    private static final String SIDECAR_USER_METADATA_PREFIX = CannedReportsManager.S3_METADATA_PREFIX;
+    private static final String SIDECAR_CONTENT_TYPE = Headers.CONTENT_TYPE;
+    private static final String SIDECAR_CONTENT_ENCODING = Headers.CONTENT_ENCODING;
+    private static final String SIDECAR_CONTENT_LENGTH = Headers.CONTENT_LENGTH;
+    private static final String SIDECAR_ETAG = Headers.ETAG;
+    private static final String SIDECAR_LAST_MODIFIED = Headers.LAST_MODIFIED;
+
+    private final Path directory;
+    private final Map<String, Object> keyLocks = new ConcurrentHashMap<>();
+    private final Map<Path, ObjectMetadata> sidecars = new ConcurrentHashMap<>();
+    private final Logger logger = LoggerFactory.getLogger(FileSystemReportStore.class);
+
+    /**
+     * @param directory the root of the store, created if it does not exist
+     */
+    public FileSystemReportStore(final Path directory) {
+        logger.info("FileSystemReportStore({})", directory);
+        if (directory == null)
+            throw new InvalidParameterException("directory must not be null");
+        try {
+            this.directory = Files.createDirectories(directory);
+        } catch (IOException ioX) {
+            throw new InvalidParameterException("unable to create directory [" + directory + "], " + ioX.getMessage());
+        }
+    }
+
+    /**
+     * Create an instance configured from the application properties.
+     */
+    public static FileSystemReportStore fromApplicationProperties() {
+        return new FileSystemReportStore(Paths.get(ApplicationProperties.getSingleton()
+                .getProperty(PROPERTY_FILESYSTEM_STORE_DIRECTORY, DEFAULT_FILESYSTEM_STORE_DIRECTORY)));
+    }
+
+    @Override
+    public ObjectMetadata head(final String key, final String versionId) {
+        return find(key, versionId).metadata.clone();
+    }
+
+    @Override
+    public S3Object get(final String key, final String versionId, final String nonmatchingETag, final Date modifiedSince) {
+        final Version version = find(key, versionId);
+        if ((nonmatchingETag != null && nonmatchingETag.equals(version.metadata.getETag()))
+                || (modifiedSince != null && !version.metadata.getLastModified().after(modifiedSince)))
+            return null;
+
+        final ByteBuffer content;
+        try (FileChannel channel = FileChannel.open(version.body(), StandardOpenOption.READ)) {
+            final long size = channel.size();
+            if (size >= MAPPED_READ_MINIMUM_BYTES) {
+                // the mapping remains valid once the channel is closed
+                content = channel.map(FileChannel.MapMode.READ_ONLY, 0L, size);
+            } else {
+                content = ByteBuffer.allocate((int) size);
+                while (content.hasRemaining() && channel.read(content) >= 0)
+                    ;
+                content.flip();
+            }
+        } catch (NoSuchFileException nsfX) {
+            // the version was deleted since it was found
+            throw createException(HttpStatus.SC_NOT_FOUND);
+        } catch (IOException ioX) {
+            throw createException(ioX);
+        }
+
+        S3Object s3Object = new S3Object();
+        s3Object.setKey(key);
+        s3Object.setObjectMetadata(version.metadata.clone());
+        s3Object.setObjectContent(new ByteBufferInputStream(content));
+        return s3Object;
+    }
+
+    @Override
+    public PutObjectResult put(final String key, final byte[] content, final ObjectMetadata metadata,
+                               final String ifMatch, final String ifNoneMatch) {
+        final byte[] body = content == null ? new byte[0] : content;
+        final ObjectMetadata stored = metadata == null ? new ObjectMetadata() : metadata.clone();
+        stored.setContentLength(body.length);
+        stored.setHeader(SIDECAR_ETAG, BinaryUtils.toHex(Md5Utils.computeMD5Hash(body)));
+
+        synchronized (lock(key)) {
+            final Version current = findCurrent(key);
+            if (ifMatch != null && (current == null || !ifMatch.equals(current.metadata.getETag())))
+                throw createException(current == null ? HttpStatus.SC_NOT_FOUND : HttpStatus.SC_PRECONDITION_FAILED);
+            if (ANY.equals(ifNoneMatch) && current != null)
+                throw createException(HttpStatus.SC_PRECONDITION_FAILED);
+            try {
+                final Path keyDirectory = Files.createDirectories(keyDirectory(key));
+                final String versionId = nextVersionId(keyDirectory);
+                moveIntoPlace(writeTemporary(keyDirectory, body), keyDirectory.resolve(versionId + BODY_SUFFIX));
+                writeSidecar(keyDirectory, versionId, stored);
+            } catch (IOException ioX) {
+                throw createException(ioX);
+            }
+        }
+
+        PutObjectResult result = new PutObjectResult();
+        result.setETag(stored.getETag());
+        result.setVersionId(stored.getVersionId());
+        result.setMetadata(stored.clone());
+        return result;
+    }
+
+    /**
+     * The body of the new version is a hard link to the body of the copied version (a copy where the file system
+     * does not support links), both are immutable.
+     */
+    @Override
+    public CopyObjectResult copy(final String key, final String sourceVersionId, final ObjectMetadata metadata, final String ifMatch) {
+        final ObjectMetadata stored;
+        synchronized (lock(key)) {
+            final Version source = find(key, sourceVersionId);
+            if (ifMatch != null && !ifMatch.equals(source.metadata.getETag()))
+                throw createException(HttpStatus.SC_PRECONDITION_FAILED);
+            stored = (metadata == null ? source.metadata : metadata).clone();
+            stored.setContentLength(source.metadata.getContentLength());
+            stored.setHeader(SIDECAR_ETAG, source.metadata.getETag());
+            try {
+                final Path keyDirectory = source.keyDirectory;
+                final String versionId = nextVersionId(keyDirectory);
+                final Path temporary = keyDirectory.resolve(TEMPORARY_PREFIX + UUID.randomUUID() + TEMPORARY_SUFFIX);
+                try {
+                    Files.createLink(temporary, source.body());
+                } catch (UnsupportedOperationException | IOException linkX) {
+                    Files.copy(source.body(), temporary, StandardCopyOption.REPLACE_EXISTING);
+                }
+                moveIntoPlace(temporary, keyDirectory.resolve(versionId + BODY_SUFFIX));
+                writeSidecar(keyDirectory, versionId, stored);
+            } catch (NoSuchFileException nsfX) {
+                throw createException(HttpStatus.SC_NOT_FOUND);
+            } catch (IOException ioX) {
+                throw createException(ioX);
+            }
+        }
+
+        CopyObjectResult result = new CopyObjectResult();
+        result.setETag(stored.getETag());
+        result.setVersionId(stored.getVersionId());
+        result.setLastModifiedDate(stored.getLastModified());
+        return result;
+    }
+
+    /**
+     * The continuation token is the last key of the page.
+     */
+    @Override
+    public KeyListing listKeys(final String startAfter, final String continuationToken, final Integer maxKeys) {
+        final int limit = maxKeys == null ? 1000 : Math.max(1, maxKeys);
+        final String after = continuationToken != null ? continuationToken : startAfter;
+        final List<String> keys = new ArrayList<>();
+        boolean truncated = false;
+        for (String key : listAllKeys()) {
+            if ((after != null && key.compareTo(after) <= 0) || findCurrent(key) == null)
+                continue;
+            if (keys.size() == limit) {
+                truncated = true;
+                break;
+            }
+            keys.add(key);
+        }
+        return new KeyListing(keys, truncated ? keys.get(keys.size() - 1) : null, truncated);
+    }
+
+    @Override
+    public List<String> listVersionIds(final String key) {
+        final List<String> versionIds = new ArrayList<>();
+        for (Version version : listVersions(keyDirectory(key)))
+            if (!version.isDeleteMarker())
+                versionIds.add(version.versionId);
+        return versionIds;
+    }
+
+    @Override
+    public void delete(final String key) {
+        synchronized (lock(key)) {
+            final Path keyDirectory = keyDirectory(key);
+            if (!Files.isDirectory(keyDirectory))
+                return;
+            final ObjectMetadata deleteMarker = new ObjectMetadata();
+            deleteMarker.setHeader(SIDECAR_DELETE_MARKER, Boolean.TRUE.toString());
+            try {
+                writeSidecar(keyDirectory, nextVersionId(keyDirectory), deleteMarker);
+            } catch (IOException ioX) {
+                throw createException(ioX);
+            }
+        }
+    }
+
+    @Override
+    public void deleteVersion(final String key, final String versionId) {
+        synchronized (lock(key)) {
+            final Path keyDirectory = keyDirectory(key);
+            final Path sidecar = keyDirectory.resolve(versionId + META_SUFFIX);
+            try {
+                // the sidecar first, a body without one is not a version
+                Files.deleteIfExists(sidecar);
+                sidecars.remove(sidecar);
+                Files.deleteIfExists(keyDirectory.resolve(versionId + BODY_SUFFIX));
+            } catch (IOException ioX) {
+                throw createException(ioX);
+            }
+        }
+    }
+
+    @Override
+    public URL presign(final HttpMethod method, final String key, final String versionId, final String contentType,
+                       final Map<String, String> userMetadata, final Date expiration) {
+        throw createException(HttpStatus.SC_NOT_IMPLEMENTED);
+    }
+
+    private Object lock(final String key) {
+        return keyLocks.computeIfAbsent(key, k -> new Object());
+    }
+
+    /**
+     * The key as a single file name, "." and "*" are encoded as well so that no key is a relative path
+     * (e.g. "..") or an invalid file name.
+     */
+    private Path keyDirectory(final String key) {
+        if (StringUtils.isNullOrEmpty(key))
+            throw createException(HttpStatus.SC_BAD_REQUEST);
+        try {
+            return directory.resolve(URLEncoder.encode(key, StandardCharsets.UTF_8.name())
+                    .replace(".", "%2E")
+                    .replace("*", "%2A"));
+        } catch (UnsupportedEncodingException ueX) {
+            throw new IllegalStateException(ueX);
+        }
+    }
+
+    private List<String> listAllKeys() {
+        final List<String> keys = new ArrayList<>();
+        try (DirectoryStream<Path> keyDirectories = Files.newDirectoryStream(directory)) {
+            for (Path keyDirectory : keyDirectories) {
+                final String name = keyDirectory.getFileName().toString();
+                if (!name.startsWith(TEMPORARY_PREFIX))
+                    keys.add(URLDecoder.decode(name, StandardCharsets.UTF_8.name()));
+            }
+        } catch (IOException ioX) {
+            throw createException(ioX);
+        }
+        Collections.sort(keys);
+        return keys;
+    }
+
+    /**
+     * @return the versions of the key (including delete markers), oldest first, empty if it has none
+     */
+    private List<Version> listVersions(final Path keyDirectory) {
+        final List<String> versionIds = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(keyDirectory, "*" + META_SUFFIX)) {
+            for (Path file : files) {
+                final String name = file.getFileName().toString();
+                if (!name.startsWith(TEMPORARY_PREFIX))
+                    versionIds.add(name.substring(0, name.length() - META_SUFFIX.length()));
+            }
+        } catch (NoSuchFileException nsfX) {
+            return Collections.emptyList();
+        } catch (IOException ioX) {
+            throw createException(ioX);
+        }
+        // the identifiers are of equal length, so the lexical order is the numeric order
+        Collections.sort(versionIds);
+
+        final List<Version> versions = new ArrayList<>(versionIds.size());
+        for (String versionId : versionIds) {
+            final ObjectMetadata metadata = readSidecar(keyDirectory, versionId);
+            if (metadata != null)
+                versions.add(new Version(keyDirectory, versionId, metadata));
+        }
+        return versions;
+    }
+
+    /**
+     * @return the current version, null if the key has none (or is deleted)
+     */
+    private Version findCurrent(final String key) {
+        final List<Version> versions = listVersions(keyDirectory(key));
+        if (versions.isEmpty())
+            return null;
+        final Version newest = versions.get(versions.size() - 1);
+        return newest.isDeleteMarker() ? null : newest;
+    }
+
+    private Version find(final String key, final String versionId) {
+        Version found = null;
+        if (versionId == null) {
+            found = findCurrent(key);
+        } else {
+            final Path keyDirectory = keyDirectory(key);
+            final ObjectMetadata metadata = readSidecar(keyDirectory, versionId);
+            if (metadata != null)
+                found = new Version(keyDirectory, versionId, metadata);
+            if (found != null && found.isDeleteMarker())
+                found = null;
+        }
+        if (found == null)
+            throw createException(HttpStatus.SC_NOT_FOUND);
+        return found;
+    }
+
+    /**
+     * Called with the lock of the key held.
+     */
+    private String nextVersionId(final Path keyDirectory) {
+        final List<Version> versions = listVersions(keyDirectory);
+        long sequence = System.currentTimeMillis() * 1000L;
+        if (!versions.isEmpty())
+            sequence = Math.max(sequence, Long.parseLong(versions.get(versions.size() - 1).versionId) + 1L);
+        return String.format("%019d", sequence);
+    }
+
+    private Path writeTemporary(final Path keyDirectory, final byte[] content) throws IOException {
+        final Path temporary = keyDirectory.resolve(TEMPORARY_PREFIX + UUID.randomUUID() + TEMPORARY_SUFFIX);
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            final ByteBuffer buffer = ByteBuffer.wrap(content);
+            while (buffer.hasRemaining())
+                channel.write(buffer);
+            channel.force(true);
+        }
+        return temporary;
+    }
+
+    /**
+     * Write the sidecar that makes the version exist, the version identifier and last modified date are set in
+     * the metadata.
+     */
+    private void writeSidecar(final Path keyDirectory, final String versionId, final ObjectMetadata metadata) throws IOException {
+        metadata.setHeader(Headers.S3_VERSION_ID, versionId);
+        metadata.setLastModified(new Date());
+
+        final Properties sidecar = new Properties();
+        if (metadata.getRawMetadataValue(SIDECAR_DELETE_MARKER) != null)
+            sidecar.setProperty(SIDECAR_DELETE_MARKER, Boolean.TRUE.toString());
+        if (metadata.getContentType() != null)
+            sidecar.setProperty(SIDECAR_CONTENT_TYPE, metadata.getContentType());
+        if (metadata.getContentEncoding() != null)
+            sidecar.setProperty(SIDECAR_CONTENT_ENCODING, metadata.getContentEncoding());
+        if (metadata.getETag() != null)
+            sidecar.setProperty(SIDECAR_ETAG, metadata.getETag());
+        sidecar.setProperty(SIDECAR_CONTENT_LENGTH, Long.toString(metadata.getContentLength()));
+        sidecar.setProperty(SIDECAR_LAST_MODIFIED, Long.toString(metadata.getLastModified().getTime()));
+        // as with S3, user metadata without a value is not kept
+        metadata.getUserMetadata().forEach((name, value) -> {
+            if (value != null)
+                sidecar.setProperty(SIDECAR_USER_METADATA_PREFIX + name, value);
+        });
+
+        final StringWriter writer = new StringWriter();
+        sidecar.store(writer, null);
+        moveIntoPlace(writeTemporary(keyDirectory, writer.toString().getBytes(StandardCharsets.UTF_8)),
+                keyDirectory.resolve(versionId + META_SUFFIX));
+    }
+
+    /**
+     * Rename a temporary file to its final name, which a reader sees either in full or not at all.
+     */
+    private static void moveIntoPlace(final Path temporary, final Path target) throws IOException {
+        try {
+            Files.move(temporary, target, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    /**
+     * @return the metadata of the version (or delete marker), null if there is no such version
+     */
+    private ObjectMetadata readSidecar(final Path keyDirectory, final String versionId) {
+        final Path path = keyDirectory.resolve(versionId + META_SUFFIX);
+        final ObjectMetadata cached = sidecars.get(path);
+        if (cached != null)
+            return cached;
+
+        final Properties sidecar = new Properties();
+        try {
+            sidecar.load(new StringReader(new String(Files.readAllBytes(path), StandardCharsets.UTF_8)));
+        } catch (NoSuchFileException nsfX) {
+            return null;
+        } catch (IOException ioX) {
+            throw createException(ioX);
+        }
+
+        final ObjectMetadata metadata = new ObjectMetadata();
+        final Map<String, String> userMetadata = new TreeMap<>();
+        for (String name : sidecar.stringPropertyNames()) {
+            final String value = sidecar.getProperty(name);
+            if (name.startsWith(SIDECAR_USER_METADATA_PREFIX))
+                userMetadata.put(name.substring(SIDECAR_USER_METADATA_PREFIX.length()), value);
+            else if (SIDECAR_CONTENT_LENGTH.equals(name))
+                metadata.setContentLength(Long.parseLong(value));
+            else if (SIDECAR_LAST_MODIFIED.equals(name))
+                metadata.setLastModified(new Date(Long.parseLong(value)));
+            else
+                metadata.setHeader(name, value);
+        }
+        metadata.setUserMetadata(userMetadata);
+        metadata.setHeader(Headers.S3_VERSION_ID, versionId);
+
+        // sidecars are never changed, one that is deleted is removed from the cache
+        if (sidecars.size() >= MAXIMUM_CACHED_SIDECARS)
+            sidecars.clear();
+        sidecars.put(path, metadata);
+        return metadata;
+    }
+
+    private static AmazonS3Exception createException(final int statusCode) {
+        AmazonS3Exception s3X = new AmazonS3Exception("File system report store, status " + statusCode);
+        s3X.setStatusCode(statusCode);
+        return s3X;
+    }
+
+    private static AmazonS3Exception createException(final IOException ioX) {
+        AmazonS3Exception s3X = new AmazonS3Exception("File system report store, " + ioX.getMessage(), ioX);
+        s3X.setStatusCode(HttpStatus.SC_INTERNAL_SERVER_ERROR);
+        return s3X;
+    }
+
+    @Override
+    public String toString() {
+        return "FileSystemReportStore{directory=" + directory + "}";
+    }
+
+    private static final class Version {
+        final Path keyDirectory;
+        final String versionId;
+        final ObjectMetadata metadata;
+
+        Version(Path keyDirectory, String versionId, ObjectMetadata metadata) {
+            this.keyDirectory = keyDirectory;
+            this.versionId = versionId;
+            this.metadata = metadata;
+        }
+
+        Path body() {
+            return keyDirectory.resolve(versionId + BODY_SUFFIX);
+        }
+
+        boolean isDeleteMarker() {
+            return metadata.getRawMetadataValue(SIDECAR_DELETE_MARKER) != null;
+        }
+    }
+
+    /**
+     * The content of a body, either in the heap or mapped.
+     */
+    private static final class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(final byte[] bytes, final int offset, final int length) {
+            if (length == 0)
+                return 0;
+            if (!buffer.hasRemaining())
+                return -1;
+            final int count = Math.min(length, buffer.remaining());
+            buffer.get(bytes, offset, count);
+            return count;
+        }
+
+        @Override
+        public long skip(final long count) {
+            final int skipped = (int) Math.max(0L, Math.min(count, buffer.remaining()));
+            buffer.position(buffer.position() + skipped);
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+}
@@ -0,0 +1,374 @@
+package gov.va.vha.dicomimporter;
+
+import com.amazonaws.HttpMethod;
+import com.amazonaws.services.s3.Headers;
+import com.amazonaws.services.s3.model.AmazonS3Exception;
+import com.amazonaws.services.s3.model.CopyObjectResult;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PutObjectResult;
+import com.amazonaws.services.s3.model.S3Object;
+import com.amazonaws.util.BinaryUtils;
+import com.amazonaws.util.Md5Utils;
+import org.apache.http.HttpStatus;
+
+import java.io.ByteArrayInputStream;
+import java.net.URL;
+import java.security.InvalidParameterException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A ReportStore held in memory, with the semantics of a versioned S3 bucket (every write adds a version, deleting
+ * a key adds a delete marker). It is for running the manager without S3, e.g. when priming the request path and in
+ * performance tests and benchmarks, and so can be configured to behave like a remote store:
+ * - every operation is delayed by a fixed latency, outside of any lock so that concurrent operations overlap
+ * - a fraction of the operations fail, as S3 does when it is throttling (503), before they have any effect
+ * The number of operations and the most that were in progress at once are counted.
+ * A presigned URL cannot be created, that fails with 501 (Not Implemented).
+ */
+public class InMemoryReportStore implements ReportStore {
+    private final long latencyMillis;
+    private final double errorRate;
+    private final int errorStatusCode;
+    private final Random random;
+    // the versions of each key, oldest first, a null content is a delete marker
+    private final Map<String, List<Version>> versions = new TreeMap<>();
+    private long versionSequence;
+    private final AtomicInteger requestCount = new AtomicInteger();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger maximumInFlight = new AtomicInteger();
+    private final AtomicInteger injectedErrorCount = new AtomicInteger();
+
+    private InMemoryReportStore(final long latencyMillis, final double errorRate, final int errorStatusCode, final Random random) {
+        this.latencyMillis = latencyMillis;
+        this.errorRate = errorRate;
+        this.errorStatusCode = errorStatusCode;
+        this.random = random;
+    }
+
+    /**
+     * A store without latency or errors.
+     */
+    public InMemoryReportStore() {
+        this(0L, 0.0d, HttpStatus.SC_SERVICE_UNAVAILABLE, new Random());
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public int getRequestCount() {
+        return requestCount.get();
+    }
+
+    public int getMaximumInFlight() {
+        return maximumInFlight.get();
+    }
+
+    public int getInjectedErrorCount() {
+        return injectedErrorCount.get();
+    }
+
+    @Override
+    public ObjectMetadata head(final String key, final String versionId) {
+        beginRequest();
+        try {
+            synchronized (this) {
+                return find(key, versionId).metadata.clone();
+            }
+        } finally {
+            endRequest();
+        }
+    }
+
+    @Override
+    public S3Object get(final String key, final String versionId, final String nonmatchingETag, final Date modifiedSince) {
+        beginRequest();
+        try {
+            final Version version;
+            synchronized (this) {
+                version = find(key, versionId);
+            }
+            if ((nonmatchingETag != null && nonmatchingETag.equals(version.metadata.getETag()))
+                    || (modifiedSince != null && !version.metadata.getLastModified().after(modifiedSince)))
+                return null;
+            S3Object s3Object = new S3Object();
+            s3Object.setKey(key);
+            s3Object.setObjectMetadata(version.metadata.clone());
+            s3Object.setObjectContent(new ByteArrayInputStream(version.content));
+            return s3Object;
+        } finally {
+            endRequest();
+        }
+    }
+
+    @Override
+    public PutObjectResult put(final String key, final byte[] content, final ObjectMetadata metadata,
+                               final String ifMatch, final String ifNoneMatch) {
+        beginRequest();
+        try {
+            final ObjectMetadata stored;
+            synchronized (this) {
+                final Version current = findCurrent(key);
+                if (ifMatch != null && (current == null || !ifMatch.equals(current.metadata.getETag())))
+                    throw createException(current == null ? HttpStatus.SC_NOT_FOUND : HttpStatus.SC_PRECONDITION_FAILED);
+                if (ANY.equals(ifNoneMatch) && current != null)
+                    throw createException(HttpStatus.SC_PRECONDITION_FAILED);
+                stored = store(key, metadata, content == null ? new byte[0] : content.clone());
+            }
+            PutObjectResult result = new PutObjectResult();
+            result.setETag(stored.getETag());
+            result.setVersionId(stored.getVersionId());
+            result.setMetadata(stored.clone());
+            return result;
+        } finally {
+            endRequest();
+        }
+    }
+
+    @Override
+    public CopyObjectResult copy(final String key, final String sourceVersionId, final ObjectMetadata metadata, final String ifMatch) {
+        beginRequest();
+        try {
+            final ObjectMetadata stored;
+            synchronized (this) {
+                final Version source = find(key, sourceVersionId);
+                if (ifMatch != null && !ifMatch.equals(source.metadata.getETag()))
+                    throw createException(HttpStatus.SC_PRECONDITION_FAILED);
+                stored = store(key, metadata == null ? source.metadata : metadata, source.content);
+            }
+            CopyObjectResult result = new CopyObjectResult();
+            result.setETag(stored.getETag());
+            result.setVersionId(stored.getVersionId());
+            result.setLastModifiedDate(stored.getLastModified());
+            return result;
+        } finally {
+            endRequest();
+        }
+    }
+
+    /**
+     * The continuation token is the last key of the page.
+     */
+    @Override
+    public KeyListing listKeys(final String startAfter, final String continuationToken, final Integer maxKeys) {
+        beginRequest();
+        try {
+            final int limit = maxKeys == null ? 1000 : Math.max(1, maxKeys);
+            final String after = continuationToken != null ? continuationToken : startAfter;
+            final List<String> keys = new ArrayList<>();
+            boolean truncated = false;
+            synchronized (this) {
+                for (Map.Entry<String, List<Version>> entry : versions.entrySet()) {
+                    if ((after != null && entry.getKey().compareTo(after) <= 0) || findCurrent(entry.getKey()) == null)
+                        continue;
+                    if (keys.size() == limit) {
+                        truncated = true;
+                        break;
+                    }
+                    keys.add(entry.getKey());
+                }
+            }
+            return new KeyListing(keys, truncated ? keys.get(keys.size() - 1) : null, truncated);
+        } finally {
+            endRequest();
+        }
+    }
+
+    @Override
+    public List<String> listVersionIds(final String key) {
+        beginRequest();
+        try {
+            final List<String> versionIds = new ArrayList<>();
+            synchronized (this) {
+                for (Version version : versions.getOrDefault(key, new ArrayList<>()))
+                    if (!version.isDeleteMarker())
+                        versionIds.add(version.metadata.getVersionId());
+            }
+            return versionIds;
+        } finally {
+            endRequest();
+        }
+    }
+
+    @Override
+    public void delete(final String key) {
+        beginRequest();
+        try {
+            synchronized (this) {
+                if (versions.containsKey(key))
+                    versions.get(key).add(new Version(createVersionMetadata(new ObjectMetadata()), null));
+            }
+        } finally {
+            endRequest();
+        }
+    }
+
+    @Override
+    public void deleteVersion(final String key, final String versionId) {
+        beginRequest();
+        try {
+            synchronized (this) {
+                final List<Version> keyVersions = versions.get(key);
+                if (keyVersions != null)
+                    keyVersions.removeIf(version -> versionId.equals(version.metadata.getVersionId()));
+            }
+        } finally {
+            endRequest();
+        }
+    }
+
+    @Override
+    public URL presign(final HttpMethod method, final String key, final String versionId, final String contentType,
+                       final Map<String, String> userMetadata, final Date expiration) {
+        throw createException(HttpStatus.SC_NOT_IMPLEMENTED);
+    }
+
+    /**
+     * Delay by the latency and then (maybe) fail, a failed operation has no effect.
+     */
+    private void beginRequest() {
+        requestCount.incrementAndGet();
+        maximumInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+        if (latencyMillis > 0L) {
+            try {
+                TimeUnit.MILLISECONDS.sleep(latencyMillis);
+            } catch (InterruptedException iX) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        final boolean fail;
+        synchronized (random) {
+            fail = errorRate > 0.0d && random.nextDouble() < errorRate;
+        }
+        if (fail) {
+            inFlight.decrementAndGet();
+            injectedErrorCount.incrementAndGet();
+            throw createException(errorStatusCode);
+        }
+    }
+
+    private void endRequest() {
+        inFlight.decrementAndGet();
+    }
+
+    private ObjectMetadata store(final String key, final ObjectMetadata metadata, final byte[] content) {
+        final ObjectMetadata stored = createVersionMetadata(metadata == null ? new ObjectMetadata() : metadata.clone());
+        stored.setContentLength(content.length);
+        stored.setHeader(Headers.ETAG, BinaryUtils.toHex(Md5Utils.computeMD5Hash(content)));
+        versions.computeIfAbsent(key, k -> new ArrayList<>()).add(new Version(stored, content));
+        return stored;
+    }
+
+    private ObjectMetadata createVersionMetadata(final ObjectMetadata metadata) {
+        metadata.setHeader(Headers.S3_VERSION_ID, Long.toString(++versionSequence));
+        metadata.setLastModified(new Date());
+        return metadata;
+    }
+
+    /**
+     * @return the current version, null if the key has none (or is deleted)
+     */
+    private Version findCurrent(final String key) {
+        final List<Version> keyVersions = versions.get(key);
+        if (keyVersions == null || keyVersions.isEmpty())
+            return null;
+        final Version newest = keyVersions.get(keyVersions.size() - 1);
+        return newest.isDeleteMarker() ? null : newest;
+    }
+
+    private Version find(final String key, final String versionId) {
+        Version found = null;
+        if (versionId == null) {
+            found = findCurrent(key);
+        } else {
+            for (Version version : versions.getOrDefault(key, new ArrayList<>()))
+                if (versionId.equals(version.metadata.getVersionId()) && !version.isDeleteMarker())
+                    found = version;
+        }
+        if (found == null)
+            throw createException(HttpStatus.SC_NOT_FOUND);
+        return found;
+    }
+
+    private static AmazonS3Exception createException(final int statusCode) {
+        AmazonS3Exception s3X = new AmazonS3Exception("In-memory report store, status " + statusCode);
+        s3X.setStatusCode(statusCode);
+        return s3X;
+    }
+
+    @Override
+    public String toString() {
+        return "InMemoryReportStore{latencyMillis=" + latencyMillis + ", errorRate=" + errorRate + ", errorStatusCode=" + errorStatusCode + "}";
+    }
+
+    private static final class Version {
+        final ObjectMetadata metadata;
+        final byte[] content;
+
+        Version(ObjectMetadata metadata, byte[] content) {
+            this.metadata = metadata;
+            this.content = content;
+        }
+
+        boolean isDeleteMarker() {
+            return content == null;
+        }
+    }
+
+    public static final class Builder {
+        private long latencyMillis = 0L;
+        private double errorRate = 0.0d;
+        private int errorStatusCode = HttpStatus.SC_SERVICE_UNAVAILABLE;
+        private Random random;
+
+        private Builder() {
+        }
+
+        /**
+         * @param latencyMillis the delay of every operation
+         */
+        public Builder withLatencyMillis(final long latencyMillis) {
+            this.latencyMillis = latencyMillis;
+            return this;
+        }
+
+        /**
+         * @param errorRate the fraction (0 to 1) of the operations that fail
+         */
+        public Builder withErrorRate(final double errorRate) {
+            this.errorRate = errorRate;
+            return this;
+        }
+
+        /**
+         * @param errorStatusCode the HTTP status of the failures, 503 (Service Unavailable) by default
+         */
+        public Builder withErrorStatusCode(final int errorStatusCode) {
+            this.errorStatusCode = errorStatusCode;
+            return this;
+        }
+
+        /**
+         * @param seed the seed of the choice of operations that fail, so that a run can be repeated
+         */
+        public Builder withSeed(final long seed) {
+            this.random = new Random(seed);
+            return this;
+        }
+
+        public InMemoryReportStore build() {
+            if (latencyMillis < 0L)
+                throw new InvalidParameterException("'latencyMillis' must not be negative");
+            if (errorRate < 0.0d || errorRate > 1.0d)
+                throw new InvalidParameterException("'errorRate' must be between 0 and 1");
+            return new InMemoryReportStore(latencyMillis, errorRate, errorStatusCode, random == null ? new Random() : random);
+        }
+    }
+}
@@ -0,0 +1,314 @@
+package gov.va.vha.dicomimporter;
+
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.security.InvalidParameterException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * An in-memory cache of report bodies that lives as long as the (warm) Lambda container.
+ * Entries are keyed by identifier and carry the ETag of the S3 object they were read from. The cache never
+ * decides on its own that an entry is current, the caller revalidates the ETag with a conditional GET
+ * (which is answered with a 304 and no body when nothing changed), so changes made through other containers
+ * are always seen.
+ *
+ * The cache is bounded by a total number of body bytes. Eviction is least recently used, but admission is
+ * frequency aware (TinyLFU): when the cache is full a new body is only admitted if it has been requested
+ * more often than the entries it would evict, so a burst of one-off reads does not flush the hot templates.
+ */
+public class ReportBodyCache {
+    public static final String PROPERTY_REPORT_CACHE_ENABLED = "report_cache_enabled";
+    public static final String PROPERTY_REPORT_CACHE_MEMORY_PERCENT = "report_cache_memory_percent";
+    public static final String PROPERTY_REPORT_CACHE_MAXIMUM_ENTRY_BYTES = "report_cache_maximum_entry_bytes";
+    public static final String DEFAULT_REPORT_CACHE_MEMORY_PERCENT = "10";
+    public static final String DEFAULT_REPORT_CACHE_MAXIMUM_ENTRY_BYTES = "1048576";
+
+    /** the Lambda runtime provides the configured memory size (in MB) in this environment variable */
+    public static final String ENVIRONMENT_LAMBDA_MEMORY_SIZE = "AWS_LAMBDA_FUNCTION_MEMORY_SIZE";
+    private static final long DEFAULT_LAMBDA_MEMORY_MEGABYTES = 512L;
+    /** an approximation of the memory used by an entry in addition to its body */
+    private static final int ENTRY_OVERHEAD_BYTES = 256;
+
+    private final long maximumBytes;
+    private final int maximumEntryBytes;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final FrequencySketch frequencySketch;
+    private long currentBytes;
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long rejections;
+
+    private final Logger logger = LoggerFactory.getLogger(ReportBodyCache.class);
+
+    /**
+     * @param maximumBytes the total budget for cached bodies
+     * @param maximumEntryBytes the largest body that will be cached
+     */
+    public ReportBodyCache(final long maximumBytes, final int maximumEntryBytes) {
+        if (maximumBytes < 1)
+            throw new InvalidParameterException("'maximumBytes' must be greater than zero");
+        if (maximumEntryBytes < 1)
+            throw new InvalidParameterException("'maximumEntryBytes' must be greater than zero");
+        this.maximumBytes = maximumBytes;
+        this.maximumEntryBytes = maximumEntryBytes;
+        // size the sketch for the number of (typically small) templates that could fit in the budget
+        this.frequencySketch = new FrequencySketch((int) Math.min(1 << 16, Math.max(64L, maximumBytes / 4096L)));
+    }
+
+    /**
+     * Create an instance configured from the application properties, the budget is a percentage of the
+     * Lambda function memory size.
+     * @return the cache or null if report caching is disabled
+     */
+    public static ReportBodyCache fromApplicationProperties() {
+        if (!Boolean.valueOf(ApplicationProperties.getSingleton().getProperty(PROPERTY_REPORT_CACHE_ENABLED, "true")))
+            return null;
+
+        long memoryMegabytes = DEFAULT_LAMBDA_MEMORY_MEGABYTES;
+        final String lambdaMemorySize = System.getenv(ENVIRONMENT_LAMBDA_MEMORY_SIZE);
+        if (lambdaMemorySize != null) {
+            try {
+                memoryMegabytes = Long.parseLong(lambdaMemorySize.trim());
+            } catch (NumberFormatException nfX) {
+                // use the default
+            }
+        }
+        final int percent = Integer.parseInt(ApplicationProperties.getSingleton()
+                .getProperty(PROPERTY_REPORT_CACHE_MEMORY_PERCENT, DEFAULT_REPORT_CACHE_MEMORY_PERCENT));
+        return new ReportBodyCache(
+                memoryMegabytes * 1024L * 1024L * percent / 100L,
+                Integer.parseInt(ApplicationProperties.getSingleton()
+                        .getProperty(PROPERTY_REPORT_CACHE_MAXIMUM_ENTRY_BYTES, DEFAULT_REPORT_CACHE_MAXIMUM_ENTRY_BYTES))
+        );
+    }
+
+    /**
+     * Get the cached body of a report, the caller must revalidate the entry ETag before using it.
+     * Every call counts as an access for admission purposes.
+     *
+     * @param identifier the report identifier
+     * @return the entry or null if not cached
+     */
+    public synchronized Entry get(final String identifier) {
+        frequencySketch.increment(identifier);
+        return entries.get(identifier);
+    }
+
+    /**
+     * Record that a cached entry was revalidated and used.
+     */
+    public synchronized void recordHit() {
+        ++hits;
+    }
+
+    /**
+     * Record that the body had to be read from S3, because it was not cached or the cached entry was stale.
+     */
+    public synchronized void recordMiss() {
+        ++misses;
+    }
+
+    /**
+     * Offer a body read from S3 to the cache, it replaces any existing entry for the identifier.
+     *
+     * @return true if the body was cached
+     */
+    public synchronized boolean put(final String identifier, final String eTag, final ObjectMetadata metadata, final byte[] body) {
+        remove(identifier);
+        if (eTag == null || body.length > maximumEntryBytes)
+            return false;
+
+        final Entry candidate = new Entry(identifier, eTag, metadata, body);
+        final int candidateFrequency = frequencySketch.frequency(identifier);
+
+        // find the least recently used entries that would have to go to make room, the candidate is only
+        // admitted if it is more frequently used than each of them
+        long bytesToFree = currentBytes + candidate.weight() - maximumBytes;
+        if (bytesToFree > 0) {
+            long bytesFreed = 0L;
+            for (Iterator<Entry> victims = entries.values().iterator(); victims.hasNext() && bytesFreed < bytesToFree; ) {
+                Entry victim = victims.next();
+                if (frequencySketch.frequency(victim.getIdentifier()) >= candidateFrequency) {
+                    ++rejections;
+                    logger.debug("put({}, ...), not admitted, less frequently used than [{}]", identifier, victim.getIdentifier());
+                    return false;
+                }
+                bytesFreed += victim.weight();
+            }
+            if (bytesFreed < bytesToFree) {
+                ++rejections;
+                return false;
+            }
+            for (Iterator<Entry> victims = entries.values().iterator(); victims.hasNext() && bytesToFree > 0; ) {
+                Entry victim = victims.next();
+                victims.remove();
+                currentBytes -= victim.weight();
+                bytesToFree -= victim.weight();
+                ++evictions;
+            }
+        }
+
+        entries.put(identifier, candidate);
+        currentBytes += candidate.weight();
+        return true;
+    }
+
+    /**
+     * Remove the entry for an identifier, e.g. after it has been written through this container.
+     */
+    public synchronized void remove(final String identifier) {
+        Entry removed = entries.remove(identifier);
+        if (removed != null)
+            currentBytes -= removed.weight();
+    }
+
+    public int getMaximumEntryBytes() {
+        return maximumEntryBytes;
+    }
+
+    public long getMaximumBytes() {
+        return maximumBytes;
+    }
+
+    public synchronized long getCurrentBytes() {
+        return currentBytes;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    public synchronized long getRejections() {
+        return rejections;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "ReportBodyCache{" +
+                "entries=" + entries.size() +
+                ", currentBytes=" + currentBytes +
+                ", maximumBytes=" + maximumBytes +
+                ", hits=" + hits +
+                ", misses=" + misses +
+                ", evictions=" + evictions +
+                ", rejections=" + rejections +
+                '}';
+    }
+
+    /**
+     * A cached report body with the metadata of the S3 object it was read from.
+     */
+    public static final class Entry {
+        private final String identifier;
+        private final String eTag;
+        private final ObjectMetadata metadata;
+        private final byte[] body;
+
+        private Entry(String identifier, String eTag, ObjectMetadata metadata, byte[] body) {
+            this.identifier = identifier;
+            this.eTag = eTag;
+            this.metadata = metadata;
+            this.body = body;
+        }
+
+        public String getIdentifier() {
+            return identifier;
+        }
+
+        public String getETag() {
+            return eTag;
+        }
+
+        public ObjectMetadata getMetadata() {
+            return metadata;
+        }
+
+        /**
+         * @return the cached body, which must not be modified
+         */
+        public byte[] getBody() {
+            return body;
+        }
+
+        long weight() {
+            return (long) body.length + identifier.length() * 2L + ENTRY_OVERHEAD_BYTES;
+        }
+    }
+
+    /**
+     * A count-min sketch of access frequency with small saturating counters. All the counters are halved
+     * periodically so that the frequencies reflect recent popularity rather than all time popularity.
+     */
+    static final class FrequencySketch {
+        private static final int DEPTH = 4;
+        private static final int MAXIMUM_COUNT = 15;
+        private static final int[] SEEDS = {0x9E3779B9, 0x85EBCA6B, 0xC2B2AE35, 0x27D4EB2F};
+
+        private final byte[][] counters;
+        private final int mask;
+        private final int sampleSize;
+        private int additions;
+
+        FrequencySketch(final int expectedEntries) {
+            int width = Integer.highestOneBit(Math.max(16, expectedEntries) * 2 - 1);
+            this.counters = new byte[DEPTH][width];
+            this.mask = width - 1;
+            this.sampleSize = width * 10;
+        }
+
+        void increment(final String key) {
+            final int hash = spread(key.hashCode());
+            boolean added = false;
+            for (int row = 0; row < DEPTH; ++row) {
+                int index = indexOf(hash, row);
+                if (counters[row][index] < MAXIMUM_COUNT) {
+                    ++counters[row][index];
+                    added = true;
+                }
+            }
+            if (added && ++additions >= sampleSize)
+                age();
+        }
+
+        int frequency(final String key) {
+            final int hash = spread(key.hashCode());
+            int frequency = MAXIMUM_COUNT;
+            for (int row = 0; row < DEPTH; ++row)
+                frequency = Math.min(frequency, counters[row][indexOf(hash, row)]);
+            return frequency;
+        }
+
+        private void age() {
+            for (byte[] row : counters)
+                for (int index = 0; index < row.length; ++index)
+                    row[index] = (byte) (row[index] >> 1);
+            additions /= 2;
+        }
+
+        private int indexOf(final int hash, final int row) {
+            int h = (hash ^ SEEDS[row]) * SEEDS[(row + 1) % DEPTH];
+            return (h ^ (h >>> 16)) & mask;
+        }
+
+        private static int spread(final int hash) {
+            int h = hash * 0x45D9F3B;
+            return h ^ (h >>> 16);
+        }
+    }
+}
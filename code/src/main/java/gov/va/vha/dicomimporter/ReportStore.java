@@ -0,0 +1,141 @@
+package gov.va.vha.dicomimporter;
+
+import com.amazonaws.HttpMethod;
+import com.amazonaws.services.s3.model.CopyObjectResult;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PutObjectResult;
+import com.amazonaws.services.s3.model.S3Object;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The storage of the reports (and of the objects the application keeps alongside them, e.g. the catalog manifest),
+ * a versioned key-value store with the semantics of a versioned S3 bucket. Each write of a key adds a version, the
+ * newest version is the current one; deleting a key hides its versions, deleting a version removes just that version.
+ *
+ * The metadata and objects are the S3 (v1 SDK) model classes, the user metadata, content type, encoding and length,
+ * ETag, version identifier and last modified date are all kept. Failures are reported as AmazonServiceException,
+ * as an AmazonS3Exception with the HTTP status where it has one:
+ * - 404 (Not Found) when a key or version does not exist
+ * - 412 (Precondition Failed) when a write condition is not met
+ * Implementations must be safe for concurrent use.
+ */
+public interface ReportStore {
+    /** the value of ifNoneMatch that requires the key to have no current version */
+    String ANY = "*";
+
+    /**
+     * @param key the key
+     * @param versionId the version, null for the current version
+     * @return the metadata of the version, null (or a 404) if it does not exist
+     */
+    ObjectMetadata head(String key, String versionId);
+
+    /**
+     * Read a version, optionally conditional on it having changed from a copy the caller has.
+     *
+     * @param key the key
+     * @param versionId the version, null for the current version
+     * @param nonmatchingETag if not null, the version is only read if its ETag is different
+     * @param modifiedSince if not null, the version is only read if it was modified after this
+     * @return the version, its content must be closed, null if the condition was not met
+     */
+    S3Object get(String key, String versionId, String nonmatchingETag, Date modifiedSince);
+
+    /**
+     * Write a new current version.
+     *
+     * @param content the content, null for a version without content
+     * @param metadata the metadata, the content length must be set
+     * @param ifMatch if not null, the ETag that the current version must have
+     * @param ifNoneMatch if ANY, the key must have no current version
+     * @return the ETag and version identifier of the new version
+     */
+    PutObjectResult put(String key, byte[] content, ObjectMetadata metadata, String ifMatch, String ifNoneMatch);
+
+    /**
+     * Copy a version of a key to a new current version of the same key with new metadata, the content is not read.
+     *
+     * @param sourceVersionId the version to copy, null for the current version
+     * @param metadata the metadata of the new version
+     * @param ifMatch if not null, the ETag that the copied version must have
+     * @return the ETag, version identifier and last modified date of the new version
+     */
+    CopyObjectResult copy(String key, String sourceVersionId, ObjectMetadata metadata, String ifMatch);
+
+    /**
+     * List the keys that have a current version, in lexicographic order, one page at a time.
+     *
+     * @param startAfter if not null, only the keys after this one are listed
+     * @param continuationToken the token of the previous page, null for the first page
+     * @param maxKeys the maximum number of keys in the page, null for the store default
+     */
+    KeyListing listKeys(String startAfter, String continuationToken, Integer maxKeys);
+
+    /**
+     * @return the version identifiers of exactly the given key, oldest first, empty if it has none
+     */
+    List<String> listVersionIds(String key);
+
+    /**
+     * Delete the key, its earlier versions remain (but none of them is current).
+     */
+    void delete(String key);
+
+    /**
+     * Permanently delete one version of the key, when that is the newest the previous version becomes current.
+     */
+    void deleteVersion(String key, String versionId);
+
+    /**
+     * Create a URL from which the client can read a version (GET) or to which it can write a new version (PUT)
+     * without passing through this function.
+     *
+     * @param versionId the version to read, null for the current version
+     * @param contentType the content type that a PUT must send, null if any
+     * @param userMetadata the user metadata that a PUT stores with the version
+     * @param expiration when the URL expires
+     */
+    URL presign(HttpMethod method, String key, String versionId, String contentType,
+                Map<String, String> userMetadata, Date expiration);
+
+    /**
+     * A page of keys.
+     */
+    final class KeyListing {
+        private final List<String> keys;
+        private final String nextContinuationToken;
+        private final boolean truncated;
+
+        public KeyListing(List<String> keys, String nextContinuationToken, boolean truncated) {
+            this.keys = Collections.unmodifiableList(new ArrayList<>(keys));
+            this.nextContinuationToken = nextContinuationToken;
+            this.truncated = truncated;
+        }
+
+        public List<String> getKeys() {
+            return keys;
+        }
+
+        /**
+         * @return the token that lists the next page, null if this is the last page
+         */
+        public String getNextContinuationToken() {
+            return nextContinuationToken;
+        }
+
+        public boolean isTruncated() {
+            return truncated;
+        }
+
+        @Override
+        public String toString() {
+            return "KeyListing{keys=" + keys.size() + ", nextContinuationToken='" + nextContinuationToken + "', truncated=" + truncated + "}";
+        }
+    }
+}
@@ -0,0 +1,238 @@
+package gov.va.vha.dicomimporter;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import gov.va.vha.dicomimporter.exceptions.UnknownRevisionException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.security.InvalidParameterException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Resolves a RevisionSpecification to an S3 version identifier using a per-report index of versions
+ * that lives as long as the (warm) Lambda container. The index of a report is built with one version
+ * listing and then kept up to date incrementally as revisions are written and deleted through this
+ * container.
+ *
+ * Revisions written through other containers are detected as follows:
+ * - counted revisions (numbered from one, the oldest) and version numbers do not move when revisions are added,
+ *   an index that is too short (or without the version) is refreshed once before the revision is declared unknown
+ * - relative revisions (counted back from the current) are resolved only after the newest indexed
+ *   version has been confirmed as the current version, which is a HEAD request rather than a listing
+ * - every index expires after a configurable time to live
+ */
+public class RevisionIndex {
+    public static final String PROPERTY_REVISION_INDEX_TTL_SECONDS = "revision_index_ttl_seconds";
+    public static final String PROPERTY_REVISION_INDEX_MAXIMUM_REPORTS = "revision_index_maximum_reports";
+    public static final String DEFAULT_REVISION_INDEX_TTL_SECONDS = "300";
+    public static final String DEFAULT_REVISION_INDEX_MAXIMUM_REPORTS = "1024";
+
+    private final ReportStore reportStore;
+    private final long ttlMillis;
+    private final Map<String, Versions> index;
+
+    private final Logger logger = LoggerFactory.getLogger(RevisionIndex.class);
+
+    public RevisionIndex(final AmazonS3 amazonS3, final String s3BucketName, final long ttlMillis, final int maximumReports) {
+        this(new S3ReportStore(amazonS3, s3BucketName), ttlMillis, maximumReports);
+    }
+
+    public RevisionIndex(final ReportStore reportStore, final long ttlMillis, final int maximumReports) {
+        if (reportStore == null)
+            throw new InvalidParameterException("reportStore must not be null");
+        if (maximumReports < 1)
+            throw new InvalidParameterException("'maximumReports' must be greater than zero");
+        this.reportStore = reportStore;
+        this.ttlMillis = ttlMillis;
+        this.index = new LinkedHashMap<String, Versions>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Versions> eldest) {
+                return size() > maximumReports;
+            }
+        };
+    }
+
+    /**
+     * Create an instance configured from the application properties.
+     */
+    public static RevisionIndex fromApplicationProperties(final ReportStore reportStore) {
+        return new RevisionIndex(
+                reportStore,
+                TimeUnit.SECONDS.toMillis(Long.parseLong(ApplicationProperties.getSingleton()
+                        .getProperty(PROPERTY_REVISION_INDEX_TTL_SECONDS, DEFAULT_REVISION_INDEX_TTL_SECONDS))),
+                Integer.parseInt(ApplicationProperties.getSingleton()
+                        .getProperty(PROPERTY_REVISION_INDEX_MAXIMUM_REPORTS, DEFAULT_REVISION_INDEX_MAXIMUM_REPORTS))
+        );
+    }
+
+    /**
+     * @param revisionSpecification a revision specification, may be null
+     * @return true if the specification addresses the current revision, which needs no version identifier,
+     * i.e. it is absent or zero (signed or not)
+     */
+    public static boolean isCurrent(final RevisionSpecification revisionSpecification) {
+        return revisionSpecification == null
+                || (!revisionSpecification.isAll() && !revisionSpecification.isCounted() && revisionSpecification.getValue() == 0);
+    }
+
+    /**
+     * Resolve a revision specification to the version of the report that it addresses.
+     *
+     * @param identifier the report identifier
+     * @param revisionSpecification a relative revision, a counted revision (e.g. "r1" the oldest) or a version
+     *                              number, "all" does not address a single revision
+     * @return the version identifier and the revision number of the addressed version
+     * @throws UnknownRevisionException if the specification does not address an existing revision
+     */
+    public Revision resolve(final String identifier, final RevisionSpecification revisionSpecification)
+            throws UnknownRevisionException {
+        if (revisionSpecification == null || revisionSpecification.isAll())
+            throw new UnknownRevisionException(identifier, revisionSpecification);
+
+        List<String> versionIds;
+        if (revisionSpecification.isCounted()) {
+            versionIds = getVersionIds(identifier, false);
+            if (revisionSpecification.getValue() > versionIds.size())
+                versionIds = getVersionIds(identifier, true);
+        } else if (!revisionSpecification.isRelative() && revisionSpecification.getValue() != 0) {
+            // an unsigned number is the version number (identifier) of the version
+            final String versionId = Integer.toString(revisionSpecification.getValue());
+            versionIds = getVersionIds(identifier, false);
+            if (!versionIds.contains(versionId))
+                versionIds = getVersionIds(identifier, true);
+            final int versionIndex = versionIds.indexOf(versionId);
+            if (versionIndex < 0)
+                throw new UnknownRevisionException(identifier, revisionSpecification);
+            return new Revision(versionId, versionIndex + 1);
+        } else {
+            // relative revisions (and zero, the current revision) move when a revision is added, so confirm that
+            // the index is current
+            final String currentVersionId = getCurrentVersionId(identifier);
+            versionIds = getVersionIds(identifier, false);
+            if (currentVersionId == null || versionIds.isEmpty() || !currentVersionId.equals(versionIds.get(versionIds.size() - 1)))
+                versionIds = getVersionIds(identifier, true);
+        }
+
+        final int versionIndex = revisionSpecification.isCounted()
+                ? revisionSpecification.getValue() - 1
+                : (versionIds.size() - 1) + revisionSpecification.getValue();
+        if (versionIndex < 0 || versionIndex >= versionIds.size())
+            throw new UnknownRevisionException(identifier, revisionSpecification);
+
+        return new Revision(versionIds.get(versionIndex), versionIndex + 1);
+    }
+
+    /**
+     * @return the exact number of revisions of the report, from the index when it has not expired
+     */
+    public int countRevisions(final String identifier) {
+        return getVersionIds(identifier, false).size();
+    }
+
+    /**
+     * @return the number of revisions in the index of the report, zero if it is not indexed, never lists the versions
+     */
+    public synchronized int getCachedRevisionCount(final String identifier) {
+        Versions versions = index.get(identifier);
+        return versions == null ? 0 : versions.versionIds.size();
+    }
+
+    /**
+     * Record a revision written through this container, it becomes the newest version.
+     * @param versionId the version identifier from the put result, null if not known
+     */
+    public synchronized void recordWrite(final String identifier, final String versionId) {
+        Versions versions = index.get(identifier);
+        if (versions == null)
+            return;
+        if (versionId == null)
+            index.remove(identifier);
+        else
+            versions.versionIds.add(versionId);
+    }
+
+    /**
+     * Record that a specific version was permanently deleted through this container.
+     */
+    public synchronized void recordVersionDelete(final String identifier, final String versionId) {
+        Versions versions = index.get(identifier);
+        if (versions != null)
+            versions.versionIds.remove(versionId);
+    }
+
+    /**
+     * Discard the index of a report, e.g. when it has been deleted.
+     */
+    public synchronized void invalidate(final String identifier) {
+        index.remove(identifier);
+    }
+
+    /**
+     * @param refresh true to list the versions even if an unexpired index exists
+     * @return the version identifiers, oldest first (a copy)
+     */
+    private List<String> getVersionIds(final String identifier, final boolean refresh) {
+        synchronized (this) {
+            Versions versions = index.get(identifier);
+            if (!refresh && versions != null && System.currentTimeMillis() - versions.listedAt < ttlMillis)
+                return new ArrayList<>(versions.versionIds);
+        }
+
+        final long listedAt = System.currentTimeMillis();
+        logger.debug("getVersionIds({}), listing versions", identifier);
+        final List<String> versionIds = reportStore.listVersionIds(identifier);
+        synchronized (this) {
+            index.put(identifier, new Versions(listedAt, new ArrayList<>(versionIds)));
+        }
+        return versionIds;
+    }
+
+    /**
+     * @return the version identifier of the current revision, null if the report does not exist
+     */
+    private String getCurrentVersionId(final String identifier) {
+        ObjectMetadata metadata = reportStore.head(identifier, null);
+        return metadata == null ? null : metadata.getVersionId();
+    }
+
+    /**
+     * A revision of a report, the S3 version identifier and the revision number (one is the oldest).
+     */
+    public static final class Revision {
+        private final String versionId;
+        private final int revisionNumber;
+
+        Revision(String versionId, int revisionNumber) {
+            this.versionId = versionId;
+            this.revisionNumber = revisionNumber;
+        }
+
+        public String getVersionId() {
+            return versionId;
+        }
+
+        public int getRevisionNumber() {
+            return revisionNumber;
+        }
+
+        @Override
+        public String toString() {
+            return "Revision{versionId='" + versionId + "', revisionNumber=" + revisionNumber + "}";
+        }
+    }
+
+    private static final class Versions {
+        final long listedAt;
+        final List<String> versionIds;
+
+        Versions(long listedAt, List<String> versionIds) {
+            this.listedAt = listedAt;
+            this.versionIds = versionIds;
+        }
+    }
+}
@@ -4,15 +4,24 @@ import java.security.InvalidParameterException;
 import java.util.regex.Matcher;
 
 public class RevisionSpecification {
-    public final static String REGULAR_EXPRESSION_PATTERN = "(?<relative>[-+])?(?<value>[0-9]+)";
+    public final static String REGULAR_EXPRESSION_PATTERN = "(?<relative>[-+])?(?<value>[0-9]+)|r(?<revision>[1-9][0-9]*)";
     public final static java.util.regex.Pattern REGEX_PATTERN = java.util.regex.Pattern.compile(REGULAR_EXPRESSION_PATTERN);
     private final boolean all;
     private final boolean relative;
+    private final boolean counted;
     private final int value;
 
     public RevisionSpecification(boolean all, boolean relative, int value) {
+        this(all, relative, false, value);
+    }
+
+    /**
+     * @param counted true if the value is a revision number (counted from one, the oldest revision)
+     */
+    public RevisionSpecification(boolean all, boolean relative, boolean counted, int value) {
         this.all = all;
         this.relative = relative;
+        this.counted = counted;
         this.value = value;
     }
 
@@ -24,13 +33,17 @@ public class RevisionSpecification {
         return relative;
     }
 
+    public boolean isCounted() {
+        return counted;
+    }
+
     public int getValue() {
         return value;
     }
 
     @Override
     public String toString() {
-        return all ? "all" : ("" + value + (relative ? "(relative)" : ""));
+        return all ? "all" : counted ? ("r" + value) : ("" + value + (relative ? "(relative)" : ""));
     }
 
     public static Builder builder() {
@@ -40,6 +53,7 @@ public class RevisionSpecification {
     public static final class Builder {
         private boolean all = false;
         private boolean relative = false;
+        private boolean counted = false;
         private int value = 0;
 
         private Builder() {
@@ -52,7 +66,10 @@ public class RevisionSpecification {
                 } else {
                     this.all = false;
                     Matcher matcher = REGEX_PATTERN.matcher(revisionSpecificationString);
-                    if (matcher.matches()) {
+                    if (matcher.matches() && matcher.group("revision") != null) {
+                        this.counted = true;
+                        this.value = Integer.valueOf(matcher.group("revision"));
+                    } else if (matcher.matches()) {
                         String relativeGroup = matcher.group("relative");
                         if (relativeGroup != null)
                             this.relative = true;
@@ -70,7 +87,7 @@ public class RevisionSpecification {
         }
 
         public RevisionSpecification build() {
-            return new RevisionSpecification(all, relative, value);
+            return new RevisionSpecification(all, relative, counted, value);
         }
     }
 }
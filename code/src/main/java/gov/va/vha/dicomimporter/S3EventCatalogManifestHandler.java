@@ -0,0 +1,101 @@
+package gov.va.vha.dicomimporter;
+
+import com.amazonaws.regions.Regions;
+import com.amazonaws.services.lambda.runtime.Context;
+import com.amazonaws.services.lambda.runtime.RequestHandler;
+import com.amazonaws.services.lambda.runtime.events.S3Event;
+import com.amazonaws.services.lambda.runtime.events.models.s3.S3EventNotification;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.AmazonS3ClientBuilder;
+import gov.va.vha.dicomimporter.exceptions.UnrecoverableDependentInvocationException;
+import gov.va.vha.dicomimporter.model.CatalogManifest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Maintains the catalog manifest in response to S3 ObjectCreated and ObjectRemoved events on the
+ * canned reports bucket. Each invocation updates the manifest entries for the keys in the event, and
+ * when the manifest has not been rebuilt from a full listing within the compaction interval it is
+ * compacted as well. Writing the manifest changes its ETag, so that catalog pages cached (from the previous
+ * manifest) in warm containers are discarded.
+ * The function should be deployed with a reserved concurrency of one, concurrent updates are
+ * detected (and retried) but serializing them avoids the contention.
+ * The notifications should be filtered to the keys of reports (see template.yaml), the writes of the application
+ * (e.g. the manifest itself) would otherwise each invoke the function only to be ignored here.
+ */
+public class S3EventCatalogManifestHandler implements RequestHandler<S3Event, String> {
+    public static final String PROPERTY_COMPACTION_INTERVAL_MINUTES = "catalog_compaction_interval_minutes";
+    public static final String DEFAULT_COMPACTION_INTERVAL_MINUTES = "60";
+
+    private final static String DEFAULT_BUCKET_NAME = "canned-reports";
+    private final String s3BucketName;
+    private final CatalogManifestRepository catalogManifestRepository;
+    private final long compactionIntervalMillis;
+    private final Logger logger = LoggerFactory.getLogger(S3EventCatalogManifestHandler.class);
+
+    /**
+     * The required (by Lambda framework) no-args constructor.
+     */
+    public S3EventCatalogManifestHandler() {
+        this(
+                AmazonS3ClientBuilder.standard().withRegion(Regions.DEFAULT_REGION).build(),
+                ApplicationProperties.getSingleton().getProperty("S3_BUCKET_NAME", DEFAULT_BUCKET_NAME)
+        );
+    }
+
+    /**
+     * A constructor providing the means to mock the AmazonS3 instance for testing
+     * @param amazonS3
+     * @param s3BucketName
+     */
+    S3EventCatalogManifestHandler(final AmazonS3 amazonS3, final String s3BucketName) {
+        this.s3BucketName = s3BucketName;
+        this.catalogManifestRepository = new CatalogManifestRepository(amazonS3, s3BucketName);
+        this.compactionIntervalMillis = TimeUnit.MINUTES.toMillis(Long.parseLong(
+                ApplicationProperties.getSingleton().getProperty(PROPERTY_COMPACTION_INTERVAL_MINUTES, DEFAULT_COMPACTION_INTERVAL_MINUTES)
+        ));
+    }
+
+    @Override
+    public String handleRequest(final S3Event event, final Context context) {
+        logger.info("handleRequest({}, {})", event, context);
+
+        // the event records are only used to identify the keys that changed, the manifest entry is
+        // derived from the current state of the key so the order of the records does not matter
+        Set<String> changedKeys = new TreeSet<>();
+        if (event != null && event.getRecords() != null) {
+            for (S3EventNotification.S3EventNotificationRecord record : event.getRecords()) {
+                final String bucketName = record.getS3().getBucket().getName();
+                final String key = record.getS3().getObject().getUrlDecodedKey();
+                if (!s3BucketName.equals(bucketName) || CatalogManifestRepository.isReservedKey(key)) {
+                    logger.debug("handleRequest(...), ignoring {} of [{}/{}]", record.getEventName(), bucketName, key);
+                    continue;
+                }
+                changedKeys.add(key);
+            }
+        }
+
+        try {
+            CatalogManifest manifest = changedKeys.isEmpty()
+                    ? catalogManifestRepository.read()
+                    : catalogManifestRepository.applyChanges(changedKeys);
+
+            if (manifest == null || System.currentTimeMillis() - manifest.getCompactedAt() > compactionIntervalMillis)
+                manifest = catalogManifestRepository.compact();
+
+            logger.info("handleRequest(...), manifest is {}", manifest);
+            return "applied " + changedKeys.size() + " change(s), manifest has " + manifest.getEntries().size() + " entries";
+        } catch (IOException ioX) {
+            throw new UncheckedIOException(ioX);
+        } catch (UnrecoverableDependentInvocationException udiX) {
+            // let the Lambda framework retry the event
+            throw new IllegalStateException(udiX.getMessage(), udiX);
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package gov.va.vha.dicomimporter;
+
+import com.amazonaws.HttpMethod;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.CopyObjectRequest;
+import com.amazonaws.services.s3.model.CopyObjectResult;
+import com.amazonaws.services.s3.model.GeneratePresignedUrlRequest;
+import com.amazonaws.services.s3.model.GetObjectMetadataRequest;
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.ListObjectsV2Request;
+import com.amazonaws.services.s3.model.ListObjectsV2Result;
+import com.amazonaws.services.s3.model.ListVersionsRequest;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PutObjectRequest;
+import com.amazonaws.services.s3.model.PutObjectResult;
+import com.amazonaws.services.s3.model.S3Object;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+import com.amazonaws.services.s3.model.S3VersionSummary;
+import com.amazonaws.services.s3.model.VersionListing;
+import com.amazonaws.util.StringUtils;
+import org.apache.http.HttpHeaders;
+
+import java.io.ByteArrayInputStream;
+import java.net.URL;
+import java.security.InvalidParameterException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The ReportStore of a versioned S3 bucket, each operation is a single S3 request (a listing may be several).
+ */
+public class S3ReportStore implements ReportStore {
+    private final AmazonS3 amazonS3;
+    private final String s3BucketName;
+
+    public S3ReportStore(final AmazonS3 amazonS3, final String s3BucketName) {
+        if (StringUtils.isNullOrEmpty(s3BucketName))
+            throw new InvalidParameterException("'s3BucketName' must not be null or empty");
+        if (amazonS3 == null)
+            throw new InvalidParameterException("amazonS3 must not be null");
+        this.amazonS3 = amazonS3;
+        this.s3BucketName = s3BucketName;
+    }
+
+    @Override
+    public ObjectMetadata head(final String key, final String versionId) {
+        return versionId == null
+                ? amazonS3.getObjectMetadata(s3BucketName, key)
+                : amazonS3.getObjectMetadata(new GetObjectMetadataRequest(s3BucketName, key, versionId));
+    }
+
+    /**
+     * S3 answers a failed constraint with a bare 304, which the SDK returns as null.
+     */
+    @Override
+    public S3Object get(final String key, final String versionId, final String nonmatchingETag, final Date modifiedSince) {
+        GetObjectRequest getObjectRequest = versionId == null
+                ? new GetObjectRequest(s3BucketName, key)
+                : new GetObjectRequest(s3BucketName, key, versionId);
+        if (nonmatchingETag != null)
+            getObjectRequest.withNonmatchingETagConstraint(nonmatchingETag);
+        if (modifiedSince != null)
+            getObjectRequest.withModifiedSinceConstraint(modifiedSince);
+        return amazonS3.getObject(getObjectRequest);
+    }
+
+    /**
+     * S3 conditional writes, the v1 SDK has no model support so the headers are added directly.
+     */
+    @Override
+    public PutObjectResult put(final String key, final byte[] content, final ObjectMetadata metadata,
+                               final String ifMatch, final String ifNoneMatch) {
+        PutObjectRequest putObjectRequest = new PutObjectRequest(
+                s3BucketName, key, content == null ? null : new ByteArrayInputStream(content), metadata);
+        if (ifNoneMatch != null)
+            putObjectRequest.putCustomRequestHeader(HttpHeaders.IF_NONE_MATCH, ifNoneMatch);
+        if (ifMatch != null)
+            putObjectRequest.putCustomRequestHeader(HttpHeaders.IF_MATCH, ifMatch);
+        return amazonS3.putObject(putObjectRequest);
+    }
+
+    @Override
+    public CopyObjectResult copy(final String key, final String sourceVersionId, final ObjectMetadata metadata, final String ifMatch) {
+        CopyObjectRequest copyObjectRequest = new CopyObjectRequest(s3BucketName, key, s3BucketName, key)
+                .withNewObjectMetadata(metadata);
+        if (ifMatch != null)
+            copyObjectRequest.withMatchingETagConstraint(ifMatch);
+        if (sourceVersionId != null)
+            copyObjectRequest.withSourceVersionId(sourceVersionId);
+        return amazonS3.copyObject(copyObjectRequest);
+    }
+
+    @Override
+    public KeyListing listKeys(final String startAfter, final String continuationToken, final Integer maxKeys) {
+        ListObjectsV2Request listObjectsV2Request = new ListObjectsV2Request();
+        listObjectsV2Request.setBucketName(s3BucketName);
+        listObjectsV2Request.setStartAfter(startAfter);
+        listObjectsV2Request.setContinuationToken(continuationToken);
+        if (maxKeys != null)
+            listObjectsV2Request.setMaxKeys(maxKeys);
+
+        ListObjectsV2Result objects = amazonS3.listObjectsV2(listObjectsV2Request);
+        List<String> keys = new ArrayList<>();
+        if (objects.getObjectSummaries() != null)
+            for (S3ObjectSummary summary : objects.getObjectSummaries())
+                keys.add(summary.getKey());
+        return new KeyListing(keys, objects.getNextContinuationToken(), objects.isTruncated());
+    }
+
+    /**
+     * List the versions of exactly the given key, excluding delete markers.
+     * S3 lists the versions of a key newest first, the result is oldest first.
+     */
+    @Override
+    public List<String> listVersionIds(final String key) {
+        ListVersionsRequest listVersionsRequest = new ListVersionsRequest()
+                .withBucketName(s3BucketName)
+                .withPrefix(key);
+        List<String> versionIds = new ArrayList<>();
+        VersionListing versions = amazonS3.listVersions(listVersionsRequest);
+        while (versions != null) {
+            for (S3VersionSummary versionSummary : versions.getVersionSummaries())
+                if (key.equals(versionSummary.getKey()) && !versionSummary.isDeleteMarker())
+                    versionIds.add(versionSummary.getVersionId());
+            versions = versions.isTruncated() ? amazonS3.listNextBatchOfVersions(versions) : null;
+        }
+        Collections.reverse(versionIds);
+        return versionIds;
+    }
+
+    @Override
+    public void delete(final String key) {
+        amazonS3.deleteObject(s3BucketName, key);
+    }
+
+    @Override
+    public void deleteVersion(final String key, final String versionId) {
+        amazonS3.deleteVersion(s3BucketName, key, versionId);
+    }
+
+    /**
+     * The user metadata of a PUT is bound to the URL as x-amz-meta- query parameters.
+     */
+    @Override
+    public URL presign(final HttpMethod method, final String key, final String versionId, final String contentType,
+                       final Map<String, String> userMetadata, final Date expiration) {
+        GeneratePresignedUrlRequest presignedUrlRequest = new GeneratePresignedUrlRequest(s3BucketName, key, method)
+                .withExpiration(expiration);
+        if (versionId != null)
+            presignedUrlRequest.withVersionId(versionId);
+        if (contentType != null)
+            presignedUrlRequest.withContentType(contentType);
+        if (userMetadata != null)
+            userMetadata.forEach((name, value) ->
+                    presignedUrlRequest.addRequestParameter(CannedReportsManager.S3_METADATA_PREFIX + name, value));
+        return amazonS3.generatePresignedUrl(presignedUrlRequest);
+    }
+
+    @Override
+    public String toString() {
+        return "S3ReportStore{s3BucketName='" + s3BucketName + "'}";
+    }
+}
@@ -0,0 +1,322 @@
+package gov.va.vha.dicomimporter;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.AbortMultipartUploadRequest;
+import com.amazonaws.services.s3.model.AmazonS3Exception;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadRequest;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadResult;
+import com.amazonaws.services.s3.model.DeleteObjectsRequest;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadRequest;
+import com.amazonaws.services.s3.model.ListMultipartUploadsRequest;
+import com.amazonaws.services.s3.model.ListObjectsV2Request;
+import com.amazonaws.services.s3.model.ListObjectsV2Result;
+import com.amazonaws.services.s3.model.ListVersionsRequest;
+import com.amazonaws.services.s3.model.MultipartUpload;
+import com.amazonaws.services.s3.model.MultipartUploadListing;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PartETag;
+import com.amazonaws.services.s3.model.S3Object;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+import com.amazonaws.services.s3.model.S3VersionSummary;
+import com.amazonaws.services.s3.model.UploadPartRequest;
+import com.amazonaws.services.s3.model.VersionListing;
+import com.amazonaws.util.IOUtils;
+import com.amazonaws.util.StringUtils;
+import gov.va.vha.dicomimporter.exceptions.IncompleteUploadSessionException;
+import gov.va.vha.dicomimporter.exceptions.UnknownUploadSessionException;
+import org.apache.http.HttpStatus;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.security.InvalidParameterException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Upload sessions carry a report too large for one ALB request in numbered chunks. A session is an S3 multipart
+ * upload of the report key, the session identifier is the multipart upload identifier and the metadata of the
+ * report is given when the session is opened.
+ *
+ * S3 requires every part but the last to be at least 5MB, which is larger than an ALB request, so each chunk is
+ * staged as an object under STAGING_KEY_PREFIX as it arrives. Resending a chunk replaces it, so a client retries
+ * only the chunks that failed. When the session is committed the chunks are read in order and uploaded as parts of
+ * at least "upload_session_part_bytes", the multipart upload is completed and the staged chunks are deleted.
+ *
+ * Sessions that are neither committed nor aborted are aborted by abortAbandoned(), which is run on a schedule.
+ * Keys beginning with STAGING_KEY_PREFIX are reserved, they are never included in the catalog.
+ */
+public class UploadSessionRepository {
+    public static final String STAGING_KEY_PREFIX = ".uploads/";
+    public static final String PROPERTY_UPLOAD_SESSION_PART_BYTES = "upload_session_part_bytes";
+    public static final String PROPERTY_UPLOAD_SESSION_MAXIMUM_AGE_HOURS = "upload_session_maximum_age_hours";
+    // the S3 minimum size of every part but the last
+    public static final String DEFAULT_UPLOAD_SESSION_PART_BYTES = "5242880";
+    public static final String DEFAULT_UPLOAD_SESSION_MAXIMUM_AGE_HOURS = "24";
+    /** the S3 maximum number of parts, there are never more parts than chunks */
+    public static final int MAXIMUM_CHUNKS = 10000;
+
+    private static final int MAXIMUM_KEYS_PER_DELETE = 1000;
+
+    private final AmazonS3 amazonS3;
+    private final String s3BucketName;
+    private final int partBytes;
+
+    private final Logger logger = LoggerFactory.getLogger(UploadSessionRepository.class);
+
+    /**
+     * @param partBytes the minimum size of the parts that the staged chunks are combined into
+     */
+    public UploadSessionRepository(final AmazonS3 amazonS3, final String s3BucketName, final int partBytes) {
+        if (StringUtils.isNullOrEmpty(s3BucketName))
+            throw new InvalidParameterException("'s3BucketName' must not be null or empty");
+        if (amazonS3 == null)
+            throw new InvalidParameterException("amazonS3 must not be null");
+        if (partBytes < 1)
+            throw new InvalidParameterException("'partBytes' must be greater than zero");
+        this.amazonS3 = amazonS3;
+        this.s3BucketName = s3BucketName;
+        this.partBytes = partBytes;
+    }
+
+    /**
+     * Create an instance configured from the application properties.
+     */
+    public static UploadSessionRepository fromApplicationProperties(final AmazonS3 amazonS3, final String s3BucketName) {
+        return new UploadSessionRepository(amazonS3, s3BucketName,
+                Integer.parseInt(ApplicationProperties.getSingleton()
+                        .getProperty(PROPERTY_UPLOAD_SESSION_PART_BYTES, DEFAULT_UPLOAD_SESSION_PART_BYTES)));
+    }
+
+    /**
+     * @return the maximum age of a session before it is considered abandoned, from the application properties
+     */
+    public static long getMaximumAgeMillis() {
+        return TimeUnit.HOURS.toMillis(Long.parseLong(ApplicationProperties.getSingleton()
+                .getProperty(PROPERTY_UPLOAD_SESSION_MAXIMUM_AGE_HOURS, DEFAULT_UPLOAD_SESSION_MAXIMUM_AGE_HOURS)));
+    }
+
+    /**
+     * @param key an S3 key
+     * @return true if the key is a staged chunk of an upload session
+     */
+    public static boolean isStagingKey(final String key) {
+        return key != null && key.startsWith(STAGING_KEY_PREFIX);
+    }
+
+    /**
+     * Open a session, the metadata (content type and user metadata) is that of the report when it is committed.
+     * @return the session identifier
+     */
+    public String open(final String identifier, final ObjectMetadata metadata) {
+        logger.info("open({}, {})", identifier, metadata.getUserMetadata());
+        return amazonS3.initiateMultipartUpload(
+                new InitiateMultipartUploadRequest(s3BucketName, identifier, metadata)).getUploadId();
+    }
+
+    /**
+     * Stage a chunk, replacing any chunk with the same number. The session is not checked, chunks of a session that
+     * does not exist are never committed and are removed by abortAbandoned().
+     * @param chunkNumber the position of the chunk, from one
+     */
+    public void stageChunk(final String uploadSession, final int chunkNumber, final byte[] content) {
+        logger.info("stageChunk({}, {}, {} bytes)", uploadSession, chunkNumber, content.length);
+        if (chunkNumber < 1 || chunkNumber > MAXIMUM_CHUNKS)
+            throw new InvalidParameterException("'chunkNumber' must be from 1 to " + MAXIMUM_CHUNKS);
+        ObjectMetadata metadata = new ObjectMetadata();
+        metadata.setContentLength(content.length);
+        amazonS3.putObject(s3BucketName, stagingKey(uploadSession, chunkNumber), new ByteArrayInputStream(content), metadata);
+    }
+
+    /**
+     * Complete the session, the staged chunks become the content of a new version of the report.
+     * @param chunkCount the number of chunks the client sent, null to commit the chunks that are staged
+     * @return the result of completing the multipart upload
+     * @throws IncompleteUploadSessionException if there are no chunks or any of the chunks up to the count are missing
+     * @throws UnknownUploadSessionException if the session does not exist (or is not a session of the identifier)
+     */
+    public CompleteMultipartUploadResult commit(final String identifier, final String uploadSession, final Integer chunkCount)
+            throws IncompleteUploadSessionException, UnknownUploadSessionException, IOException {
+        logger.info("commit({}, {}, {})", identifier, uploadSession, chunkCount);
+
+        final TreeMap<Integer, String> stagedChunks = listStagedChunks(uploadSession);
+        final int lastChunk = chunkCount != null ? chunkCount : stagedChunks.isEmpty() ? 0 : stagedChunks.lastKey();
+        List<Integer> missingChunks = new ArrayList<>();
+        for (int chunkNumber = 1; chunkNumber <= lastChunk; ++chunkNumber)
+            if (!stagedChunks.containsKey(chunkNumber))
+                missingChunks.add(chunkNumber);
+        if (lastChunk == 0 || !missingChunks.isEmpty())
+            throw new IncompleteUploadSessionException(uploadSession, missingChunks);
+
+        try {
+            // consecutive chunks are combined until the part is large enough, only the last part may be smaller
+            List<PartETag> partETags = new ArrayList<>();
+            ByteArrayOutputStream part = new ByteArrayOutputStream(partBytes);
+            for (int chunkNumber = 1; chunkNumber <= lastChunk; ++chunkNumber) {
+                try (S3Object chunk = amazonS3.getObject(s3BucketName, stagedChunks.get(chunkNumber))) {
+                    IOUtils.copy(chunk.getObjectContent(), part);
+                }
+                final boolean lastPart = chunkNumber == lastChunk;
+                if (part.size() >= partBytes || lastPart) {
+                    partETags.add(uploadPart(identifier, uploadSession, partETags.size() + 1, part.toByteArray(), lastPart));
+                    part.reset();
+                }
+            }
+
+            CompleteMultipartUploadResult result = amazonS3.completeMultipartUpload(
+                    new CompleteMultipartUploadRequest(s3BucketName, identifier, uploadSession, partETags));
+            logger.info("commit({}, {}, {}), {} chunks committed as {} parts", identifier, uploadSession, chunkCount, lastChunk, partETags.size());
+            deleteStagedChunks(uploadSession);
+            return result;
+        } catch (AmazonS3Exception s3X) {
+            if (s3X.getStatusCode() == HttpStatus.SC_NOT_FOUND)
+                throw new UnknownUploadSessionException(identifier, uploadSession);
+            throw s3X;
+        }
+    }
+
+    /**
+     * Abort the session and delete its staged chunks.
+     * @throws UnknownUploadSessionException if the session does not exist (or is not a session of the identifier)
+     */
+    public void abort(final String identifier, final String uploadSession) throws UnknownUploadSessionException {
+        logger.info("abort({}, {})", identifier, uploadSession);
+        try {
+            amazonS3.abortMultipartUpload(new AbortMultipartUploadRequest(s3BucketName, identifier, uploadSession));
+        } catch (AmazonS3Exception s3X) {
+            if (s3X.getStatusCode() == HttpStatus.SC_NOT_FOUND)
+                throw new UnknownUploadSessionException(identifier, uploadSession);
+            throw s3X;
+        } finally {
+            deleteStagedChunks(uploadSession);
+        }
+    }
+
+    /**
+     * Abort the sessions opened before the given time, and delete staged chunks that belong to no session.
+     * The staged chunks are listed before the sessions, so that the chunks of a session opened during the sweep
+     * are never mistaken for those of a session that no longer exists.
+     * @return the number of sessions aborted or staged chunk sets deleted
+     */
+    public int abortAbandoned(final Date openedBefore) {
+        logger.info("abortAbandoned({})", openedBefore);
+        final Set<String> stagedSessions = new HashSet<>();
+        ListObjectsV2Request listObjectsV2Request = new ListObjectsV2Request()
+                .withBucketName(s3BucketName)
+                .withPrefix(STAGING_KEY_PREFIX);
+        ListObjectsV2Result objects;
+        do {
+            objects = amazonS3.listObjectsV2(listObjectsV2Request);
+            for (S3ObjectSummary summary : objects.getObjectSummaries()) {
+                final String stagingPath = summary.getKey().substring(STAGING_KEY_PREFIX.length());
+                if (stagingPath.indexOf('/') > 0)
+                    stagedSessions.add(stagingPath.substring(0, stagingPath.indexOf('/')));
+            }
+            listObjectsV2Request.setContinuationToken(objects.getNextContinuationToken());
+        } while (objects.isTruncated());
+
+        int cleaned = 0;
+        final Set<String> openSessions = new HashSet<>();
+        ListMultipartUploadsRequest listMultipartUploadsRequest = new ListMultipartUploadsRequest(s3BucketName);
+        MultipartUploadListing uploads;
+        do {
+            uploads = amazonS3.listMultipartUploads(listMultipartUploadsRequest);
+            for (MultipartUpload upload : uploads.getMultipartUploads()) {
+                if (upload.getInitiated() != null && upload.getInitiated().before(openedBefore)) {
+                    logger.info("abortAbandoned(...), aborting session [{}] of [{}] opened {}", upload.getUploadId(), upload.getKey(), upload.getInitiated());
+                    amazonS3.abortMultipartUpload(new AbortMultipartUploadRequest(s3BucketName, upload.getKey(), upload.getUploadId()));
+                    deleteStagedChunks(upload.getUploadId());
+                    ++cleaned;
+                } else {
+                    openSessions.add(upload.getUploadId());
+                }
+                stagedSessions.remove(upload.getUploadId());
+            }
+            listMultipartUploadsRequest.setKeyMarker(uploads.getNextKeyMarker());
+            listMultipartUploadsRequest.setUploadIdMarker(uploads.getNextUploadIdMarker());
+        } while (uploads.isTruncated());
+
+        // chunks of sessions that were committed or aborted without the chunks being deleted, or of no session at all
+        for (String uploadSession : stagedSessions) {
+            if (openSessions.contains(uploadSession))
+                continue;
+            logger.info("abortAbandoned(...), deleting the staged chunks of [{}]", uploadSession);
+            deleteStagedChunks(uploadSession);
+            ++cleaned;
+        }
+        return cleaned;
+    }
+
+    private PartETag uploadPart(final String identifier, final String uploadSession, final int partNumber,
+                                final byte[] content, final boolean lastPart) {
+        UploadPartRequest uploadPartRequest = new UploadPartRequest()
+                .withBucketName(s3BucketName)
+                .withKey(identifier)
+                .withUploadId(uploadSession)
+                .withPartNumber(partNumber)
+                .withPartSize(content.length)
+                .withInputStream(new ByteArrayInputStream(content))
+                .withLastPart(lastPart);
+        return amazonS3.uploadPart(uploadPartRequest).getPartETag();
+    }
+
+    /**
+     * @return the keys of the (current) staged chunks of a session by chunk number
+     */
+    private TreeMap<Integer, String> listStagedChunks(final String uploadSession) {
+        final String prefix = stagingPrefix(uploadSession);
+        TreeMap<Integer, String> stagedChunks = new TreeMap<>();
+        ListObjectsV2Request listObjectsV2Request = new ListObjectsV2Request()
+                .withBucketName(s3BucketName)
+                .withPrefix(prefix);
+        ListObjectsV2Result objects;
+        do {
+            objects = amazonS3.listObjectsV2(listObjectsV2Request);
+            for (S3ObjectSummary summary : objects.getObjectSummaries()) {
+                try {
+                    stagedChunks.put(Integer.valueOf(summary.getKey().substring(prefix.length())), summary.getKey());
+                } catch (NumberFormatException nfX) {
+                    logger.warn("listStagedChunks({}), ignoring [{}]", uploadSession, summary.getKey());
+                }
+            }
+            listObjectsV2Request.setContinuationToken(objects.getNextContinuationToken());
+        } while (objects.isTruncated());
+        return stagedChunks;
+    }
+
+    /**
+     * Permanently delete every version of the staged chunks of a session (the bucket is versioned).
+     */
+    private void deleteStagedChunks(final String uploadSession) {
+        List<DeleteObjectsRequest.KeyVersion> keyVersions = new ArrayList<>();
+        VersionListing versions = amazonS3.listVersions(new ListVersionsRequest()
+                .withBucketName(s3BucketName)
+                .withPrefix(stagingPrefix(uploadSession)));
+        while (versions != null) {
+            for (S3VersionSummary versionSummary : versions.getVersionSummaries())
+                keyVersions.add(new DeleteObjectsRequest.KeyVersion(versionSummary.getKey(), versionSummary.getVersionId()));
+            versions = versions.isTruncated() ? amazonS3.listNextBatchOfVersions(versions) : null;
+        }
+        for (int from = 0; from < keyVersions.size(); from += MAXIMUM_KEYS_PER_DELETE) {
+            amazonS3.deleteObjects(new DeleteObjectsRequest(s3BucketName)
+                    .withKeys(keyVersions.subList(from, Math.min(from + MAXIMUM_KEYS_PER_DELETE, keyVersions.size())))
+                    .withQuiet(true));
+        }
+    }
+
+    static String stagingPrefix(final String uploadSession) {
+        return STAGING_KEY_PREFIX + uploadSession + "/";
+    }
+
+    static String stagingKey(final String uploadSession, final int chunkNumber) {
+        // zero padded so that the chunks are listed in order
+        return stagingPrefix(uploadSession) + String.format("%05d", chunkNumber);
+    }
+}
@@ -0,0 +1,55 @@
+package gov.va.vha.dicomimporter;
+
+import com.amazonaws.regions.Regions;
+import com.amazonaws.services.lambda.runtime.Context;
+import com.amazonaws.services.lambda.runtime.RequestHandler;
+import com.amazonaws.services.lambda.runtime.events.ScheduledEvent;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.AmazonS3ClientBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Date;
+
+/**
+ * Aborts the upload sessions that have been neither committed nor aborted within the maximum age
+ * ("upload_session_maximum_age_hours"), and deletes their staged chunks. An open session holds the
+ * storage of its chunks, so abandoned sessions would otherwise be charged for indefinitely.
+ * The function is invoked on a schedule, the event itself is not used.
+ */
+public class UploadSessionSweepHandler implements RequestHandler<ScheduledEvent, String> {
+    private final static String DEFAULT_BUCKET_NAME = "canned-reports";
+    private final UploadSessionRepository uploadSessionRepository;
+    private final long maximumAgeMillis;
+    private final Logger logger = LoggerFactory.getLogger(UploadSessionSweepHandler.class);
+
+    /**
+     * The required (by Lambda framework) no-args constructor.
+     */
+    public UploadSessionSweepHandler() {
+        this(
+                AmazonS3ClientBuilder.standard().withRegion(Regions.DEFAULT_REGION).build(),
+                ApplicationProperties.getSingleton().getProperty("S3_BUCKET_NAME", DEFAULT_BUCKET_NAME)
+        );
+    }
+
+    /**
+     * A constructor providing the means to mock the AmazonS3 instance for testing
+     * @param amazonS3
+     * @param s3BucketName
+     */
+    UploadSessionSweepHandler(final AmazonS3 amazonS3, final String s3BucketName) {
+        this.uploadSessionRepository = UploadSessionRepository.fromApplicationProperties(amazonS3, s3BucketName);
+        this.maximumAgeMillis = UploadSessionRepository.getMaximumAgeMillis();
+    }
+
+    @Override
+    public String handleRequest(final ScheduledEvent event, final Context context) {
+        logger.info("handleRequest({}, {})", event, context);
+
+        final int aborted = uploadSessionRepository.abortAbandoned(new Date(System.currentTimeMillis() - maximumAgeMillis));
+
+        logger.info("handleRequest(...), {} abandoned upload session(s) aborted", aborted);
+        return "aborted " + aborted + " abandoned upload session(s)";
+    }
+}
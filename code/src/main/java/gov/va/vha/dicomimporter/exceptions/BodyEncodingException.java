@@ -8,4 +8,8 @@ public class BodyEncodingException extends AbstractClientException {
     public BodyEncodingException() {
         super("Unable to read body content because the character encoding was unknown.");
     }
+
+    public BodyEncodingException(String message) {
+        super(message);
+    }
 }
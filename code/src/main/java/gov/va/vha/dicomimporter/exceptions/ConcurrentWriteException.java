@@ -0,0 +1,15 @@
+package gov.va.vha.dicomimporter.exceptions;
+
+import org.apache.http.HttpStatus;
+
+public class ConcurrentWriteException extends AbstractClientException {
+    public int getHTTPResponseCode(){return HttpStatus.SC_CONFLICT;};
+
+    private static String createMessage(final String identifier) {
+        return "Report [" + identifier + "] was written by another request while this one was being written, retry the request";
+    }
+
+    public ConcurrentWriteException(final String identifier) {
+        super(createMessage(identifier));
+    }
+}
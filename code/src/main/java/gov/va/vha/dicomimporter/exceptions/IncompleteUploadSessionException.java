@@ -0,0 +1,15 @@
+package gov.va.vha.dicomimporter.exceptions;
+
+import java.util.List;
+
+public class IncompleteUploadSessionException extends AbstractClientException {
+    private static String createMessage(final String uploadSession, final List<Integer> missingChunks) {
+        return missingChunks.isEmpty()
+                ? "Upload session [" + uploadSession + "] has no chunks"
+                : "Upload session [" + uploadSession + "] is missing chunks " + missingChunks;
+    }
+
+    public IncompleteUploadSessionException(final String uploadSession, final List<Integer> missingChunks) {
+        super(createMessage(uploadSession, missingChunks));
+    }
+}
@@ -0,0 +1,15 @@
+package gov.va.vha.dicomimporter.exceptions;
+
+import org.apache.http.HttpStatus;
+
+public class UnknownUploadSessionException extends AbstractClientException {
+    public int getHTTPResponseCode(){return HttpStatus.SC_NOT_FOUND;};
+
+    private static String createMessage(final String identifier, final String uploadSession) {
+        return "Upload session [" + uploadSession + "] of [" + identifier + "] does not exist, it may have been committed or abandoned";
+    }
+
+    public UnknownUploadSessionException(final String identifier, final String uploadSession) {
+        super(createMessage(identifier, uploadSession));
+    }
+}
@@ -1,15 +1,18 @@
 package gov.va.vha.dicomimporter.model;
 
 import com.amazonaws.services.s3.model.ObjectMetadata;
-import com.amazonaws.util.StringInputStream;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
 import gov.va.vha.dicomimporter.CannedReportsManager;
 import gov.va.vha.dicomimporter.exceptions.InstanceValidationException;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.UnsupportedEncodingException;
-import java.util.Arrays;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+import java.util.zip.GZIPInputStream;
 
 public class CanonicalDocument {
     final String identifier;
@@ -20,9 +23,14 @@ public class CanonicalDocument {
     final Integer contentLength;
     final String body;
     final InputStream bodyStream;
+    final byte[] bodyBytes;
+    final String contentEncoding;
     final boolean bodyIsBase64Encoded;
+    final String error;
+    final String eTag;
+    final Date lastModified;
 
-    public CanonicalDocument(String identifier, Integer revision, String name, String description, String contentType, Integer contentLength, String body, InputStream bodyStream, boolean bodyIsBase64Encoded) {
+    public CanonicalDocument(String identifier, Integer revision, String name, String description, String contentType, Integer contentLength, String body, InputStream bodyStream, byte[] bodyBytes, String contentEncoding, boolean bodyIsBase64Encoded, String error, String eTag, Date lastModified) {
         this.identifier = identifier;
         this.revision = revision;
         this.name = name;
@@ -31,7 +39,12 @@ public class CanonicalDocument {
         this.contentLength = contentLength;
         this.body = body;
         this.bodyStream = bodyStream;
+        this.bodyBytes = bodyBytes;
+        this.contentEncoding = contentEncoding;
         this.bodyIsBase64Encoded = bodyIsBase64Encoded;
+        this.error = error;
+        this.eTag = eTag;
+        this.lastModified = lastModified;
     }
 
     public String getIdentifier() {
@@ -58,37 +71,112 @@ public class CanonicalDocument {
         return contentLength;
     }
 
+    /**
+     * @return the content as a (UTF-8) String, null if there is no content
+     */
     public String getBody() throws IOException {
-        if (body != null) {
+        if (body != null)
             return body;
-        } else if (bodyStream != null){
-            try (InputStreamReader isReader = new InputStreamReader(bodyStream)) {
-                StringBuilder sb = new StringBuilder();
-                char[] buffy = new char[2048];
-                for (int charRead = isReader.read(buffy); charRead >= 0; charRead = isReader.read(buffy)) {
-                    sb.append(Arrays.copyOfRange(buffy, 0, charRead));
-                }
-                return sb.toString();
-            }
-        } else {
-            return null;
+        final byte[] content = getBodyBytes();
+        return content == null ? null : new String(content, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return the content, decoded if it is stored with a content encoding, null if there is no content.
+     * Content that is already in memory (e.g. from the report body cache) is returned as is, it must not be modified.
+     */
+    @JsonIgnore
+    public byte[] getBodyBytes() throws IOException {
+        if (bodyBytes != null && contentEncoding == null)
+            return bodyBytes;
+        if (body != null)
+            return body.getBytes(StandardCharsets.UTF_8);
+        try (InputStream content = getBodyStream()) {
+            return content == null
+                    ? null
+                    : CannedReportsManager.readContent(content, contentLength == null ? -1L : contentLength);
         }
     }
 
-    public InputStream getBodyStream() throws UnsupportedEncodingException {
+    /**
+     * @return the content, decoded if it is stored with a content encoding, null if there is no content
+     */
+    @JsonIgnore
+    public InputStream getBodyStream() throws IOException {
+        final InputStream encodedBodyStream = getEncodedBodyStream();
+        if (encodedBodyStream != null && body == null && CannedReportsManager.CONTENT_ENCODING_GZIP.equals(contentEncoding))
+            return new GZIPInputStream(encodedBodyStream);
+        return encodedBodyStream;
+    }
+
+    /**
+     * @return the content as it is stored, i.e. encoded with the content encoding if there is one
+     */
+    @JsonIgnore
+    public InputStream getEncodedBodyStream() {
         if (bodyStream != null) {
             return bodyStream;
+        } else if (bodyBytes != null) {
+            return new ByteArrayInputStream(bodyBytes);
         } else if (body != null) {
-            return new StringInputStream(body);
+            return new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8));
         } else {
             return null;
         }
     }
 
+    /**
+     * @return the content as it is stored, null if there is no content. Content that is already in memory is
+     * returned as is, it must not be modified.
+     */
+    @JsonIgnore
+    public byte[] getEncodedBodyBytes() throws IOException {
+        if (bodyBytes != null)
+            return bodyBytes;
+        try (InputStream content = getEncodedBodyStream()) {
+            return content == null ? null : CannedReportsManager.readContent(content, -1L);
+        }
+    }
+
+    /**
+     * @return the encoding (e.g. "gzip") of the body stream as stored, null if the content is stored as is
+     */
+    @JsonIgnore
+    public String getContentEncoding() {
+        return contentEncoding;
+    }
+
     public boolean isBodyIsBase64Encoded() {
         return bodyIsBase64Encoded;
     }
 
+    /**
+     * When a document is one of many in a response (e.g. the catalog) a failure to retrieve it
+     * is reported here rather than failing the whole response.
+     * @return a description of the failure or null if the document was retrieved
+     */
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public String getError() {
+        return error;
+    }
+
+    /**
+     * @return the entity tag of the content as reported by S3 (i.e. without quotes), null if not known
+     */
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    @JsonProperty("eTag")
+    public String getETag() {
+        return eTag;
+    }
+
+    /**
+     * @return the time the content was last modified, null if not known
+     */
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public Date getLastModified() {
+        return lastModified;
+    }
+
     @Override
     public String toString() {
         return "CanonicalDocument{" +
@@ -100,7 +188,12 @@ public class CanonicalDocument {
                 ", contentLength=" + contentLength +
                 ", body='" + (body == null ? "null" : "not null") + '\'' +
                 ", bodyStream=" + (bodyStream == null ? "null" : "not null") +
+                ", bodyBytes=" + (bodyBytes == null ? "null" : bodyBytes.length) +
+                ", contentEncoding=" + (contentEncoding == null ? "null" : "'" + contentEncoding + "'") +
                 ", bodyIsBase64Encoded=" + bodyIsBase64Encoded +
+                ", error=" + (error == null ? "null" : "'" + error + "'") +
+                ", eTag='" + eTag + '\'' +
+                ", lastModified=" + lastModified +
                 "}";
     }
 
@@ -117,7 +210,12 @@ public class CanonicalDocument {
         private Integer contentLength;
         private String body;
         private InputStream bodyStream;
+        private byte[] bodyBytes;
+        private String contentEncoding;
         private boolean bodyIsBase64Encoded;
+        private String error;
+        private String eTag;
+        private Date lastModified;
 
         private Builder() {
         }
@@ -125,8 +223,11 @@ public class CanonicalDocument {
         public Builder withObjectMetadata(ObjectMetadata objectMetadata) {
             this.name = objectMetadata.getUserMetaDataOf(CannedReportsManager.HTTP_HEADER_REPORT_NAME);
             this.description = objectMetadata.getUserMetaDataOf(CannedReportsManager.HTTP_HEADER_REPORT_DESCRIPTION);
-            this.contentLength = (int) objectMetadata.getContentLength();
+            this.contentLength = (int) CannedReportsManager.getIdentityContentLength(objectMetadata);
             this.contentType = objectMetadata.getContentType();
+            this.contentEncoding = objectMetadata.getContentEncoding();
+            this.eTag = objectMetadata.getETag();
+            this.lastModified = objectMetadata.getLastModified();
             return this;
         }
 
@@ -170,11 +271,39 @@ public class CanonicalDocument {
             return this;
         }
 
+        /**
+         * @param bodyBytes the content as stored, it is not copied
+         */
+        public Builder withBodyBytes(byte[] bodyBytes) {
+            this.bodyBytes = bodyBytes;
+            return this;
+        }
+
+        public Builder withContentEncoding(String contentEncoding) {
+            this.contentEncoding = contentEncoding;
+            return this;
+        }
+
         public Builder withBodyIsBase64Encoded(boolean bodyIsBase64Encoded) {
             this.bodyIsBase64Encoded = bodyIsBase64Encoded;
             return this;
         }
 
+        public Builder withError(String error) {
+            this.error = error;
+            return this;
+        }
+
+        public Builder withETag(String eTag) {
+            this.eTag = eTag;
+            return this;
+        }
+
+        public Builder withLastModified(Date lastModified) {
+            this.lastModified = lastModified;
+            return this;
+        }
+
         public CanonicalDocument build() {
             InstanceValidationException.Builder ivXBuilder = InstanceValidationException.builder();
             ivXBuilder.withContext("CanonicalDocument");
@@ -185,7 +314,7 @@ public class CanonicalDocument {
             if (name == null || name.length() == 0)
                 ivXBuilder.withValidationFailure("name", "Null or empty value not allowed");
 
-            return new CanonicalDocument(identifier, revision, name, description, contentType, contentLength, body, bodyStream, bodyIsBase64Encoded);
+            return new CanonicalDocument(identifier, revision, name, description, contentType, contentLength, body, bodyStream, bodyBytes, contentEncoding, bodyIsBase64Encoded, error, eTag, lastModified);
         }
     }
 }
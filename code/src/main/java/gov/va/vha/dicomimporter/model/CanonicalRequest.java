@@ -1,9 +1,16 @@
 package gov.va.vha.dicomimporter.model;
 
+import gov.va.vha.dicomimporter.CannedReportsManager;
+import gov.va.vha.dicomimporter.RevisionIndex;
 import gov.va.vha.dicomimporter.RevisionSpecification;
+import gov.va.vha.dicomimporter.UploadSessionRepository;
 import gov.va.vha.dicomimporter.exceptions.InstanceValidationException;
 
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
 
 public class CanonicalRequest {
     final String method;
@@ -20,13 +27,35 @@ public class CanonicalRequest {
     final InputStream body;
     final boolean bodyIsBase64Encoded;
 
+    final Integer limit;
+    final String cursor;
+
+    final List<String> identifiers;
+
+    final String acceptEncoding;
+
+    final boolean redirect;
+
+    final String upload;
+    final String uploadSession;
+    final Integer uploadPart;
+
+    final String ifNoneMatch;
+    final Date ifModifiedSince;
+
     public CanonicalRequest(
             String method,
             String identifier, RevisionSpecification revisionSpecification,
             String name, String description,
             String contentType, Integer contentLength,
             String authorization,
-            InputStream body, boolean bodyIsBase64Encoded) {
+            InputStream body, boolean bodyIsBase64Encoded,
+            Integer limit, String cursor,
+            String ifNoneMatch, Date ifModifiedSince,
+            List<String> identifiers,
+            String acceptEncoding,
+            boolean redirect,
+            String upload, String uploadSession, Integer uploadPart) {
         this.method = method;
         this.identifier = identifier;
         this.revisionSpecification = revisionSpecification;
@@ -37,6 +66,16 @@ public class CanonicalRequest {
         this.authorization = authorization;
         this.body = body;
         this.bodyIsBase64Encoded = bodyIsBase64Encoded;
+        this.limit = limit;
+        this.cursor = cursor;
+        this.ifNoneMatch = ifNoneMatch;
+        this.ifModifiedSince = ifModifiedSince;
+        this.identifiers = identifiers == null ? Collections.emptyList() : Collections.unmodifiableList(new ArrayList<>(identifiers));
+        this.acceptEncoding = acceptEncoding;
+        this.redirect = redirect;
+        this.upload = upload;
+        this.uploadSession = uploadSession;
+        this.uploadPart = uploadPart;
     }
 
     public String getMethod() {
@@ -79,6 +118,79 @@ public class CanonicalRequest {
         return bodyIsBase64Encoded;
     }
 
+    /**
+     * @return the maximum number of documents in a catalog (GET /) response, null for the default
+     */
+    public Integer getLimit() {
+        return limit;
+    }
+
+    /**
+     * @return the opaque continuation cursor from a previous catalog response, null for the first page
+     */
+    public String getCursor() {
+        return cursor;
+    }
+
+    /**
+     * @return the If-None-Match request header, one or more entity tags (or "*"), null if not present
+     */
+    public String getIfNoneMatch() {
+        return ifNoneMatch;
+    }
+
+    /**
+     * @return the If-Modified-Since request header, null if not present or not a valid HTTP date
+     */
+    public Date getIfModifiedSince() {
+        return ifModifiedSince;
+    }
+
+    /**
+     * @return the documents requested by a batch GET, each an identifier optionally followed by "/" and a revision,
+     * an empty list if this is not a batch request
+     */
+    public List<String> getIdentifiers() {
+        return identifiers;
+    }
+
+    /**
+     * @return the Accept-Encoding request header, null if not present
+     */
+    public String getAcceptEncoding() {
+        return acceptEncoding;
+    }
+
+    /**
+     * @return true if the client asked to be redirected to download the document directly from S3
+     */
+    public boolean isRedirect() {
+        return redirect;
+    }
+
+    /**
+     * @return the phase of a direct to S3 upload ("presigned" or "complete") or of an upload session ("session", "part"
+     * or "commit"), null if the body is in the request
+     */
+    public String getUpload() {
+        return upload;
+    }
+
+    /**
+     * @return the identifier of the upload session that a chunk, commit or abort is part of, null if none
+     */
+    public String getUploadSession() {
+        return uploadSession;
+    }
+
+    /**
+     * @return the number of the chunk (from one) sent as the body of an upload session "part", or the number of
+     * chunks sent when an upload session is committed, null if not given
+     */
+    public Integer getUploadPart() {
+        return uploadPart;
+    }
+
     @Override
     public String toString() {
         return "CanonicalRequest{" +
@@ -92,6 +204,16 @@ public class CanonicalRequest {
                 ", authorization='" + authorization + '\'' +
                 ", body=" + (body == null ? "null" : "not null") +
                 ", bodyIsBase64Encoded=" + bodyIsBase64Encoded +
+                ", limit=" + limit +
+                ", cursor='" + cursor + '\'' +
+                ", ifNoneMatch='" + ifNoneMatch + '\'' +
+                ", ifModifiedSince=" + ifModifiedSince +
+                ", identifiers=" + identifiers +
+                ", acceptEncoding='" + acceptEncoding + '\'' +
+                ", redirect=" + redirect +
+                ", upload='" + upload + '\'' +
+                ", uploadSession='" + uploadSession + '\'' +
+                ", uploadPart=" + uploadPart +
                 '}';
     }
 
@@ -110,6 +232,16 @@ public class CanonicalRequest {
         private InputStream body;
         private boolean bodyIsBase64Encoded;
         private String authorization;
+        private Integer limit;
+        private String cursor;
+        private String ifNoneMatch;
+        private Date ifModifiedSince;
+        private List<String> identifiers;
+        private String acceptEncoding;
+        private boolean redirect;
+        private String upload;
+        private String uploadSession;
+        private Integer uploadPart;
 
         public Builder withMethod(String method) {
             this.method = method;
@@ -161,6 +293,68 @@ public class CanonicalRequest {
             return this;
         }
 
+        public Builder withLimit(Integer limit) {
+            this.limit = limit;
+            return this;
+        }
+
+        public Builder withCursor(String cursor) {
+            this.cursor = cursor;
+            return this;
+        }
+
+        public Builder withIfNoneMatch(String ifNoneMatch) {
+            this.ifNoneMatch = ifNoneMatch;
+            return this;
+        }
+
+        public Builder withIfModifiedSince(Date ifModifiedSince) {
+            this.ifModifiedSince = ifModifiedSince;
+            return this;
+        }
+
+        public Builder withIdentifiers(List<String> identifiers) {
+            this.identifiers = identifiers;
+            return this;
+        }
+
+        public Builder withAcceptEncoding(String acceptEncoding) {
+            this.acceptEncoding = acceptEncoding;
+            return this;
+        }
+
+        public Builder withRedirect(boolean redirect) {
+            this.redirect = redirect;
+            return this;
+        }
+
+        public Builder withUpload(String upload) {
+            this.upload = upload;
+            return this;
+        }
+
+        public Builder withUploadSession(String uploadSession) {
+            this.uploadSession = uploadSession;
+            return this;
+        }
+
+        public Builder withUploadPart(Integer uploadPart) {
+            this.uploadPart = uploadPart;
+            return this;
+        }
+
+        /**
+         * @return true if the revision specification is absent or addresses the current revision, false if it
+         * addresses another revision (or is not valid, which is reported separately)
+         */
+        private static boolean isCurrentRevision(final String revisionSpecification) {
+            if (revisionSpecification == null || revisionSpecification.isEmpty())
+                return true;
+            if (!RevisionSpecification.REGEX_PATTERN.matcher(revisionSpecification).matches())
+                return true;
+            return RevisionIndex.isCurrent(RevisionSpecification.builder().withStringRepresentation(revisionSpecification).build());
+        }
+
         public CanonicalRequest build() throws InstanceValidationException {
             InstanceValidationException.Builder validationExceptionBuilder = InstanceValidationException.builder();
 
@@ -175,14 +369,64 @@ public class CanonicalRequest {
                     }
                 }
                 if ("POST".equals(upperCaseMethod) || "PUT".equals(upperCaseMethod)) {
-                    if (this.body == null) {
+                    // the body of a direct to S3 upload is not in the request,
+                    // a PUT without a body copies a revision with new metadata
+                    if (this.body == null && this.upload == null && "POST".equals(upperCaseMethod)) {
                         validationExceptionBuilder.withValidationFailure("body", "Null value not permitted");
                     }
+                    if (this.body != null && "PUT".equals(upperCaseMethod) && !isCurrentRevision(this.revisionSpecification)) {
+                        validationExceptionBuilder.withValidationFailure("revisionSpecification", "Not permitted with a body");
+                    }
                     if (this.contentLength != null && this.contentLength < 1) {
                         validationExceptionBuilder.withValidationFailure("contentLength", "Minimum value not met");
                     }
                 }
             }
+            if (this.identifiers != null && !this.identifiers.isEmpty()) {
+                if (this.method != null && !"GET".equals(this.method.toUpperCase()))
+                    validationExceptionBuilder.withValidationFailure("identifiers", "Only permitted with GET");
+                if (this.identifier != null && this.identifier.length() > 0)
+                    validationExceptionBuilder.withValidationFailure("identifiers", "Not permitted with an identifier");
+            }
+            if (this.upload != null) {
+                final String upperCaseMethod = this.method == null ? null : this.method.toUpperCase();
+                final boolean sessionUpload = CannedReportsManager.UPLOAD_PART.equals(this.upload)
+                        || CannedReportsManager.UPLOAD_COMMIT.equals(this.upload);
+                if (CannedReportsManager.UPLOAD_PRESIGNED.equals(this.upload) || CannedReportsManager.UPLOAD_SESSION.equals(this.upload)) {
+                    if (!"POST".equals(upperCaseMethod) && !"PUT".equals(upperCaseMethod))
+                        validationExceptionBuilder.withValidationFailure("upload", "Only permitted with POST or PUT");
+                } else if (CannedReportsManager.UPLOAD_COMPLETE.equals(this.upload) || sessionUpload) {
+                    if (!"PUT".equals(upperCaseMethod))
+                        validationExceptionBuilder.withValidationFailure("upload", "Only permitted with PUT");
+                } else {
+                    validationExceptionBuilder.withValidationFailure("upload", "Must be one of '" + CannedReportsManager.UPLOAD_PRESIGNED
+                            + "', '" + CannedReportsManager.UPLOAD_COMPLETE + "', '" + CannedReportsManager.UPLOAD_SESSION
+                            + "', '" + CannedReportsManager.UPLOAD_PART + "' or '" + CannedReportsManager.UPLOAD_COMMIT + "'");
+                }
+                if (sessionUpload && (this.uploadSession == null || this.uploadSession.isEmpty()))
+                    validationExceptionBuilder.withValidationFailure("uploadSession", "Null value not permitted");
+                if (CannedReportsManager.UPLOAD_PART.equals(this.upload)) {
+                    if (this.body == null)
+                        validationExceptionBuilder.withValidationFailure("body", "Null value not permitted");
+                    if (this.uploadPart == null || this.uploadPart < 1 || this.uploadPart > UploadSessionRepository.MAXIMUM_CHUNKS)
+                        validationExceptionBuilder.withValidationFailure("uploadPart", "Must be from 1 to " + UploadSessionRepository.MAXIMUM_CHUNKS);
+                } else if (this.body != null) {
+                    validationExceptionBuilder.withValidationFailure("body", "Not permitted with upload");
+                }
+                if (CannedReportsManager.UPLOAD_COMMIT.equals(this.upload) && this.uploadPart != null
+                        && (this.uploadPart < 1 || this.uploadPart > UploadSessionRepository.MAXIMUM_CHUNKS))
+                    validationExceptionBuilder.withValidationFailure("uploadPart", "Must be from 1 to " + UploadSessionRepository.MAXIMUM_CHUNKS);
+            } else if (this.uploadSession != null && this.method != null && !"DELETE".equals(this.method.toUpperCase())) {
+                validationExceptionBuilder.withValidationFailure("uploadSession", "Only permitted with upload or DELETE");
+            }
+            if (this.limit != null && this.limit < 1) {
+                validationExceptionBuilder.withValidationFailure("limit", "Minimum value not met");
+            }
+            if (this.revisionSpecification != null && this.revisionSpecification.length() > 0
+                    && !"ALL".equalsIgnoreCase(this.revisionSpecification)
+                    && !RevisionSpecification.REGEX_PATTERN.matcher(this.revisionSpecification).matches()) {
+                validationExceptionBuilder.withValidationFailure("revisionSpecification", "Must match '" + RevisionSpecification.REGULAR_EXPRESSION_PATTERN + "'");
+            }
             if (validationExceptionBuilder.includesValidationFailures())
                 throw validationExceptionBuilder.build();
 
@@ -194,7 +438,13 @@ public class CanonicalRequest {
                     name, description,
                     contentType, contentLength,
                     authorization,
-                    body, bodyIsBase64Encoded
+                    body, bodyIsBase64Encoded,
+                    limit, cursor,
+                    ifNoneMatch, ifModifiedSince,
+                    identifiers,
+                    acceptEncoding,
+                    redirect,
+                    upload, uploadSession, uploadPart
             );
         }
     }
@@ -1,5 +1,6 @@
 package gov.va.vha.dicomimporter.model;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.apache.http.HttpStatus;
@@ -8,16 +9,38 @@ import java.util.ArrayList;
 import java.util.List;
 
 public class CanonicalResponse {
-    private static final ObjectMapper objectMapper = new ObjectMapper();
+    /** the ObjectMapper is created when a response first needs it, most responses are not JSON */
+    private static final class ObjectMapperHolder {
+        private static final ObjectMapper objectMapper = new ObjectMapper();
+    }
 
     private Result result;
     private Exception exception;
     private List<CanonicalDocument> reports;
+    private String nextCursor;
+    private String location;
+    private String uploadSession;
 
     public CanonicalResponse(Result result, List<CanonicalDocument> reports, Exception exception) {
+        this(result, reports, exception, null);
+    }
+
+    public CanonicalResponse(Result result, List<CanonicalDocument> reports, Exception exception, String nextCursor) {
+        this(result, reports, exception, nextCursor, null);
+    }
+
+    public CanonicalResponse(Result result, List<CanonicalDocument> reports, Exception exception, String nextCursor, String location) {
+        this(result, reports, exception, nextCursor, location, null);
+    }
+
+    public CanonicalResponse(Result result, List<CanonicalDocument> reports, Exception exception, String nextCursor, String location,
+                             String uploadSession) {
         this.result = result;
         this.reports = new ArrayList<>(reports);
         this.exception = exception;
+        this.nextCursor = nextCursor;
+        this.location = location;
+        this.uploadSession = uploadSession;
     }
 
     public Result getResult() {
@@ -32,6 +55,32 @@ public class CanonicalResponse {
         return reports;
     }
 
+    /**
+     * When the reports are one page of the catalog, the opaque cursor that requests the next page.
+     * @return the cursor or null if this is the last page
+     */
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public String getNextCursor() {
+        return nextCursor;
+    }
+
+    /**
+     * When the document is to be retrieved from (or uploaded to) elsewhere (e.g. a presigned S3 URL), where that is.
+     * @return the URL or null if the document is in this response or the request
+     */
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public String getLocation() {
+        return location;
+    }
+
+    /**
+     * @return the identifier of the upload session that was opened (or that a chunk was added to), null if none
+     */
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public String getUploadSession() {
+        return uploadSession;
+    }
+
     /**
      * An internal representation of the response code. The mapping to HttpStatus
      * is suggestive, not prescriptive.
@@ -39,9 +88,12 @@ public class CanonicalResponse {
     public enum Result {
         SUCCESS(HttpStatus.SC_OK, "OK"),
         ACCEPTED(HttpStatus.SC_ACCEPTED, "ACCEPTED"),
+        SEE_OTHER(HttpStatus.SC_SEE_OTHER, "SEE OTHER"),
+        NOT_MODIFIED(HttpStatus.SC_NOT_MODIFIED, "NOT MODIFIED"),
         SERVICE_EXCEPTION(HttpStatus.SC_INTERNAL_SERVER_ERROR, "SERVER ERROR"),
         CLIENT_EXCEPTION(HttpStatus.SC_BAD_REQUEST, "BAD REQUEST"),
         NOT_FOUND(HttpStatus.SC_NOT_FOUND, "NOT FOUND"),
+        CONFLICT(HttpStatus.SC_CONFLICT, "CONFLICT"),
         FORBIDDEN(HttpStatus.SC_FORBIDDEN, "FORBIDDEN");
 
         private int httpResponseCode;
@@ -66,6 +118,9 @@ public class CanonicalResponse {
                 "result=" + result +
                 ", exception=" + exception +
                 ", reports=" + (reports == null || reports.size()==0 ? 0 : reports.size()) +
+                ", nextCursor=" + nextCursor +
+                ", location=" + location +
+                ", uploadSession=" + uploadSession +
                 '}';
     }
 
@@ -78,6 +133,9 @@ public class CanonicalResponse {
         private Exception exception;
         private List<CanonicalDocument> reports = new ArrayList<>();
         private String rawBody;
+        private String nextCursor;
+        private String location;
+        private String uploadSession;
 
         private Builder() {
         }
@@ -92,7 +150,7 @@ public class CanonicalResponse {
 
         public Builder successWithJSONBody(final Object obj) {
             try {
-                successWithBody(objectMapper.writeValueAsString(obj));
+                successWithBody(ObjectMapperHolder.objectMapper.writeValueAsString(obj));
             } catch (JsonProcessingException jpX) {
                 result = Result.SERVICE_EXCEPTION;
                 this.exception = jpX;
@@ -116,6 +174,47 @@ public class CanonicalResponse {
             return this;
         }
 
+        /**
+         * The document has not changed since the version the client has, the document
+         * carries the validators (ETag and last modified) but no body.
+         */
+        public Builder notModified(final CanonicalDocument canonicalDocument) {
+            result = Result.NOT_MODIFIED;
+            this.reports.clear();
+            this.reports.add(canonicalDocument);
+            this.exception = null;
+            this.rawBody = null;
+            return this;
+        }
+
+        /**
+         * The document is to be retrieved from the location (e.g. a presigned S3 URL), the document
+         * carries the metadata but no body.
+         */
+        public Builder seeOther(final CanonicalDocument canonicalDocument, final String location) {
+            result = Result.SEE_OTHER;
+            this.reports.clear();
+            this.reports.add(canonicalDocument);
+            this.exception = null;
+            this.rawBody = null;
+            this.location = location;
+            return this;
+        }
+
+        /**
+         * The document is to be uploaded to the location (e.g. a presigned S3 URL), the document
+         * carries the metadata bound to the upload but no body.
+         */
+        public Builder accepted(final CanonicalDocument canonicalDocument, final String location) {
+            result = Result.ACCEPTED;
+            this.reports.clear();
+            this.reports.add(canonicalDocument);
+            this.exception = null;
+            this.rawBody = null;
+            this.location = location;
+            return this;
+        }
+
         public Builder addDocument(CanonicalDocument canonicalDocument) {
             this.reports.add(canonicalDocument);
             return this;
@@ -126,6 +225,16 @@ public class CanonicalResponse {
             return this;
         }
 
+        public Builder withNextCursor(final String nextCursor) {
+            this.nextCursor = nextCursor;
+            return this;
+        }
+
+        public Builder withUploadSession(final String uploadSession) {
+            this.uploadSession = uploadSession;
+            return this;
+        }
+
         public Builder withRawBody(final String rawBody) {
             this.rawBody = rawBody;
             return this;
@@ -152,6 +261,13 @@ public class CanonicalResponse {
             return this;
         }
 
+        public Builder conflictException(final Exception exception) {
+            result = Result.CONFLICT;
+            this.exception = exception;
+            this.reports.clear();
+            return this;
+        }
+
         public Builder forbiddenAccessException() {
             result = Result.FORBIDDEN;
             this.exception = null;
@@ -160,7 +276,7 @@ public class CanonicalResponse {
         }
 
         public CanonicalResponse build() {
-            CanonicalResponse canonicalResponse = new CanonicalResponse(this.result, this.reports, this.exception);
+            CanonicalResponse canonicalResponse = new CanonicalResponse(this.result, this.reports, this.exception, this.nextCursor, this.location, this.uploadSession);
             return canonicalResponse;
         }
     }
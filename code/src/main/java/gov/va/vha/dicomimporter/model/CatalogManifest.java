@@ -0,0 +1,231 @@
+package gov.va.vha.dicomimporter.model;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A materialized index of the report catalog, stored as a single object in the S3 bucket.
+ * Reading the manifest replaces a listObjectsV2 plus one getObjectMetadata per report when
+ * building the catalog (GET /). The manifest is maintained by the S3EventCatalogManifestHandler,
+ * entries are kept sorted by identifier.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class CatalogManifest {
+    public static final int FORMAT_VERSION = 1;
+
+    private static final ObjectMapper objectMapper = new ObjectMapper()
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+    final int formatVersion;
+    final long compactedAt;
+    final long updatedAt;
+    final List<Entry> entries;
+    // the S3 ETag of the manifest object as read, used for conditional writes, not serialized
+    final String eTag;
+
+    @JsonCreator
+    public CatalogManifest(
+            @JsonProperty("formatVersion") int formatVersion,
+            @JsonProperty("compactedAt") long compactedAt,
+            @JsonProperty("updatedAt") long updatedAt,
+            @JsonProperty("entries") List<Entry> entries) {
+        this(formatVersion, compactedAt, updatedAt, entries, null);
+    }
+
+    private CatalogManifest(int formatVersion, long compactedAt, long updatedAt, List<Entry> entries, String eTag) {
+        this.formatVersion = formatVersion;
+        this.compactedAt = compactedAt;
+        this.updatedAt = updatedAt;
+        this.entries = entries == null ? Collections.emptyList() : Collections.unmodifiableList(new ArrayList<>(entries));
+        this.eTag = eTag;
+    }
+
+    public int getFormatVersion() {
+        return formatVersion;
+    }
+
+    /**
+     * The time (milliseconds since the epoch) that the manifest was last rebuilt from a full bucket listing.
+     */
+    public long getCompactedAt() {
+        return compactedAt;
+    }
+
+    /**
+     * The time (milliseconds since the epoch) that the manifest was last written.
+     */
+    public long getUpdatedAt() {
+        return updatedAt;
+    }
+
+    public List<Entry> getEntries() {
+        return entries;
+    }
+
+    @JsonIgnore
+    public String getETag() {
+        return eTag;
+    }
+
+    public byte[] toJson() throws IOException {
+        return objectMapper.writeValueAsBytes(this);
+    }
+
+    public static CatalogManifest fromJson(final InputStream json, final String eTag) throws IOException {
+        CatalogManifest parsed = objectMapper.readValue(json, CatalogManifest.class);
+        return new CatalogManifest(parsed.formatVersion, parsed.compactedAt, parsed.updatedAt, parsed.entries, eTag);
+    }
+
+    @Override
+    public String toString() {
+        return "CatalogManifest{" +
+                "formatVersion=" + formatVersion +
+                ", compactedAt=" + compactedAt +
+                ", updatedAt=" + updatedAt +
+                ", entries=" + entries.size() +
+                ", eTag='" + eTag + '\'' +
+                '}';
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Create a Builder initialized with the entries of an existing manifest.
+     * @param manifest the existing manifest, may be null
+     */
+    public static Builder builder(final CatalogManifest manifest) {
+        Builder builder = new Builder();
+        if (manifest != null) {
+            builder.compactedAt = manifest.compactedAt;
+            manifest.entries.forEach(builder::putEntry);
+        }
+        return builder;
+    }
+
+    public static final class Builder {
+        private long compactedAt;
+        private final Map<String, Entry> entries = new TreeMap<>();
+
+        private Builder() {
+        }
+
+        public Builder withCompactedAt(long compactedAt) {
+            this.compactedAt = compactedAt;
+            return this;
+        }
+
+        public Builder putEntry(Entry entry) {
+            this.entries.put(entry.getIdentifier(), entry);
+            return this;
+        }
+
+        public Builder removeEntry(String identifier) {
+            this.entries.remove(identifier);
+            return this;
+        }
+
+        public CatalogManifest build() {
+            return new CatalogManifest(FORMAT_VERSION, compactedAt, System.currentTimeMillis(), new ArrayList<>(entries.values()));
+        }
+    }
+
+    /**
+     * The description of one report in the catalog, this is the same information as a HEAD request returns.
+     */
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public static class Entry {
+        final String identifier;
+        final String name;
+        final String description;
+        final String contentType;
+        final Long contentLength;
+        final String eTag;
+        final Integer revisionCount;
+
+        @JsonCreator
+        public Entry(
+                @JsonProperty("identifier") String identifier,
+                @JsonProperty("name") String name,
+                @JsonProperty("description") String description,
+                @JsonProperty("contentType") String contentType,
+                @JsonProperty("contentLength") Long contentLength,
+                @JsonProperty("eTag") String eTag,
+                @JsonProperty("revisionCount") Integer revisionCount) {
+            this.identifier = identifier;
+            this.name = name;
+            this.description = description;
+            this.contentType = contentType;
+            this.contentLength = contentLength;
+            this.eTag = eTag;
+            this.revisionCount = revisionCount;
+        }
+
+        public String getIdentifier() {
+            return identifier;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getDescription() {
+            return description;
+        }
+
+        public String getContentType() {
+            return contentType;
+        }
+
+        public Long getContentLength() {
+            return contentLength;
+        }
+
+        @JsonProperty("eTag")
+        public String getETag() {
+            return eTag;
+        }
+
+        public Integer getRevisionCount() {
+            return revisionCount;
+        }
+
+        public CanonicalDocument toCanonicalDocument() {
+            return CanonicalDocument.builder()
+                    .withIdentifier(identifier)
+                    .withRevision(revisionCount)
+                    .withName(name)
+                    .withDescription(description)
+                    .withContentType(contentType)
+                    .withContentLength(contentLength == null ? null : contentLength.intValue())
+                    .withETag(eTag)
+                    .build();
+        }
+
+        @Override
+        public String toString() {
+            return "Entry{" +
+                    "identifier='" + identifier + '\'' +
+                    ", name='" + name + '\'' +
+                    ", description='" + description + '\'' +
+                    ", contentType='" + contentType + '\'' +
+                    ", contentLength=" + contentLength +
+                    ", eTag='" + eTag + '\'' +
+                    ", revisionCount=" + revisionCount +
+                    '}';
+        }
+    }
+}
@@ -3,17 +3,32 @@ package gov.va.vha.dicomimporter;
 import com.amazonaws.services.lambda.runtime.Context;
 import com.amazonaws.services.lambda.runtime.events.ApplicationLoadBalancerRequestEvent;
 import com.amazonaws.services.lambda.runtime.events.ApplicationLoadBalancerResponseEvent;
+import com.amazonaws.services.s3.model.AmazonS3Exception;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PutObjectResult;
+import com.amazonaws.util.IOUtils;
 import gov.va.vha.dicomimporter.exceptions.AbstractClientException;
+import gov.va.vha.dicomimporter.exceptions.InstanceValidationException;
 import gov.va.vha.dicomimporter.model.CanonicalRequest;
 import gov.va.vha.dicomimporter.model.CanonicalResponse;
 import org.apache.http.HttpHeaders;
+import org.apache.http.HttpStatus;
 import org.mockito.Mockito;
 import org.testng.Assert;
 import org.testng.annotations.DataProvider;
 import org.testng.annotations.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.UUID;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
 
 import static org.testng.Assert.*;
 
@@ -67,6 +82,216 @@ public class ApplicationLoadBalancerCannedReportsHandlerTest {
         }
     }
 
+    @Test
+    public void testHttpDateRoundTrip() {
+        Date date = ApplicationLoadBalancerCannedReportsHandler.parseHttpDate("Wed, 21 Oct 2015 07:28:00 GMT");
+
+        assertNotNull(date);
+        assertEquals(date.getTime(), 1445412480000L);
+        assertEquals(ApplicationLoadBalancerCannedReportsHandler.formatHttpDate(date), "Wed, 21 Oct 2015 07:28:00 GMT");
+        assertNull(ApplicationLoadBalancerCannedReportsHandler.parseHttpDate("not a date"));
+        assertNull(ApplicationLoadBalancerCannedReportsHandler.parseHttpDate(null));
+    }
+
+    @Test
+    public void testParseIdentifiers() throws InstanceValidationException {
+        assertEquals(ApplicationLoadBalancerCannedReportsHandler.parseIdentifiers("IDENTIFIER001,IDENTIFIER002/-1"),
+                Arrays.asList("IDENTIFIER001", "IDENTIFIER002/-1"));
+        assertEquals(ApplicationLoadBalancerCannedReportsHandler.parseIdentifiers("IDENTIFIER001%2CIDENTIFIER002%2F0,"),
+                Arrays.asList("IDENTIFIER001", "IDENTIFIER002/0"));
+        assertNull(ApplicationLoadBalancerCannedReportsHandler.parseIdentifiers(""));
+    }
+
+    @DataProvider(name = "AcceptEncodingData")
+    public Object[][] acceptEncodingData() {
+        return new Object[][]{
+                {null, null},
+                {"", null},
+                {"identity", null},
+                {"gzip", "gzip"},
+                {"deflate, gzip", "gzip"},
+                {"gzip;q=0.5, deflate", "deflate"},
+                {"gzip;q=0, deflate;q=0", null},
+                {"br, *;q=0.1", "gzip"},
+                {"*, gzip;q=0", "deflate"},
+                {"x-gzip", "gzip"},
+                {"gzip;q=bogus, deflate;q=0.2", "deflate"},
+        };
+    }
+
+    @Test(dataProvider = "AcceptEncodingData")
+    public void testNegotiateContentEncoding(final String acceptEncoding, final String expected) {
+        assertEquals(ApplicationLoadBalancerCannedReportsHandler.negotiateContentEncoding(acceptEncoding), expected);
+    }
+
+    @DataProvider(name = "CompressData")
+    public Object[][] compressData() {
+        return new Object[][]{
+                {ApplicationLoadBalancerCannedReportsHandler.CONTENT_ENCODING_GZIP},
+                {ApplicationLoadBalancerCannedReportsHandler.CONTENT_ENCODING_DEFLATE},
+        };
+    }
+
+    @Test(dataProvider = "CompressData")
+    public void testCompress(final String contentEncoding) throws IOException {
+        StringBuilder report = new StringBuilder();
+        for (int line = 0; line < 200; ++line)
+            report.append("FINDINGS: No acute intracranial abnormality. Line ").append(line).append('\n');
+        final byte[] content = report.toString().getBytes(StandardCharsets.UTF_8);
+
+        final byte[] compressed = ApplicationLoadBalancerCannedReportsHandler.compress(content, contentEncoding);
+
+        assertTrue(compressed.length < content.length);
+        try (InputStream inflater = ApplicationLoadBalancerCannedReportsHandler.CONTENT_ENCODING_GZIP.equals(contentEncoding)
+                ? new GZIPInputStream(new ByteArrayInputStream(compressed))
+                : new InflaterInputStream(new ByteArrayInputStream(compressed))) {
+            assertEquals(IOUtils.toByteArray(inflater), content);
+        }
+    }
+
+    @Test
+    public void testBeforeCheckpointPrimesWithoutS3() {
+        final LatencyInjectingAmazonS3 amazonS3 = new LatencyInjectingAmazonS3(0L);
+        ApplicationProperties.getSingleton().setProperty(
+                ApplicationLoadBalancerCannedReportsHandler.PROPERTY_PRIMING_ITERATIONS, "3");
+        try {
+            ApplicationLoadBalancerCannedReportsHandler handler = new ApplicationLoadBalancerCannedReportsHandler(
+                    () -> new CannedReportsManager(amazonS3, "canned-reports"));
+
+            // POST, PUT, bodyless PUT, HEAD, GET and catalog GET, all succeed
+            assertEquals(handler.prime(), 3 * 6);
+            handler.beforeCheckpoint(null);
+            assertEquals(amazonS3.getRequestCount(), 0);
+        } finally {
+            ApplicationProperties.getSingleton().setProperty(ApplicationLoadBalancerCannedReportsHandler.PROPERTY_PRIMING_ITERATIONS,
+                    ApplicationLoadBalancerCannedReportsHandler.DEFAULT_PRIMING_ITERATIONS);
+        }
+    }
+
+    @Test
+    public void testAfterRestoreRecreatesManager() {
+        final LatencyInjectingAmazonS3 checkpointed = new LatencyInjectingAmazonS3(0L);
+        final LatencyInjectingAmazonS3 restored = new LatencyInjectingAmazonS3(0L);
+        final LatencyInjectingAmazonS3[] next = {checkpointed};
+        ApplicationLoadBalancerCannedReportsHandler handler = new ApplicationLoadBalancerCannedReportsHandler(
+                () -> new CannedReportsManager(next[0], "canned-reports"));
+
+        next[0] = restored;
+        handler.afterRestore(null);
+        ApplicationLoadBalancerRequestEvent event = new ApplicationLoadBalancerRequestEvent();
+        event.setHttpMethod("POST");
+        event.setPath("/");
+        event.setHeaders(createHeaders("CT Brain Normal", null, "text/plain", null, null));
+        event.setBody("FINDINGS: none");
+        event.setIsBase64Encoded(false);
+        ApplicationLoadBalancerResponseEvent response = handler.handleRequest(event, createMockContext());
+
+        assertEquals(response.getStatusCode(), 200);
+        assertEquals(checkpointed.getRequestCount(), 0);
+        assertTrue(restored.getRequestCount() > 0);
+        // the client of the replaced manager is released, that of the new manager is in use
+        assertTrue(checkpointed.isShutdown());
+        assertFalse(restored.isShutdown());
+        // a version 4 (random) UUID
+        final UUID identifier = UUID.fromString(response.getHeaders().get(CannedReportsManager.HTTP_HEADER_REPORT_IDENTIFIER));
+        assertEquals(identifier.version(), 4);
+        assertEquals(identifier.variant(), 2);
+    }
+
+    @Test
+    public void testConflictingPutIsAnsweredConflict() {
+        // every conditional write loses the race with another writer
+        final InMemoryReportStore reportStore = new InMemoryReportStore() {
+            @Override
+            public PutObjectResult put(String key, byte[] content, ObjectMetadata metadata, String ifMatch, String ifNoneMatch) {
+                if (ifMatch != null) {
+                    AmazonS3Exception s3X = new AmazonS3Exception("Precondition Failed");
+                    s3X.setStatusCode(HttpStatus.SC_PRECONDITION_FAILED);
+                    throw s3X;
+                }
+                return super.put(key, content, metadata, ifMatch, ifNoneMatch);
+            }
+        };
+        ApplicationLoadBalancerCannedReportsHandler handler = new ApplicationLoadBalancerCannedReportsHandler(
+                () -> new CannedReportsManager(reportStore) {});
+        ApplicationLoadBalancerResponseEvent posted = handler.handleRequest(
+                createEvent("POST", "/", null, "FINDINGS: none"), createMockContext());
+        final String identifier = posted.getHeaders().get(CannedReportsManager.HTTP_HEADER_REPORT_IDENTIFIER);
+
+        ApplicationLoadBalancerResponseEvent response = handler.handleRequest(
+                createEvent("PUT", "/" + identifier, null, "FINDINGS: nodule"), createMockContext());
+
+        assertEquals(response.getStatusCode(), HttpStatus.SC_CONFLICT);
+        assertEquals(response.getHeaders().get(CannedReportsManager.HTTP_HEADER_REPORT_IDENTIFIER), identifier);
+    }
+
+    @Test
+    public void testUnknownUploadSessionIsAnsweredNotFound() {
+        ApplicationLoadBalancerCannedReportsHandler handler = new ApplicationLoadBalancerCannedReportsHandler(
+                () -> new CannedReportsManager(new LatencyInjectingAmazonS3(0L), "canned-reports"));
+        final Map<String, String> part = new HashMap<>();
+        part.put(CannedReportsManager.QUERY_PARAMETER_UPLOAD, CannedReportsManager.UPLOAD_PART);
+        part.put(CannedReportsManager.QUERY_PARAMETER_SESSION, "UNKNOWN");
+        part.put(CannedReportsManager.QUERY_PARAMETER_PART, "1");
+        handler.handleRequest(createEvent("PUT", "/IDENTIFIER001", part, "FINDINGS: none"), createMockContext());
+        final Map<String, String> commit = new HashMap<>();
+        commit.put(CannedReportsManager.QUERY_PARAMETER_UPLOAD, CannedReportsManager.UPLOAD_COMMIT);
+        commit.put(CannedReportsManager.QUERY_PARAMETER_SESSION, "UNKNOWN");
+
+        ApplicationLoadBalancerResponseEvent unknown = handler.handleRequest(
+                createEvent("PUT", "/IDENTIFIER001", commit, null), createMockContext());
+        assertEquals(unknown.getStatusCode(), HttpStatus.SC_NOT_FOUND);
+        assertEquals(unknown.getHeaders().get(CannedReportsManager.HTTP_HEADER_REPORT_IDENTIFIER), "IDENTIFIER001");
+
+        // a session with no chunks cannot be committed
+        commit.put(CannedReportsManager.QUERY_PARAMETER_SESSION, "EMPTY");
+        ApplicationLoadBalancerResponseEvent incomplete = handler.handleRequest(
+                createEvent("PUT", "/IDENTIFIER001", commit, null), createMockContext());
+        assertEquals(incomplete.getStatusCode(), HttpStatus.SC_BAD_REQUEST);
+    }
+
+    @Test
+    public void testHeadAndGetOfStoredCompressedReportShareValidator() {
+        ApplicationLoadBalancerCannedReportsHandler handler = new ApplicationLoadBalancerCannedReportsHandler(
+                () -> new CannedReportsManager(new InMemoryReportStore()) {});
+        final char[] findings = new char[4096];
+        Arrays.fill(findings, 'x');
+        // long enough to be stored compressed
+        ApplicationLoadBalancerResponseEvent posted = handler.handleRequest(
+                createEvent("POST", "/", null, "FINDINGS: " + new String(findings)), createMockContext());
+        final String identifier = posted.getHeaders().get(CannedReportsManager.HTTP_HEADER_REPORT_IDENTIFIER);
+
+        ApplicationLoadBalancerResponseEvent head = handler.handleRequest(
+                createEvent("HEAD", "/" + identifier, null, null), createMockContext());
+        ApplicationLoadBalancerRequestEvent gzipGet = createEvent("GET", "/" + identifier, null, null);
+        gzipGet.getHeaders().put(HttpHeaders.ACCEPT_ENCODING, "gzip");
+        ApplicationLoadBalancerResponseEvent compressed = handler.handleRequest(gzipGet, createMockContext());
+        ApplicationLoadBalancerResponseEvent identity = handler.handleRequest(
+                createEvent("GET", "/" + identifier, null, null), createMockContext());
+
+        assertEquals(compressed.getHeaders().get(HttpHeaders.CONTENT_ENCODING), "gzip");
+        assertNull(identity.getHeaders().get(HttpHeaders.CONTENT_ENCODING));
+        final String eTag = head.getHeaders().get(HttpHeaders.ETAG);
+        assertNotNull(eTag);
+        assertTrue(eTag.startsWith("W/"), eTag);
+        assertEquals(compressed.getHeaders().get(HttpHeaders.ETAG), eTag);
+        assertEquals(identity.getHeaders().get(HttpHeaders.ETAG), eTag);
+        assertEquals(head.getHeaders().get(HttpHeaders.VARY), HttpHeaders.ACCEPT_ENCODING);
+    }
+
+    private ApplicationLoadBalancerRequestEvent createEvent(
+            final String httpMethod, final String path,
+            final Map<String, String> queryStringParameters, final String body) {
+        ApplicationLoadBalancerRequestEvent event = new ApplicationLoadBalancerRequestEvent();
+        event.setHttpMethod(httpMethod);
+        event.setPath(path);
+        event.setHeaders(createHeaders("CT Brain Normal", null, "text/plain", null, null));
+        event.setQueryStringParameters(queryStringParameters);
+        event.setBody(body);
+        event.setIsBase64Encoded(false);
+        return event;
+    }
+
     private ApplicationLoadBalancerRequestEvent createMockEvent(
             final String httpMethod,
             final String path,
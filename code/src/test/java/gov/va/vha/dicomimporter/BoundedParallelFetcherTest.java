@@ -0,0 +1,145 @@
+package gov.va.vha.dicomimporter;
+
+import gov.va.vha.dicomimporter.exceptions.InstanceValidationException;
+import gov.va.vha.dicomimporter.model.CanonicalRequest;
+import gov.va.vha.dicomimporter.model.CanonicalResponse;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.text.ParseException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Unit tests for the BoundedParallelFetcher class.
+ */
+public class BoundedParallelFetcherTest {
+
+    @Test
+    public void testResultsPreserveOrder() {
+        BoundedParallelFetcher subject = new BoundedParallelFetcher(4, 5000L);
+        List<Integer> items = IntStream.range(0, 50).boxed().collect(Collectors.toList());
+
+        // later items complete first
+        List<BoundedParallelFetcher.Outcome<String>> outcomes = subject.fetchAll(items, item -> {
+            sleep(50 - item);
+            return "ITEM_" + item;
+        });
+
+        Assert.assertEquals(outcomes.size(), items.size());
+        for (int index = 0; index < items.size(); ++index) {
+            Assert.assertTrue(outcomes.get(index).isSuccess());
+            Assert.assertEquals(outcomes.get(index).getValue(), "ITEM_" + index);
+        }
+    }
+
+    @Test
+    public void testConcurrencyIsBounded() {
+        final int concurrency = 3;
+        BoundedParallelFetcher subject = new BoundedParallelFetcher(concurrency, 5000L);
+        final AtomicInteger inFlight = new AtomicInteger();
+        final AtomicInteger maximumInFlight = new AtomicInteger();
+
+        subject.fetchAll(IntStream.range(0, 20).boxed().collect(Collectors.toList()), item -> {
+            maximumInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            sleep(10);
+            inFlight.decrementAndGet();
+            return item;
+        });
+
+        Assert.assertTrue(maximumInFlight.get() <= concurrency, "more than " + concurrency + " fetches were in flight");
+    }
+
+    @Test
+    public void testFailuresAreReportedPerItem() {
+        BoundedParallelFetcher subject = new BoundedParallelFetcher(2, 5000L);
+
+        List<BoundedParallelFetcher.Outcome<String>> outcomes = subject.fetchAll(Arrays.asList("A", "FAIL", "C"), item -> {
+            if ("FAIL".equals(item))
+                throw new IllegalStateException("injected failure");
+            return item;
+        });
+
+        Assert.assertTrue(outcomes.get(0).isSuccess());
+        Assert.assertEquals(outcomes.get(0).getValue(), "A");
+        Assert.assertFalse(outcomes.get(1).isSuccess());
+        Assert.assertTrue(outcomes.get(1).getError().contains("injected failure"));
+        Assert.assertTrue(outcomes.get(2).isSuccess());
+        Assert.assertEquals(outcomes.get(2).getValue(), "C");
+    }
+
+    @Test
+    public void testDeadlineReturnsPartialResults() {
+        BoundedParallelFetcher subject = new BoundedParallelFetcher(1, 200L);
+
+        List<BoundedParallelFetcher.Outcome<String>> outcomes = subject.fetchAll(Arrays.asList("FAST", "SLOW", "QUEUED"), item -> {
+            if (!"FAST".equals(item))
+                sleep(1000);
+            return item;
+        });
+
+        Assert.assertTrue(outcomes.get(0).isSuccess());
+        Assert.assertFalse(outcomes.get(1).isSuccess());
+        Assert.assertEquals(outcomes.get(1).getError(), "deadline exceeded");
+        Assert.assertFalse(outcomes.get(2).isSuccess());
+    }
+
+    /**
+     * The catalog listing (without a manifest) against a fake S3 that adds a fixed latency to every request,
+     * the HEAD requests of the reports overlap rather than being one round trip after another.
+     */
+    @Test
+    public void testCatalogFanOut() throws InstanceValidationException, ParseException {
+        final int reportCount = 64;
+        final long latencyMillis = 25L;
+        final String bucketName = "mock_bucket";
+        LatencyInjectingAmazonS3 amazonS3 = new LatencyInjectingAmazonS3(latencyMillis);
+        IntStream.range(0, reportCount).forEach(index ->
+                amazonS3.withTextObject(String.format("IDENTIFIER%03d", index), "REPORT_" + index, "CONTENT_" + index));
+
+        CannedReportsManager subject = new CannedReportsManager(amazonS3, bucketName) {};
+        CanonicalResponse response = subject.handleRequest(CanonicalRequest.builder().withMethod("GET").build());
+
+        Assert.assertEquals(response.getReports().size(), reportCount);
+        for (int index = 0; index < reportCount; ++index)
+            Assert.assertEquals(response.getReports().get(index).getIdentifier(), String.format("IDENTIFIER%03d", index));
+        Assert.assertTrue(amazonS3.getMaximumInFlight() > 1, "HEAD requests were not concurrent");
+    }
+
+    @Test
+    public void testManagersShareTheThreads() throws InstanceValidationException, ParseException {
+        LatencyInjectingAmazonS3 amazonS3 = new LatencyInjectingAmazonS3(0L)
+                .withTextObject("IDENTIFIER01", "REPORT_01", "CONTENT_01")
+                .withTextObject("IDENTIFIER02", "REPORT_02", "CONTENT_02");
+        final CanonicalRequest request = CanonicalRequest.builder()
+                .withMethod("GET").withIdentifiers(Arrays.asList("IDENTIFIER01", "IDENTIFIER02")).build();
+        new CannedReportsManager(amazonS3, "mock_bucket") {}.handleRequest(request);
+        final long threadsBefore = countFetchThreads();
+
+        // as a restored container re-creates its manager
+        for (int index = 0; index < 3; ++index) {
+            CanonicalResponse response = new CannedReportsManager(amazonS3, "mock_bucket") {}.handleRequest(request);
+            Assert.assertEquals(response.getReports().size(), 2);
+        }
+
+        Assert.assertEquals(countFetchThreads(), threadsBefore);
+        Assert.assertSame(BoundedParallelFetcher.getShared(), BoundedParallelFetcher.getShared());
+    }
+
+    private static long countFetchThreads() {
+        return Thread.getAllStackTraces().keySet().stream()
+                .filter(thread -> thread.getName().startsWith("bounded-fetch-"))
+                .count();
+    }
+
+    private static void sleep(final long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException iX) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -2,24 +2,37 @@ package gov.va.vha.dicomimporter;
 
 import com.amazonaws.services.s3.AmazonS3;
 import com.amazonaws.services.s3.model.*;
+import com.amazonaws.util.IOUtils;
 import com.amazonaws.util.StringInputStream;
 import gov.va.vha.dicomimporter.exceptions.InstanceValidationException;
+import gov.va.vha.dicomimporter.exceptions.UnrecoverableDependentInvocationException;
 import gov.va.vha.dicomimporter.model.CanonicalDocument;
 import gov.va.vha.dicomimporter.model.CanonicalRequest;
 import gov.va.vha.dicomimporter.model.CanonicalResponse;
+import gov.va.vha.dicomimporter.model.CatalogManifest;
 import org.apache.http.HttpStatus;
 import org.testng.Assert;
 import org.testng.annotations.DataProvider;
 import org.testng.annotations.Test;
 import org.mockito.Mockito;
 
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
+import java.nio.charset.StandardCharsets;
 import java.text.ParseException;
 import java.util.Arrays;
+import java.util.Base64;
 import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.GZIPInputStream;
 
 /**
  * Unit tests for the InstanceValidationException class.
@@ -197,6 +210,289 @@ public class CannedReportsManagerTest {
         Assert.assertEquals(response.getResult().getHttpResponseCode(), expectedResponseCode);
     }
 
+    @Test
+    public void testGetIsOneS3Request() throws IOException, InstanceValidationException, ParseException {
+        String mockBucketName = "mock_bucket";
+        AmazonS3 amazonS3Mock = createMockAmazonS3(mockBucketName, new String[]{"IDENTIFIER001", "IDENTIFIER002"});
+        CannedReportsManager subject = new CannedReportsManager(amazonS3Mock, mockBucketName) {};
+
+        CanonicalResponse response = subject.handleRequest(
+                CanonicalRequest.builder().withMethod("GET").withIdentifier("IDENTIFIER001").build());
+
+        Assert.assertEquals(response.getResult().getHttpResponseCode(), HttpStatus.SC_OK);
+        CanonicalDocument report = response.getReports().get(0);
+        Assert.assertEquals(report.getName(), "REPORT_IDENTIFIER001");
+        Assert.assertEquals(report.getRevision(), Integer.valueOf(1));
+        Assert.assertEquals(report.getBody(), "CONTENT_IDENTIFIER001");
+        // the metadata comes with the object and the revision count is stored in it
+        Mockito.verify(amazonS3Mock, Mockito.times(1)).getObject(Mockito.any(GetObjectRequest.class));
+        Mockito.verify(amazonS3Mock, Mockito.never()).getObjectMetadata(Mockito.anyString(), Mockito.anyString());
+        Mockito.verify(amazonS3Mock, Mockito.never()).listVersions(Mockito.any(ListVersionsRequest.class));
+    }
+
+    @Test
+    public void testGetWithoutStoredRevisionCount() throws IOException, InstanceValidationException, ParseException {
+        String mockBucketName = "mock_bucket";
+        AmazonS3 amazonS3Mock = createMockAmazonS3(mockBucketName, new String[]{"IDENTIFIER001"});
+        // an object written before the revision count was stored
+        S3Object legacyObject = new S3Object();
+        legacyObject.setKey("IDENTIFIER001");
+        legacyObject.setObjectContent(new StringInputStream("CONTENT_IDENTIFIER001"));
+        Mockito.doReturn(legacyObject).when(amazonS3Mock).getObject(Mockito.any(GetObjectRequest.class));
+        VersionListing versionListing = new VersionListing();
+        for (int index = 0; index < 3; ++index) {
+            S3VersionSummary versionSummary = new S3VersionSummary();
+            versionSummary.setKey("IDENTIFIER001");
+            versionListing.getVersionSummaries().add(versionSummary);
+        }
+        Mockito.when(amazonS3Mock.listVersions(Mockito.any(ListVersionsRequest.class))).thenReturn(versionListing);
+        CannedReportsManager subject = new CannedReportsManager(amazonS3Mock, mockBucketName) {};
+
+        CanonicalResponse response = subject.handleRequest(
+                CanonicalRequest.builder().withMethod("GET").withIdentifier("IDENTIFIER001").build());
+
+        Assert.assertEquals(response.getResult().getHttpResponseCode(), HttpStatus.SC_OK);
+        Assert.assertEquals(response.getReports().get(0).getRevision(), Integer.valueOf(3));
+        Mockito.verify(amazonS3Mock, Mockito.times(1)).listVersions(Mockito.any(ListVersionsRequest.class));
+    }
+
+    @Test
+    public void testVersionCountIsExactAndIndexed() throws InstanceValidationException, ParseException {
+        // objects written before the revision count was stored, one identifier is a prefix of the other
+        LatencyInjectingAmazonS3 amazonS3 = new LatencyInjectingAmazonS3(0L)
+                .withTextObject("IDENTIFIER001", "REPORT_1", "CONTENT_1")
+                .withTextObject("IDENTIFIER001", "REPORT_1", "CONTENT_2")
+                .withTextObject("IDENTIFIER0011", "REPORT_11", "CONTENT_11");
+        CannedReportsManager subject = new CannedReportsManager(amazonS3, "mock_bucket") {};
+        CanonicalRequest getRequest = CanonicalRequest.builder().withMethod("GET").withIdentifier("IDENTIFIER001").build();
+
+        CanonicalResponse first = subject.handleRequest(getRequest);
+        Assert.assertEquals(first.getReports().get(0).getRevision(), Integer.valueOf(2));
+
+        final int requestsBefore = amazonS3.getRequestCount();
+        CanonicalResponse second = subject.handleRequest(getRequest);
+        Assert.assertEquals(second.getReports().get(0).getRevision(), Integer.valueOf(2));
+        // a conditional GET of the cached body, the versions are not listed again
+        Assert.assertEquals(amazonS3.getRequestCount() - requestsBefore, 1);
+    }
+
+    @Test
+    public void testPutIncrementsStoredRevisionCount() throws InstanceValidationException, ParseException, IOException {
+        LatencyInjectingAmazonS3 amazonS3 = new LatencyInjectingAmazonS3(0L);
+        CannedReportsManager subject = new CannedReportsManager(amazonS3, "mock_bucket") {};
+
+        CanonicalResponse postResponse = subject.handleRequest(CanonicalRequest.builder()
+                .withMethod("POST").withName("REPORT").withContentType("text/plain")
+                .withContentLength(9).withBody(new StringInputStream("CONTENT_1")).build());
+        final String identifier = postResponse.getReports().get(0).getIdentifier();
+        Assert.assertEquals(postResponse.getReports().get(0).getRevision(), Integer.valueOf(1));
+
+        CanonicalResponse putResponse = subject.handleRequest(CanonicalRequest.builder()
+                .withMethod("PUT").withIdentifier(identifier).withName("REPORT").withContentType("text/plain")
+                .withContentLength(9).withBody(new StringInputStream("CONTENT_2")).build());
+        Assert.assertEquals(putResponse.getReports().get(0).getRevision(), Integer.valueOf(2));
+
+        final int requestsBefore = amazonS3.getRequestCount();
+        CanonicalResponse getResponse = subject.handleRequest(
+                CanonicalRequest.builder().withMethod("GET").withIdentifier(identifier).build());
+        Assert.assertEquals(amazonS3.getRequestCount() - requestsBefore, 1);
+        Assert.assertEquals(getResponse.getReports().get(0).getRevision(), Integer.valueOf(2));
+        Assert.assertEquals(getResponse.getReports().get(0).getBody(), "CONTENT_2");
+    }
+
+    @DataProvider(name = "StoredCompressionData")
+    public static Object[][] storedCompressionData() {
+        StringBuilder narrative = new StringBuilder();
+        for (int line = 0; line < 100; ++line)
+            narrative.append("IMPRESSION: No acute cardiopulmonary process. ");
+        return new Object[][]{
+                {"text/plain", narrative.toString(), true},
+                {"application/json", "{\"findings\": \"" + narrative + "\"}", true},
+                {"text/plain", "CONTENT_1", false},
+                {"application/pdf", narrative.toString(), false},
+        };
+    }
+
+    @Test(dataProvider = "StoredCompressionData")
+    public void testStoredCompression(final String contentType, final String content, final boolean expectCompressed)
+            throws InstanceValidationException, ParseException, IOException {
+        LatencyInjectingAmazonS3 amazonS3 = new LatencyInjectingAmazonS3(0L);
+        CannedReportsManager subject = new CannedReportsManager(amazonS3, "mock_bucket") {};
+        final byte[] identity = content.getBytes(StandardCharsets.UTF_8);
+
+        CanonicalResponse postResponse = subject.handleRequest(CanonicalRequest.builder()
+                .withMethod("POST").withName("REPORT").withContentType(contentType)
+                .withContentLength(identity.length).withBody(new ByteArrayInputStream(identity)).build());
+        final String identifier = postResponse.getReports().get(0).getIdentifier();
+        Assert.assertEquals(postResponse.getReports().get(0).getContentLength(), Integer.valueOf(identity.length));
+
+        ObjectMetadata stored = amazonS3.getObjectMetadata("mock_bucket", identifier);
+        Assert.assertEquals(stored.getContentEncoding(), expectCompressed ? CannedReportsManager.CONTENT_ENCODING_GZIP : null);
+        Assert.assertEquals(stored.getContentLength() < identity.length, expectCompressed);
+
+        CanonicalDocument document = subject.handleRequest(
+                CanonicalRequest.builder().withMethod("GET").withIdentifier(identifier).build()).getReports().get(0);
+        Assert.assertEquals(document.getContentLength(), Integer.valueOf(identity.length));
+        Assert.assertEquals(document.getContentEncoding(), stored.getContentEncoding());
+        if (expectCompressed) {
+            // the stored representation is what a gzip capable client is sent
+            try (InputStream encoded = new GZIPInputStream(document.getEncodedBodyStream())) {
+                Assert.assertEquals(IOUtils.toByteArray(encoded), identity);
+            }
+        } else {
+            Assert.assertEquals(document.getBody(), content);
+        }
+
+        CanonicalDocument inflated = subject.handleRequest(
+                CanonicalRequest.builder().withMethod("GET").withIdentifier(identifier).build()).getReports().get(0);
+        Assert.assertEquals(inflated.getBody(), content);
+    }
+
+    @Test
+    public void testBase64BodyIsStoredDecoded() throws InstanceValidationException, ParseException, IOException {
+        LatencyInjectingAmazonS3 amazonS3 = new LatencyInjectingAmazonS3(0L);
+        CannedReportsManager subject = new CannedReportsManager(amazonS3, "mock_bucket") {};
+        final byte[] binary = new byte[]{(byte) 0x89, 'P', 'N', 'G', 0x0d, 0x0a, 0x1a, 0x0a, 0x00, (byte) 0xff};
+        final byte[] base64 = Base64.getEncoder().encode(binary);
+
+        CanonicalResponse postResponse = subject.handleRequest(CanonicalRequest.builder()
+                .withMethod("POST").withName("REPORT").withContentType("image/png")
+                .withContentLength(binary.length).withBody(new ByteArrayInputStream(base64))
+                .withBodyIsBase64Encoded(true).build());
+        final String identifier = postResponse.getReports().get(0).getIdentifier();
+
+        ObjectMetadata stored = amazonS3.getObjectMetadata("mock_bucket", identifier);
+        Assert.assertEquals(stored.getContentType(), "image/png");
+        Assert.assertEquals(stored.getContentLength(), binary.length);
+
+        CanonicalDocument document = subject.handleRequest(
+                CanonicalRequest.builder().withMethod("GET").withIdentifier(identifier).build()).getReports().get(0);
+        Assert.assertEquals(document.getContentType(), "image/png");
+        Assert.assertEquals(document.getContentLength(), Integer.valueOf(binary.length));
+        Assert.assertEquals(document.getBodyBytes(), binary);
+    }
+
+    @Test
+    public void testInvalidBase64BodyIsRejected() throws InstanceValidationException, ParseException, UnsupportedEncodingException {
+        CannedReportsManager subject = new CannedReportsManager(new LatencyInjectingAmazonS3(0L), "mock_bucket") {};
+
+        CanonicalResponse postResponse = subject.handleRequest(CanonicalRequest.builder()
+                .withMethod("POST").withName("REPORT").withContentType("image/png")
+                .withBody(new StringInputStream("not*base64!")).withBodyIsBase64Encoded(true).build());
+
+        Assert.assertEquals(postResponse.getResult().getHttpResponseCode(), HttpStatus.SC_BAD_REQUEST);
+    }
+
+    @Test
+    public void testLegacyBase64IsMigratedOnRead() throws InstanceValidationException, ParseException, IOException {
+        LatencyInjectingAmazonS3 amazonS3 = new LatencyInjectingAmazonS3(0L)
+                .withTextObject("IDENTIFIER01", "REPORT_01", "CONTENT_01");
+        final byte[] binary = new byte[]{'%', 'P', 'D', 'F', 0x00, (byte) 0xfe};
+        final byte[] base64 = Base64.getEncoder().encode(binary);
+        ObjectMetadata legacyMetadata = new ObjectMetadata();
+        legacyMetadata.setContentType("application/pdf+base64");
+        legacyMetadata.addUserMetadata(CannedReportsManager.HTTP_HEADER_REPORT_NAME, "REPORT_01");
+        legacyMetadata.addUserMetadata(CannedReportsManager.S3_METADATA_REVISION_COUNT, "2");
+        amazonS3.putObject("mock_bucket", "IDENTIFIER01", new ByteArrayInputStream(base64), legacyMetadata);
+        CannedReportsManager subject = new CannedReportsManager(amazonS3, "mock_bucket") {};
+
+        CanonicalDocument document = subject.handleRequest(
+                CanonicalRequest.builder().withMethod("GET").withIdentifier("IDENTIFIER01").build()).getReports().get(0);
+
+        Assert.assertEquals(document.getContentType(), "application/pdf");
+        Assert.assertEquals(document.getBodyBytes(), binary);
+        Assert.assertEquals(document.getRevision(), Integer.valueOf(2));
+        // the Base64 version was replaced, so the revisions are unchanged
+        ObjectMetadata stored = amazonS3.getObjectMetadata("mock_bucket", "IDENTIFIER01");
+        Assert.assertEquals(stored.getContentType(), "application/pdf");
+        Assert.assertEquals(stored.getContentLength(), binary.length);
+        Assert.assertEquals(subject.getVersionCount("IDENTIFIER01"), 2);
+        CanonicalDocument previous = subject.handleRequest(CanonicalRequest.builder()
+                .withMethod("GET").withIdentifier("IDENTIFIER01").withRevisionSpecification("-1").build()).getReports().get(0);
+        Assert.assertEquals(previous.getBody(), "CONTENT_01");
+    }
+
+    @Test
+    public void testGetServedFromBodyCacheWhenNotModified() throws IOException, InstanceValidationException, ParseException {
+        LatencyInjectingAmazonS3 amazonS3 = new LatencyInjectingAmazonS3(0L)
+                .withTextObject("Normal_Chest_CT", "REPORT_CHEST", "CONTENT_CHEST");
+        CannedReportsManager subject = new CannedReportsManager(amazonS3, "mock_bucket") {};
+        CanonicalRequest getRequest = CanonicalRequest.builder().withMethod("GET").withIdentifier("Normal_Chest_CT").build();
+
+        Assert.assertEquals(subject.handleRequest(getRequest).getReports().get(0).getBody(), "CONTENT_CHEST");
+        // the second read is a conditional GET that is answered without a body
+        Assert.assertEquals(subject.handleRequest(getRequest).getReports().get(0).getBody(), "CONTENT_CHEST");
+        Assert.assertEquals(amazonS3.getNotModifiedCount(), 1);
+
+        // changed through another container, the ETag no longer matches so the new body is read
+        amazonS3.withTextObject("Normal_Chest_CT", "REPORT_CHEST", "CHANGED_CHEST");
+        Assert.assertEquals(subject.handleRequest(getRequest).getReports().get(0).getBody(), "CHANGED_CHEST");
+        Assert.assertEquals(amazonS3.getNotModifiedCount(), 1);
+    }
+
+    @DataProvider(name = "NotModifiedData")
+    public static Object[][] notModifiedData() {
+        final Date lastModified = new Date(1_600_000_000_000L);
+        return new Object[][] {
+                {"abc", lastModified, null, null, false},
+                {"abc", lastModified, "\"abc\"", null, true},
+                {"abc", lastModified, "W/\"abc\"", null, true},
+                {"abc", lastModified, "\"xyz\", \"abc\"", null, true},
+                {"abc", lastModified, "*", null, true},
+                {"abc", lastModified, "\"xyz\"", null, false},
+                // If-None-Match takes precedence over If-Modified-Since
+                {"abc", lastModified, "\"xyz\"", new Date(lastModified.getTime() + 60_000L), false},
+                {"abc", lastModified, null, new Date(lastModified.getTime() + 60_000L), true},
+                {"abc", lastModified, null, lastModified, true},
+                {"abc", lastModified, null, new Date(lastModified.getTime() - 60_000L), false},
+        };
+    }
+
+    @Test(dataProvider = "NotModifiedData")
+    public void testIsNotModified(final String eTag, final Date lastModified,
+                                  final String ifNoneMatch, final Date ifModifiedSince, final boolean expected) {
+        Assert.assertEquals(CannedReportsManager.isNotModified(eTag, lastModified, ifNoneMatch, ifModifiedSince), expected);
+    }
+
+    @Test
+    public void testConditionalGetAndHead() throws IOException, InstanceValidationException, ParseException {
+        LatencyInjectingAmazonS3 amazonS3 = new LatencyInjectingAmazonS3(0L)
+                .withTextObject("Normal_Brain_CT", "REPORT_BRAIN", "CONTENT_BRAIN");
+
+        CanonicalResponse first = new CannedReportsManager(amazonS3, "mock_bucket") {}
+                .handleRequest(CanonicalRequest.builder().withMethod("GET").withIdentifier("Normal_Brain_CT").build());
+        final CanonicalDocument document = first.getReports().get(0);
+        Assert.assertNotNull(document.getETag());
+        Assert.assertNotNull(document.getLastModified());
+
+        // a container without the body cached passes the client ETag to S3, no body is transferred
+        CannedReportsManager subject = new CannedReportsManager(amazonS3, "mock_bucket") {};
+        CanonicalResponse notModified = subject.handleRequest(CanonicalRequest.builder().withMethod("GET")
+                .withIdentifier("Normal_Brain_CT").withIfNoneMatch("\"" + document.getETag() + "\"").build());
+        Assert.assertEquals(notModified.getResult(), CanonicalResponse.Result.NOT_MODIFIED);
+        Assert.assertEquals(notModified.getResult().getHttpResponseCode(), HttpStatus.SC_NOT_MODIFIED);
+        Assert.assertEquals(amazonS3.getNotModifiedCount(), 1);
+
+        CanonicalResponse modifiedSince = subject.handleRequest(CanonicalRequest.builder().withMethod("GET")
+                .withIdentifier("Normal_Brain_CT").withIfModifiedSince(document.getLastModified()).build());
+        Assert.assertEquals(modifiedSince.getResult(), CanonicalResponse.Result.NOT_MODIFIED);
+
+        CanonicalResponse stale = subject.handleRequest(CanonicalRequest.builder().withMethod("GET")
+                .withIdentifier("Normal_Brain_CT").withIfNoneMatch("\"stale\"").build());
+        Assert.assertEquals(stale.getResult(), CanonicalResponse.Result.SUCCESS);
+        Assert.assertEquals(stale.getReports().get(0).getBody(), "CONTENT_BRAIN");
+
+        // now the body is cached
+        CanonicalResponse cachedNotModified = subject.handleRequest(CanonicalRequest.builder().withMethod("GET")
+                .withIdentifier("Normal_Brain_CT").withIfNoneMatch("\"" + document.getETag() + "\"").build());
+        Assert.assertEquals(cachedNotModified.getResult(), CanonicalResponse.Result.NOT_MODIFIED);
+
+        CanonicalResponse head = subject.handleRequest(CanonicalRequest.builder().withMethod("HEAD")
+                .withIdentifier("Normal_Brain_CT").withIfNoneMatch("\"" + document.getETag() + "\"").build());
+        Assert.assertEquals(head.getResult(), CanonicalResponse.Result.NOT_MODIFIED);
+        Assert.assertEquals(head.getReports().get(0).getETag(), document.getETag());
+    }
+
     @Test
     public void testListReports() throws UnsupportedEncodingException, InstanceValidationException, ParseException {
         String mockBucketName = "mock_bucket";
@@ -234,6 +530,676 @@ public class CannedReportsManagerTest {
         };
     }
 
+    @Test
+    public void testListReportsFromCatalogManifest() throws IOException, InstanceValidationException, ParseException {
+        String mockBucketName = "mock_bucket";
+        String[] identifiers = new String[]{"IDENTIFIER01", "IDENTIFIER02", "IDENTIFIER03"};
+
+        AmazonS3 amazonS3Mock = createMockAmazonS3(mockBucketName, identifiers);
+
+        // the manifest lists the same reports as the bucket
+        CatalogManifest.Builder manifestBuilder = CatalogManifest.builder();
+        Arrays.stream(identifiers).forEach(identifier -> manifestBuilder.putEntry(new CatalogManifest.Entry(
+                identifier, "REPORT_" + identifier, "DESCRIPTION_" + identifier,
+                "text/plain", (long) ("CONTENT_" + identifier).length(), "ETAG_" + identifier, 1)));
+        S3Object manifestObject = new S3Object();
+        manifestObject.setKey(CatalogManifestRepository.DEFAULT_CATALOG_MANIFEST_KEY);
+        manifestObject.setObjectContent(new ByteArrayInputStream(manifestBuilder.build().toJson()));
+        Mockito.doAnswer(invocation -> CatalogManifestRepository.DEFAULT_CATALOG_MANIFEST_KEY.equals(
+                        ((GetObjectRequest) invocation.getArguments()[0]).getKey()) ? manifestObject : null)
+                .when(amazonS3Mock).getObject(Mockito.any(GetObjectRequest.class));
+
+        CannedReportsManager subject = new CannedReportsManager(amazonS3Mock, mockBucketName) {};
+
+        CanonicalResponse response = subject.handleRequest(CanonicalRequest.builder().withMethod("GET").build());
+
+        Assert.assertNotNull(response);
+        Assert.assertEquals(response.getResult().getHttpResponseCode(), 200);
+        Assert.assertEquals(response.getReports().size(), identifiers.length);
+        for (int identifierIndex = 0; identifierIndex < identifiers.length; ++identifierIndex) {
+            CanonicalDocument report = response.getReports().get(identifierIndex);
+            Assert.assertEquals(report.getIdentifier(), identifiers[identifierIndex]);
+            Assert.assertEquals(report.getName(), "REPORT_" + identifiers[identifierIndex]);
+            Assert.assertEquals(report.getDescription(), "DESCRIPTION_" + identifiers[identifierIndex]);
+        }
+
+        // the catalog came from the single manifest read, not a listing and a HEAD per report
+        Mockito.verify(amazonS3Mock, Mockito.never()).listObjectsV2(Mockito.any(ListObjectsV2Request.class));
+        for (String identifier : identifiers)
+            Mockito.verify(amazonS3Mock, Mockito.never()).getObjectMetadata(mockBucketName, identifier);
+    }
+
+    @Test
+    public void testListReportsPagedFromCatalogManifest() throws IOException, InstanceValidationException, ParseException {
+        String mockBucketName = "mock_bucket";
+        String[] identifiers = new String[]{"IDENTIFIER01", "IDENTIFIER02", "IDENTIFIER03"};
+
+        AmazonS3 amazonS3Mock = createMockAmazonS3(mockBucketName, identifiers);
+        CatalogManifest.Builder manifestBuilder = CatalogManifest.builder();
+        Arrays.stream(identifiers).forEach(identifier -> manifestBuilder.putEntry(new CatalogManifest.Entry(
+                identifier, "REPORT_" + identifier, "DESCRIPTION_" + identifier,
+                "text/plain", (long) ("CONTENT_" + identifier).length(), "ETAG_" + identifier, 1)));
+        final byte[] manifestJson = manifestBuilder.build().toJson();
+        Mockito.doAnswer(invocation -> {
+                    if (!CatalogManifestRepository.DEFAULT_CATALOG_MANIFEST_KEY.equals(
+                            ((GetObjectRequest) invocation.getArguments()[0]).getKey()))
+                        return null;
+                    S3Object manifestObject = new S3Object();
+                    manifestObject.setObjectContent(new ByteArrayInputStream(manifestJson));
+                    return manifestObject;
+                })
+                .when(amazonS3Mock).getObject(Mockito.any(GetObjectRequest.class));
+
+        CannedReportsManager subject = new CannedReportsManager(amazonS3Mock, mockBucketName) {};
+
+        CanonicalResponse firstPage = subject.handleRequest(CanonicalRequest.builder().withMethod("GET").withLimit(2).build());
+        Assert.assertEquals(firstPage.getReports().size(), 2);
+        Assert.assertEquals(firstPage.getReports().get(0).getIdentifier(), "IDENTIFIER01");
+        Assert.assertEquals(firstPage.getReports().get(1).getIdentifier(), "IDENTIFIER02");
+        Assert.assertNotNull(firstPage.getNextCursor());
+
+        CanonicalResponse secondPage = subject.handleRequest(CanonicalRequest.builder().withMethod("GET")
+                .withLimit(2).withCursor(firstPage.getNextCursor()).build());
+        Assert.assertEquals(secondPage.getReports().size(), 1);
+        Assert.assertEquals(secondPage.getReports().get(0).getIdentifier(), "IDENTIFIER03");
+        Assert.assertNull(secondPage.getNextCursor());
+    }
+
+    @Test
+    public void testListReportsPagedFromListing() throws InstanceValidationException, ParseException {
+        final int reportCount = 7;
+        LatencyInjectingAmazonS3 amazonS3 = new LatencyInjectingAmazonS3(0L);
+        for (int index = 0; index < reportCount; ++index)
+            amazonS3.withTextObject("IDENTIFIER0" + index, "REPORT_" + index, "CONTENT_" + index);
+
+        CannedReportsManager subject = new CannedReportsManager(amazonS3, "mock_bucket") {};
+
+        // page through the whole catalog, no report may be missed or repeated
+        List<String> pagedIdentifiers = new LinkedList<>();
+        String cursor = null;
+        int pageCount = 0;
+        do {
+            CanonicalResponse page = subject.handleRequest(CanonicalRequest.builder().withMethod("GET")
+                    .withLimit(3).withCursor(cursor).build());
+            Assert.assertEquals(page.getResult().getHttpResponseCode(), 200);
+            Assert.assertTrue(page.getReports().size() <= 3);
+            page.getReports().forEach(report -> pagedIdentifiers.add(report.getIdentifier()));
+            cursor = page.getNextCursor();
+            ++pageCount;
+        } while (cursor != null);
+
+        Assert.assertEquals(pageCount, 3);
+        Assert.assertEquals(pagedIdentifiers.size(), reportCount);
+        for (int index = 0; index < reportCount; ++index)
+            Assert.assertEquals(pagedIdentifiers.get(index), "IDENTIFIER0" + index);
+    }
+
+    @Test
+    public void testListReportsInvalidCursor() throws InstanceValidationException, ParseException {
+        String mockBucketName = "mock_bucket";
+        AmazonS3 amazonS3Mock = createMockAmazonS3(mockBucketName, new String[]{"IDENTIFIER01"});
+        CannedReportsManager subject = new CannedReportsManager(amazonS3Mock, mockBucketName) {};
+
+        CanonicalResponse response = subject.handleRequest(CanonicalRequest.builder().withMethod("GET")
+                .withCursor("not a cursor").build());
+
+        Assert.assertEquals(response.getResult().getHttpResponseCode(), HttpStatus.SC_BAD_REQUEST);
+    }
+
+    @Test
+    public void testCatalogCachedUntilManifestChanges()
+            throws InstanceValidationException, ParseException, IOException, UnrecoverableDependentInvocationException {
+        LatencyInjectingAmazonS3 amazonS3 = new LatencyInjectingAmazonS3(0L)
+                .withTextObject("IDENTIFIER01", "REPORT_01", "CONTENT_01")
+                .withTextObject("IDENTIFIER02", "REPORT_02", "CONTENT_02");
+        CatalogManifestRepository catalogManifestRepository = new CatalogManifestRepository(amazonS3, "mock_bucket");
+        CannedReportsManager subject = new CannedReportsManager(amazonS3, "mock_bucket") {};
+        CanonicalRequest catalogRequest = CanonicalRequest.builder().withMethod("GET").build();
+
+        // without a manifest the bucket is listed every time, nothing identifies the generation of a page
+        subject.handleRequest(catalogRequest);
+        int requestsBefore = amazonS3.getRequestCount();
+        Assert.assertEquals(subject.handleRequest(catalogRequest).getReports().size(), 2);
+        Assert.assertTrue(amazonS3.getRequestCount() - requestsBefore > 2);
+
+        catalogManifestRepository.compact();
+        CanonicalResponse first = subject.handleRequest(catalogRequest);
+        Assert.assertEquals(first.getReports().size(), 2);
+
+        // served from memory after the one HEAD of the manifest
+        requestsBefore = amazonS3.getRequestCount();
+        CanonicalResponse second = subject.handleRequest(catalogRequest);
+        Assert.assertEquals(amazonS3.getRequestCount() - requestsBefore, 1);
+        Assert.assertEquals(second.getReports().size(), 2);
+
+        // a write writes nothing but the report, the cached catalog is current until the manifest is updated
+        requestsBefore = amazonS3.getRequestCount();
+        CanonicalResponse postResponse = subject.handleRequest(CanonicalRequest.builder()
+                .withMethod("POST").withName("REPORT_03").withContentType("text/plain")
+                .withContentLength(10).withBody(new ByteArrayInputStream("CONTENT_03".getBytes())).build());
+        Assert.assertEquals(postResponse.getResult().getHttpResponseCode(), 200);
+        Assert.assertEquals(amazonS3.getRequestCount() - requestsBefore, 1);
+        Assert.assertEquals(subject.handleRequest(catalogRequest).getReports().size(), 2);
+
+        // as the event of the write is processed
+        catalogManifestRepository.applyChanges(Arrays.asList(postResponse.getReports().get(0).getIdentifier()));
+        CanonicalResponse third = subject.handleRequest(catalogRequest);
+        Assert.assertEquals(third.getReports().size(), 3);
+    }
+
+    @Test
+    public void testRevisionAddressedGetHeadAndDelete() throws InstanceValidationException, ParseException, IOException {
+        LatencyInjectingAmazonS3 amazonS3 = new LatencyInjectingAmazonS3(0L);
+        CannedReportsManager subject = new CannedReportsManager(amazonS3, "mock_bucket") {};
+        CanonicalResponse postResponse = subject.handleRequest(CanonicalRequest.builder()
+                .withMethod("POST").withName("REPORT").withContentType("text/plain")
+                .withContentLength(9).withBody(new StringInputStream("CONTENT_1")).build());
+        final String identifier = postResponse.getReports().get(0).getIdentifier();
+        for (int revision = 2; revision <= 3; ++revision)
+            subject.handleRequest(CanonicalRequest.builder()
+                    .withMethod("PUT").withIdentifier(identifier).withName("REPORT").withContentType("text/plain")
+                    .withContentLength(9).withBody(new StringInputStream("CONTENT_" + revision)).build());
+
+        CanonicalResponse oldest = subject.handleRequest(CanonicalRequest.builder()
+                .withMethod("GET").withIdentifier(identifier).withRevisionSpecification("r1").build());
+        Assert.assertEquals(oldest.getResult().getHttpResponseCode(), HttpStatus.SC_OK);
+        Assert.assertEquals(oldest.getReports().get(0).getRevision(), Integer.valueOf(1));
+        Assert.assertEquals(oldest.getReports().get(0).getBody(), "CONTENT_1");
+
+        // the index was built by the first read and kept current by the writes, so no listing is needed
+        final int requestsBefore = amazonS3.getRequestCount();
+        CanonicalResponse previous = subject.handleRequest(CanonicalRequest.builder()
+                .withMethod("GET").withIdentifier(identifier).withRevisionSpecification("-1").build());
+        Assert.assertEquals(amazonS3.getRequestCount() - requestsBefore, 2);
+        Assert.assertEquals(previous.getReports().get(0).getRevision(), Integer.valueOf(2));
+        Assert.assertEquals(previous.getReports().get(0).getBody(), "CONTENT_2");
+
+        CanonicalResponse head = subject.handleRequest(CanonicalRequest.builder()
+                .withMethod("HEAD").withIdentifier(identifier).withRevisionSpecification("-2").build());
+        Assert.assertEquals(head.getResult().getHttpResponseCode(), HttpStatus.SC_OK);
+        Assert.assertEquals(head.getReports().get(0).getRevision(), Integer.valueOf(1));
+
+        CanonicalResponse unknown = subject.handleRequest(CanonicalRequest.builder()
+                .withMethod("GET").withIdentifier(identifier).withRevisionSpecification("-3").build());
+        Assert.assertEquals(unknown.getResult().getHttpResponseCode(), HttpStatus.SC_NOT_FOUND);
+
+        // deleting the middle revision leaves the oldest and the current revisions
+        CanonicalResponse deleted = subject.handleRequest(CanonicalRequest.builder()
+                .withMethod("DELETE").withIdentifier(identifier).withRevisionSpecification("r2").build());
+        Assert.assertEquals(deleted.getResult().getHttpResponseCode(), HttpStatus.SC_OK);
+        CanonicalResponse afterDelete = subject.handleRequest(CanonicalRequest.builder()
+                .withMethod("GET").withIdentifier(identifier).withRevisionSpecification("-1").build());
+        Assert.assertEquals(afterDelete.getReports().get(0).getBody(), "CONTENT_1");
+        CanonicalResponse current = subject.handleRequest(CanonicalRequest.builder()
+                .withMethod("GET").withIdentifier(identifier).build());
+        Assert.assertEquals(current.getReports().get(0).getBody(), "CONTENT_3");
+        // zero is the current revision, as no revision is
+        CanonicalResponse zero = subject.handleRequest(CanonicalRequest.builder()
+                .withMethod("GET").withIdentifier(identifier).withRevisionSpecification("0").build());
+        Assert.assertEquals(zero.getReports().get(0).getBody(), "CONTENT_3");
+    }
+
+    @Test
+    public void testBatchGetReportsErrorsPerDocument() throws InstanceValidationException, ParseException, IOException {
+        LatencyInjectingAmazonS3 amazonS3 = new LatencyInjectingAmazonS3(0L)
+                .withTextObject("IDENTIFIER01", "REPORT_01", "CONTENT_01")
+                .withTextObject("IDENTIFIER02", "REPORT_02", "CONTENT_02a")
+                .withTextObject("IDENTIFIER02", "REPORT_02", "CONTENT_02b");
+        CannedReportsManager subject = new CannedReportsManager(amazonS3, "mock_bucket") {};
+
+        CanonicalResponse response = subject.handleRequest(CanonicalRequest.builder()
+                .withMethod("GET")
+                .withIdentifiers(Arrays.asList("IDENTIFIER02/-1", "MISSING", "IDENTIFIER01", "IDENTIFIER01/9"))
+                .build());
+
+        Assert.assertEquals(response.getResult().getHttpResponseCode(), HttpStatus.SC_OK);
+        List<CanonicalDocument> documents = response.getReports();
+        Assert.assertEquals(documents.size(), 4);
+        Assert.assertEquals(documents.get(0).getIdentifier(), "IDENTIFIER02");
+        Assert.assertEquals(documents.get(0).getBody(), "CONTENT_02a");
+        Assert.assertNull(documents.get(0).getError());
+        Assert.assertEquals(documents.get(1).getIdentifier(), "MISSING");
+        Assert.assertNotNull(documents.get(1).getError());
+        Assert.assertEquals(documents.get(2).getBody(), "CONTENT_01");
+        Assert.assertFalse(documents.get(2).isBodyIsBase64Encoded());
+        Assert.assertNotNull(documents.get(3).getError());
+    }
+
+    @Test
+    public void testBatchGetRespectsResponseSizeLimit() throws InstanceValidationException, ParseException, IOException {
+        final String content = new String(new char[600]).replace('\0', 'X');
+        LatencyInjectingAmazonS3 amazonS3 = new LatencyInjectingAmazonS3(0L)
+                .withTextObject("IDENTIFIER01", "REPORT_01", content)
+                .withTextObject("IDENTIFIER02", "REPORT_02", content);
+        ApplicationProperties.getSingleton().setProperty(CannedReportsManager.PROPERTY_BATCH_MAXIMUM_RESPONSE_BYTES, "2000");
+        final CannedReportsManager subject;
+        try {
+            subject = new CannedReportsManager(amazonS3, "mock_bucket") {};
+        } finally {
+            ApplicationProperties.getSingleton().setProperty(CannedReportsManager.PROPERTY_BATCH_MAXIMUM_RESPONSE_BYTES,
+                    CannedReportsManager.DEFAULT_BATCH_MAXIMUM_RESPONSE_BYTES);
+        }
+
+        CanonicalResponse response = subject.handleRequest(CanonicalRequest.builder()
+                .withMethod("GET").withIdentifiers(Arrays.asList("IDENTIFIER01", "IDENTIFIER02")).build());
+
+        Assert.assertEquals(response.getReports().get(0).getBody(), content);
+        Assert.assertNull(response.getReports().get(1).getBody());
+        Assert.assertNotNull(response.getReports().get(1).getError());
+        Assert.assertEquals(response.getReports().get(1).getName(), "REPORT_02");
+    }
+
+    @Test
+    public void testBatchGetDoesNotReadBodiesThatCannotFit() throws InstanceValidationException, ParseException, IOException {
+        final String content = new String(new char[600]).replace('\0', 'X');
+        final List<String> readKeys = Collections.synchronizedList(new LinkedList<>());
+        LatencyInjectingAmazonS3 amazonS3 = new LatencyInjectingAmazonS3(0L) {
+            @Override
+            public S3Object getObject(GetObjectRequest getObjectRequest) {
+                final S3Object s3Object = super.getObject(getObjectRequest);
+                final InputStream stored = s3Object.getObjectContent();
+                s3Object.setObjectContent(new FilterInputStream(stored) {
+                    @Override
+                    public int read(byte[] buffer, int offset, int length) throws IOException {
+                        readKeys.add(getObjectRequest.getKey());
+                        return super.read(buffer, offset, length);
+                    }
+                });
+                return s3Object;
+            }
+        }
+                .withTextObject("IDENTIFIER01", "REPORT_01", content)
+                .withTextObject("IDENTIFIER02", "REPORT_02", content);
+        ApplicationProperties.getSingleton().setProperty(CannedReportsManager.PROPERTY_BATCH_MAXIMUM_RESPONSE_BYTES, "2000");
+        final CannedReportsManager subject;
+        try {
+            subject = new CannedReportsManager(amazonS3, "mock_bucket") {};
+        } finally {
+            ApplicationProperties.getSingleton().setProperty(CannedReportsManager.PROPERTY_BATCH_MAXIMUM_RESPONSE_BYTES,
+                    CannedReportsManager.DEFAULT_BATCH_MAXIMUM_RESPONSE_BYTES);
+        }
+
+        CanonicalResponse response = subject.handleRequest(CanonicalRequest.builder()
+                .withMethod("GET").withIdentifiers(Arrays.asList("IDENTIFIER01", "IDENTIFIER02")).build());
+
+        Assert.assertEquals(response.getReports().get(0).getBody(), content);
+        Assert.assertNull(response.getReports().get(1).getBody());
+        Assert.assertNotNull(response.getReports().get(1).getError());
+        Assert.assertEquals(response.getReports().get(1).getContentLength(), Integer.valueOf(600));
+        // the size is known from the metadata, the second body is never read
+        Assert.assertTrue(readKeys.contains("IDENTIFIER01"));
+        Assert.assertFalse(readKeys.contains("IDENTIFIER02"));
+    }
+
+    @Test
+    public void testMinimumBatchBodyBytes() {
+        Assert.assertEquals(CannedReportsManager.minimumBatchBodyBytes(CanonicalDocument.builder()
+                .withContentType("text/plain").withContentLength(10).build()), 10L);
+        Assert.assertEquals(CannedReportsManager.minimumBatchBodyBytes(CanonicalDocument.builder()
+                .withContentType("application/pdf").withContentLength(10).build()), 16L);
+        Assert.assertEquals(CannedReportsManager.minimumBatchBodyBytes(CanonicalDocument.builder()
+                .withContentType("application/pdf").withContentLength(9).build()), 12L);
+    }
+
+    @Test
+    public void testBatchGetResponseSizeIsMeasuredInBytes() throws InstanceValidationException, ParseException, IOException {
+        // 800 chars, but 1600 bytes of UTF-8
+        final String content = new String(new char[800]).replace('\0', '\u00e9');
+        LatencyInjectingAmazonS3 amazonS3 = new LatencyInjectingAmazonS3(0L)
+                .withTextObject("IDENTIFIER01", "REPORT_01", content);
+        ApplicationProperties.getSingleton().setProperty(CannedReportsManager.PROPERTY_BATCH_MAXIMUM_RESPONSE_BYTES, "2000");
+        final CannedReportsManager subject;
+        try {
+            subject = new CannedReportsManager(amazonS3, "mock_bucket") {};
+        } finally {
+            ApplicationProperties.getSingleton().setProperty(CannedReportsManager.PROPERTY_BATCH_MAXIMUM_RESPONSE_BYTES,
+                    CannedReportsManager.DEFAULT_BATCH_MAXIMUM_RESPONSE_BYTES);
+        }
+
+        CanonicalResponse response = subject.handleRequest(CanonicalRequest.builder()
+                .withMethod("GET").withIdentifiers(Arrays.asList("IDENTIFIER01")).build());
+
+        Assert.assertNull(response.getReports().get(0).getBody());
+        Assert.assertNotNull(response.getReports().get(0).getError());
+    }
+
+    @Test
+    public void testJsonStringBytes() {
+        Assert.assertEquals(CannedReportsManager.jsonStringBytes("ABC"), 3L);
+        Assert.assertEquals(CannedReportsManager.jsonStringBytes("\"\\\n"), 6L);
+        Assert.assertEquals(CannedReportsManager.jsonStringBytes("\u0001"), 6L);
+        Assert.assertEquals(CannedReportsManager.jsonStringBytes("\u00e9\u20ac"), 5L);
+        Assert.assertEquals(CannedReportsManager.jsonStringBytes("\ud83d\ude00"), 4L);
+    }
+
+    @Test
+    public void testLargeDocumentIsRedirected() throws InstanceValidationException, ParseException, IOException {
+        final String content = new String(new char[600]).replace('\0', 'X');
+        LatencyInjectingAmazonS3 amazonS3 = new LatencyInjectingAmazonS3(0L)
+                .withTextObject("IDENTIFIER01", "REPORT_01", content)
+                .withTextObject("IDENTIFIER02", "REPORT_02", "small");
+        ApplicationProperties.getSingleton().setProperty(CannedReportsManager.PROPERTY_PRESIGNED_REDIRECT_THRESHOLD_BYTES, "500");
+        final CannedReportsManager subject;
+        try {
+            subject = new CannedReportsManager(amazonS3, "mock_bucket") {};
+        } finally {
+            ApplicationProperties.getSingleton().setProperty(CannedReportsManager.PROPERTY_PRESIGNED_REDIRECT_THRESHOLD_BYTES,
+                    CannedReportsManager.DEFAULT_PRESIGNED_REDIRECT_THRESHOLD_BYTES);
+        }
+
+        CanonicalResponse large = subject.handleRequest(CanonicalRequest.builder()
+                .withMethod("GET").withIdentifier("IDENTIFIER01").build());
+        Assert.assertEquals(large.getResult(), CanonicalResponse.Result.SEE_OTHER);
+        Assert.assertTrue(large.getLocation().startsWith("https://mock_bucket.s3.amazonaws.com/IDENTIFIER01"));
+        Assert.assertEquals(large.getReports().get(0).getName(), "REPORT_01");
+        Assert.assertNull(large.getReports().get(0).getBodyBytes());
+
+        CanonicalResponse small = subject.handleRequest(CanonicalRequest.builder()
+                .withMethod("GET").withIdentifier("IDENTIFIER02").build());
+        Assert.assertEquals(small.getResult(), CanonicalResponse.Result.SUCCESS);
+        Assert.assertNull(small.getLocation());
+        Assert.assertEquals(small.getReports().get(0).getBody(), "small");
+    }
+
+
+    @Test
+    public void testBatchGetDoesNotRedirectLargeDocuments() throws InstanceValidationException, ParseException, IOException {
+        final String content = new String(new char[600]).replace('\0', 'X');
+        LatencyInjectingAmazonS3 amazonS3 = new LatencyInjectingAmazonS3(0L)
+                .withTextObject("IDENTIFIER01", "REPORT_01", content)
+                .withTextObject("IDENTIFIER02", "REPORT_02", "small");
+        ApplicationProperties.getSingleton().setProperty(CannedReportsManager.PROPERTY_PRESIGNED_REDIRECT_THRESHOLD_BYTES, "500");
+        final CannedReportsManager subject;
+        try {
+            subject = new CannedReportsManager(amazonS3, "mock_bucket") {};
+        } finally {
+            ApplicationProperties.getSingleton().setProperty(CannedReportsManager.PROPERTY_PRESIGNED_REDIRECT_THRESHOLD_BYTES,
+                    CannedReportsManager.DEFAULT_PRESIGNED_REDIRECT_THRESHOLD_BYTES);
+        }
+
+        CanonicalResponse response = subject.handleRequest(CanonicalRequest.builder()
+                .withMethod("GET").withIdentifiers(Arrays.asList("IDENTIFIER01", "IDENTIFIER02")).build());
+
+        // a document above the redirect threshold that fits in the response is included with its body
+        Assert.assertEquals(response.getResult(), CanonicalResponse.Result.SUCCESS);
+        Assert.assertNull(response.getReports().get(0).getError());
+        Assert.assertEquals(response.getReports().get(0).getBody(), content);
+        Assert.assertEquals(response.getReports().get(1).getBody(), "small");
+    }
+
+    @Test
+    public void testRequestedRedirectIsToTheRevision() throws InstanceValidationException, ParseException, IOException {
+        LatencyInjectingAmazonS3 amazonS3 = new LatencyInjectingAmazonS3(0L)
+                .withTextObject("IDENTIFIER01", "REPORT_01", "first")
+                .withTextObject("IDENTIFIER01", "REPORT_01", "second");
+        CannedReportsManager subject = new CannedReportsManager(amazonS3, "mock_bucket") {};
+
+        CanonicalResponse response = subject.handleRequest(CanonicalRequest.builder()
+                .withMethod("GET").withIdentifier("IDENTIFIER01").withRevisionSpecification("r1").withRedirect(true).build());
+
+        Assert.assertEquals(response.getResult(), CanonicalResponse.Result.SEE_OTHER);
+        Assert.assertEquals(response.getLocation(), "https://mock_bucket.s3.amazonaws.com/IDENTIFIER01?versionId="
+                + amazonS3.listVersions("mock_bucket", "IDENTIFIER01").getVersionSummaries().get(1).getVersionId());
+        Assert.assertEquals(response.getReports().get(0).getRevision(), Integer.valueOf(1));
+    }
+
+    @Test
+    public void testRequestedRedirectOfMissingDocument() throws InstanceValidationException, ParseException, IOException {
+        // the mock answers the HEAD of an unknown key with null metadata
+        AmazonS3 amazonS3Mock = createMockAmazonS3("mock_bucket", new String[]{"IDENTIFIER01"});
+        CannedReportsManager subject = new CannedReportsManager(amazonS3Mock, "mock_bucket") {};
+
+        CanonicalResponse response = subject.handleRequest(CanonicalRequest.builder()
+                .withMethod("GET").withIdentifier("MISSING").withRedirect(true).build());
+
+        Assert.assertEquals(response.getResult().getHttpResponseCode(), HttpStatus.SC_NOT_FOUND);
+    }
+
+    @Test
+    public void testPresignedUpload() throws InstanceValidationException, ParseException, IOException {
+        LatencyInjectingAmazonS3 amazonS3 = new LatencyInjectingAmazonS3(0L)
+                .withTextObject("IDENTIFIER01", "REPORT_01", "first");
+        CannedReportsManager subject = new CannedReportsManager(amazonS3, "mock_bucket") {};
+
+        CanonicalResponse presigned = subject.handleRequest(CanonicalRequest.builder()
+                .withMethod("PUT").withIdentifier("IDENTIFIER01").withUpload(CannedReportsManager.UPLOAD_PRESIGNED)
+                .withName("REPORT_01 renamed").withContentType("application/pdf").build());
+        Assert.assertEquals(presigned.getResult(), CanonicalResponse.Result.ACCEPTED);
+        Assert.assertEquals(presigned.getReports().get(0).getRevision(), Integer.valueOf(2));
+        Assert.assertTrue(presigned.getLocation().startsWith("https://mock_bucket.s3.amazonaws.com/IDENTIFIER01?"));
+
+        final byte[] content = new byte[]{0x25, 0x50, 0x44, 0x46, (byte) 0xe2, (byte) 0xe3};
+        amazonS3.uploadToPresignedUrl(presigned.getLocation(), "application/pdf", content);
+        CanonicalResponse complete = subject.handleRequest(CanonicalRequest.builder()
+                .withMethod("PUT").withIdentifier("IDENTIFIER01").withUpload(CannedReportsManager.UPLOAD_COMPLETE).build());
+        Assert.assertEquals(complete.getResult(), CanonicalResponse.Result.SUCCESS);
+        Assert.assertEquals(complete.getReports().get(0).getRevision(), Integer.valueOf(2));
+
+        CanonicalResponse current = subject.handleRequest(CanonicalRequest.builder()
+                .withMethod("GET").withIdentifier("IDENTIFIER01").build());
+        Assert.assertEquals(current.getReports().get(0).getName(), "REPORT_01 renamed");
+        Assert.assertEquals(current.getReports().get(0).getContentType(), "application/pdf");
+        Assert.assertEquals(current.getReports().get(0).getBodyBytes(), content);
+        CanonicalResponse first = subject.handleRequest(CanonicalRequest.builder()
+                .withMethod("GET").withIdentifier("IDENTIFIER01").withRevisionSpecification("-1").build());
+        Assert.assertEquals(first.getReports().get(0).getBody(), "first");
+    }
+
+    @Test
+    public void testUploadCompleteWithoutUploadIsNotFound() throws InstanceValidationException, ParseException {
+        LatencyInjectingAmazonS3 amazonS3 = new LatencyInjectingAmazonS3(0L);
+        CannedReportsManager subject = new CannedReportsManager(amazonS3, "mock_bucket") {};
+
+        CanonicalResponse presigned = subject.handleRequest(CanonicalRequest.builder()
+                .withMethod("POST").withUpload(CannedReportsManager.UPLOAD_PRESIGNED).withName("REPORT_01").build());
+        Assert.assertEquals(presigned.getResult(), CanonicalResponse.Result.ACCEPTED);
+        Assert.assertEquals(presigned.getReports().get(0).getRevision(), Integer.valueOf(1));
+
+        CanonicalResponse complete = subject.handleRequest(CanonicalRequest.builder()
+                .withMethod("PUT").withIdentifier(presigned.getReports().get(0).getIdentifier())
+                .withUpload(CannedReportsManager.UPLOAD_COMPLETE).build());
+        Assert.assertEquals(complete.getResult(), CanonicalResponse.Result.NOT_FOUND);
+    }
+
+    @Test
+    public void testUploadSession() throws InstanceValidationException, ParseException, IOException {
+        LatencyInjectingAmazonS3 amazonS3 = new LatencyInjectingAmazonS3(0L);
+        CannedReportsManager subject = new CannedReportsManager(amazonS3, "mock_bucket") {};
+
+        CanonicalResponse opened = subject.handleRequest(CanonicalRequest.builder()
+                .withMethod("POST").withUpload(CannedReportsManager.UPLOAD_SESSION)
+                .withName("REPORT_01").withContentType("text/plain").build());
+        Assert.assertEquals(opened.getResult(), CanonicalResponse.Result.ACCEPTED);
+        final String identifier = opened.getReports().get(0).getIdentifier();
+        final String uploadSession = opened.getUploadSession();
+        Assert.assertNotNull(uploadSession);
+
+        // the second chunk is sent twice, as a retry would
+        final String[] chunks = {"FINDINGS: ", "none, ", "IMPRESSION: normal"};
+        for (int index : new int[]{1, 0, 1, 2}) {
+            CanonicalResponse chunk = subject.handleRequest(CanonicalRequest.builder()
+                    .withMethod("PUT").withIdentifier(identifier).withUpload(CannedReportsManager.UPLOAD_PART)
+                    .withUploadSession(uploadSession).withUploadPart(index + 1)
+                    .withBody(new ByteArrayInputStream(chunks[index].getBytes(StandardCharsets.UTF_8))).build());
+            Assert.assertEquals(chunk.getResult(), CanonicalResponse.Result.ACCEPTED);
+        }
+
+        CanonicalResponse committed = subject.handleRequest(CanonicalRequest.builder()
+                .withMethod("PUT").withIdentifier(identifier).withUpload(CannedReportsManager.UPLOAD_COMMIT)
+                .withUploadSession(uploadSession).withUploadPart(chunks.length).build());
+        Assert.assertEquals(committed.getResult(), CanonicalResponse.Result.SUCCESS);
+        Assert.assertEquals(committed.getReports().get(0).getRevision(), Integer.valueOf(1));
+
+        CanonicalResponse document = subject.handleRequest(CanonicalRequest.builder()
+                .withMethod("GET").withIdentifier(identifier).build());
+        Assert.assertEquals(document.getReports().get(0).getName(), "REPORT_01");
+        Assert.assertEquals(document.getReports().get(0).getBody(), "FINDINGS: none, IMPRESSION: normal");
+        // the staged chunks are not reports
+        CanonicalResponse catalog = subject.handleRequest(CanonicalRequest.builder().withMethod("GET").build());
+        Assert.assertEquals(catalog.getReports().size(), 1);
+
+        CanonicalResponse aborted = subject.handleRequest(CanonicalRequest.builder()
+                .withMethod("DELETE").withIdentifier(identifier).withUploadSession(uploadSession).build());
+        Assert.assertEquals(aborted.getResult(), CanonicalResponse.Result.NOT_FOUND);
+    }
+
+    @DataProvider(name = "UnchangedWriteData")
+    public static Object[][] unchangedWriteData() {
+        return new Object[][]{
+                // name, content and Base64 encoding of the PUT, expected revision after the PUT
+                {"REPORT_01", "FINDINGS: none", false, 1},
+                // the same content Base64 encoded is the same content
+                {"REPORT_01", Base64.getEncoder().encodeToString("FINDINGS: none".getBytes(StandardCharsets.UTF_8)), true, 1},
+                {"REPORT_01 renamed", "FINDINGS: none", false, 2},
+                {"REPORT_01", "FINDINGS: nodule", false, 2},
+        };
+    }
+
+    @Test(dataProvider = "UnchangedWriteData")
+    public void testUnchangedPutIsNotWritten(final String name, final String content, final boolean base64, final int expectedRevision)
+            throws InstanceValidationException, ParseException {
+        LatencyInjectingAmazonS3 amazonS3 = new LatencyInjectingAmazonS3(0L);
+        CannedReportsManager subject = new CannedReportsManager(amazonS3, "mock_bucket") {};
+        CanonicalResponse posted = subject.handleRequest(CanonicalRequest.builder()
+                .withMethod("POST").withName("REPORT_01").withContentType("text/plain")
+                .withBody(new ByteArrayInputStream("FINDINGS: none".getBytes(StandardCharsets.UTF_8))).build());
+        final String identifier = posted.getReports().get(0).getIdentifier();
+
+        CanonicalResponse put = subject.handleRequest(CanonicalRequest.builder()
+                .withMethod("PUT").withIdentifier(identifier).withName(name).withContentType("text/plain")
+                .withBody(new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8))).withBodyIsBase64Encoded(base64).build());
+
+        Assert.assertEquals(put.getResult(), CanonicalResponse.Result.SUCCESS);
+        Assert.assertEquals(put.getReports().get(0).getRevision(), Integer.valueOf(expectedRevision));
+        Assert.assertEquals(put.getReports().get(0).getName(), name);
+        Assert.assertEquals(amazonS3.listVersions("mock_bucket", identifier).getVersionSummaries().size(), expectedRevision);
+    }
+
+    @Test
+    public void testWriteIsOneConditionalRequest() throws InstanceValidationException, ParseException {
+        LatencyInjectingAmazonS3 amazonS3 = new LatencyInjectingAmazonS3(0L);
+        CannedReportsManager subject = new CannedReportsManager(amazonS3, "mock_bucket") {};
+
+        int requestsBefore = amazonS3.getRequestCount();
+        CanonicalResponse posted = subject.handleRequest(CanonicalRequest.builder()
+                .withMethod("POST").withName("REPORT_01").withDescription("DESCRIPTION_01").withContentType("text/plain")
+                .withBody(new ByteArrayInputStream("FINDINGS: none".getBytes(StandardCharsets.UTF_8))).build());
+        // the put, the response is not read back from S3
+        Assert.assertEquals(amazonS3.getRequestCount() - requestsBefore, 1);
+        CanonicalDocument postedReport = posted.getReports().get(0);
+        Assert.assertEquals(postedReport.getName(), "REPORT_01");
+        Assert.assertEquals(postedReport.getDescription(), "DESCRIPTION_01");
+        Assert.assertEquals(postedReport.getContentType(), "text/plain");
+        Assert.assertEquals(postedReport.getContentLength(), Integer.valueOf(14));
+        Assert.assertNotNull(postedReport.getETag());
+
+        requestsBefore = amazonS3.getRequestCount();
+        CanonicalResponse put = subject.handleRequest(CanonicalRequest.builder()
+                .withMethod("PUT").withIdentifier(postedReport.getIdentifier()).withName("REPORT_01").withContentType("text/plain")
+                .withBody(new ByteArrayInputStream("FINDINGS: nodule".getBytes(StandardCharsets.UTF_8))).build());
+        // the current revision (for the revision count) and the put conditional on it
+        Assert.assertEquals(amazonS3.getRequestCount() - requestsBefore, 2);
+        Assert.assertEquals(put.getReports().get(0).getRevision(), Integer.valueOf(2));
+        Assert.assertEquals(put.getReports().get(0).getETag(),
+                amazonS3.getObjectMetadata("mock_bucket", postedReport.getIdentifier()).getETag());
+    }
+
+    @Test
+    public void testConcurrentPutIsCountedAgain() throws InstanceValidationException, ParseException, IOException {
+        final AtomicBoolean interposed = new AtomicBoolean();
+        LatencyInjectingAmazonS3 amazonS3 = new LatencyInjectingAmazonS3(0L) {
+            @Override
+            public ObjectMetadata getObjectMetadata(GetObjectMetadataRequest getObjectMetadataRequest) {
+                ObjectMetadata objectMetadata = super.getObjectMetadata(getObjectMetadataRequest);
+                // another container writes the report between the read of its current revision and the write
+                if (objectMetadata != null && interposed.compareAndSet(false, true))
+                    withTextObject(getObjectMetadataRequest.getKey(), "REPORT_01", "FINDINGS: other");
+                return objectMetadata;
+            }
+        };
+        CannedReportsManager subject = new CannedReportsManager(amazonS3, "mock_bucket") {};
+        final String identifier = subject.handleRequest(CanonicalRequest.builder()
+                .withMethod("POST").withName("REPORT_01").withContentType("text/plain")
+                .withBody(new ByteArrayInputStream("FINDINGS: none".getBytes(StandardCharsets.UTF_8))).build())
+                .getReports().get(0).getIdentifier();
+
+        CanonicalResponse put = subject.handleRequest(CanonicalRequest.builder()
+                .withMethod("PUT").withIdentifier(identifier).withName("REPORT_01").withContentType("text/plain")
+                .withBody(new ByteArrayInputStream("FINDINGS: nodule".getBytes(StandardCharsets.UTF_8))).build());
+
+        Assert.assertTrue(interposed.get());
+        Assert.assertEquals(put.getResult(), CanonicalResponse.Result.SUCCESS);
+        Assert.assertEquals(amazonS3.listVersions("mock_bucket", identifier).getVersionSummaries().size(), 3);
+        // the write that came first is not overwritten without being counted
+        Assert.assertEquals(put.getReports().get(0).getRevision(), Integer.valueOf(3));
+        CanonicalResponse get = subject.handleRequest(CanonicalRequest.builder().withMethod("GET").withIdentifier(identifier).build());
+        Assert.assertEquals(get.getReports().get(0).getBody(), "FINDINGS: nodule");
+    }
+
+    @Test
+    public void testPutWithoutBodyCopiesWithNewMetadata() throws InstanceValidationException, ParseException, IOException {
+        LatencyInjectingAmazonS3 amazonS3 = new LatencyInjectingAmazonS3(0L);
+        CannedReportsManager subject = new CannedReportsManager(amazonS3, "mock_bucket") {};
+        final String identifier = subject.handleRequest(CanonicalRequest.builder()
+                .withMethod("POST").withName("REPORT_01").withDescription("DESCRIPTION_01").withContentType("text/plain")
+                .withBody(new ByteArrayInputStream("FINDINGS: none".getBytes(StandardCharsets.UTF_8))).build())
+                .getReports().get(0).getIdentifier();
+        final ObjectMetadata posted = amazonS3.getObjectMetadata("mock_bucket", identifier);
+
+        CanonicalResponse renamed = subject.handleRequest(CanonicalRequest.builder()
+                .withMethod("PUT").withIdentifier(identifier).withName("REPORT_01 renamed").build());
+
+        Assert.assertEquals(renamed.getResult(), CanonicalResponse.Result.SUCCESS);
+        CanonicalDocument report = renamed.getReports().get(0);
+        Assert.assertEquals(report.getRevision(), Integer.valueOf(2));
+        Assert.assertEquals(report.getName(), "REPORT_01 renamed");
+        // the metadata that is not given is carried forward
+        Assert.assertEquals(report.getDescription(), "DESCRIPTION_01");
+        Assert.assertEquals(report.getContentType(), "text/plain");
+        Assert.assertEquals(report.getContentLength(), Integer.valueOf(14));
+        final ObjectMetadata copied = amazonS3.getObjectMetadata("mock_bucket", identifier);
+        Assert.assertEquals(copied.getUserMetaDataOf(CannedReportsManager.S3_METADATA_CONTENT_SHA256),
+                posted.getUserMetaDataOf(CannedReportsManager.S3_METADATA_CONTENT_SHA256));
+        Assert.assertEquals(copied.getUserMetaDataOf(CannedReportsManager.S3_METADATA_REVISION_COUNT), "2");
+
+        CanonicalResponse get = subject.handleRequest(CanonicalRequest.builder().withMethod("GET").withIdentifier(identifier).build());
+        Assert.assertEquals(get.getReports().get(0).getName(), "REPORT_01 renamed");
+        Assert.assertEquals(get.getReports().get(0).getBody(), "FINDINGS: none");
+
+        // the same metadata again changes nothing and writes nothing
+        subject.handleRequest(CanonicalRequest.builder()
+                .withMethod("PUT").withIdentifier(identifier).withName("REPORT_01 renamed").build());
+        Assert.assertEquals(amazonS3.listVersions("mock_bucket", identifier).getVersionSummaries().size(), 2);
+    }
+
+    @Test
+    public void testPutWithoutBodyRestoresRevision() throws InstanceValidationException, ParseException, IOException {
+        LatencyInjectingAmazonS3 amazonS3 = new LatencyInjectingAmazonS3(0L);
+        CannedReportsManager subject = new CannedReportsManager(amazonS3, "mock_bucket") {};
+        final String identifier = subject.handleRequest(CanonicalRequest.builder()
+                .withMethod("POST").withName("REPORT_01").withContentType("text/plain")
+                .withBody(new ByteArrayInputStream("FINDINGS: none".getBytes(StandardCharsets.UTF_8))).build())
+                .getReports().get(0).getIdentifier();
+        subject.handleRequest(CanonicalRequest.builder()
+                .withMethod("PUT").withIdentifier(identifier).withName("REPORT_01 amended").withContentType("text/plain")
+                .withBody(new ByteArrayInputStream("FINDINGS: nodule".getBytes(StandardCharsets.UTF_8))).build());
+
+        CanonicalResponse restored = subject.handleRequest(CanonicalRequest.builder()
+                .withMethod("PUT").withIdentifier(identifier).withRevisionSpecification("-1").build());
+
+        Assert.assertEquals(restored.getResult(), CanonicalResponse.Result.SUCCESS);
+        Assert.assertEquals(restored.getReports().get(0).getRevision(), Integer.valueOf(3));
+        Assert.assertEquals(restored.getReports().get(0).getName(), "REPORT_01");
+        CanonicalResponse get = subject.handleRequest(CanonicalRequest.builder().withMethod("GET").withIdentifier(identifier).build());
+        Assert.assertEquals(get.getReports().get(0).getBody(), "FINDINGS: none");
+        Assert.assertEquals(get.getReports().get(0).getRevision(), Integer.valueOf(3));
+        Assert.assertEquals(amazonS3.listVersions("mock_bucket", identifier).getVersionSummaries().size(), 3);
+
+        CanonicalResponse unknown = subject.handleRequest(CanonicalRequest.builder()
+                .withMethod("PUT").withIdentifier(identifier).withRevisionSpecification("7").build());
+        Assert.assertEquals(unknown.getResult(), CanonicalResponse.Result.NOT_FOUND);
+    }
+
     /**
      * Create a mock AmazonS3 that will behave enough like the real thing for these tests
      * @param mockBucketName
@@ -259,6 +1225,9 @@ public class CannedReportsManagerTest {
         Mockito.when(amazonS3Mock.listObjectsV2(Mockito.any(ListObjectsV2Request.class)))
                 .thenReturn(listObjectResult);
         // second, create the objects and mock the behavior of the amazonS3Mock to return object results
+        final Map<String, S3Object> s3Objects = new HashMap<>();
+        Mockito.when(amazonS3Mock.getObject(Mockito.any(GetObjectRequest.class))).thenAnswer(invocation ->
+                s3Objects.get(((GetObjectRequest) invocation.getArguments()[0]).getKey()));
         Arrays.stream(identifiers).forEach(identifier -> {
             final String objectContent = "CONTENT_" + identifier;
 
@@ -268,18 +1237,20 @@ public class CannedReportsManagerTest {
             objectMetadata.setContentLength(objectContent.length());
             objectMetadata.addUserMetadata(CannedReportsManager.HTTP_HEADER_REPORT_NAME, "REPORT_" + identifier);
             objectMetadata.addUserMetadata(CannedReportsManager.HTTP_HEADER_REPORT_DESCRIPTION, "DESCRIPTION_" + identifier);
+            objectMetadata.addUserMetadata(CannedReportsManager.S3_METADATA_REVISION_COUNT, "1");
             Mockito.when(amazonS3Mock.getObjectMetadata(mockBucketName, identifier)).thenReturn(objectMetadata);
 
             // create the Object and mock its result from amazonS3Mock
             S3Object s3Object = new S3Object();
             s3Object.setKey(identifier);
             s3Object.setBucketName(mockBucket.getName());
+            s3Object.setObjectMetadata(objectMetadata);
             try {
                 s3Object.setObjectContent(new StringInputStream(objectContent));
             } catch (UnsupportedEncodingException e) {
                 // ignore it
             }
-            Mockito.when(amazonS3Mock.getObject(mockBucketName, identifier)).thenReturn(s3Object);
+            s3Objects.put(identifier, s3Object);
 
             // finally create object metadata and mock its return from amazonS3Mock
             S3ObjectSummary s3ObjectSummary = new S3ObjectSummary();
@@ -293,6 +1264,8 @@ public class CannedReportsManagerTest {
         PutObjectResult putObjectResult = new PutObjectResult();
         Mockito.when(amazonS3Mock.putObject(Mockito.any(), Mockito.any(), Mockito.any(), Mockito.any()))
                 .thenReturn(putObjectResult);
+        Mockito.when(amazonS3Mock.putObject(Mockito.any(PutObjectRequest.class)))
+                .thenReturn(putObjectResult);
 
         return amazonS3Mock;
     }
@@ -0,0 +1,58 @@
+package gov.va.vha.dicomimporter;
+
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import gov.va.vha.dicomimporter.model.CatalogManifest;
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Unit tests for the CatalogManifestRepository class.
+ */
+public class CatalogManifestRepositoryTest {
+    private static final String BUCKET_NAME = "mock_bucket";
+
+    @DataProvider(name = "DescribeRevisionCountData")
+    public static Object[][] describeRevisionCountData() {
+        return new Object[][]{
+                // stored count, versions written, reconcile, expected count
+                {null, 2, false, 2},
+                {"2", 2, false, 2},
+                // two writes that both stored "1"
+                {"1", 2, false, 1},
+                {"1", 2, true, 2},
+                // a count higher than the versions (a revision was deleted) is kept
+                {"5", 2, true, 5},
+        };
+    }
+
+    @Test(dataProvider = "DescribeRevisionCountData")
+    public void testDescribeRevisionCount(
+            final String storedRevisionCount, final int versions, final boolean reconcile, final int expectedRevisionCount) {
+        LatencyInjectingAmazonS3 amazonS3 = new LatencyInjectingAmazonS3(0L);
+        for (int version = 1; version <= versions; ++version) {
+            ObjectMetadata metadata = new ObjectMetadata();
+            if (storedRevisionCount != null)
+                metadata.addUserMetadata(CannedReportsManager.S3_METADATA_REVISION_COUNT, storedRevisionCount);
+            amazonS3.putObject(BUCKET_NAME, "IDENTIFIER001",
+                    new ByteArrayInputStream(("CONTENT_" + version).getBytes(StandardCharsets.UTF_8)), metadata);
+        }
+        // a key that the identifier is a prefix of is not counted
+        amazonS3.withTextObject("IDENTIFIER0011", "OTHER", "CONTENT");
+        CatalogManifestRepository subject = new CatalogManifestRepository(amazonS3, BUCKET_NAME);
+
+        CatalogManifest.Entry entry = subject.describe("IDENTIFIER001", reconcile);
+
+        Assert.assertEquals(entry.getRevisionCount(), Integer.valueOf(expectedRevisionCount));
+    }
+
+    @Test
+    public void testDescribeMissingKey() {
+        CatalogManifestRepository subject = new CatalogManifestRepository(new LatencyInjectingAmazonS3(0L), BUCKET_NAME);
+
+        Assert.assertNull(subject.describe("IDENTIFIER001", true));
+    }
+}
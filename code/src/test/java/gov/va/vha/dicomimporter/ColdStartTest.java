@@ -0,0 +1,85 @@
+package gov.va.vha.dicomimporter;
+
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PutObjectRequest;
+import gov.va.vha.dicomimporter.exceptions.InstanceValidationException;
+import gov.va.vha.dicomimporter.model.CanonicalRequest;
+import gov.va.vha.dicomimporter.model.CanonicalResponse;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.text.ParseException;
+
+/**
+ * Counts the work done in a cold start, the construction of the CannedReportsManager and its first request.
+ * S3 round trips are what dominate, so they are counted (against a fake S3).
+ */
+public class ColdStartTest {
+
+    @Test
+    public void testColdStart() throws InstanceValidationException, ParseException {
+        LatencyInjectingAmazonS3 amazonS3 = createAmazonS3(0L);
+        final int requestsBefore = amazonS3.getRequestCount();
+
+        CannedReportsManager subject = new CannedReportsManager(amazonS3, "mock_bucket") {};
+        // the bucket is neither listed nor created
+        Assert.assertEquals(amazonS3.getRequestCount() - requestsBefore, 0);
+
+        CanonicalResponse response = subject.handleRequest(
+                CanonicalRequest.builder().withMethod("GET").withIdentifier("IDENTIFIER01").build());
+        Assert.assertEquals(response.getResult(), CanonicalResponse.Result.SUCCESS);
+        Assert.assertEquals(amazonS3.getRequestCount() - requestsBefore, 1);
+    }
+
+    @Test
+    public void testBucketIsCheckedOncePerContainer() throws InstanceValidationException, ParseException {
+        LatencyInjectingAmazonS3 amazonS3 = createAmazonS3(0L);
+        final int requestsBefore = amazonS3.getRequestCount();
+        final CannedReportsManager subject = createWithBucketCheck(amazonS3);
+        Assert.assertEquals(amazonS3.getRequestCount() - requestsBefore, 0);
+
+        for (int index = 0; index < 3; ++index)
+            subject.handleRequest(CanonicalRequest.builder().withMethod("GET").withIdentifier("IDENTIFIER01").build());
+
+        // one HEAD of the bucket and a GET of the report per request
+        Assert.assertEquals(amazonS3.getRequestCount() - requestsBefore, 1 + 3);
+    }
+
+    @Test
+    public void testPrimingIsTheBucketCheck() throws InstanceValidationException, ParseException {
+        LatencyInjectingAmazonS3 amazonS3 = createAmazonS3(0L);
+        final int requestsBefore = amazonS3.getRequestCount();
+        final CannedReportsManager subject = createWithBucketCheck(amazonS3);
+
+        subject.primeS3Connection();
+        Assert.assertEquals(amazonS3.getRequestCount() - requestsBefore, 1);
+
+        subject.handleRequest(CanonicalRequest.builder().withMethod("GET").withIdentifier("IDENTIFIER01").build());
+        Assert.assertEquals(amazonS3.getRequestCount() - requestsBefore, 2);
+    }
+
+    /**
+     * @return a fake S3 holding one report written with its revision count
+     */
+    private static LatencyInjectingAmazonS3 createAmazonS3(final long latencyMillis) {
+        LatencyInjectingAmazonS3 amazonS3 = new LatencyInjectingAmazonS3(latencyMillis);
+        final byte[] content = "FINDINGS: none".getBytes(StandardCharsets.UTF_8);
+        ObjectMetadata objectMetadata = new ObjectMetadata();
+        objectMetadata.setContentType("text/plain");
+        objectMetadata.addUserMetadata(CannedReportsManager.HTTP_HEADER_REPORT_NAME, "REPORT_01");
+        objectMetadata.addUserMetadata(CannedReportsManager.S3_METADATA_REVISION_COUNT, "1");
+        amazonS3.putObject(new PutObjectRequest("mock_bucket", "IDENTIFIER01", new ByteArrayInputStream(content), objectMetadata));
+        return amazonS3;
+    }
+
+    private static CannedReportsManager createWithBucketCheck(final LatencyInjectingAmazonS3 amazonS3) {
+        ApplicationProperties.getSingleton().setProperty(CannedReportsManager.PROPERTY_BUCKET_CHECK_ENABLED, "true");
+        try {
+            return new CannedReportsManager(amazonS3, "mock_bucket") {};
+        } finally {
+            ApplicationProperties.getSingleton().setProperty(CannedReportsManager.PROPERTY_BUCKET_CHECK_ENABLED, "false");
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package gov.va.vha.dicomimporter;
+
+import com.amazonaws.services.s3.model.AmazonS3Exception;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PutObjectResult;
+import com.amazonaws.services.s3.model.S3Object;
+import com.amazonaws.util.StringInputStream;
+import gov.va.vha.dicomimporter.exceptions.InstanceValidationException;
+import gov.va.vha.dicomimporter.model.CanonicalRequest;
+import gov.va.vha.dicomimporter.model.CanonicalResponse;
+import org.apache.http.HttpStatus;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.ParseException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/**
+ * Unit tests for the FileSystemReportStore class.
+ */
+public class FileSystemReportStoreTest {
+    private Path directory;
+
+    @BeforeMethod
+    public void createDirectory() throws IOException {
+        directory = Files.createTempDirectory("canned-reports");
+    }
+
+    @AfterMethod(alwaysRun = true)
+    public void deleteDirectory() throws IOException {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Test
+    public void testVersionsSurviveReopening() throws IOException {
+        FileSystemReportStore subject = new FileSystemReportStore(directory);
+        ObjectMetadata metadata = new ObjectMetadata();
+        metadata.setContentType("text/plain");
+        metadata.addUserMetadata(CannedReportsManager.HTTP_HEADER_REPORT_NAME, "NAME \u00e9\n=1");
+        PutObjectResult first = subject.put("../KEY", bytes("CONTENT_1"), metadata, null, ReportStore.ANY);
+        PutObjectResult second = subject.put("../KEY", bytes("CONTENT_2"), metadata, first.getETag(), null);
+
+        // the key is a single directory within the store
+        try (Stream<Path> keyDirectories = Files.list(directory)) {
+            Assert.assertEquals(keyDirectories.count(), 1L);
+        }
+
+        FileSystemReportStore reopened = new FileSystemReportStore(directory);
+        Assert.assertEquals(reopened.listVersionIds("../KEY"), Arrays.asList(first.getVersionId(), second.getVersionId()));
+        ObjectMetadata current = reopened.head("../KEY", null);
+        Assert.assertEquals(current.getVersionId(), second.getVersionId());
+        Assert.assertEquals(current.getETag(), second.getETag());
+        Assert.assertEquals(current.getContentLength(), 9L);
+        Assert.assertEquals(current.getContentType(), "text/plain");
+        Assert.assertEquals(current.getUserMetaDataOf(CannedReportsManager.HTTP_HEADER_REPORT_NAME), "NAME \u00e9\n=1");
+        Assert.assertEquals(read(reopened.get("../KEY", first.getVersionId(), null, null)), "CONTENT_1");
+        Assert.assertEquals(reopened.listKeys(null, null, null).getKeys(), Arrays.asList("../KEY"));
+    }
+
+    @Test
+    public void testConditionalWritesAndReads() {
+        FileSystemReportStore subject = new FileSystemReportStore(directory);
+        PutObjectResult first = subject.put("KEY", bytes("CONTENT_1"), new ObjectMetadata(), null, ReportStore.ANY);
+
+        assertStatus(() -> subject.put("KEY", bytes("CONTENT_2"), new ObjectMetadata(), null, ReportStore.ANY),
+                HttpStatus.SC_PRECONDITION_FAILED);
+        subject.put("KEY", bytes("CONTENT_2"), new ObjectMetadata(), first.getETag(), null);
+        assertStatus(() -> subject.put("KEY", bytes("CONTENT_3"), new ObjectMetadata(), first.getETag(), null),
+                HttpStatus.SC_PRECONDITION_FAILED);
+
+        final String currentETag = subject.head("KEY", null).getETag();
+        Assert.assertNull(subject.get("KEY", null, currentETag, null));
+        Assert.assertNotNull(subject.get("KEY", null, first.getETag(), null));
+        assertStatus(() -> subject.head("MISSING", null), HttpStatus.SC_NOT_FOUND);
+    }
+
+    @Test
+    public void testCopyDeleteAndDeleteVersion() throws IOException {
+        FileSystemReportStore subject = new FileSystemReportStore(directory);
+        PutObjectResult first = subject.put("KEY", bytes("CONTENT_1"), new ObjectMetadata(), null, ReportStore.ANY);
+        subject.put("KEY", bytes("CONTENT_2"), new ObjectMetadata(), first.getETag(), null);
+
+        ObjectMetadata restored = new ObjectMetadata();
+        restored.setContentType("text/plain");
+        subject.copy("KEY", first.getVersionId(), restored, null);
+        Assert.assertEquals(read(subject.get("KEY", null, null, null)), "CONTENT_1");
+        Assert.assertEquals(subject.head("KEY", null).getETag(), first.getETag());
+        Assert.assertEquals(subject.head("KEY", null).getContentType(), "text/plain");
+
+        subject.deleteVersion("KEY", subject.head("KEY", null).getVersionId());
+        Assert.assertEquals(read(subject.get("KEY", null, null, null)), "CONTENT_2");
+
+        subject.delete("KEY");
+        assertStatus(() -> subject.head("KEY", null), HttpStatus.SC_NOT_FOUND);
+        Assert.assertTrue(subject.listKeys(null, null, null).getKeys().isEmpty());
+        Assert.assertEquals(subject.listVersionIds("KEY").size(), 2);
+        subject.put("KEY", bytes("CONTENT_3"), new ObjectMetadata(), null, ReportStore.ANY);
+    }
+
+    @Test
+    public void testLargeBodyIsMapped() throws IOException {
+        FileSystemReportStore subject = new FileSystemReportStore(directory);
+        final byte[] content = new byte[(int) FileSystemReportStore.MAPPED_READ_MINIMUM_BYTES * 3 + 7];
+        for (int index = 0; index < content.length; ++index)
+            content[index] = (byte) index;
+        subject.put("KEY", content, new ObjectMetadata(), null, ReportStore.ANY);
+
+        S3Object s3Object = subject.get("KEY", null, null, null);
+        Assert.assertEquals(CannedReportsManager.readContent(s3Object.getObjectContent(), content.length), content);
+    }
+
+    @Test
+    public void testListKeysIsPaged() {
+        FileSystemReportStore subject = new FileSystemReportStore(directory);
+        for (String key : new String[]{"KEY03", "KEY01", "KEY02"})
+            subject.put(key, bytes(key), new ObjectMetadata(), null, ReportStore.ANY);
+
+        ReportStore.KeyListing firstPage = subject.listKeys(null, null, 2);
+        Assert.assertEquals(firstPage.getKeys(), Arrays.asList("KEY01", "KEY02"));
+        Assert.assertTrue(firstPage.isTruncated());
+        ReportStore.KeyListing secondPage = subject.listKeys(null, firstPage.getNextContinuationToken(), 2);
+        Assert.assertEquals(secondPage.getKeys(), Arrays.asList("KEY03"));
+        Assert.assertFalse(secondPage.isTruncated());
+    }
+
+    @Test
+    public void testSelectedByApplicationProperties() throws IOException, InstanceValidationException, ParseException {
+        ApplicationProperties.getSingleton().setProperty(CannedReportsManager.PROPERTY_REPORT_STORE, CannedReportsManager.REPORT_STORE_FILESYSTEM);
+        ApplicationProperties.getSingleton().setProperty(FileSystemReportStore.PROPERTY_FILESYSTEM_STORE_DIRECTORY, directory.toString());
+        try {
+            CannedReportsManager subject = CannedReportsManager.fromApplicationProperties("canned-reports");
+
+            CanonicalResponse postResponse = subject.handleRequest(CanonicalRequest.builder()
+                    .withMethod("POST").withName("REPORT").withContentType("text/plain")
+                    .withContentLength(9).withBody(new StringInputStream("CONTENT_1")).build());
+            final String identifier = postResponse.getReports().get(0).getIdentifier();
+            subject.handleRequest(CanonicalRequest.builder()
+                    .withMethod("PUT").withIdentifier(identifier).withName("REPORT").withContentType("text/plain")
+                    .withContentLength(9).withBody(new StringInputStream("CONTENT_2")).build());
+
+            CanonicalResponse getResponse = CannedReportsManager.fromApplicationProperties("canned-reports").handleRequest(
+                    CanonicalRequest.builder().withMethod("GET").withIdentifier(identifier).build());
+            Assert.assertEquals(getResponse.getReports().get(0).getRevision(), Integer.valueOf(2));
+            Assert.assertEquals(getResponse.getReports().get(0).getBody(), "CONTENT_2");
+        } finally {
+            ApplicationProperties.getSingleton().setProperty(CannedReportsManager.PROPERTY_REPORT_STORE, CannedReportsManager.REPORT_STORE_S3);
+            ApplicationProperties.getSingleton().setProperty(FileSystemReportStore.PROPERTY_FILESYSTEM_STORE_DIRECTORY,
+                    FileSystemReportStore.DEFAULT_FILESYSTEM_STORE_DIRECTORY);
+        }
+    }
+
+    @Test
+    public void testRepeatedGets() throws IOException {
+        FileSystemReportStore subject = new FileSystemReportStore(directory);
+        for (int report = 0; report < 10; ++report)
+            subject.put("KEY" + report, bytes("IMPRESSION: No acute cardiopulmonary process. " + report),
+                    new ObjectMetadata(), null, ReportStore.ANY);
+
+        // every read opens the current version again, nothing is held from the previous read
+        for (int get = 0; get < 1000; ++get)
+            Assert.assertEquals(read(subject.get("KEY" + (get % 10), null, null, null)),
+                    "IMPRESSION: No acute cardiopulmonary process. " + (get % 10));
+    }
+
+    private static void assertStatus(final Runnable operation, final int statusCode) {
+        try {
+            operation.run();
+            Assert.fail("expected status " + statusCode);
+        } catch (AmazonS3Exception s3X) {
+            Assert.assertEquals(s3X.getStatusCode(), statusCode);
+        }
+    }
+
+    private static byte[] bytes(final String content) {
+        return content.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String read(final S3Object s3Object) throws IOException {
+        return new String(CannedReportsManager.readContent(s3Object.getObjectContent(), -1L), StandardCharsets.UTF_8);
+    }
+}
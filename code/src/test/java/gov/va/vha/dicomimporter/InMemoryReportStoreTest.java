@@ -0,0 +1,203 @@
+package gov.va.vha.dicomimporter;
+
+import com.amazonaws.services.s3.model.AmazonS3Exception;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PutObjectResult;
+import com.amazonaws.services.s3.model.S3Object;
+import com.amazonaws.util.IOUtils;
+import com.amazonaws.util.StringInputStream;
+import gov.va.vha.dicomimporter.exceptions.InstanceValidationException;
+import gov.va.vha.dicomimporter.model.CanonicalRequest;
+import gov.va.vha.dicomimporter.model.CanonicalResponse;
+import org.apache.http.HttpStatus;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.InvalidParameterException;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Unit tests for the InMemoryReportStore class, and the manager running on it without S3.
+ */
+public class InMemoryReportStoreTest {
+
+    @Test
+    public void testVersions() throws IOException {
+        InMemoryReportStore subject = new InMemoryReportStore();
+
+        PutObjectResult first = subject.put("KEY", bytes("CONTENT_1"), new ObjectMetadata(), null, ReportStore.ANY);
+        PutObjectResult second = subject.put("KEY", bytes("CONTENT_2"), new ObjectMetadata(), first.getETag(), null);
+
+        Assert.assertEquals(subject.listVersionIds("KEY"), Arrays.asList(first.getVersionId(), second.getVersionId()));
+        Assert.assertEquals(subject.head("KEY", null).getVersionId(), second.getVersionId());
+        Assert.assertEquals(subject.head("KEY", null).getContentLength(), 9L);
+        Assert.assertEquals(read(subject.get("KEY", null, null, null)), "CONTENT_2");
+        Assert.assertEquals(read(subject.get("KEY", first.getVersionId(), null, null)), "CONTENT_1");
+
+        // the copy of a version is the new current version
+        subject.copy("KEY", first.getVersionId(), null, null);
+        Assert.assertEquals(subject.listVersionIds("KEY").size(), 3);
+        Assert.assertEquals(read(subject.get("KEY", null, null, null)), "CONTENT_1");
+
+        // deleting the newest version makes the previous version current
+        subject.deleteVersion("KEY", subject.head("KEY", null).getVersionId());
+        Assert.assertEquals(subject.head("KEY", null).getVersionId(), second.getVersionId());
+    }
+
+    @Test
+    public void testConditionalWrites() {
+        InMemoryReportStore subject = new InMemoryReportStore();
+        PutObjectResult first = subject.put("KEY", bytes("CONTENT_1"), new ObjectMetadata(), null, ReportStore.ANY);
+
+        assertStatus(() -> subject.put("KEY", bytes("CONTENT_2"), new ObjectMetadata(), null, ReportStore.ANY),
+                HttpStatus.SC_PRECONDITION_FAILED);
+        subject.put("KEY", bytes("CONTENT_2"), new ObjectMetadata(), first.getETag(), null);
+        assertStatus(() -> subject.put("KEY", bytes("CONTENT_3"), new ObjectMetadata(), first.getETag(), null),
+                HttpStatus.SC_PRECONDITION_FAILED);
+        assertStatus(() -> subject.copy("KEY", null, new ObjectMetadata(), first.getETag()),
+                HttpStatus.SC_PRECONDITION_FAILED);
+
+        // a conditional read of an unchanged version reads nothing
+        final String currentETag = subject.head("KEY", null).getETag();
+        Assert.assertNull(subject.get("KEY", null, currentETag, null));
+        Assert.assertNotNull(subject.get("KEY", null, first.getETag(), null));
+    }
+
+    @Test
+    public void testDeleteLeavesVersions() {
+        InMemoryReportStore subject = new InMemoryReportStore();
+        subject.put("KEY", bytes("CONTENT_1"), new ObjectMetadata(), null, ReportStore.ANY);
+        final String versionId = subject.head("KEY", null).getVersionId();
+
+        subject.delete("KEY");
+
+        assertStatus(() -> subject.head("KEY", null), HttpStatus.SC_NOT_FOUND);
+        Assert.assertTrue(subject.listKeys(null, null, null).getKeys().isEmpty());
+        Assert.assertEquals(subject.listVersionIds("KEY"), Arrays.asList(versionId));
+        Assert.assertNotNull(subject.head("KEY", versionId));
+        // the key has no current version, so it may be written as a new one
+        subject.put("KEY", bytes("CONTENT_2"), new ObjectMetadata(), null, ReportStore.ANY);
+    }
+
+    @Test
+    public void testListKeysIsPaged() {
+        InMemoryReportStore subject = new InMemoryReportStore();
+        for (String key : new String[]{"KEY04", "KEY02", "KEY05", "KEY01", "KEY03"})
+            subject.put(key, bytes(key), new ObjectMetadata(), null, ReportStore.ANY);
+
+        List<String> keys = new ArrayList<>();
+        String continuationToken = null;
+        int pages = 0;
+        ReportStore.KeyListing listing;
+        do {
+            listing = subject.listKeys("KEY01", continuationToken, 2);
+            keys.addAll(listing.getKeys());
+            continuationToken = listing.getNextContinuationToken();
+            ++pages;
+        } while (listing.isTruncated());
+
+        Assert.assertEquals(keys, Arrays.asList("KEY02", "KEY03", "KEY04", "KEY05"));
+        Assert.assertEquals(pages, 2);
+    }
+
+    @Test
+    public void testLatencyOverlapsConcurrentRequests() throws InterruptedException {
+        InMemoryReportStore subject = InMemoryReportStore.builder().withLatencyMillis(50L).build();
+        subject.put("KEY", bytes("CONTENT_1"), new ObjectMetadata(), null, ReportStore.ANY);
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        for (int request = 0; request < 4; ++request)
+            executor.submit(() -> subject.head("KEY", null));
+        executor.shutdown();
+        Assert.assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+
+        Assert.assertEquals(subject.getRequestCount(), 5);
+        Assert.assertTrue(subject.getMaximumInFlight() > 1, "the requests did not overlap");
+    }
+
+    @Test
+    public void testErrorInjectionIsRepeatable() {
+        Assert.assertEquals(injectErrors(42L), injectErrors(42L));
+
+        InMemoryReportStore subject = InMemoryReportStore.builder().withErrorRate(1.0d).build();
+        assertStatus(() -> subject.put("KEY", bytes("CONTENT_1"), new ObjectMetadata(), null, ReportStore.ANY),
+                HttpStatus.SC_SERVICE_UNAVAILABLE);
+        Assert.assertEquals(subject.getInjectedErrorCount(), 1);
+        Assert.assertEquals(subject.getMaximumInFlight(), 1);
+    }
+
+    @Test(expectedExceptions = InvalidParameterException.class)
+    public void testInvalidErrorRate() {
+        InMemoryReportStore.builder().withErrorRate(1.5d).build();
+    }
+
+    @Test
+    public void testManagerWithoutS3() throws IOException, InstanceValidationException, ParseException {
+        InMemoryReportStore reportStore = new InMemoryReportStore();
+        CannedReportsManager subject = new CannedReportsManager(reportStore) {};
+
+        CanonicalResponse postResponse = subject.handleRequest(CanonicalRequest.builder()
+                .withMethod("POST").withName("REPORT").withContentType("text/plain")
+                .withContentLength(9).withBody(new StringInputStream("CONTENT_1")).build());
+        final String identifier = postResponse.getReports().get(0).getIdentifier();
+        subject.handleRequest(CanonicalRequest.builder()
+                .withMethod("PUT").withIdentifier(identifier).withName("REPORT").withContentType("text/plain")
+                .withContentLength(9).withBody(new StringInputStream("CONTENT_2")).build());
+
+        CanonicalResponse getResponse = subject.handleRequest(
+                CanonicalRequest.builder().withMethod("GET").withIdentifier(identifier).build());
+        Assert.assertEquals(getResponse.getReports().get(0).getRevision(), Integer.valueOf(2));
+        Assert.assertEquals(getResponse.getReports().get(0).getBody(), "CONTENT_2");
+
+        CanonicalResponse catalogResponse = subject.handleRequest(CanonicalRequest.builder().withMethod("GET").build());
+        Assert.assertEquals(catalogResponse.getReports().size(), 1);
+        Assert.assertEquals(catalogResponse.getReports().get(0).getIdentifier(), identifier);
+
+        // an upload session is an S3 multipart upload
+        CanonicalResponse sessionResponse = subject.handleRequest(CanonicalRequest.builder()
+                .withMethod("POST").withName("REPORT").withContentType("text/plain")
+                .withUpload(CannedReportsManager.UPLOAD_SESSION).build());
+        Assert.assertEquals(sessionResponse.getResult().getHttpResponseCode(), HttpStatus.SC_BAD_REQUEST);
+    }
+
+    private static int injectErrors(final long seed) {
+        InMemoryReportStore subject = InMemoryReportStore.builder().withErrorRate(0.3d).withSeed(seed).build();
+        int failures = 0;
+        for (int request = 0; request < 100; ++request) {
+            try {
+                subject.listVersionIds("KEY");
+            } catch (AmazonS3Exception s3X) {
+                Assert.assertEquals(s3X.getStatusCode(), HttpStatus.SC_SERVICE_UNAVAILABLE);
+                ++failures;
+            }
+        }
+        Assert.assertEquals(subject.getInjectedErrorCount(), failures);
+        Assert.assertTrue(failures > 0 && failures < 100);
+        return failures;
+    }
+
+    private static void assertStatus(final Runnable operation, final int statusCode) {
+        try {
+            operation.run();
+            Assert.fail("expected status " + statusCode);
+        } catch (AmazonS3Exception s3X) {
+            Assert.assertEquals(s3X.getStatusCode(), statusCode);
+        }
+    }
+
+    private static byte[] bytes(final String content) {
+        return content.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String read(final S3Object s3Object) throws IOException {
+        return new String(IOUtils.toByteArray(s3Object.getObjectContent()), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,528 @@
+package gov.va.vha.dicomimporter;
+
+import com.amazonaws.services.s3.AbstractAmazonS3;
+import com.amazonaws.services.s3.Headers;
+import com.amazonaws.services.s3.model.*;
+import org.apache.http.HttpStatus;
+
+import com.amazonaws.util.BinaryUtils;
+import com.amazonaws.util.IOUtils;
+import com.amazonaws.util.Md5Utils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.UnsupportedEncodingException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A fake AmazonS3 holding objects in memory, every request is delayed by a fixed latency
+ * to approximate the round trip to S3. Only the operations needed by the tests are implemented.
+ * The number of requests in flight is tracked so that tests can assert on concurrency.
+ * The bucket is versioned, every put adds a version and a delete adds a delete marker.
+ * A put honors the If-Match and If-None-Match conditional write headers.
+ */
+public class LatencyInjectingAmazonS3 extends AbstractAmazonS3 {
+    private final long latencyMillis;
+    // the versions of each key, oldest first
+    private final Map<String, List<StoredObject>> objects = new ConcurrentSkipListMap<>();
+    private final AtomicInteger versionSequence = new AtomicInteger();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger maximumInFlight = new AtomicInteger();
+    private final AtomicInteger requestCount = new AtomicInteger();
+    private final AtomicInteger notModifiedCount = new AtomicInteger();
+    private final Map<String, MultipartUploadInProgress> multipartUploads = new ConcurrentSkipListMap<>();
+    private final AtomicInteger uploadSequence = new AtomicInteger();
+    private final AtomicInteger uploadedPartCount = new AtomicInteger();
+    private volatile boolean shutdown;
+
+    public LatencyInjectingAmazonS3(final long latencyMillis) {
+        this.latencyMillis = latencyMillis;
+    }
+
+    public LatencyInjectingAmazonS3 withTextObject(final String key, final String name, final String content) {
+        ObjectMetadata metadata = new ObjectMetadata();
+        metadata.setContentType("text/plain");
+        final byte[] bytes = content.getBytes(StandardCharsets.UTF_8);
+        metadata.setContentLength(bytes.length);
+        metadata.addUserMetadata(CannedReportsManager.HTTP_HEADER_REPORT_NAME, name);
+        store(key, metadata, bytes);
+        return this;
+    }
+
+    public int getMaximumInFlight() {
+        return maximumInFlight.get();
+    }
+
+    public int getRequestCount() {
+        return requestCount.get();
+    }
+
+    /**
+     * @return the number of conditional GETs answered as not modified (304)
+     */
+    public int getNotModifiedCount() {
+        return notModifiedCount.get();
+    }
+
+    /**
+     * @return true if the client was shut down
+     */
+    public boolean isShutdown() {
+        return shutdown;
+    }
+
+    @Override
+    public void shutdown() {
+        shutdown = true;
+    }
+
+    /**
+     * @return the number of multipart upload parts uploaded
+     */
+    public int getUploadedPartCount() {
+        return uploadedPartCount.get();
+    }
+
+    /**
+     * Change when a multipart upload was initiated, e.g. so that it appears abandoned.
+     */
+    public void setUploadInitiated(final String uploadId, final Date initiated) {
+        multipartUploads.get(uploadId).initiated = initiated;
+    }
+
+    /**
+     * @return true if the key exists, i.e. its newest version is not a delete marker
+     */
+    public boolean exists(final String key) {
+        return current(key) != null;
+    }
+
+    @Override
+    public List<Bucket> listBuckets() {
+        return Collections.emptyList();
+    }
+
+    @Override
+    public List<Bucket> listBuckets(ListBucketsRequest listBucketsRequest) {
+        return Collections.emptyList();
+    }
+
+    @Override
+    public Bucket createBucket(String bucketName) {
+        simulateRoundTrip();
+        return new Bucket(bucketName);
+    }
+
+    @Override
+    public HeadBucketResult headBucket(HeadBucketRequest headBucketRequest) {
+        simulateRoundTrip();
+        return new HeadBucketResult();
+    }
+
+    @Override
+    public ListObjectsV2Result listObjectsV2(ListObjectsV2Request listObjectsV2Request) {
+        simulateRoundTrip();
+        ListObjectsV2Result result = new ListObjectsV2Result();
+        result.setBucketName(listObjectsV2Request.getBucketName());
+        // the continuation token of this fake is simply the last key returned
+        final String after = listObjectsV2Request.getContinuationToken() != null
+                ? listObjectsV2Request.getContinuationToken()
+                : listObjectsV2Request.getStartAfter();
+        final int maxKeys = listObjectsV2Request.getMaxKeys() == null ? 1000 : listObjectsV2Request.getMaxKeys();
+        for (Map.Entry<String, List<StoredObject>> entry : objects.entrySet()) {
+            final StoredObject current = current(entry.getKey());
+            if (current == null || (after != null && entry.getKey().compareTo(after) <= 0))
+                continue;
+            if (listObjectsV2Request.getPrefix() != null && !entry.getKey().startsWith(listObjectsV2Request.getPrefix()))
+                continue;
+            if (result.getObjectSummaries().size() == maxKeys) {
+                result.setTruncated(true);
+                result.setNextContinuationToken(result.getObjectSummaries().get(maxKeys - 1).getKey());
+                break;
+            }
+            S3ObjectSummary summary = new S3ObjectSummary();
+            summary.setKey(entry.getKey());
+            summary.setBucketName(listObjectsV2Request.getBucketName());
+            summary.setSize(current.content.length);
+            result.getObjectSummaries().add(summary);
+        }
+        result.setKeyCount(result.getObjectSummaries().size());
+        return result;
+    }
+
+    @Override
+    public ObjectMetadata getObjectMetadata(GetObjectMetadataRequest getObjectMetadataRequest) {
+        simulateRoundTrip();
+        return find(getObjectMetadataRequest.getKey(), getObjectMetadataRequest.getVersionId()).metadata;
+    }
+
+    /**
+     * A presigned URL is signed locally by the real client, so there is no round trip. The URL is not signed here.
+     */
+    @Override
+    public URL generatePresignedUrl(GeneratePresignedUrlRequest generatePresignedUrlRequest) {
+        Map<String, String> parameters = new TreeMap<>(generatePresignedUrlRequest.getRequestParameters());
+        if (generatePresignedUrlRequest.getVersionId() != null)
+            parameters.put("versionId", generatePresignedUrlRequest.getVersionId());
+        try {
+            StringBuilder query = new StringBuilder();
+            for (Map.Entry<String, String> parameter : parameters.entrySet())
+                query.append(query.length() == 0 ? "?" : "&")
+                        .append(parameter.getKey()).append('=')
+                        .append(URLEncoder.encode(parameter.getValue(), StandardCharsets.UTF_8.name()));
+            return new URL("https://" + generatePresignedUrlRequest.getBucketName() + ".s3.amazonaws.com/"
+                    + generatePresignedUrlRequest.getKey() + query);
+        } catch (MalformedURLException | UnsupportedEncodingException x) {
+            throw new IllegalArgumentException(x);
+        }
+    }
+
+    /**
+     * Act as a client uploading to a presigned PUT URL, as S3 does the x-amz-meta- query parameters become
+     * the user metadata of the new version.
+     */
+    public void uploadToPresignedUrl(final String location, final String contentType, final byte[] content)
+            throws MalformedURLException, UnsupportedEncodingException {
+        simulateRoundTrip();
+        final URL url = new URL(location);
+        ObjectMetadata metadata = new ObjectMetadata();
+        metadata.setContentType(contentType);
+        metadata.setContentLength(content.length);
+        if (url.getQuery() != null) {
+            for (String parameter : url.getQuery().split("&")) {
+                final String[] nameValue = parameter.split("=", 2);
+                if (nameValue[0].startsWith(CannedReportsManager.S3_METADATA_PREFIX))
+                    metadata.addUserMetadata(nameValue[0].substring(CannedReportsManager.S3_METADATA_PREFIX.length()),
+                            URLDecoder.decode(nameValue[1], StandardCharsets.UTF_8.name()));
+            }
+        }
+        store(url.getPath().substring(1), metadata, content);
+    }
+
+    @Override
+    public S3Object getObject(GetObjectRequest getObjectRequest) {
+        simulateRoundTrip();
+        StoredObject storedObject = find(getObjectRequest.getKey(), getObjectRequest.getVersionId());
+        // as the real client does, a failed constraint (i.e. a 304 response) returns null
+        if (getObjectRequest.getNonmatchingETagConstraints().contains(storedObject.metadata.getETag())
+                || (getObjectRequest.getModifiedSinceConstraint() != null
+                    && !storedObject.metadata.getLastModified().after(getObjectRequest.getModifiedSinceConstraint()))) {
+            notModifiedCount.incrementAndGet();
+            return null;
+        }
+        S3Object s3Object = new S3Object();
+        s3Object.setBucketName(getObjectRequest.getBucketName());
+        s3Object.setKey(getObjectRequest.getKey());
+        s3Object.setObjectMetadata(storedObject.metadata);
+        s3Object.setObjectContent(new ByteArrayInputStream(storedObject.content));
+        return s3Object;
+    }
+
+    @Override
+    public PutObjectResult putObject(PutObjectRequest putObjectRequest) {
+        simulateRoundTrip();
+        final byte[] content;
+        try {
+            content = IOUtils.toByteArray(putObjectRequest.getInputStream());
+        } catch (IOException ioX) {
+            throw new UncheckedIOException(ioX);
+        }
+        ObjectMetadata metadata = putObjectRequest.getMetadata() == null
+                ? new ObjectMetadata()
+                : putObjectRequest.getMetadata().clone();
+        metadata.setContentLength(content.length);
+        final String ifMatch = putObjectRequest.getCustomRequestHeaders() == null ? null
+                : putObjectRequest.getCustomRequestHeaders().get("If-Match");
+        final String ifNoneMatch = putObjectRequest.getCustomRequestHeaders() == null ? null
+                : putObjectRequest.getCustomRequestHeaders().get("If-None-Match");
+        // the conditions are evaluated and the version added atomically, as S3 does
+        synchronized (versionsOf(putObjectRequest.getKey())) {
+            final StoredObject current = current(putObjectRequest.getKey());
+            if (ifMatch != null && current == null) {
+                AmazonS3Exception notFound = new AmazonS3Exception("Not Found");
+                notFound.setStatusCode(HttpStatus.SC_NOT_FOUND);
+                throw notFound;
+            }
+            if ((ifMatch != null && !ifMatch.equals(current.metadata.getETag())) || (ifNoneMatch != null && current != null)) {
+                AmazonS3Exception preconditionFailed = new AmazonS3Exception("PreconditionFailed");
+                preconditionFailed.setStatusCode(HttpStatus.SC_PRECONDITION_FAILED);
+                throw preconditionFailed;
+            }
+            store(putObjectRequest.getKey(), metadata, content);
+        }
+
+        PutObjectResult result = new PutObjectResult();
+        result.setETag(metadata.getETag());
+        result.setVersionId(metadata.getVersionId());
+        return result;
+    }
+
+    @Override
+    public CopyObjectResult copyObject(CopyObjectRequest copyObjectRequest) {
+        simulateRoundTrip();
+        final StoredObject source = find(copyObjectRequest.getSourceKey(), copyObjectRequest.getSourceVersionId());
+        if (!copyObjectRequest.getMatchingETagConstraints().isEmpty()
+                && !copyObjectRequest.getMatchingETagConstraints().contains(source.metadata.getETag())) {
+            AmazonS3Exception preconditionFailed = new AmazonS3Exception("PreconditionFailed");
+            preconditionFailed.setStatusCode(HttpStatus.SC_PRECONDITION_FAILED);
+            throw preconditionFailed;
+        }
+        // the metadata is copied unless new metadata replaces it
+        ObjectMetadata metadata = copyObjectRequest.getNewObjectMetadata() == null
+                ? source.metadata.clone()
+                : copyObjectRequest.getNewObjectMetadata().clone();
+        metadata.setContentLength(source.content.length);
+        store(copyObjectRequest.getDestinationKey(), metadata, source.content);
+
+        CopyObjectResult result = new CopyObjectResult();
+        result.setETag(metadata.getETag());
+        result.setVersionId(metadata.getVersionId());
+        result.setLastModifiedDate(metadata.getLastModified());
+        return result;
+    }
+
+    @Override
+    public void deleteObject(DeleteObjectRequest deleteObjectRequest) {
+        simulateRoundTrip();
+        if (current(deleteObjectRequest.getKey()) != null)
+            versionsOf(deleteObjectRequest.getKey()).add(new StoredObject(nextVersionId(), null, null));
+    }
+
+    @Override
+    public void deleteVersion(DeleteVersionRequest deleteVersionRequest) {
+        simulateRoundTrip();
+        versionsOf(deleteVersionRequest.getKey())
+                .removeIf(storedObject -> storedObject.versionId.equals(deleteVersionRequest.getVersionId()));
+    }
+
+    @Override
+    public DeleteObjectsResult deleteObjects(DeleteObjectsRequest deleteObjectsRequest) {
+        simulateRoundTrip();
+        List<DeleteObjectsResult.DeletedObject> deletedObjects = new ArrayList<>();
+        for (DeleteObjectsRequest.KeyVersion keyVersion : deleteObjectsRequest.getKeys()) {
+            if (keyVersion.getVersion() != null)
+                versionsOf(keyVersion.getKey()).removeIf(storedObject -> storedObject.versionId.equals(keyVersion.getVersion()));
+            else if (current(keyVersion.getKey()) != null)
+                versionsOf(keyVersion.getKey()).add(new StoredObject(nextVersionId(), null, null));
+            DeleteObjectsResult.DeletedObject deletedObject = new DeleteObjectsResult.DeletedObject();
+            deletedObject.setKey(keyVersion.getKey());
+            deletedObject.setVersionId(keyVersion.getVersion());
+            deletedObjects.add(deletedObject);
+        }
+        return new DeleteObjectsResult(deletedObjects);
+    }
+
+    @Override
+    public InitiateMultipartUploadResult initiateMultipartUpload(InitiateMultipartUploadRequest initiateMultipartUploadRequest) {
+        simulateRoundTrip();
+        final String uploadId = String.format("UPLOAD%06d", uploadSequence.incrementAndGet());
+        ObjectMetadata metadata = initiateMultipartUploadRequest.getObjectMetadata() == null
+                ? new ObjectMetadata()
+                : initiateMultipartUploadRequest.getObjectMetadata().clone();
+        multipartUploads.put(uploadId, new MultipartUploadInProgress(initiateMultipartUploadRequest.getKey(), metadata));
+        InitiateMultipartUploadResult result = new InitiateMultipartUploadResult();
+        result.setBucketName(initiateMultipartUploadRequest.getBucketName());
+        result.setKey(initiateMultipartUploadRequest.getKey());
+        result.setUploadId(uploadId);
+        return result;
+    }
+
+    @Override
+    public UploadPartResult uploadPart(UploadPartRequest uploadPartRequest) {
+        simulateRoundTrip();
+        MultipartUploadInProgress upload = findUpload(uploadPartRequest.getKey(), uploadPartRequest.getUploadId());
+        final byte[] content;
+        try {
+            content = IOUtils.toByteArray(uploadPartRequest.getInputStream());
+        } catch (IOException ioX) {
+            throw new UncheckedIOException(ioX);
+        }
+        upload.parts.put(uploadPartRequest.getPartNumber(), content);
+        uploadedPartCount.incrementAndGet();
+        UploadPartResult result = new UploadPartResult();
+        result.setPartNumber(uploadPartRequest.getPartNumber());
+        result.setETag(BinaryUtils.toHex(Md5Utils.computeMD5Hash(content)));
+        return result;
+    }
+
+    @Override
+    public CompleteMultipartUploadResult completeMultipartUpload(CompleteMultipartUploadRequest completeMultipartUploadRequest) {
+        simulateRoundTrip();
+        MultipartUploadInProgress upload = findUpload(completeMultipartUploadRequest.getKey(), completeMultipartUploadRequest.getUploadId());
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        for (PartETag partETag : completeMultipartUploadRequest.getPartETags())
+            content.write(upload.parts.get(partETag.getPartNumber()), 0, upload.parts.get(partETag.getPartNumber()).length);
+        multipartUploads.remove(completeMultipartUploadRequest.getUploadId());
+        upload.metadata.setContentLength(content.size());
+        store(upload.key, upload.metadata, content.toByteArray());
+
+        CompleteMultipartUploadResult result = new CompleteMultipartUploadResult();
+        result.setKey(upload.key);
+        result.setETag(upload.metadata.getETag());
+        result.setVersionId(upload.metadata.getVersionId());
+        return result;
+    }
+
+    @Override
+    public void abortMultipartUpload(AbortMultipartUploadRequest abortMultipartUploadRequest) {
+        simulateRoundTrip();
+        findUpload(abortMultipartUploadRequest.getKey(), abortMultipartUploadRequest.getUploadId());
+        multipartUploads.remove(abortMultipartUploadRequest.getUploadId());
+    }
+
+    @Override
+    public MultipartUploadListing listMultipartUploads(ListMultipartUploadsRequest listMultipartUploadsRequest) {
+        simulateRoundTrip();
+        MultipartUploadListing listing = new MultipartUploadListing();
+        List<MultipartUpload> uploads = new ArrayList<>();
+        multipartUploads.forEach((uploadId, upload) -> {
+            MultipartUpload multipartUpload = new MultipartUpload();
+            multipartUpload.setKey(upload.key);
+            multipartUpload.setUploadId(uploadId);
+            multipartUpload.setInitiated(upload.initiated);
+            uploads.add(multipartUpload);
+        });
+        listing.setMultipartUploads(uploads);
+        return listing;
+    }
+
+    /**
+     * @return the multipart upload, as S3 does a 404 (NoSuchUpload) if it does not exist or is of another key
+     */
+    private MultipartUploadInProgress findUpload(final String key, final String uploadId) {
+        MultipartUploadInProgress upload = multipartUploads.get(uploadId);
+        if (upload == null || !upload.key.equals(key)) {
+            AmazonS3Exception noSuchUpload = new AmazonS3Exception("NoSuchUpload");
+            noSuchUpload.setStatusCode(HttpStatus.SC_NOT_FOUND);
+            throw noSuchUpload;
+        }
+        return upload;
+    }
+
+    /**
+     * As S3 does, the versions of a key are listed newest first.
+     */
+    @Override
+    public VersionListing listVersions(ListVersionsRequest listVersionsRequest) {
+        simulateRoundTrip();
+        VersionListing versionListing = new VersionListing();
+        List<S3VersionSummary> summaries = new ArrayList<>();
+        objects.entrySet().stream()
+                .filter(entry -> listVersionsRequest.getPrefix() == null || entry.getKey().startsWith(listVersionsRequest.getPrefix()))
+                .forEach(entry -> {
+                    List<StoredObject> versions = new ArrayList<>(entry.getValue());
+                    for (int index = versions.size() - 1; index >= 0; --index) {
+                        S3VersionSummary summary = new S3VersionSummary();
+                        summary.setKey(entry.getKey());
+                        summary.setVersionId(versions.get(index).versionId);
+                        summary.setIsDeleteMarker(versions.get(index).metadata == null);
+                        summary.setIsLatest(index == versions.size() - 1);
+                        summaries.add(summary);
+                    }
+                });
+        versionListing.setVersionSummaries(summaries);
+        return versionListing;
+    }
+
+    private void store(final String key, final ObjectMetadata metadata, final byte[] content) {
+        final String versionId = nextVersionId();
+        metadata.setHeader(Headers.ETAG, BinaryUtils.toHex(Md5Utils.computeMD5Hash(content)));
+        metadata.setHeader(Headers.S3_VERSION_ID, versionId);
+        // S3 reports last modified with a resolution of one second
+        metadata.setLastModified(new Date(System.currentTimeMillis() / 1000L * 1000L));
+        versionsOf(key).add(new StoredObject(versionId, metadata, content));
+    }
+
+    private String nextVersionId() {
+        return String.format("VERSION%06d", versionSequence.incrementAndGet());
+    }
+
+    private List<StoredObject> versionsOf(final String key) {
+        return objects.computeIfAbsent(key, k -> Collections.synchronizedList(new ArrayList<>()));
+    }
+
+    /**
+     * @return the current version of a key, null if it does not exist or its newest version is a delete marker
+     */
+    private StoredObject current(final String key) {
+        List<StoredObject> versions = objects.get(key);
+        if (versions == null)
+            return null;
+        synchronized (versions) {
+            StoredObject newest = versions.isEmpty() ? null : versions.get(versions.size() - 1);
+            return newest == null || newest.metadata == null ? null : newest;
+        }
+    }
+
+    /**
+     * @param versionId the version to find, null for the current version
+     */
+    private StoredObject find(final String key, final String versionId) {
+        StoredObject storedObject = null;
+        if (versionId == null) {
+            storedObject = current(key);
+        } else if (objects.containsKey(key)) {
+            storedObject = versionsOf(key).stream()
+                    .filter(version -> versionId.equals(version.versionId) && version.metadata != null)
+                    .findFirst()
+                    .orElse(null);
+        }
+        if (storedObject == null) {
+            AmazonS3Exception notFound = new AmazonS3Exception("Not Found");
+            notFound.setStatusCode(HttpStatus.SC_NOT_FOUND);
+            throw notFound;
+        }
+        return storedObject;
+    }
+
+    private void simulateRoundTrip() {
+        requestCount.incrementAndGet();
+        maximumInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+        try {
+            Thread.sleep(latencyMillis);
+        } catch (InterruptedException iX) {
+            Thread.currentThread().interrupt();
+        } finally {
+            inFlight.decrementAndGet();
+        }
+    }
+
+    private static final class MultipartUploadInProgress {
+        final String key;
+        final ObjectMetadata metadata;
+        final Map<Integer, byte[]> parts = new ConcurrentSkipListMap<>();
+        volatile Date initiated = new Date();
+
+        MultipartUploadInProgress(String key, ObjectMetadata metadata) {
+            this.key = key;
+            this.metadata = metadata;
+        }
+    }
+
+    private static final class StoredObject {
+        final String versionId;
+        // null for a delete marker
+        final ObjectMetadata metadata;
+        final byte[] content;
+
+        StoredObject(String versionId, ObjectMetadata metadata, byte[] content) {
+            this.versionId = versionId;
+            this.metadata = metadata;
+            this.content = content;
+        }
+    }
+}
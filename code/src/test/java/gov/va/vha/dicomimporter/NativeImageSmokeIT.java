@@ -0,0 +1,137 @@
+package gov.va.vha.dicomimporter;
+
+import com.amazonaws.util.IOUtils;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.testng.Assert;
+import org.testng.SkipException;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the native executable (mvn -Pnative verify) against a stand-in for the Lambda runtime API, one invocation
+ * that is rejected by the handler (the ALB event has no method). That exercises the startup of the executable,
+ * the deserialization of the event, the construction of the handler (the S3 client and the application properties),
+ * parse, createResponse and the serialization of the response.
+ * The path of the executable is the system property "native.image.path", the test is skipped without it.
+ */
+public class NativeImageSmokeIT {
+    private static final String RUNTIME_API_VERSION = "/2018-06-01";
+    private static final String REQUEST_ID = "8476a536-e9f4-11e8-9739-2dfe598c3fcd";
+    private static final String HANDLER = ApplicationLoadBalancerCannedReportsHandler.class.getName() + "::handleRequest";
+    private static final String EVENT = "{"
+            + "\"requestContext\":{\"elb\":{\"targetGroupArn\":\"arn:aws:elasticloadbalancing:us-east-1:123456789012:targetgroup/cr-smoke/49e9d65c45c6791a\"}},"
+            + "\"path\":\"/\","
+            + "\"headers\":{\"accept-encoding\":\"gzip\"},"
+            + "\"body\":\"\","
+            + "\"isBase64Encoded\":false"
+            + "}";
+
+    private HttpServer runtimeApi;
+    private ExecutorService runtimeApiExecutor;
+    private Process process;
+    private final CompletableFuture<String> invocationResponse = new CompletableFuture<>();
+    private final AtomicInteger nextCount = new AtomicInteger();
+    private final CountDownLatch shutdown = new CountDownLatch(1);
+
+    @BeforeMethod
+    public void startRuntimeApi() throws IOException {
+        runtimeApi = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        runtimeApiExecutor = Executors.newCachedThreadPool();
+        runtimeApi.setExecutor(runtimeApiExecutor);
+        runtimeApi.createContext(RUNTIME_API_VERSION + "/runtime/invocation/next", this::next);
+        runtimeApi.createContext(RUNTIME_API_VERSION + "/runtime/invocation/" + REQUEST_ID + "/response",
+                exchange -> complete(exchange, true));
+        runtimeApi.createContext(RUNTIME_API_VERSION + "/runtime/invocation/" + REQUEST_ID + "/error",
+                exchange -> complete(exchange, false));
+        runtimeApi.createContext(RUNTIME_API_VERSION + "/runtime/init/error",
+                exchange -> complete(exchange, false));
+        runtimeApi.start();
+    }
+
+    @AfterMethod(alwaysRun = true)
+    public void stop() {
+        shutdown.countDown();
+        if (process != null)
+            process.destroyForcibly();
+        if (runtimeApi != null)
+            runtimeApi.stop(0);
+        if (runtimeApiExecutor != null)
+            runtimeApiExecutor.shutdownNow();
+    }
+
+    @Test
+    public void testInvocation() throws Exception {
+        final String nativeImagePath = System.getProperty("native.image.path");
+        if (nativeImagePath == null || !new File(nativeImagePath).canExecute())
+            throw new SkipException("no native executable at [" + nativeImagePath + "]");
+
+        ProcessBuilder processBuilder = new ProcessBuilder(nativeImagePath, HANDLER).inheritIO();
+        final Map<String, String> environment = processBuilder.environment();
+        environment.put("AWS_LAMBDA_RUNTIME_API", "127.0.0.1:" + runtimeApi.getAddress().getPort());
+        environment.put("_HANDLER", HANDLER);
+        environment.put("AWS_REGION", "us-east-1");
+        environment.put("AWS_ACCESS_KEY_ID", "AKIDSMOKETEST");
+        environment.put("AWS_SECRET_ACCESS_KEY", "smoke-test");
+        final long start = System.nanoTime();
+        process = processBuilder.start();
+
+        final String response = invocationResponse.get(60, TimeUnit.SECONDS);
+        final long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        Assert.assertTrue(response.contains("\"statusCode\":400"), response);
+        Assert.assertTrue(process.isAlive(), "the process exited after its first response, "
+                + elapsedMillis + " ms after it started");
+    }
+
+    /**
+     * The first poll is answered with the event, later polls wait (as the runtime API does) until the test ends.
+     */
+    private void next(final HttpExchange exchange) throws IOException {
+        if (nextCount.getAndIncrement() > 0) {
+            try {
+                shutdown.await(60, TimeUnit.SECONDS);
+            } catch (InterruptedException iX) {
+                Thread.currentThread().interrupt();
+            }
+            exchange.close();
+            return;
+        }
+        final byte[] event = EVENT.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Lambda-Runtime-Aws-Request-Id", REQUEST_ID);
+        exchange.getResponseHeaders().add("Lambda-Runtime-Deadline-Ms", Long.toString(System.currentTimeMillis() + 30000L));
+        exchange.getResponseHeaders().add("Lambda-Runtime-Invoked-Function-Arn",
+                "arn:aws:lambda:us-east-1:123456789012:function:project-cr-smoke");
+        exchange.getResponseHeaders().add("Lambda-Runtime-Trace-Id", "Root=1-5bef4de7-ad49b0e87f6ef6c87fc2e700");
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, event.length);
+        try (OutputStream body = exchange.getResponseBody()) {
+            body.write(event);
+        }
+    }
+
+    private void complete(final HttpExchange exchange, final boolean success) throws IOException {
+        final String body = new String(IOUtils.toByteArray(exchange.getRequestBody()), StandardCharsets.UTF_8);
+        exchange.sendResponseHeaders(202, -1);
+        exchange.close();
+        if (success)
+            invocationResponse.complete(body);
+        else
+            invocationResponse.completeExceptionally(new AssertionError(exchange.getRequestURI() + " " + body));
+    }
+}
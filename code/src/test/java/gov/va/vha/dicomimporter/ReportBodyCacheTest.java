@@ -0,0 +1,107 @@
+package gov.va.vha.dicomimporter;
+
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.Arrays;
+
+/**
+ * Unit tests for the ReportBodyCache class.
+ */
+public class ReportBodyCacheTest {
+    private static final int BODY_SIZE = 1000;
+
+    @Test
+    public void testGetReturnsCachedEntry() {
+        ReportBodyCache subject = new ReportBodyCache(100_000L, BODY_SIZE);
+
+        Assert.assertNull(subject.get("Normal_Chest_CT"));
+        Assert.assertTrue(subject.put("Normal_Chest_CT", "ETAG_1", new ObjectMetadata(), body('C')));
+
+        ReportBodyCache.Entry entry = subject.get("Normal_Chest_CT");
+        Assert.assertNotNull(entry);
+        Assert.assertEquals(entry.getETag(), "ETAG_1");
+        Assert.assertEquals(entry.getBody().length, BODY_SIZE);
+    }
+
+    @Test
+    public void testPutReplacesStaleEntry() {
+        ReportBodyCache subject = new ReportBodyCache(100_000L, BODY_SIZE);
+        subject.put("Normal_Chest_CT", "ETAG_1", new ObjectMetadata(), body('C'));
+        final long bytesAfterFirstPut = subject.getCurrentBytes();
+
+        subject.put("Normal_Chest_CT", "ETAG_2", new ObjectMetadata(), body('D'));
+
+        Assert.assertEquals(subject.size(), 1);
+        Assert.assertEquals(subject.getCurrentBytes(), bytesAfterFirstPut);
+        Assert.assertEquals(subject.get("Normal_Chest_CT").getETag(), "ETAG_2");
+    }
+
+    @Test
+    public void testOversizedBodyIsNotCached() {
+        ReportBodyCache subject = new ReportBodyCache(100_000L, BODY_SIZE);
+
+        Assert.assertFalse(subject.put("LARGE", "ETAG", new ObjectMetadata(), new byte[BODY_SIZE + 1]));
+        Assert.assertNull(subject.get("LARGE"));
+    }
+
+    @Test
+    public void testOneOffReadsDoNotEvictHotEntries() {
+        // room for about three bodies
+        ReportBodyCache subject = new ReportBodyCache(3L * (BODY_SIZE + 512), BODY_SIZE);
+        final String[] hotIdentifiers = {"Normal_Chest_CT", "Normal_Brain_CT", "Normal_Abdomen_CT"};
+        for (int read = 0; read < 5; ++read)
+            for (String identifier : hotIdentifiers)
+                if (subject.get(identifier) == null)
+                    subject.put(identifier, "ETAG_" + identifier, new ObjectMetadata(), body('H'));
+
+        // a scan of templates that are each read once
+        for (int index = 0; index < 100; ++index) {
+            final String identifier = "ONE_OFF_" + index;
+            if (subject.get(identifier) == null)
+                subject.put(identifier, "ETAG_" + identifier, new ObjectMetadata(), body('O'));
+        }
+
+        for (String identifier : hotIdentifiers)
+            Assert.assertNotNull(subject.get(identifier), identifier + " was evicted by one-off reads");
+        Assert.assertTrue(subject.getRejections() >= 100);
+        Assert.assertTrue(subject.getCurrentBytes() <= subject.getMaximumBytes());
+    }
+
+    @Test
+    public void testFrequentlyReadEntryIsAdmittedByEviction() {
+        ReportBodyCache subject = new ReportBodyCache(2L * (BODY_SIZE + 512), BODY_SIZE);
+        subject.get("A");
+        subject.put("A", "ETAG_A", new ObjectMetadata(), body('A'));
+        subject.get("B");
+        subject.put("B", "ETAG_B", new ObjectMetadata(), body('B'));
+
+        // C becomes more popular than A and B
+        for (int read = 0; read < 5; ++read)
+            subject.get("C");
+        Assert.assertTrue(subject.put("C", "ETAG_C", new ObjectMetadata(), body('C')));
+
+        Assert.assertEquals(subject.getEvictions(), 1L);
+        Assert.assertNotNull(subject.get("C"));
+        Assert.assertTrue(subject.getCurrentBytes() <= subject.getMaximumBytes());
+    }
+
+    @Test
+    public void testCounters() {
+        ReportBodyCache subject = new ReportBodyCache(100_000L, BODY_SIZE);
+        subject.recordMiss();
+        subject.recordHit();
+        subject.recordHit();
+
+        Assert.assertEquals(subject.getMisses(), 1L);
+        Assert.assertEquals(subject.getHits(), 2L);
+        Assert.assertEquals(subject.getEvictions(), 0L);
+    }
+
+    private static byte[] body(final char fill) {
+        byte[] body = new byte[BODY_SIZE];
+        Arrays.fill(body, (byte) fill);
+        return body;
+    }
+}
@@ -0,0 +1,157 @@
+package gov.va.vha.dicomimporter;
+
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PutObjectResult;
+import com.amazonaws.services.s3.model.S3Object;
+import com.amazonaws.util.IOUtils;
+import gov.va.vha.dicomimporter.exceptions.UnknownRevisionException;
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Unit tests for the RevisionIndex class.
+ */
+public class RevisionIndexTest {
+    private static final String BUCKET_NAME = "mock_bucket";
+    private static final String IDENTIFIER = "IDENTIFIER001";
+
+    @DataProvider(name = "ResolveData")
+    public static Object[][] resolveData() {
+        // three revisions, "CONTENT_1" is the oldest
+        return new Object[][]{
+                {"r1", 1},
+                {"r3", 3},
+                {"0", 3},
+                {"-0", 3},
+                {"-1", 2},
+                {"-2", 1},
+        };
+    }
+
+    @Test(dataProvider = "ResolveData")
+    public void testResolve(final String revision, final int expectedRevisionNumber) throws UnknownRevisionException, IOException {
+        LatencyInjectingAmazonS3 amazonS3 = createVersionedObject(3);
+        RevisionIndex subject = new RevisionIndex(amazonS3, BUCKET_NAME, 60_000L, 16);
+
+        RevisionIndex.Revision resolved = subject.resolve(IDENTIFIER, specification(revision));
+
+        Assert.assertEquals(resolved.getRevisionNumber(), expectedRevisionNumber);
+        Assert.assertEquals(read(amazonS3, resolved.getVersionId()), "CONTENT_" + expectedRevisionNumber);
+    }
+
+    @DataProvider(name = "UnknownRevisionData")
+    public static Object[][] unknownRevisionData() {
+        return new Object[][]{
+                {"3"},
+                {"r4"},
+                {"-3"},
+                {"+1"},
+                {"ALL"},
+        };
+    }
+
+    @Test(dataProvider = "UnknownRevisionData", expectedExceptions = UnknownRevisionException.class)
+    public void testUnknownRevision(final String revision) throws UnknownRevisionException {
+        RevisionIndex subject = new RevisionIndex(createVersionedObject(3), BUCKET_NAME, 60_000L, 16);
+
+        subject.resolve(IDENTIFIER, specification(revision));
+    }
+
+    @Test
+    public void testIndexIsNotListedAgainWhileCurrent() throws UnknownRevisionException {
+        LatencyInjectingAmazonS3 amazonS3 = createVersionedObject(3);
+        RevisionIndex subject = new RevisionIndex(amazonS3, BUCKET_NAME, 60_000L, 16);
+        subject.resolve(IDENTIFIER, specification("-1"));
+
+        final int requestsBefore = amazonS3.getRequestCount();
+        subject.resolve(IDENTIFIER, specification("-2"));
+        subject.resolve(IDENTIFIER, specification("r2"));
+
+        // one HEAD to confirm the current version for the relative revision, nothing for the counted one
+        Assert.assertEquals(amazonS3.getRequestCount() - requestsBefore, 1);
+    }
+
+    @Test
+    public void testWriteIsRecordedIncrementally() throws UnknownRevisionException {
+        LatencyInjectingAmazonS3 amazonS3 = createVersionedObject(2);
+        RevisionIndex subject = new RevisionIndex(amazonS3, BUCKET_NAME, 60_000L, 16);
+        subject.resolve(IDENTIFIER, specification("r1"));
+
+        PutObjectResult result = put(amazonS3, "CONTENT_3");
+        subject.recordWrite(IDENTIFIER, result.getVersionId());
+        final int requestsBefore = amazonS3.getRequestCount();
+        RevisionIndex.Revision previous = subject.resolve(IDENTIFIER, specification("-1"));
+
+        Assert.assertEquals(previous.getRevisionNumber(), 2);
+        Assert.assertEquals(amazonS3.getRequestCount() - requestsBefore, 1);
+    }
+
+    @Test
+    public void testWriteThroughAnotherContainerIsDetected() throws UnknownRevisionException, IOException {
+        LatencyInjectingAmazonS3 amazonS3 = createVersionedObject(2);
+        RevisionIndex subject = new RevisionIndex(amazonS3, BUCKET_NAME, 60_000L, 16);
+        subject.resolve(IDENTIFIER, specification("-1"));
+
+        // not recorded in the index
+        put(amazonS3, "CONTENT_3");
+
+        RevisionIndex.Revision previous = subject.resolve(IDENTIFIER, specification("-1"));
+        Assert.assertEquals(previous.getRevisionNumber(), 2);
+        Assert.assertEquals(read(amazonS3, previous.getVersionId()), "CONTENT_2");
+        Assert.assertEquals(subject.resolve(IDENTIFIER, specification("r3")).getRevisionNumber(), 3);
+    }
+
+    @Test
+    public void testVersionNumber() throws UnknownRevisionException {
+        // the in-memory store numbers its versions
+        InMemoryReportStore reportStore = new InMemoryReportStore();
+        final String first = reportStore.put(IDENTIFIER, "CONTENT_1".getBytes(StandardCharsets.UTF_8),
+                new ObjectMetadata(), null, ReportStore.ANY).getVersionId();
+        reportStore.put(IDENTIFIER, "CONTENT_2".getBytes(StandardCharsets.UTF_8), new ObjectMetadata(), null, null);
+        RevisionIndex subject = new RevisionIndex(reportStore, 60_000L, 16);
+
+        RevisionIndex.Revision revision = subject.resolve(IDENTIFIER, specification(first));
+        Assert.assertEquals(revision.getVersionId(), first);
+        Assert.assertEquals(revision.getRevisionNumber(), 1);
+    }
+
+    @Test
+    public void testIsCurrent() {
+        Assert.assertTrue(RevisionIndex.isCurrent(null));
+        Assert.assertTrue(RevisionIndex.isCurrent(specification(null)));
+        Assert.assertTrue(RevisionIndex.isCurrent(specification("-0")));
+        Assert.assertTrue(RevisionIndex.isCurrent(specification("0")));
+        Assert.assertFalse(RevisionIndex.isCurrent(specification("r1")));
+        Assert.assertFalse(RevisionIndex.isCurrent(specification("1")));
+        Assert.assertFalse(RevisionIndex.isCurrent(specification("-1")));
+        Assert.assertFalse(RevisionIndex.isCurrent(specification("ALL")));
+    }
+
+    private static RevisionSpecification specification(final String revision) {
+        return RevisionSpecification.builder().withStringRepresentation(revision).build();
+    }
+
+    private static LatencyInjectingAmazonS3 createVersionedObject(final int revisions) {
+        LatencyInjectingAmazonS3 amazonS3 = new LatencyInjectingAmazonS3(0L);
+        for (int revision = 1; revision <= revisions; ++revision)
+            put(amazonS3, "CONTENT_" + revision);
+        return amazonS3;
+    }
+
+    private static PutObjectResult put(final LatencyInjectingAmazonS3 amazonS3, final String content) {
+        return amazonS3.putObject(BUCKET_NAME, IDENTIFIER,
+                new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8)), new ObjectMetadata());
+    }
+
+    private static String read(final LatencyInjectingAmazonS3 amazonS3, final String versionId) throws IOException {
+        try (S3Object s3Object = amazonS3.getObject(new GetObjectRequest(BUCKET_NAME, IDENTIFIER, versionId))) {
+            return IOUtils.toString(s3Object.getObjectContent());
+        }
+    }
+}
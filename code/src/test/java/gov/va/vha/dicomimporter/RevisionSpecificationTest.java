@@ -27,6 +27,9 @@ public class RevisionSpecificationTest {
         return new Object[][] {
                 {"HelloWorld"},
                 {"a1"},
+                {"r0"},
+                {"r-1"},
+                {"r"},
                 {Long.toString(Long.MAX_VALUE)},
                 {Long.toString(Long.MIN_VALUE)},
         };
@@ -41,6 +44,15 @@ public class RevisionSpecificationTest {
         Assert.assertEquals(revisionSpecification.getValue(), expectedValue);
     }
 
+    @Test
+    public void testCountedRevision() {
+        RevisionSpecification revisionSpecification = RevisionSpecification.builder().withStringRepresentation("r12").build();
+        Assert.assertTrue(revisionSpecification.isCounted());
+        Assert.assertFalse(revisionSpecification.isRelative());
+        Assert.assertEquals(revisionSpecification.getValue(), 12);
+        Assert.assertFalse(RevisionSpecification.builder().withStringRepresentation("12").build().isCounted());
+    }
+
     @Test(dataProvider = "InvalidRevisionSpecification")
     public void testInvalidValues(final String invalidRevisionSpecification) {
         try {
@@ -0,0 +1,107 @@
+package gov.va.vha.dicomimporter;
+
+import com.amazonaws.services.lambda.runtime.events.S3Event;
+import com.amazonaws.services.lambda.runtime.events.models.s3.S3EventNotification;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.*;
+import org.mockito.Mockito;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.Arrays;
+
+/**
+ * Unit tests for the S3EventCatalogManifestHandler class.
+ */
+public class S3EventCatalogManifestHandlerTest {
+    private static final String MOCK_BUCKET_NAME = "mock_bucket";
+
+    @Test
+    public void testReportEventsUpdateManifest() {
+        AmazonS3 amazonS3Mock = createMockAmazonS3("IDENTIFIER001");
+        S3EventCatalogManifestHandler subject = new S3EventCatalogManifestHandler(amazonS3Mock, MOCK_BUCKET_NAME);
+
+        S3Event event = createMockEvent(
+                createMockRecord("ObjectCreated:Put", MOCK_BUCKET_NAME, "IDENTIFIER001"),
+                createMockRecord("ObjectCreated:Put", MOCK_BUCKET_NAME, CatalogManifestRepository.DEFAULT_CATALOG_MANIFEST_KEY),
+                createMockRecord("ObjectCreated:Put", "some_other_bucket", "IDENTIFIER002")
+        );
+
+        String result = subject.handleRequest(event, null);
+
+        Assert.assertNotNull(result);
+        // described once by the incremental update and once by the compaction that follows it,
+        // the reserved key and the key in another bucket are not described
+        Mockito.verify(amazonS3Mock, Mockito.times(2)).getObjectMetadata(MOCK_BUCKET_NAME, "IDENTIFIER001");
+        Mockito.verify(amazonS3Mock, Mockito.never()).getObjectMetadata(MOCK_BUCKET_NAME, CatalogManifestRepository.DEFAULT_CATALOG_MANIFEST_KEY);
+        Mockito.verify(amazonS3Mock, Mockito.never()).getObjectMetadata(MOCK_BUCKET_NAME, "IDENTIFIER002");
+        // with no existing manifest the incremental update is followed by a compaction
+        Mockito.verify(amazonS3Mock, Mockito.times(2)).putObject(Mockito.any(PutObjectRequest.class));
+    }
+
+    @Test
+    public void testReservedKeysOnlyDoNotUpdateManifest() {
+        AmazonS3 amazonS3Mock = createMockAmazonS3();
+        S3EventCatalogManifestHandler subject = new S3EventCatalogManifestHandler(amazonS3Mock, MOCK_BUCKET_NAME);
+
+        S3Event event = createMockEvent(
+                createMockRecord("ObjectCreated:Put", MOCK_BUCKET_NAME, CatalogManifestRepository.DEFAULT_CATALOG_MANIFEST_KEY)
+        );
+
+        subject.handleRequest(event, null);
+
+        // no manifest exists so only the compaction is written
+        Mockito.verify(amazonS3Mock, Mockito.times(1)).putObject(Mockito.any(PutObjectRequest.class));
+        Mockito.verify(amazonS3Mock, Mockito.never()).getObjectMetadata(Mockito.anyString(), Mockito.anyString());
+    }
+
+    private AmazonS3 createMockAmazonS3(final String... identifiers) {
+        AmazonS3 amazonS3Mock = Mockito.mock(AmazonS3.class);
+
+        ListObjectsV2Result listObjectResult = new ListObjectsV2Result();
+        VersionListing versionListing = new VersionListing();
+        Arrays.stream(identifiers).forEach(identifier -> {
+            ObjectMetadata objectMetadata = new ObjectMetadata();
+            objectMetadata.setContentType("text/plain");
+            objectMetadata.setContentLength(("CONTENT_" + identifier).length());
+            objectMetadata.addUserMetadata(CannedReportsManager.HTTP_HEADER_REPORT_NAME, "REPORT_" + identifier);
+            Mockito.when(amazonS3Mock.getObjectMetadata(MOCK_BUCKET_NAME, identifier)).thenReturn(objectMetadata);
+
+            S3ObjectSummary s3ObjectSummary = new S3ObjectSummary();
+            s3ObjectSummary.setKey(identifier);
+            s3ObjectSummary.setBucketName(MOCK_BUCKET_NAME);
+            listObjectResult.getObjectSummaries().add(s3ObjectSummary);
+
+            S3VersionSummary versionSummary = new S3VersionSummary();
+            versionSummary.setKey(identifier);
+            versionListing.getVersionSummaries().add(versionSummary);
+        });
+        Mockito.when(amazonS3Mock.listObjectsV2(Mockito.any(ListObjectsV2Request.class))).thenReturn(listObjectResult);
+        Mockito.when(amazonS3Mock.listVersions(Mockito.any(ListVersionsRequest.class))).thenReturn(versionListing);
+        Mockito.when(amazonS3Mock.putObject(Mockito.any(PutObjectRequest.class))).thenReturn(new PutObjectResult());
+
+        return amazonS3Mock;
+    }
+
+    private S3Event createMockEvent(final S3EventNotification.S3EventNotificationRecord... records) {
+        S3Event event = Mockito.mock(S3Event.class);
+        Mockito.when(event.getRecords()).thenReturn(Arrays.asList(records));
+        return event;
+    }
+
+    private S3EventNotification.S3EventNotificationRecord createMockRecord(
+            final String eventName, final String bucketName, final String key) {
+        S3EventNotification.S3BucketEntity bucket = Mockito.mock(S3EventNotification.S3BucketEntity.class);
+        Mockito.when(bucket.getName()).thenReturn(bucketName);
+        S3EventNotification.S3ObjectEntity object = Mockito.mock(S3EventNotification.S3ObjectEntity.class);
+        Mockito.when(object.getUrlDecodedKey()).thenReturn(key);
+        S3EventNotification.S3Entity s3 = Mockito.mock(S3EventNotification.S3Entity.class);
+        Mockito.when(s3.getBucket()).thenReturn(bucket);
+        Mockito.when(s3.getObject()).thenReturn(object);
+
+        S3EventNotification.S3EventNotificationRecord record = Mockito.mock(S3EventNotification.S3EventNotificationRecord.class);
+        Mockito.when(record.getEventName()).thenReturn(eventName);
+        Mockito.when(record.getS3()).thenReturn(s3);
+        return record;
+    }
+}
@@ -0,0 +1,123 @@
+package gov.va.vha.dicomimporter;
+
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.S3Object;
+import com.amazonaws.util.IOUtils;
+import gov.va.vha.dicomimporter.exceptions.IncompleteUploadSessionException;
+import gov.va.vha.dicomimporter.exceptions.UnknownUploadSessionException;
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+
+/**
+ * Unit tests for the UploadSessionRepository class.
+ */
+public class UploadSessionRepositoryTest {
+    private static final String BUCKET_NAME = "mock_bucket";
+
+    @DataProvider(name = "CommitPartsData")
+    public static Object[][] commitPartsData() {
+        return new Object[][]{
+                // chunks of 10 bytes, part bytes, expected parts
+                {1, 100, 1},
+                {5, 100, 1},
+                {5, 20, 3},
+                {5, 10, 5},
+                {5, 1, 5},
+        };
+    }
+
+    @Test(dataProvider = "CommitPartsData")
+    public void testCommitCombinesChunksIntoParts(final int chunks, final int partBytes, final int expectedParts)
+            throws IncompleteUploadSessionException, UnknownUploadSessionException, IOException {
+        LatencyInjectingAmazonS3 amazonS3 = new LatencyInjectingAmazonS3(0L);
+        UploadSessionRepository subject = new UploadSessionRepository(amazonS3, BUCKET_NAME, partBytes);
+        final String uploadSession = subject.open("IDENTIFIER001", new ObjectMetadata());
+
+        StringBuilder expected = new StringBuilder();
+        // sent out of order, as retries would be
+        for (int chunkNumber = chunks; chunkNumber > 0; --chunkNumber)
+            subject.stageChunk(uploadSession, chunkNumber, String.format("CHUNK%05d", chunkNumber).getBytes(StandardCharsets.UTF_8));
+        for (int chunkNumber = 1; chunkNumber <= chunks; ++chunkNumber)
+            expected.append(String.format("CHUNK%05d", chunkNumber));
+
+        subject.commit("IDENTIFIER001", uploadSession, chunks);
+
+        Assert.assertEquals(amazonS3.getUploadedPartCount(), expectedParts);
+        try (S3Object s3Object = amazonS3.getObject(BUCKET_NAME, "IDENTIFIER001")) {
+            Assert.assertEquals(new String(IOUtils.toByteArray(s3Object.getObjectContent()), StandardCharsets.UTF_8), expected.toString());
+        }
+        // the staged chunks are deleted, every version of them
+        Assert.assertFalse(amazonS3.exists(UploadSessionRepository.stagingKey(uploadSession, 1)));
+        Assert.assertTrue(amazonS3.listVersions(BUCKET_NAME, UploadSessionRepository.STAGING_KEY_PREFIX).getVersionSummaries().isEmpty());
+    }
+
+    @DataProvider(name = "IncompleteCommitData")
+    public static Object[][] incompleteCommitData() {
+        return new Object[][]{
+                // chunks staged, chunk count given at commit
+                {new int[]{}, null},
+                {new int[]{1, 3}, null},
+                {new int[]{1, 2}, 3},
+        };
+    }
+
+    @Test(dataProvider = "IncompleteCommitData", expectedExceptions = IncompleteUploadSessionException.class)
+    public void testIncompleteCommitIsRejected(final int[] chunkNumbers, final Integer chunkCount)
+            throws IncompleteUploadSessionException, UnknownUploadSessionException, IOException {
+        LatencyInjectingAmazonS3 amazonS3 = new LatencyInjectingAmazonS3(0L);
+        UploadSessionRepository subject = new UploadSessionRepository(amazonS3, BUCKET_NAME, 100);
+        final String uploadSession = subject.open("IDENTIFIER001", new ObjectMetadata());
+        for (int chunkNumber : chunkNumbers)
+            subject.stageChunk(uploadSession, chunkNumber, new byte[]{1, 2, 3});
+
+        subject.commit("IDENTIFIER001", uploadSession, chunkCount);
+    }
+
+    @Test(expectedExceptions = UnknownUploadSessionException.class)
+    public void testCommitOfUnknownSession() throws IncompleteUploadSessionException, UnknownUploadSessionException, IOException {
+        LatencyInjectingAmazonS3 amazonS3 = new LatencyInjectingAmazonS3(0L);
+        UploadSessionRepository subject = new UploadSessionRepository(amazonS3, BUCKET_NAME, 100);
+        subject.stageChunk("UNKNOWN", 1, new byte[]{1, 2, 3});
+
+        subject.commit("IDENTIFIER001", "UNKNOWN", null);
+    }
+
+    @Test
+    public void testAbortAbandoned() throws IncompleteUploadSessionException, UnknownUploadSessionException, IOException {
+        LatencyInjectingAmazonS3 amazonS3 = new LatencyInjectingAmazonS3(0L);
+        UploadSessionRepository subject = new UploadSessionRepository(amazonS3, BUCKET_NAME, 100);
+        final String abandoned = subject.open("IDENTIFIER001", new ObjectMetadata());
+        subject.stageChunk(abandoned, 1, new byte[]{1, 2, 3});
+        amazonS3.setUploadInitiated(abandoned, new Date(System.currentTimeMillis() - 48L * 3600L * 1000L));
+        final String open = subject.open("IDENTIFIER002", new ObjectMetadata());
+        subject.stageChunk(open, 1, new byte[]{4, 5, 6});
+        // chunks of a session that does not exist
+        subject.stageChunk("ORPHAN", 1, new byte[]{7, 8, 9});
+
+        final int cleaned = subject.abortAbandoned(new Date(System.currentTimeMillis() - 24L * 3600L * 1000L));
+
+        Assert.assertEquals(cleaned, 2);
+        Assert.assertFalse(amazonS3.exists(UploadSessionRepository.stagingKey(abandoned, 1)));
+        Assert.assertFalse(amazonS3.exists(UploadSessionRepository.stagingKey("ORPHAN", 1)));
+        // the open session is untouched and can be committed
+        subject.commit("IDENTIFIER002", open, 1);
+        Assert.assertTrue(amazonS3.exists("IDENTIFIER002"));
+        try {
+            subject.commit("IDENTIFIER001", abandoned, null);
+            Assert.fail("the abandoned session should have been aborted");
+        } catch (IncompleteUploadSessionException iusX) {
+            // expected, its chunks are gone
+        }
+    }
+
+    @Test
+    public void testStagedChunksAreReserved() {
+        Assert.assertTrue(CatalogManifestRepository.isReservedKey(UploadSessionRepository.stagingKey("UPLOAD", 1)));
+        Assert.assertFalse(CatalogManifestRepository.isReservedKey("IDENTIFIER001"));
+    }
+}
@@ -0,0 +1,151 @@
+package gov.va.vha.dicomimporter.model;
+
+import gov.va.vha.dicomimporter.CannedReportsManager;
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Unit tests for the body handling of the CanonicalDocument class.
+ */
+public class CanonicalDocumentTest {
+    // multi-byte characters, so the byte length differs from the String length
+    private static final String CONTENT = "FINDINGS: 5 mm nodule, \u00b1 2 mm \u2014 r\u00e9sum\u00e9 \u2713";
+
+    @Test
+    public void testBodyIsDecodedAsUtf8() throws IOException {
+        final byte[] content = CONTENT.getBytes(StandardCharsets.UTF_8);
+        CanonicalDocument document = createDocument()
+                .withContentLength(content.length)
+                .withBodyStream(new ByteArrayInputStream(content))
+                .build();
+
+        Assert.assertEquals(document.getBody(), CONTENT);
+    }
+
+    @Test
+    public void testBodyBytesInMemoryAreNotCopied() throws IOException {
+        final byte[] content = CONTENT.getBytes(StandardCharsets.UTF_8);
+        CanonicalDocument document = createDocument().withBodyBytes(content).build();
+
+        Assert.assertSame(document.getBodyBytes(), content);
+        Assert.assertSame(document.getEncodedBodyBytes(), content);
+        Assert.assertEquals(document.getBody(), CONTENT);
+    }
+
+    @Test
+    public void testEncodedBodyBytesAreDecoded() throws IOException {
+        final byte[] content = CONTENT.getBytes(StandardCharsets.UTF_8);
+        final byte[] compressed = gzip(content);
+        CanonicalDocument document = createDocument()
+                .withContentLength(content.length)
+                .withContentEncoding(CannedReportsManager.CONTENT_ENCODING_GZIP)
+                .withBodyBytes(compressed)
+                .build();
+
+        Assert.assertEquals(document.getBodyBytes(), content);
+        Assert.assertSame(document.getEncodedBodyBytes(), compressed);
+    }
+
+    @DataProvider(name = "ReadContentData")
+    public static Object[][] readContentData() {
+        return new Object[][]{
+                {-1L},
+                {0L},
+                {10L},
+                {(long) CONTENT.getBytes(StandardCharsets.UTF_8).length},
+                {1000L},
+        };
+    }
+
+    @Test(dataProvider = "ReadContentData")
+    public void testReadContent(final long expectedLength) throws IOException {
+        final byte[] content = CONTENT.getBytes(StandardCharsets.UTF_8);
+
+        // a stream that returns a few bytes at a time, as a network stream does
+        InputStream trickle = new ByteArrayInputStream(content) {
+            @Override
+            public synchronized int read(byte[] b, int off, int len) {
+                return super.read(b, off, Math.min(len, 7));
+            }
+        };
+
+        Assert.assertEquals(CannedReportsManager.readContent(trickle, expectedLength), content);
+    }
+
+    /**
+     * Compare the bytes allocated to read a report body into the String the ALB response needs, the way it was
+     * done before (char decoding in 2KB chunks into a StringBuilder) and from bytes read at their known length.
+     */
+    @Test
+    public void testBodyAllocation() throws IOException {
+        final com.sun.management.ThreadMXBean threadMXBean =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        StringBuilder narrative = new StringBuilder();
+        while (narrative.length() < 512 * 1024)
+            narrative.append("IMPRESSION: No acute cardiopulmonary process. ");
+        final byte[] content = narrative.toString().getBytes(StandardCharsets.UTF_8);
+        final int iterations = 20;
+
+        // warm up both paths before measuring
+        for (int index = 0; index < iterations; ++index) {
+            readAsCharacters(content);
+            readAsBytes(content);
+        }
+
+        final long threadId = Thread.currentThread().getId();
+        long before = threadMXBean.getThreadAllocatedBytes(threadId);
+        for (int index = 0; index < iterations; ++index)
+            Assert.assertEquals(readAsCharacters(content).length(), content.length);
+        final long characterAllocation = (threadMXBean.getThreadAllocatedBytes(threadId) - before) / iterations;
+
+        before = threadMXBean.getThreadAllocatedBytes(threadId);
+        for (int index = 0; index < iterations; ++index)
+            Assert.assertEquals(readAsBytes(content).length(), content.length);
+        final long byteAllocation = (threadMXBean.getThreadAllocatedBytes(threadId) - before) / iterations;
+
+        Assert.assertTrue(byteAllocation < characterAllocation, "reading bytes allocated " + byteAllocation
+                + " bytes, decoding through characters " + characterAllocation);
+    }
+
+    private static String readAsCharacters(final byte[] content) throws IOException {
+        try (InputStreamReader isReader = new InputStreamReader(new ByteArrayInputStream(content))) {
+            StringBuilder sb = new StringBuilder();
+            char[] buffy = new char[2048];
+            for (int charRead = isReader.read(buffy); charRead >= 0; charRead = isReader.read(buffy)) {
+                sb.append(Arrays.copyOfRange(buffy, 0, charRead));
+            }
+            return sb.toString();
+        }
+    }
+
+    private static String readAsBytes(final byte[] content) throws IOException {
+        CanonicalDocument document = createDocument()
+                .withContentLength(content.length)
+                .withBodyStream(new ByteArrayInputStream(content))
+                .build();
+        return new String(document.getBodyBytes(), StandardCharsets.UTF_8);
+    }
+
+    private static CanonicalDocument.Builder createDocument() {
+        return CanonicalDocument.builder().withIdentifier("IDENTIFIER001").withRevision(1).withName("REPORT");
+    }
+
+    private static byte[] gzip(final byte[] content) throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (GZIPOutputStream compressor = new GZIPOutputStream(compressed)) {
+            compressor.write(content);
+        }
+        return compressed.toByteArray();
+    }
+}
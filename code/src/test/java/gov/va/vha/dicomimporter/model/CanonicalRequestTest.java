@@ -23,16 +23,23 @@ public class CanonicalRequestTest {
                 {"PUT", "IDENTIFIER_001", null, null, null, new StringInputStream("hello"), false, null, null},
                 {"POST", "IDENTIFIER_001", null, null, null, new StringInputStream("hello"), true, "application/pdf", 655321},
                 {"PUT", "IDENTIFIER_001", null, null, null, new StringInputStream("hello"), true, "application/pdf", 655321},
+                // without a body a PUT updates the metadata, or restores the revision
+                {"PUT", "IDENTIFIER_001", "NAME_001", null, null, null, false, null, null},
+                {"PUT", "IDENTIFIER_001", null, null, "-1", null, false, null, null},
+                {"PUT", "IDENTIFIER_001", null, null, "1", null, false, "text/plain", null},
+                {"PUT", "IDENTIFIER_001", null, null, "-0", new StringInputStream("hello"), false, null, null},
         };
     }
 
     @DataProvider(name = "InvalidBuilderTestData")
-    public static Object[][] invalidBuilderTestData() {
+    public static Object[][] invalidBuilderTestData() throws UnsupportedEncodingException {
         return new Object[][]{
                 {"DELETE", null, null, null, null, null, false, null, null},
                 {"DELETE", "", null, null, null, null, false, null, null},
                 {"POST", null, null, null, null, null, false, null, null},
                 {"PUT", null, null, null, null, null, false, null, null},
+                {"PUT", "IDENTIFIER_001", null, null, "-1", new StringInputStream("hello"), false, null, null},
+                {"GET", "IDENTIFIER_001", null, null, "latest", null, false, null, null},
         };
     }
 
@@ -89,4 +96,44 @@ public class CanonicalRequestTest {
             // expected behavior
         }
     }
+
+    @DataProvider(name = "UploadBuilderTestData")
+    public static Object[][] uploadBuilderTestData() throws UnsupportedEncodingException {
+        return new Object[][]{
+                {"POST", null, "presigned", null, true},
+                {"PUT", "IDENTIFIER_001", "presigned", null, true},
+                {"PUT", "IDENTIFIER_001", "complete", null, true},
+                {"GET", "IDENTIFIER_001", "presigned", null, false},
+                {"POST", null, "complete", null, false},
+                {"PUT", "IDENTIFIER_001", "multipart", null, false},
+                {"PUT", "IDENTIFIER_001", "presigned", new StringInputStream("hello"), false},
+                {"POST", null, "session", null, true},
+                {"PUT", "IDENTIFIER_001", "session", null, true},
+                {"PUT", "IDENTIFIER_001", "part", new StringInputStream("hello"), true},
+                {"PUT", "IDENTIFIER_001", "part", null, false},
+                {"POST", null, "part", new StringInputStream("hello"), false},
+                {"PUT", "IDENTIFIER_001", "commit", null, true},
+                {"PUT", "IDENTIFIER_001", "commit", new StringInputStream("hello"), false},
+        };
+    }
+
+    @Test(dataProvider = "UploadBuilderTestData")
+    public void testUploadBuilder(
+            final String method, final String identifier, final String upload,
+            final InputStream bodyStream, final boolean valid) {
+        CanonicalRequest.Builder builder = CanonicalRequest.builder()
+                .withMethod(method)
+                .withIdentifier(identifier)
+                .withUpload(upload)
+                .withUploadSession("part".equals(upload) || "commit".equals(upload) ? "UPLOAD000001" : null)
+                .withUploadPart("part".equals(upload) ? 1 : null)
+                .withBody(bodyStream);
+
+        try {
+            Assert.assertEquals(builder.build().getUpload(), upload);
+            Assert.assertTrue(valid, "Building CanonicalRequest should have failed but did not");
+        } catch (InstanceValidationException ivX) {
+            Assert.assertFalse(valid, ivX.getMessage());
+        }
+    }
 }
@@ -0,0 +1,92 @@
+package gov.va.vha.dicomimporter.model;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+/**
+ * Unit tests for the CatalogManifest class.
+ */
+public class CatalogManifestTest {
+
+    @Test
+    public void testEntriesAreSortedByIdentifier() {
+        CatalogManifest manifest = CatalogManifest.builder()
+                .putEntry(createEntry("IDENTIFIER003"))
+                .putEntry(createEntry("IDENTIFIER001"))
+                .putEntry(createEntry("IDENTIFIER002"))
+                .build();
+
+        Assert.assertEquals(manifest.getEntries().size(), 3);
+        Assert.assertEquals(manifest.getEntries().get(0).getIdentifier(), "IDENTIFIER001");
+        Assert.assertEquals(manifest.getEntries().get(1).getIdentifier(), "IDENTIFIER002");
+        Assert.assertEquals(manifest.getEntries().get(2).getIdentifier(), "IDENTIFIER003");
+    }
+
+    @Test
+    public void testPutReplacesAndRemoveDeletes() {
+        CatalogManifest original = CatalogManifest.builder()
+                .putEntry(createEntry("IDENTIFIER001"))
+                .putEntry(createEntry("IDENTIFIER002"))
+                .build();
+
+        CatalogManifest updated = CatalogManifest.builder(original)
+                .putEntry(new CatalogManifest.Entry("IDENTIFIER001", "RENAMED", null, "text/plain", 10L, "etag", 2))
+                .removeEntry("IDENTIFIER002")
+                .build();
+
+        Assert.assertEquals(original.getEntries().size(), 2);
+        Assert.assertEquals(updated.getEntries().size(), 1);
+        Assert.assertEquals(updated.getEntries().get(0).getName(), "RENAMED");
+        Assert.assertEquals(updated.getEntries().get(0).getRevisionCount(), Integer.valueOf(2));
+    }
+
+    @Test
+    public void testJsonRoundTrip() throws IOException {
+        CatalogManifest manifest = CatalogManifest.builder()
+                .withCompactedAt(655321L)
+                .putEntry(createEntry("IDENTIFIER001"))
+                .putEntry(createEntry("IDENTIFIER002"))
+                .build();
+
+        CatalogManifest parsed = CatalogManifest.fromJson(new ByteArrayInputStream(manifest.toJson()), "ETAG");
+
+        Assert.assertEquals(parsed.getETag(), "ETAG");
+        Assert.assertEquals(parsed.getFormatVersion(), CatalogManifest.FORMAT_VERSION);
+        Assert.assertEquals(parsed.getCompactedAt(), 655321L);
+        Assert.assertEquals(parsed.getEntries().size(), 2);
+        CatalogManifest.Entry entry = parsed.getEntries().get(1);
+        Assert.assertEquals(entry.getIdentifier(), "IDENTIFIER002");
+        Assert.assertEquals(entry.getName(), "REPORT_IDENTIFIER002");
+        Assert.assertEquals(entry.getDescription(), "DESCRIPTION_IDENTIFIER002");
+        Assert.assertEquals(entry.getContentType(), "text/plain");
+        Assert.assertEquals(entry.getContentLength(), Long.valueOf(21L));
+        Assert.assertEquals(entry.getETag(), "ETAG_IDENTIFIER002");
+        Assert.assertEquals(entry.getRevisionCount(), Integer.valueOf(1));
+    }
+
+    @Test
+    public void testEntryToCanonicalDocument() {
+        CanonicalDocument document = createEntry("IDENTIFIER001").toCanonicalDocument();
+
+        Assert.assertEquals(document.getIdentifier(), "IDENTIFIER001");
+        Assert.assertEquals(document.getName(), "REPORT_IDENTIFIER001");
+        Assert.assertEquals(document.getDescription(), "DESCRIPTION_IDENTIFIER001");
+        Assert.assertEquals(document.getContentLength(), Integer.valueOf(21));
+        Assert.assertEquals(document.getRevision(), Integer.valueOf(1));
+    }
+
+    private CatalogManifest.Entry createEntry(final String identifier) {
+        return new CatalogManifest.Entry(
+                identifier,
+                "REPORT_" + identifier,
+                "DESCRIPTION_" + identifier,
+                "text/plain",
+                (long) ("CONTENT_" + identifier).length(),
+                "ETAG_" + identifier,
+                1
+        );
+    }
+}